@@ -35,7 +35,7 @@ public class BooleanFieldColumn extends FieldColumn {
         if(val > 0) {
             setVal = true;
         }
-        setValue(inst, setVal);
+        setBooleanValue(inst, setVal);
     }
 
     @Override
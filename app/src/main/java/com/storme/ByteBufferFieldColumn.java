@@ -0,0 +1,54 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Stores the remaining bytes of a ByteBuffer field as a BLOB. Loaded values are heap buffers
+ * wrapping the bytes read from the cursor. The position of the saved buffer is left untouched.
+ */
+public class ByteBufferFieldColumn extends FieldColumn {
+
+    public ByteBufferFieldColumn() { super(ByteBuffer.class); }
+
+    @Override
+    public String getColumnType() { return "BLOB"; }
+
+    @Override
+    public void setValueFromCursor(Object inst, Cursor cursor, int position) {
+        byte[] val = cursor.getBlob(position);
+        setValue(inst, val != null ? ByteBuffer.wrap(val) : null);
+    }
+
+    @Override
+    public void addFieldValue(Object inst, ContentValues values) throws IllegalAccessException {
+        ByteBuffer buffer = (ByteBuffer)field.get(inst);
+        if(buffer == null) {
+            values.putNull(name);
+        } else if(buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0
+                && buffer.remaining() == buffer.array().length) {
+            values.put(name, buffer.array());
+        } else {
+            byte[] val = new byte[buffer.remaining()];
+            buffer.duplicate().get(val);
+            values.put(name, val);
+        }
+    }
+}
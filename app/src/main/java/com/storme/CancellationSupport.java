@@ -0,0 +1,45 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+import android.annotation.TargetApi;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.os.CancellationSignal;
+
+/**
+ * Calls that need CancellationSignal, kept apart so they are only loaded on API 16 and above.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+class CancellationSupport {
+
+    static Object newSignal() {
+        return new CancellationSignal();
+    }
+
+    static void cancel(Object signal) {
+        ((CancellationSignal) signal).cancel();
+    }
+
+    static Cursor query(SQLiteDatabase db, String table, String[] columns, String where, String[] whereParams, String order, String limit, Object signal) {
+        return db.query(false, table, columns, where, whereParams, null, null, order, limit, (CancellationSignal) signal);
+    }
+
+    static Cursor rawQuery(SQLiteDatabase db, String sql, String[] params, Object signal) {
+        return db.rawQuery(sql, params, (CancellationSignal) signal);
+    }
+}
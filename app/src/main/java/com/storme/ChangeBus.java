@@ -0,0 +1,113 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Write notification bus. Every write made through the helper or the retention engine reports
+ * the model it touched, and listeners registered for that model are told once the write is
+ * visible. Writes made inside a transaction scope are collected per thread and only published
+ * when the outermost scope ends successfully, once per touched model.
+ */
+public class ChangeBus {
+
+    public interface ChangeListener {
+        public void onChanged(Class<? extends StormeModel> modelClass);
+    }
+
+    private Map<Class<? extends StormeModel>, CopyOnWriteArrayList<ChangeListener>> listeners =
+            new ConcurrentHashMap<Class<? extends StormeModel>, CopyOnWriteArrayList<ChangeListener>>();
+    private ThreadLocal<TransactionScope> scopes = new ThreadLocal<TransactionScope>();
+
+    public synchronized void register(Class<? extends StormeModel> modelClass, ChangeListener listener) {
+        CopyOnWriteArrayList<ChangeListener> list = listeners.get(modelClass);
+        if(list == null) {
+            list = new CopyOnWriteArrayList<ChangeListener>();
+            listeners.put(modelClass, list);
+        }
+        list.add(listener);
+    }
+
+    public synchronized void unregister(Class<? extends StormeModel> modelClass, ChangeListener listener) {
+        CopyOnWriteArrayList<ChangeListener> list = listeners.get(modelClass);
+        if(list != null) {
+            list.remove(listener);
+        }
+    }
+
+    public void changed(Class<? extends StormeModel> modelClass) {
+        TransactionScope scope = scopes.get();
+        if(scope != null) {
+            scope.touched.add(modelClass);
+        } else {
+            publish(modelClass);
+        }
+    }
+
+    /**
+     * Starts a transaction scope on the calling thread. Scopes nest; changes are held until the
+     * outermost one ends.
+     */
+    public void beginTransaction() {
+        TransactionScope scope = scopes.get();
+        if(scope == null) {
+            scope = new TransactionScope();
+            scopes.set(scope);
+        }
+        scope.depth++;
+    }
+
+    /**
+     * Ends the innermost transaction scope. As with SQLite transactions, a failed nested scope
+     * fails the whole transaction and its changes are discarded.
+     */
+    public void endTransaction(boolean successful) {
+        TransactionScope scope = scopes.get();
+        if(scope == null) {
+            throw new IllegalStateException("No transaction scope to end");
+        }
+        scope.failed |= !successful;
+        if(--scope.depth > 0) {
+            return;
+        }
+        scopes.remove();
+        if(!scope.failed) {
+            for(Class<? extends StormeModel> modelClass : scope.touched) {
+                publish(modelClass);
+            }
+        }
+    }
+
+    private void publish(Class<? extends StormeModel> modelClass) {
+        CopyOnWriteArrayList<ChangeListener> list = listeners.get(modelClass);
+        if(list != null) {
+            for(ChangeListener listener : list) {
+                listener.onChanged(modelClass);
+            }
+        }
+    }
+
+    private static class TransactionScope {
+        int depth;
+        boolean failed;
+        Set<Class<? extends StormeModel>> touched = new LinkedHashSet<Class<? extends StormeModel>>();
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Change journal of a StormeJournaled model, held in a table shared by every journaled model.
+ * Triggers on the model's table add an entry for every insert, update and delete, so every write
+ * path is recorded and a rolled back write leaves no entry. Sequence numbers come from an
+ * AUTOINCREMENT key, so they only ever grow, even once entries are compacted away.
+ */
+class ChangeJournal {
+
+    static final String TABLE_NAME = "storme_changes";
+
+    private static final String CREATE_SQL = "CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (" +
+            "seq INTEGER PRIMARY KEY AUTOINCREMENT, table_name TEXT NOT NULL, record_id INTEGER NOT NULL, change_type INTEGER NOT NULL)";
+    private static final String CREATE_INDEX_SQL = "CREATE INDEX IF NOT EXISTS " + TABLE_NAME + "_table ON " + TABLE_NAME + " (table_name, seq)";
+    private static final String TRIGGER_TEMPLATE = "CREATE TRIGGER IF NOT EXISTS %s_journal_%s AFTER %s ON %s BEGIN " +
+            "INSERT INTO " + TABLE_NAME + " (table_name, record_id, change_type) VALUES ('%s', %s." + ReflectionClassTableGenerator.ID_COLUMN_NAME + ", %d); END";
+    private static final String READ_SQL = "SELECT seq, record_id, change_type FROM " + TABLE_NAME +
+            " WHERE table_name = ? AND seq > ? ORDER BY seq LIMIT ?";
+    private static final String LAST_SEQ_SQL = "SELECT MAX(seq) FROM " + TABLE_NAME + " WHERE table_name = ?";
+    private static final String LATEST_PER_RECORD = "SELECT MAX(seq) FROM " + TABLE_NAME + " WHERE table_name = ? GROUP BY record_id";
+    private static final String PROMOTE_SQL = "UPDATE " + TABLE_NAME + " SET change_type = " + StormeChangeType.INSERT.getCode() +
+            " WHERE change_type = " + StormeChangeType.UPDATE.getCode() + " AND seq IN (" + LATEST_PER_RECORD +
+            " HAVING MIN(change_type) = " + StormeChangeType.INSERT.getCode() + ")";
+    private static final String MERGE_SQL = "DELETE FROM " + TABLE_NAME + " WHERE table_name = ? AND seq NOT IN (" + LATEST_PER_RECORD + ")";
+    private static final String PURGE_SQL = "DELETE FROM " + TABLE_NAME + " WHERE table_name = ? AND change_type = " +
+            StormeChangeType.DELETE.getCode() + " AND seq <= ?";
+    private static final String REMOVE_SQL = "DELETE FROM " + TABLE_NAME + " WHERE table_name = ?";
+
+    private final String ownerTable;
+
+    ChangeJournal(String ownerTable) {
+        this.ownerTable = ownerTable;
+    }
+
+    void createTable(SQLiteDatabase db) {
+        db.execSQL(CREATE_SQL);
+        db.execSQL(CREATE_INDEX_SQL);
+        db.execSQL(trigger(StormeChangeType.INSERT, "new"));
+        db.execSQL(trigger(StormeChangeType.UPDATE, "new"));
+        db.execSQL(trigger(StormeChangeType.DELETE, "old"));
+    }
+
+    /**
+     * Removes the model's entries, which refer to rows that went with the dropped table. The
+     * triggers belong to the model's table and are dropped with it.
+     */
+    void dropTable(SQLiteDatabase db) {
+        db.execSQL(REMOVE_SQL, new Object[] { ownerTable });
+    }
+
+    /**
+     * Returns up to limit entries after the given sequence number, oldest first, as
+     * { seq, record id, change type code } triples.
+     */
+    List<long[]> read(SQLiteDatabase db, long afterSeq, int limit) {
+        List<long[]> entries = new ArrayList<long[]>();
+        Cursor cursor = db.rawQuery(READ_SQL, new String[] { ownerTable, String.valueOf(afterSeq), String.valueOf(limit) });
+        try {
+            while(cursor.moveToNext()) {
+                entries.add(new long[] { cursor.getLong(0), cursor.getLong(1), cursor.getLong(2) });
+            }
+        } finally {
+            cursor.close();
+        }
+        return entries;
+    }
+
+    long lastSeq(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery(LAST_SEQ_SQL, new String[] { ownerTable });
+        try {
+            return cursor.moveToFirst() && !cursor.isNull(0) ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Keeps only the latest entry for each record, turning an update into an insert when the
+     * record was inserted in the merged entries, and removes deletes up to acknowledgedSeq. Returns
+     * the number of entries removed.
+     */
+    int compact(SQLiteDatabase db, long acknowledgedSeq) {
+        db.beginTransaction();
+        try {
+            execute(db, PROMOTE_SQL, ownerTable);
+            int removed = execute(db, MERGE_SQL, ownerTable, ownerTable);
+            if(acknowledgedSeq > 0) {
+                removed += execute(db, PURGE_SQL, ownerTable, String.valueOf(acknowledgedSeq));
+            }
+            db.setTransactionSuccessful();
+            return removed;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private String trigger(StormeChangeType type, String row) {
+        String event = type.name();
+        return String.format(TRIGGER_TEMPLATE, ownerTable, event.toLowerCase(Locale.US), event, ownerTable, ownerTable, row, type.getCode());
+    }
+
+    private static int execute(SQLiteDatabase db, String sql, String... params) {
+        SQLiteStatement statement = db.compileStatement(sql);
+        try {
+            statement.bindAllArgsAsStrings(params);
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+/**
+ * Column for a byte[] field annotated with StormeChunkedBlob. The payload itself lives in the
+ * model's ChunkedBlobStore, this column only records its length.
+ */
+public class ChunkedBlobFieldColumn extends FieldColumn {
+
+    private int chunkSize = ChunkedBlobStore.DEFAULT_CHUNK_SIZE;
+
+    public ChunkedBlobFieldColumn() { super(byte[].class); }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public String getColumnType() { return "INTEGER"; }
+
+    @Override
+    public void setValueFromCursor(Object inst, Cursor cursor, int position) {
+        // payload is only read on request
+    }
+
+    @Override
+    public void addFieldValue(Object inst, ContentValues values) throws IllegalAccessException {
+        byte[] val = getBytes(inst);
+        if(val != null) {
+            values.put(name, val.length);
+        }
+    }
+
+    public byte[] getBytes(Object inst) throws IllegalAccessException {
+        return (byte[])field.get(inst);
+    }
+}
@@ -0,0 +1,307 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Side table holding the payloads of a model's StormeChunkedBlob fields. Each payload is split
+ * into rows of at most chunkSize bytes keyed by owner id, field name and sequence number.
+ * Payloads being streamed in are staged under negative sequence numbers until the stream is
+ * closed, so the stored payload stays readable and intact until the new one is complete.
+ */
+public class ChunkedBlobStore {
+
+    public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+
+    private static final String TABLE_SUFFIX = "_blobs";
+    private static final String CREATE_TEMPLATE = "CREATE TABLE IF NOT EXISTS %s (" +
+            "owner INTEGER NOT NULL, field TEXT NOT NULL, seq INTEGER NOT NULL, data BLOB, " +
+            "PRIMARY KEY (owner, field, seq))";
+    private static final String DROP_TEMPLATE = "DROP TABLE IF EXISTS %s";
+    private static final String TRUNCATE_TEMPLATE = "DELETE FROM %s";
+    private static final String INSERT_TEMPLATE = "INSERT INTO %s (owner, field, seq, data) VALUES (?, ?, ?, ?)";
+    private static final String OWNER_FIELD_WHERE = "owner = ? AND field = ?";
+    private static final String STORED_WHERE = OWNER_FIELD_WHERE + " AND seq >= 0";
+    private static final String STAGED_WHERE = OWNER_FIELD_WHERE + " AND seq < 0";
+    // staged chunk n is held at seq -(n + 1)
+    private static final String PUBLISH_TEMPLATE = "UPDATE %s SET seq = -seq - 1 WHERE " + STAGED_WHERE;
+
+    private String ownerTable;
+    private String tableName;
+
+    public ChunkedBlobStore(String ownerTable) {
+        this.ownerTable = ownerTable;
+        this.tableName = ownerTable + TABLE_SUFFIX;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public void createTable(SQLiteDatabase db) {
+        db.execSQL(String.format(CREATE_TEMPLATE, tableName));
+    }
+
+    public void dropTable(SQLiteDatabase db) {
+        db.execSQL(String.format(DROP_TEMPLATE, tableName));
+    }
+
+    public void deleteAll(SQLiteDatabase db) {
+        db.execSQL(String.format(TRUNCATE_TEMPLATE, tableName));
+    }
+
+    public void deleteOwner(SQLiteDatabase db, long owner) {
+        db.delete(tableName, "owner = ?", new String[] { String.valueOf(owner) });
+    }
+
+    /**
+     * Removes the payloads of every owner row matching the where clause. Must be called before the
+     * owner rows themselves are deleted.
+     */
+    public void deleteOwners(SQLiteDatabase db, String ownerWhere, String[] whereParams) {
+        String owners = "SELECT " + ReflectionClassTableGenerator.ID_COLUMN_NAME + " FROM " + ownerTable;
+        if(ownerWhere != null) {
+            owners += " WHERE " + ownerWhere;
+        }
+        db.delete(tableName, "owner IN (" + owners + ")", whereParams);
+    }
+
+    public void write(SQLiteDatabase db, long owner, String field, byte[] data, int chunkSize) {
+        db.delete(tableName, OWNER_FIELD_WHERE, new String[] { String.valueOf(owner), field });
+        SQLiteStatement insert = db.compileStatement(String.format(INSERT_TEMPLATE, tableName));
+        try {
+            int seq = 0;
+            for(int offset = 0; offset < data.length; offset += chunkSize) {
+                insert.bindLong(1, owner);
+                insert.bindString(2, field);
+                insert.bindLong(3, seq++);
+                insert.bindBlob(4, Arrays.copyOfRange(data, offset, Math.min(data.length, offset + chunkSize)));
+                insert.executeInsert();
+            }
+        } finally {
+            insert.close();
+        }
+    }
+
+    /**
+     * Reads a whole payload into memory, or returns null if nothing has been stored for it.
+     */
+    public byte[] read(SQLiteDatabase db, long owner, String field) {
+        Cursor cursor = db.query(tableName, new String[] { "data" }, STORED_WHERE,
+                new String[] { String.valueOf(owner), field }, null, null, "seq");
+        if(cursor == null) {
+            return null;
+        }
+        try {
+            if(cursor.getCount() == 0) {
+                return null;
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            while(cursor.moveToNext()) {
+                byte[] chunk = cursor.getBlob(0);
+                out.write(chunk, 0, chunk.length);
+            }
+            return out.toByteArray();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public InputStream openInputStream(SQLiteDatabase db, long owner, String field) {
+        return new BlobInputStream(db, owner, field);
+    }
+
+    /**
+     * Opens a stream replacing the stored payload. Chunks are staged as they fill up. When the
+     * stream is closed the stored payload is replaced by the staged one and the owner's length
+     * column is updated, in one transaction. A stream that is never closed leaves the stored
+     * payload as it was; its staged chunks are removed by the next stream opened for the field.
+     */
+    public OutputStream openOutputStream(SQLiteDatabase db, long owner, String field, int chunkSize) {
+        db.delete(tableName, STAGED_WHERE, new String[] { String.valueOf(owner), field });
+        return new BlobOutputStream(db, owner, field, chunkSize);
+    }
+
+    private byte[] readChunk(SQLiteDatabase db, long owner, String field, int seq) {
+        Cursor cursor = db.query(tableName, new String[] { "data" }, OWNER_FIELD_WHERE + " AND seq = ?",
+                new String[] { String.valueOf(owner), field, String.valueOf(seq) }, null, null, null);
+        if(cursor == null) {
+            return null;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getBlob(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private class BlobInputStream extends InputStream {
+
+        private SQLiteDatabase db;
+        private long owner;
+        private String field;
+        private byte[] chunk;
+        private int position;
+        private int seq;
+        private boolean finished;
+
+        BlobInputStream(SQLiteDatabase db, long owner, String field) {
+            this.db = db;
+            this.owner = owner;
+            this.field = field;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if(!ensureData()) {
+                return -1;
+            }
+            return chunk[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if(length == 0) {
+                return 0;
+            }
+            if(!ensureData()) {
+                return -1;
+            }
+            int count = Math.min(length, chunk.length - position);
+            System.arraycopy(chunk, position, buffer, offset, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return chunk != null ? chunk.length - position : 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            finished = true;
+            chunk = null;
+        }
+
+        private boolean ensureData() {
+            while(!finished && (chunk == null || position >= chunk.length)) {
+                chunk = readChunk(db, owner, field, seq++);
+                position = 0;
+                if(chunk == null) {
+                    finished = true;
+                }
+            }
+            return !finished;
+        }
+    }
+
+    private class BlobOutputStream extends OutputStream {
+
+        private SQLiteDatabase db;
+        private long owner;
+        private String field;
+        private byte[] buffer;
+        private int count;
+        private int seq;
+        private long length;
+        private SQLiteStatement insert;
+
+        BlobOutputStream(SQLiteDatabase db, long owner, String field, int chunkSize) {
+            this.db = db;
+            this.owner = owner;
+            this.field = field;
+            this.buffer = new byte[chunkSize];
+            this.insert = db.compileStatement(String.format(INSERT_TEMPLATE, tableName));
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            ensureOpen();
+            buffer[count++] = (byte) b;
+            if(count == buffer.length) {
+                writeChunk();
+            }
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int len) throws IOException {
+            ensureOpen();
+            while(len > 0) {
+                int copied = Math.min(len, buffer.length - count);
+                System.arraycopy(data, offset, buffer, count, copied);
+                count += copied;
+                offset += copied;
+                len -= copied;
+                if(count == buffer.length) {
+                    writeChunk();
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if(insert == null) {
+                return;
+            }
+            writeChunk();
+            insert.close();
+            insert = null;
+
+            String[] ownerField = new String[] { String.valueOf(owner), field };
+            db.beginTransaction();
+            try {
+                db.delete(tableName, STORED_WHERE, ownerField);
+                db.execSQL(String.format(PUBLISH_TEMPLATE, tableName), ownerField);
+                ContentValues values = new ContentValues();
+                values.put(field, length);
+                db.update(ownerTable, values, ReflectionClassTableGenerator.ID_COLUMN_NAME + " = ?", new String[] { String.valueOf(owner) });
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+
+        private void writeChunk() {
+            if(count == 0) {
+                return;
+            }
+            insert.bindLong(1, owner);
+            insert.bindString(2, field);
+            insert.bindLong(3, -(++seq));
+            insert.bindBlob(4, count == buffer.length ? buffer : Arrays.copyOf(buffer, count));
+            insert.executeInsert();
+            length += count;
+            count = 0;
+        }
+
+        private void ensureOpen() throws IOException {
+            if(insert == null) {
+                throw new IOException("Blob stream has been closed");
+            }
+        }
+    }
+}
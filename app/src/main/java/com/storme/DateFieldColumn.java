@@ -17,6 +17,7 @@ package com.storme;
 
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.util.Log;
 
 import java.util.Date;
 
@@ -40,6 +41,20 @@ public class DateFieldColumn extends FieldColumn {
         setValue(inst, setVal);
     }
 
+    @Override
+    public void reuseValueFromCursor(Object inst, Cursor cursor, int position) {
+        try {
+            Date current = (Date)field.get(inst);
+            if(current != null) {
+                current.setTime(cursor.getLong(position));
+                return;
+            }
+        } catch (IllegalAccessException e) {
+            Log.e(TAG, "Failed to get value from DbModel instance", e);
+        }
+        setValueFromCursor(inst, cursor, position);
+    }
+
     @Override
     public void addFieldValue(Object inst, ContentValues values) throws IllegalAccessException {
         Date d = (Date)field.get(inst);
@@ -0,0 +1,59 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+/**
+ * Stores a StormeDictionary String field as the integer code of its value.
+ */
+public class DictionaryFieldColumn extends FieldColumn {
+
+    private StringDictionary dictionary;
+
+    public DictionaryFieldColumn() { super(String.class); }
+
+    public StringDictionary getDictionary() {
+        return dictionary;
+    }
+
+    public void setDictionary(StringDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    @Override
+    public String getColumnType() { return "INTEGER"; }
+
+    @Override
+    public void setValueFromCursor(Object inst, Cursor cursor, int position) {
+        if(cursor.isNull(position)) {
+            setValue(inst, null);
+        } else {
+            setValue(inst, dictionary.valueFor(cursor.getLong(position)));
+        }
+    }
+
+    @Override
+    public void addFieldValue(Object inst, ContentValues values) throws IllegalAccessException {
+        String val = (String) field.get(inst);
+        if(val == null) {
+            values.putNull(name);
+        } else {
+            values.put(name, dictionary.codeFor(val));
+        }
+    }
+}
@@ -33,7 +33,7 @@ public class DoubleFieldColumn extends FieldColumn {
 
     @Override
     public void setValueFromCursor(Object inst, Cursor cursor, int position) {
-        setValue(inst, cursor.getDouble(position));
+        setDoubleValue(inst, cursor.getDouble(position));
     }
 
     @Override
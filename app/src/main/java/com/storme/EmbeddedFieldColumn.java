@@ -0,0 +1,163 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Stores collections, maps, arrays and StormeEmbedded value objects in a BLOB column encoded with
+ * EmbeddedValueCodec. Fields declared as List, Collection or Map are given a lazy implementation
+ * that only decodes the stored bytes on first access, and is written back without re-encoding
+ * if it was never touched.
+ */
+public class EmbeddedFieldColumn extends FieldColumn {
+
+    public EmbeddedFieldColumn() { super(Object.class); }
+
+    @Override
+    public String getColumnType() { return "BLOB"; }
+
+    @Override
+    public void setValueFromCursor(Object inst, Cursor cursor, int position) {
+        byte[] data = cursor.getBlob(position);
+        if(data == null) {
+            setValue(inst, null);
+        } else if(field.getType() == List.class || field.getType() == Collection.class) {
+            setValue(inst, new LazyList(data));
+        } else if(field.getType() == Map.class) {
+            setValue(inst, new LazyMap(data));
+        } else {
+            setValue(inst, EmbeddedValueCodec.decode(data, field.getGenericType()));
+        }
+    }
+
+    @Override
+    public void addFieldValue(Object inst, ContentValues values) throws IllegalAccessException {
+        Object val = field.get(inst);
+        if(val == null) {
+            values.putNull(name);
+        } else if(val instanceof LazyList && ((LazyList) val).encoded != null) {
+            values.put(name, ((LazyList) val).encoded);
+        } else if(val instanceof LazyMap && ((LazyMap) val).encoded != null) {
+            values.put(name, ((LazyMap) val).encoded);
+        } else {
+            values.put(name, EmbeddedValueCodec.encode(val));
+        }
+    }
+
+    private class LazyList extends AbstractList<Object> {
+
+        private byte[] encoded;
+        private List<Object> decoded;
+
+        LazyList(byte[] encoded) {
+            this.encoded = encoded;
+        }
+
+        @SuppressWarnings("unchecked")
+        private List<Object> decoded() {
+            if(decoded == null) {
+                decoded = (List<Object>) EmbeddedValueCodec.decode(encoded, field.getGenericType());
+                encoded = null;
+            }
+            return decoded;
+        }
+
+        @Override
+        public Object get(int location) {
+            return decoded().get(location);
+        }
+
+        @Override
+        public int size() {
+            return decoded().size();
+        }
+
+        @Override
+        public Object set(int location, Object object) {
+            return decoded().set(location, object);
+        }
+
+        @Override
+        public void add(int location, Object object) {
+            decoded().add(location, object);
+            modCount++;
+        }
+
+        @Override
+        public Object remove(int location) {
+            modCount++;
+            return decoded().remove(location);
+        }
+    }
+
+    private class LazyMap extends AbstractMap<Object, Object> {
+
+        private byte[] encoded;
+        private Map<Object, Object> decoded;
+
+        LazyMap(byte[] encoded) {
+            this.encoded = encoded;
+        }
+
+        @SuppressWarnings("unchecked")
+        private Map<Object, Object> decoded() {
+            if(decoded == null) {
+                decoded = (Map<Object, Object>) EmbeddedValueCodec.decode(encoded, field.getGenericType());
+                encoded = null;
+            }
+            return decoded;
+        }
+
+        @Override
+        public Set<Entry<Object, Object>> entrySet() {
+            return decoded().entrySet();
+        }
+
+        @Override
+        public Object get(Object key) {
+            return decoded().get(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return decoded().containsKey(key);
+        }
+
+        @Override
+        public Object put(Object key, Object value) {
+            return decoded().put(key, value);
+        }
+
+        @Override
+        public Object remove(Object key) {
+            return decoded().remove(key);
+        }
+
+        @Override
+        public int size() {
+            return decoded().size();
+        }
+    }
+}
@@ -0,0 +1,650 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compact binary encoding used by EmbeddedFieldColumn. Every encoded value starts with a format
+ * version byte followed by a tagged value. Integers are written as zig-zag varints, primitive
+ * arrays are written straight from the array without boxing and nested objects are written as a
+ * list of named fields so fields can be added or removed without breaking stored data.
+ */
+public final class EmbeddedValueCodec {
+
+    public static final int FORMAT_VERSION = 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int TAG_NULL = 0;
+    private static final int TAG_FALSE = 1;
+    private static final int TAG_TRUE = 2;
+    private static final int TAG_INT = 3;
+    private static final int TAG_LONG = 4;
+    private static final int TAG_FLOAT = 5;
+    private static final int TAG_DOUBLE = 6;
+    private static final int TAG_STRING = 7;
+    private static final int TAG_DATE = 8;
+    private static final int TAG_ENUM = 9;
+    private static final int TAG_BYTES = 10;
+    private static final int TAG_INT_ARRAY = 11;
+    private static final int TAG_LONG_ARRAY = 12;
+    private static final int TAG_FLOAT_ARRAY = 13;
+    private static final int TAG_DOUBLE_ARRAY = 14;
+    private static final int TAG_BOOLEAN_ARRAY = 15;
+    private static final int TAG_ARRAY = 16;
+    private static final int TAG_LIST = 17;
+    private static final int TAG_SET = 18;
+    private static final int TAG_MAP = 19;
+    private static final int TAG_OBJECT = 20;
+
+    private static final Map<Class<?>, Field[]> OBJECT_FIELDS = new ConcurrentHashMap<Class<?>, Field[]>();
+
+    private EmbeddedValueCodec() {
+    }
+
+    public static byte[] encode(Object value) {
+        Writer writer = new Writer();
+        writer.writeVarLong(FORMAT_VERSION);
+        writeValue(writer, value);
+        return writer.toByteArray();
+    }
+
+    public static Object decode(byte[] data, Type type) {
+        Reader reader = new Reader(data);
+        long version = reader.readVarLong();
+        if(version > FORMAT_VERSION) {
+            throw new IllegalStateException("Embedded value written by a newer format version: " + version);
+        }
+        return readValue(reader, type);
+    }
+
+    private static void writeValue(Writer writer, Object value) {
+        if(value == null) {
+            writer.writeByte(TAG_NULL);
+        } else if(value instanceof Boolean) {
+            writer.writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+        } else if(value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            writer.writeByte(TAG_INT);
+            writer.writeZigZag(((Number) value).intValue());
+        } else if(value instanceof Character) {
+            writer.writeByte(TAG_INT);
+            writer.writeZigZag((Character) value);
+        } else if(value instanceof Long) {
+            writer.writeByte(TAG_LONG);
+            writer.writeZigZag((Long) value);
+        } else if(value instanceof Float) {
+            writer.writeByte(TAG_FLOAT);
+            writer.writeFixed32(Float.floatToIntBits((Float) value));
+        } else if(value instanceof Double) {
+            writer.writeByte(TAG_DOUBLE);
+            writer.writeFixed64(Double.doubleToLongBits((Double) value));
+        } else if(value instanceof String) {
+            writer.writeByte(TAG_STRING);
+            writer.writeString((String) value);
+        } else if(value instanceof Date) {
+            writer.writeByte(TAG_DATE);
+            writer.writeZigZag(((Date) value).getTime());
+        } else if(value instanceof Enum) {
+            writer.writeByte(TAG_ENUM);
+            writer.writeString(((Enum) value).name());
+        } else if(value instanceof byte[]) {
+            byte[] array = (byte[]) value;
+            writer.writeByte(TAG_BYTES);
+            writer.writeVarLong(array.length);
+            writer.writeBytes(array, 0, array.length);
+        } else if(value instanceof int[]) {
+            int[] array = (int[]) value;
+            writer.writeByte(TAG_INT_ARRAY);
+            writer.writeVarLong(array.length);
+            for(int i = 0; i < array.length; i++) {
+                writer.writeZigZag(array[i]);
+            }
+        } else if(value instanceof long[]) {
+            long[] array = (long[]) value;
+            writer.writeByte(TAG_LONG_ARRAY);
+            writer.writeVarLong(array.length);
+            for(int i = 0; i < array.length; i++) {
+                writer.writeZigZag(array[i]);
+            }
+        } else if(value instanceof float[]) {
+            float[] array = (float[]) value;
+            writer.writeByte(TAG_FLOAT_ARRAY);
+            writer.writeVarLong(array.length);
+            for(int i = 0; i < array.length; i++) {
+                writer.writeFixed32(Float.floatToIntBits(array[i]));
+            }
+        } else if(value instanceof double[]) {
+            double[] array = (double[]) value;
+            writer.writeByte(TAG_DOUBLE_ARRAY);
+            writer.writeVarLong(array.length);
+            for(int i = 0; i < array.length; i++) {
+                writer.writeFixed64(Double.doubleToLongBits(array[i]));
+            }
+        } else if(value instanceof boolean[]) {
+            boolean[] array = (boolean[]) value;
+            writer.writeByte(TAG_BOOLEAN_ARRAY);
+            writer.writeVarLong(array.length);
+            for(int i = 0; i < array.length; i++) {
+                writer.writeByte(array[i] ? 1 : 0);
+            }
+        } else if(value instanceof Object[]) {
+            Object[] array = (Object[]) value;
+            writer.writeByte(TAG_ARRAY);
+            writer.writeVarLong(array.length);
+            for(Object element : array) {
+                writeValue(writer, element);
+            }
+        } else if(value instanceof Collection) {
+            Collection<?> collection = (Collection<?>) value;
+            writer.writeByte(value instanceof Set ? TAG_SET : TAG_LIST);
+            writer.writeVarLong(collection.size());
+            for(Object element : collection) {
+                writeValue(writer, element);
+            }
+        } else if(value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            writer.writeByte(TAG_MAP);
+            writer.writeVarLong(map.size());
+            for(Map.Entry<?, ?> entry : map.entrySet()) {
+                writeValue(writer, entry.getKey());
+                writeValue(writer, entry.getValue());
+            }
+        } else if(value.getClass().isArray()) {
+            throw new IllegalArgumentException("Unsupported embedded array type: " + value.getClass().getName());
+        } else {
+            Field[] fields = getObjectFields(value.getClass());
+            writer.writeByte(TAG_OBJECT);
+            writer.writeVarLong(fields.length);
+            for(Field field : fields) {
+                writer.writeString(field.getName());
+                try {
+                    writeValue(writer, field.get(value));
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException("Failed to read embedded field: " + field.getName(), e);
+                }
+            }
+        }
+    }
+
+    private static Object readValue(Reader reader, Type type) {
+        Class<?> rawType = rawType(type);
+        int tag = reader.readByte();
+        switch(tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_FALSE:
+                return Boolean.FALSE;
+            case TAG_TRUE:
+                return Boolean.TRUE;
+            case TAG_INT:
+                return coerceInt((int) reader.readZigZag(), rawType);
+            case TAG_LONG:
+                return reader.readZigZag();
+            case TAG_FLOAT:
+                return Float.intBitsToFloat(reader.readFixed32());
+            case TAG_DOUBLE:
+                return Double.longBitsToDouble(reader.readFixed64());
+            case TAG_STRING:
+                return reader.readString();
+            case TAG_DATE:
+                return new Date(reader.readZigZag());
+            case TAG_ENUM:
+                return readEnum(reader.readString(), rawType);
+            case TAG_BYTES:
+                return reader.readBytes(reader.readLength());
+            case TAG_INT_ARRAY: {
+                int[] array = new int[reader.readLength()];
+                for(int i = 0; i < array.length; i++) {
+                    array[i] = (int) reader.readZigZag();
+                }
+                return array;
+            }
+            case TAG_LONG_ARRAY: {
+                long[] array = new long[reader.readLength()];
+                for(int i = 0; i < array.length; i++) {
+                    array[i] = reader.readZigZag();
+                }
+                return array;
+            }
+            case TAG_FLOAT_ARRAY: {
+                float[] array = new float[reader.readLength()];
+                for(int i = 0; i < array.length; i++) {
+                    array[i] = Float.intBitsToFloat(reader.readFixed32());
+                }
+                return array;
+            }
+            case TAG_DOUBLE_ARRAY: {
+                double[] array = new double[reader.readLength()];
+                for(int i = 0; i < array.length; i++) {
+                    array[i] = Double.longBitsToDouble(reader.readFixed64());
+                }
+                return array;
+            }
+            case TAG_BOOLEAN_ARRAY: {
+                boolean[] array = new boolean[reader.readLength()];
+                for(int i = 0; i < array.length; i++) {
+                    array[i] = reader.readByte() != 0;
+                }
+                return array;
+            }
+            case TAG_ARRAY: {
+                Type componentType = componentType(type);
+                Object[] array = (Object[]) Array.newInstance(rawType(componentType), reader.readLength());
+                for(int i = 0; i < array.length; i++) {
+                    array[i] = readValue(reader, componentType);
+                }
+                return array;
+            }
+            case TAG_LIST:
+            case TAG_SET: {
+                int size = reader.readLength();
+                Type elementType = typeArgument(type, 0);
+                Collection<Object> collection = newCollection(rawType, tag == TAG_SET, size);
+                for(int i = 0; i < size; i++) {
+                    collection.add(readValue(reader, elementType));
+                }
+                return collection;
+            }
+            case TAG_MAP: {
+                int size = reader.readLength();
+                Type keyType = typeArgument(type, 0);
+                Type valueType = typeArgument(type, 1);
+                Map<Object, Object> map = newMap(rawType, size);
+                for(int i = 0; i < size; i++) {
+                    Object key = readValue(reader, keyType);
+                    map.put(key, readValue(reader, valueType));
+                }
+                return map;
+            }
+            case TAG_OBJECT:
+                return readObject(reader, rawType);
+            default:
+                throw new IllegalStateException("Corrupt embedded value, unknown tag: " + tag);
+        }
+    }
+
+    private static Object readObject(Reader reader, Class<?> type) {
+        if(type == Object.class || type.isInterface() || Modifier.isAbstract(type.getModifiers())) {
+            throw new IllegalStateException("Cannot decode embedded object without a concrete type: " + type.getName());
+        }
+        Object inst;
+        try {
+            Constructor<?> constructor = type.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            inst = constructor.newInstance();
+        } catch (Exception e) {
+            throw new IllegalStateException("Embedded type needs a no argument constructor: " + type.getName(), e);
+        }
+
+        Field[] fields = getObjectFields(type);
+        int count = reader.readLength();
+        for(int i = 0; i < count; i++) {
+            String name = reader.readString();
+            Field field = findField(fields, name);
+            if(field == null) {
+                // field has been removed since the value was written
+                skipValue(reader);
+                continue;
+            }
+            Object value = readValue(reader, field.getGenericType());
+            if(value != null || !field.getType().isPrimitive()) {
+                try {
+                    field.set(inst, value);
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException("Failed to set embedded field: " + name, e);
+                }
+            }
+        }
+        return inst;
+    }
+
+    private static void skipValue(Reader reader) {
+        int tag = reader.readByte();
+        switch(tag) {
+            case TAG_NULL:
+            case TAG_FALSE:
+            case TAG_TRUE:
+                break;
+            case TAG_INT:
+            case TAG_LONG:
+            case TAG_DATE:
+                reader.readVarLong();
+                break;
+            case TAG_FLOAT:
+                reader.skip(4);
+                break;
+            case TAG_DOUBLE:
+                reader.skip(8);
+                break;
+            case TAG_STRING:
+            case TAG_ENUM:
+            case TAG_BYTES:
+            case TAG_BOOLEAN_ARRAY:
+                reader.skip(reader.readLength());
+                break;
+            case TAG_INT_ARRAY:
+            case TAG_LONG_ARRAY:
+                for(int i = reader.readLength(); i > 0; i--) {
+                    reader.readVarLong();
+                }
+                break;
+            case TAG_FLOAT_ARRAY:
+                reader.skip(reader.readLength() * 4);
+                break;
+            case TAG_DOUBLE_ARRAY:
+                reader.skip(reader.readLength() * 8);
+                break;
+            case TAG_ARRAY:
+            case TAG_LIST:
+            case TAG_SET:
+                for(int i = reader.readLength(); i > 0; i--) {
+                    skipValue(reader);
+                }
+                break;
+            case TAG_MAP:
+                for(int i = reader.readLength(); i > 0; i--) {
+                    skipValue(reader);
+                    skipValue(reader);
+                }
+                break;
+            case TAG_OBJECT:
+                for(int i = reader.readLength(); i > 0; i--) {
+                    reader.skip(reader.readLength());
+                    skipValue(reader);
+                }
+                break;
+            default:
+                throw new IllegalStateException("Corrupt embedded value, unknown tag: " + tag);
+        }
+    }
+
+    private static Object coerceInt(int value, Class<?> type) {
+        if(type == short.class || type == Short.class) {
+            return (short) value;
+        } else if(type == byte.class || type == Byte.class) {
+            return (byte) value;
+        } else if(type == char.class || type == Character.class) {
+            return (char) value;
+        } else if(type == long.class || type == Long.class) {
+            return (long) value;
+        }
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object readEnum(String name, Class<?> type) {
+        if(!type.isEnum()) {
+            return name;
+        }
+        try {
+            return Enum.valueOf((Class<Enum>) type, name);
+        } catch (IllegalArgumentException e) {
+            // constant has been removed since the value was written
+            return null;
+        }
+    }
+
+    private static Collection<Object> newCollection(Class<?> type, boolean set, int size) {
+        if(!type.isInterface() && !Modifier.isAbstract(type.getModifiers()) && Collection.class.isAssignableFrom(type)) {
+            try {
+                return (Collection<Object>) type.newInstance();
+            } catch (Exception e) {
+                throw new IllegalStateException("Failed to create collection: " + type.getName(), e);
+            }
+        }
+        if(set || Set.class.isAssignableFrom(type)) {
+            return new LinkedHashSet<Object>(size * 2);
+        }
+        return new ArrayList<Object>(size);
+    }
+
+    private static Map<Object, Object> newMap(Class<?> type, int size) {
+        if(!type.isInterface() && !Modifier.isAbstract(type.getModifiers()) && Map.class.isAssignableFrom(type)) {
+            try {
+                return (Map<Object, Object>) type.newInstance();
+            } catch (Exception e) {
+                throw new IllegalStateException("Failed to create map: " + type.getName(), e);
+            }
+        }
+        return new LinkedHashMap<Object, Object>(size * 2);
+    }
+
+    private static Class<?> rawType(Type type) {
+        if(type instanceof Class) {
+            return (Class<?>) type;
+        } else if(type instanceof ParameterizedType) {
+            return (Class<?>) ((ParameterizedType) type).getRawType();
+        } else if(type instanceof GenericArrayType) {
+            return Array.newInstance(rawType(((GenericArrayType) type).getGenericComponentType()), 0).getClass();
+        }
+        return Object.class;
+    }
+
+    private static Type typeArgument(Type type, int index) {
+        if(type instanceof ParameterizedType) {
+            Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+            if(index < arguments.length) {
+                return arguments[index];
+            }
+        }
+        return Object.class;
+    }
+
+    private static Type componentType(Type type) {
+        if(type instanceof GenericArrayType) {
+            return ((GenericArrayType) type).getGenericComponentType();
+        }
+        Class<?> rawType = rawType(type);
+        return rawType.isArray() ? rawType.getComponentType() : Object.class;
+    }
+
+    private static Field findField(Field[] fields, String name) {
+        for(Field field : fields) {
+            if(field.getName().equals(name)) {
+                return field;
+            }
+        }
+        return null;
+    }
+
+    private static Field[] getObjectFields(Class<?> type) {
+        Field[] fields = OBJECT_FIELDS.get(type);
+        if(fields == null) {
+            List<Field> found = new ArrayList<Field>();
+            for(Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+                for(Field field : current.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if(!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers) && !field.isSynthetic()
+                            && !field.isAnnotationPresent(StormeFieldIgnore.class)) {
+                        field.setAccessible(true);
+                        found.add(field);
+                    }
+                }
+            }
+            fields = found.toArray(new Field[found.size()]);
+            Arrays.sort(fields, new Comparator<Field>() {
+                @Override
+                public int compare(Field lhs, Field rhs) {
+                    return lhs.getName().compareTo(rhs.getName());
+                }
+            });
+            OBJECT_FIELDS.put(type, fields);
+        }
+        return fields;
+    }
+
+    private static class Writer {
+
+        private byte[] buffer = new byte[64];
+        private int count;
+
+        void writeByte(int b) {
+            ensureCapacity(1);
+            buffer[count++] = (byte) b;
+        }
+
+        void writeBytes(byte[] bytes, int offset, int length) {
+            ensureCapacity(length);
+            System.arraycopy(bytes, offset, buffer, count, length);
+            count += length;
+        }
+
+        void writeVarLong(long value) {
+            ensureCapacity(10);
+            while((value & ~0x7FL) != 0) {
+                buffer[count++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[count++] = (byte) value;
+        }
+
+        void writeZigZag(long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        void writeFixed32(int value) {
+            ensureCapacity(4);
+            for(int i = 0; i < 4; i++) {
+                buffer[count++] = (byte) (value >>> (i * 8));
+            }
+        }
+
+        void writeFixed64(long value) {
+            ensureCapacity(8);
+            for(int i = 0; i < 8; i++) {
+                buffer[count++] = (byte) (value >>> (i * 8));
+            }
+        }
+
+        void writeString(String value) {
+            byte[] bytes = value.getBytes(UTF_8);
+            writeVarLong(bytes.length);
+            writeBytes(bytes, 0, bytes.length);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, count);
+        }
+
+        private void ensureCapacity(int extra) {
+            if(count + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + extra));
+            }
+        }
+    }
+
+    private static class Reader {
+
+        private byte[] data;
+        private int position;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        int readByte() {
+            checkAvailable(1);
+            return data[position++] & 0xFF;
+        }
+
+        long readVarLong() {
+            long value = 0;
+            for(int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalStateException("Corrupt embedded value, malformed varint");
+        }
+
+        long readZigZag() {
+            long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        int readLength() {
+            long length = readVarLong();
+            if(length < 0 || length > data.length - position) {
+                throw new IllegalStateException("Corrupt embedded value, invalid length: " + length);
+            }
+            return (int) length;
+        }
+
+        int readFixed32() {
+            checkAvailable(4);
+            int value = 0;
+            for(int i = 0; i < 4; i++) {
+                value |= (data[position++] & 0xFF) << (i * 8);
+            }
+            return value;
+        }
+
+        long readFixed64() {
+            checkAvailable(8);
+            long value = 0;
+            for(int i = 0; i < 8; i++) {
+                value |= (long) (data[position++] & 0xFF) << (i * 8);
+            }
+            return value;
+        }
+
+        String readString() {
+            int length = readLength();
+            String value = new String(data, position, length, UTF_8);
+            position += length;
+            return value;
+        }
+
+        byte[] readBytes(int length) {
+            checkAvailable(length);
+            byte[] bytes = Arrays.copyOfRange(data, position, position + length);
+            position += length;
+            return bytes;
+        }
+
+        void skip(int length) {
+            checkAvailable(length);
+            position += length;
+        }
+
+        private void checkAvailable(int length) {
+            if(length < 0 || position + length > data.length) {
+                throw new IllegalStateException("Corrupt embedded value, unexpected end of data");
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.util.Log;
+
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stores an enum field as an INTEGER, either the constant's ordinal or, for enums implementing
+ * StormeCodedEnum, its code.
+ */
+public class EnumFieldColumn extends FieldColumn {
+
+    private Object[] constants;
+    private Map<Integer, Object> constantsByCode;
+
+    public EnumFieldColumn() { super(Enum.class); }
+
+    @Override
+    public void setField(Field field) {
+        super.setField(field);
+        constants = field.getType().getEnumConstants();
+        if(StormeCodedEnum.class.isAssignableFrom(field.getType())) {
+            constantsByCode = new HashMap<Integer, Object>();
+            for(Object constant : constants) {
+                Object previous = constantsByCode.put(((StormeCodedEnum) constant).getCode(), constant);
+                if(previous != null) {
+                    throw new IllegalArgumentException("Duplicate enum code in " + field.getType().getName() + ": " + constant + ", " + previous);
+                }
+            }
+        }
+    }
+
+    @Override
+    public String getColumnType() { return "INTEGER"; }
+
+    @Override
+    public void setValueFromCursor(Object inst, Cursor cursor, int position) {
+        if(cursor.isNull(position)) {
+            setValue(inst, null);
+            return;
+        }
+        int stored = cursor.getInt(position);
+        Object val = fromColumnValue(stored);
+        if(val == null) {
+            Log.e(TAG, "Unknown enum value stored for " + name + ": " + stored);
+        }
+        setValue(inst, val);
+    }
+
+    @Override
+    public void addFieldValue(Object inst, ContentValues values) throws IllegalAccessException {
+        Object val = field.get(inst);
+        if(val == null) {
+            values.putNull(name);
+        } else {
+            values.put(name, toColumnValue(val));
+        }
+    }
+
+    public int toColumnValue(Object constant) {
+        if(constantsByCode != null) {
+            return ((StormeCodedEnum) constant).getCode();
+        }
+        return ((Enum) constant).ordinal();
+    }
+
+    public Object fromColumnValue(int stored) {
+        if(constantsByCode != null) {
+            return constantsByCode.get(stored);
+        }
+        return stored >= 0 && stored < constants.length ? constants[stored] : null;
+    }
+}
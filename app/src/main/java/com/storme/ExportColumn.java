@@ -0,0 +1,89 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A column of a model as written to and read from export files: its name, the SQLite type of its
+ * values and, for dictionary fields, the dictionary translating codes to the Strings in the file.
+ */
+class ExportColumn {
+
+    static final byte TYPE_NULL = 0;
+    static final byte TYPE_INTEGER = 1;
+    static final byte TYPE_REAL = 2;
+    static final byte TYPE_TEXT = 3;
+    static final byte TYPE_BLOB = 4;
+
+    final String name;
+    final byte type;
+    final StringDictionary dictionary;
+
+    ExportColumn(String name, byte type, StringDictionary dictionary) {
+        this.name = name;
+        this.type = type;
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Returns the id column followed by the model's columns in name order. Chunked blob columns
+     * only hold a length and are left out.
+     */
+    static List<ExportColumn> forModel(ReflectionClassTableGenerator<?> generator) {
+        List<ExportColumn> columns = new ArrayList<ExportColumn>();
+        for(FieldColumn column : generator.getModelFields()) {
+            if(column instanceof ChunkedBlobFieldColumn) {
+                continue;
+            }
+            if(column instanceof DictionaryFieldColumn) {
+                columns.add(new ExportColumn(column.getName(), TYPE_TEXT, ((DictionaryFieldColumn) column).getDictionary()));
+            } else {
+                columns.add(new ExportColumn(column.getName(), typeOf(column.getColumnType()), null));
+            }
+        }
+        Collections.sort(columns, new Comparator<ExportColumn>() {
+            @Override
+            public int compare(ExportColumn lhs, ExportColumn rhs) {
+                return lhs.name.compareTo(rhs.name);
+            }
+        });
+        columns.add(0, new ExportColumn(ReflectionClassTableGenerator.ID_COLUMN_NAME, TYPE_INTEGER, null));
+        return columns;
+    }
+
+    static String[] names(List<ExportColumn> columns) {
+        String[] names = new String[columns.size()];
+        for(int i = 0; i < names.length; i++) {
+            names[i] = columns.get(i).name;
+        }
+        return names;
+    }
+
+    private static byte typeOf(String columnType) {
+        if("INTEGER".equals(columnType)) {
+            return TYPE_INTEGER;
+        } else if("REAL".equals(columnType)) {
+            return TYPE_REAL;
+        } else if("BLOB".equals(columnType)) {
+            return TYPE_BLOB;
+        }
+        return TYPE_TEXT;
+    }
+}
@@ -44,6 +44,10 @@ public abstract class FieldColumn<T> {
         this.name = name;
     }
 
+    public Field getField() {
+        return field;
+    }
+
     public void setField(Field field) {
         this.field = field;
     }
@@ -60,5 +64,74 @@ public abstract class FieldColumn<T> {
         }
     }
 
+    /**
+     * Sets the value for a scan, where the same instance is filled for every row. Columns holding
+     * mutable values may update the instance's current value in place rather than allocate a new
+     * one.
+     */
+    public void reuseValueFromCursor(Object inst, Cursor cursor, int position) {
+        setValueFromCursor(inst, cursor, position);
+    }
+
+    protected void setIntValue(Object inst, int val) {
+        if(field.getType().isPrimitive()) {
+            try {
+                field.setInt(inst, val);
+            } catch (IllegalAccessException e) {
+                Log.e(TAG, "Failed to set value into DbModel instance", e);
+            }
+        } else {
+            setValue(inst, val);
+        }
+    }
+
+    protected void setLongValue(Object inst, long val) {
+        if(field.getType().isPrimitive()) {
+            try {
+                field.setLong(inst, val);
+            } catch (IllegalAccessException e) {
+                Log.e(TAG, "Failed to set value into DbModel instance", e);
+            }
+        } else {
+            setValue(inst, val);
+        }
+    }
+
+    protected void setFloatValue(Object inst, float val) {
+        if(field.getType().isPrimitive()) {
+            try {
+                field.setFloat(inst, val);
+            } catch (IllegalAccessException e) {
+                Log.e(TAG, "Failed to set value into DbModel instance", e);
+            }
+        } else {
+            setValue(inst, val);
+        }
+    }
+
+    protected void setDoubleValue(Object inst, double val) {
+        if(field.getType().isPrimitive()) {
+            try {
+                field.setDouble(inst, val);
+            } catch (IllegalAccessException e) {
+                Log.e(TAG, "Failed to set value into DbModel instance", e);
+            }
+        } else {
+            setValue(inst, val);
+        }
+    }
+
+    protected void setBooleanValue(Object inst, boolean val) {
+        if(field.getType().isPrimitive()) {
+            try {
+                field.setBoolean(inst, val);
+            } catch (IllegalAccessException e) {
+                Log.e(TAG, "Failed to set value into DbModel instance", e);
+            }
+        } else {
+            setValue(inst, val);
+        }
+    }
+
     public abstract void addFieldValue(Object inst, ContentValues values) throws IllegalAccessException;
 }
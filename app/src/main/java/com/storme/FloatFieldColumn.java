@@ -35,7 +35,7 @@ public class FloatFieldColumn extends FieldColumn {
 
     @Override
     public void setValueFromCursor(Object inst, Cursor cursor, int position) {
-        setValue(inst, cursor.getFloat(position));
+        setFloatValue(inst, cursor.getFloat(position));
     }
 
     @Override
@@ -0,0 +1,248 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * FTS4 table indexing a model's StormeSearchable fields, with the model id as docid. Triggers on
+ * the model's table keep it in sync, so every write path including bulk and retention deletes
+ * updates the index.
+ *
+ * FTS4 on older devices has no ranking function, so matches are ranked here from matchinfo():
+ * for every phrase and column, the hits in the row divided by the hits in all rows, multiplied by
+ * the column's weight. Android gives no way to register a SQL function before API 30, and the
+ * SQLite of API 15 can't decode the matchinfo blob in SQL, so every match is scored as the cursor
+ * is read but only the best are kept.
+ */
+public class FullTextIndex {
+
+    private static final String TABLE_SUFFIX = "_fts";
+    private static final String CREATE_TEMPLATE = "CREATE VIRTUAL TABLE %s USING fts4(%s)";
+    private static final String DROP_TEMPLATE = "DROP TABLE IF EXISTS %s";
+    private static final String EXISTS_SQL = "SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = ?";
+    private static final String REBUILD_TEMPLATE = "INSERT INTO %s (docid, %s) SELECT " +
+            ReflectionClassTableGenerator.ID_COLUMN_NAME + ", %s FROM %s";
+    private static final String INSERT_TRIGGER_TEMPLATE = "CREATE TRIGGER IF NOT EXISTS %s_ai AFTER INSERT ON %s BEGIN " +
+            "INSERT INTO %s (docid, %s) VALUES (new.%s, %s); END";
+    private static final String UPDATE_TRIGGER_TEMPLATE = "CREATE TRIGGER IF NOT EXISTS %s_au AFTER UPDATE ON %s WHEN %s BEGIN " +
+            "DELETE FROM %s WHERE docid = old.%s; " +
+            "INSERT INTO %s (docid, %s) VALUES (new.%s, %s); END";
+    private static final String DELETE_TRIGGER_TEMPLATE = "CREATE TRIGGER IF NOT EXISTS %s_ad AFTER DELETE ON %s BEGIN " +
+            "DELETE FROM %s WHERE docid = old.%s; END";
+    private static final String MATCH_TEMPLATE = "SELECT docid, matchinfo(%s) FROM %s WHERE %s MATCH ?";
+    private static final String SNIPPET_TEMPLATE = "SELECT docid, snippet(%s, ?, ?, ?, -1, %d) FROM %s WHERE %s MATCH ? AND docid IN (%s)";
+
+    public static final String ELLIPSIS = "...";
+    public static final int SNIPPET_TOKENS = 15;
+
+    private String ownerTable;
+    private String tableName;
+    private List<String> columns = new ArrayList<String>();
+    private double[] weights;
+
+    public FullTextIndex(String ownerTable, List<FieldColumn> searchable) {
+        this.ownerTable = ownerTable;
+        this.tableName = ownerTable + TABLE_SUFFIX;
+        weights = new double[searchable.size()];
+        for(int i = 0; i < searchable.size(); i++) {
+            FieldColumn column = searchable.get(i);
+            columns.add(column.getName());
+            weights[i] = column.getField().getAnnotation(StormeSearchable.class).weight();
+        }
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * Creates the index and its triggers. When the index is new it is filled from any rows
+     * already in the model's table.
+     */
+    public void createTable(SQLiteDatabase db) {
+        boolean exists = false;
+        Cursor cursor = db.rawQuery(EXISTS_SQL, new String[] { tableName });
+        try {
+            exists = cursor.moveToFirst() && cursor.getLong(0) > 0;
+        } finally {
+            cursor.close();
+        }
+
+        String id = ReflectionClassTableGenerator.ID_COLUMN_NAME;
+        String columnList = join(columns, "", ", ");
+        String newValues = join(columns, "new.", ", ");
+        if(!exists) {
+            db.execSQL(String.format(CREATE_TEMPLATE, tableName, columnList));
+            db.execSQL(String.format(REBUILD_TEMPLATE, tableName, columnList, columnList, ownerTable));
+        }
+
+        StringBuilder changed = new StringBuilder();
+        for(String column : columns) {
+            if(changed.length() > 0) {
+                changed.append(" OR ");
+            }
+            changed.append("old.").append(column).append(" IS NOT new.").append(column);
+        }
+        db.execSQL(String.format(INSERT_TRIGGER_TEMPLATE, tableName, ownerTable, tableName, columnList, id, newValues));
+        db.execSQL(String.format(UPDATE_TRIGGER_TEMPLATE, tableName, ownerTable, changed, tableName, id, tableName, columnList, id, newValues));
+        db.execSQL(String.format(DELETE_TRIGGER_TEMPLATE, tableName, ownerTable, tableName, id));
+    }
+
+    /**
+     * Drops the index. The triggers belong to the model's table and are dropped with it.
+     */
+    public void dropTable(SQLiteDatabase db) {
+        db.execSQL(String.format(DROP_TEMPLATE, tableName));
+    }
+
+    /**
+     * Returns every match for the FTS query, best first.
+     */
+    public List<Hit> match(SQLiteDatabase db, String query) {
+        return match(db, query, 0);
+    }
+
+    /**
+     * Returns the best limit matches for the FTS query, best first, or every match when limit is
+     * zero. Only limit hits are held while the matches are ranked.
+     */
+    public List<Hit> match(SQLiteDatabase db, String query, int limit) {
+        // worst hit at the head, so it is the one dropped once there are more than limit
+        PriorityQueue<Hit> best = new PriorityQueue<Hit>(limit > 0 ? limit + 1 : 64, Collections.reverseOrder());
+        Cursor cursor = db.rawQuery(String.format(MATCH_TEMPLATE, tableName, tableName, tableName), new String[] { query });
+        try {
+            while(cursor.moveToNext()) {
+                best.add(new Hit(cursor.getLong(0), rank(cursor.getBlob(1))));
+                if(limit > 0 && best.size() > limit) {
+                    best.poll();
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        List<Hit> hits = new ArrayList<Hit>(best);
+        Collections.sort(hits);
+        return hits;
+    }
+
+    /**
+     * Returns a snippet of the best matching column for each of the given ids, keyed by id.
+     */
+    public Map<Long, String> snippets(SQLiteDatabase db, String query, List<Hit> hits, String startMark, String endMark) {
+        Map<Long, String> snippets = new HashMap<Long, String>();
+        if(hits.isEmpty()) {
+            return snippets;
+        }
+        StringBuilder ids = new StringBuilder();
+        for(Hit hit : hits) {
+            if(ids.length() > 0) {
+                ids.append(',');
+            }
+            ids.append(hit.id);
+        }
+        String sql = String.format(SNIPPET_TEMPLATE, tableName, SNIPPET_TOKENS, tableName, tableName, ids);
+        Cursor cursor = db.rawQuery(sql, new String[] { startMark, endMark, ELLIPSIS, query });
+        try {
+            while(cursor.moveToNext()) {
+                snippets.put(cursor.getLong(0), cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return snippets;
+    }
+
+    /**
+     * Builds a query matching rows containing words starting with every word of the given text,
+     * suitable for search as you type. Characters with a meaning in FTS queries are dropped.
+     */
+    public static String prefixQuery(String text) {
+        StringBuilder query = new StringBuilder();
+        if(text == null) {
+            return query.toString();
+        }
+        for(String word : text.split("\\s+")) {
+            String term = word.replaceAll("[^\\p{L}\\p{N}]", "");
+            if(term.length() > 0) {
+                if(query.length() > 0) {
+                    query.append(' ');
+                }
+                query.append(term).append('*');
+            }
+        }
+        return query.toString();
+    }
+
+    private double rank(byte[] matchInfo) {
+        ByteBuffer info = ByteBuffer.wrap(matchInfo).order(ByteOrder.nativeOrder());
+        int phrases = info.getInt(0);
+        int cols = info.getInt(4);
+        double rank = 0;
+        for(int phrase = 0; phrase < phrases; phrase++) {
+            for(int col = 0; col < cols; col++) {
+                int offset = (2 + (phrase * cols + col) * 3) * 4;
+                int hitsInRow = info.getInt(offset);
+                int hitsInAllRows = info.getInt(offset + 4);
+                if(hitsInRow > 0) {
+                    rank += weights[col] * hitsInRow / hitsInAllRows;
+                }
+            }
+        }
+        return rank;
+    }
+
+    private static String join(List<String> columns, String prefix, String separator) {
+        StringBuilder builder = new StringBuilder();
+        for(String column : columns) {
+            if(builder.length() > 0) {
+                builder.append(separator);
+            }
+            builder.append(prefix).append(column);
+        }
+        return builder.toString();
+    }
+
+    public static class Hit implements Comparable<Hit> {
+
+        final long id;
+        final double rank;
+
+        Hit(long id, double rank) {
+            this.id = id;
+            this.rank = rank;
+        }
+
+        @Override
+        public int compareTo(Hit other) {
+            int result = Double.compare(other.rank, rank);
+            if(result == 0) {
+                result = id < other.id ? -1 : (id == other.id ? 0 : 1);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,518 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads rows written by TableExporter back from a channel, one row at a time, into a set of
+ * arrays indexed by the model's export columns. The arrays are reused for every row so nothing is
+ * allocated per row beyond the Strings and byte arrays holding the values themselves. Columns of
+ * the model that are missing from the file are read as NULL.
+ */
+abstract class ImportReader {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    final List<ExportColumn> columns;
+    final byte[] types;
+    final long[] longs;
+    final double[] doubles;
+    final String[] texts;
+    final byte[][] blobs;
+
+    private final Map<String, Integer> positions = new HashMap<String, Integer>();
+    protected long row;
+
+    ImportReader(List<ExportColumn> columns) {
+        this.columns = columns;
+        int count = columns.size();
+        types = new byte[count];
+        longs = new long[count];
+        doubles = new double[count];
+        texts = new String[count];
+        blobs = new byte[count][];
+        for(int i = 0; i < count; i++) {
+            positions.put(columns.get(i).name, i);
+        }
+    }
+
+    static ImportReader create(List<ExportColumn> columns, StormeExportFormat format, ReadableByteChannel channel) {
+        switch(format) {
+            case CSV:
+                return new Csv(columns, channel);
+            case JSON_LINES:
+                return new JsonLines(columns, channel);
+            default:
+                return new Binary(columns, channel);
+        }
+    }
+
+    /**
+     * Reads whatever the format has before the first row.
+     */
+    abstract void readHeader() throws IOException;
+
+    /**
+     * Reads the next row into the arrays, returning false at the end of the file.
+     */
+    boolean next() throws IOException {
+        Arrays.fill(types, ExportColumn.TYPE_NULL);
+        if(readRow()) {
+            row++;
+            return true;
+        }
+        return false;
+    }
+
+    protected abstract boolean readRow() throws IOException;
+
+    protected int positionOf(String name) {
+        Integer position = positions.get(name);
+        if(position == null) {
+            throw new IllegalArgumentException("Unknown column in import file: " + name);
+        }
+        return position;
+    }
+
+    protected void setText(int position, String value) {
+        types[position] = ExportColumn.TYPE_TEXT;
+        texts[position] = value;
+    }
+
+    protected IOException malformed(String message) {
+        return new IOException("Malformed import file at row " + (row + 1) + ": " + message);
+    }
+
+    /**
+     * Buffered character source shared by the text formats.
+     */
+    private static abstract class Text extends ImportReader {
+
+        private final Reader reader;
+        private final char[] buffer = new char[TableExporter.BUFFER_SIZE / 2];
+        private int position;
+        private int limit;
+
+        Text(List<ExportColumn> columns, ReadableByteChannel channel) {
+            super(columns);
+            reader = Channels.newReader(channel, UTF_8.newDecoder(), -1);
+        }
+
+        protected int peek() throws IOException {
+            if(position == limit) {
+                limit = reader.read(buffer, 0, buffer.length);
+                position = 0;
+                if(limit <= 0) {
+                    limit = 0;
+                    return -1;
+                }
+            }
+            return buffer[position];
+        }
+
+        protected int read() throws IOException {
+            int c = peek();
+            if(c >= 0) {
+                position++;
+            }
+            return c;
+        }
+    }
+
+    private static class Csv extends Text {
+
+        private final StringBuilder field = new StringBuilder();
+        private boolean quoted;
+        private int[] mapping;
+
+        Csv(List<ExportColumn> columns, ReadableByteChannel channel) {
+            super(columns, channel);
+        }
+
+        @Override
+        void readHeader() throws IOException {
+            List<String> names = new ArrayList<String>();
+            int end;
+            do {
+                end = readField();
+                if(end == -2) {
+                    throw malformed("missing header");
+                }
+                names.add(field.toString());
+            } while(end == ',');
+            mapping = new int[names.size()];
+            for(int i = 0; i < mapping.length; i++) {
+                mapping[i] = positionOf(names.get(i));
+            }
+        }
+
+        @Override
+        protected boolean readRow() throws IOException {
+            int column = 0;
+            while(true) {
+                int end = readField();
+                if(end == -2) {
+                    if(column == 0) {
+                        return false;
+                    }
+                    end = '\n';
+                }
+                if(end == '\n' && column == 0 && field.length() == 0 && !quoted && mapping.length > 1) {
+                    // blank line
+                    continue;
+                }
+                if(column >= mapping.length) {
+                    throw malformed("too many fields");
+                }
+                if(quoted || field.length() > 0) {
+                    setText(mapping[column], field.toString());
+                }
+                column++;
+                if(end == '\n') {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Reads one field into the builder and returns the character that ended it: ',' or '\n',
+         * or -2 at the end of the file when nothing was read.
+         */
+        private int readField() throws IOException {
+            field.setLength(0);
+            quoted = false;
+            int c = read();
+            if(c < 0) {
+                return -2;
+            }
+            if(c == '"') {
+                quoted = true;
+                while(true) {
+                    c = read();
+                    if(c < 0) {
+                        throw malformed("unterminated quoted field");
+                    }
+                    if(c == '"') {
+                        if(peek() == '"') {
+                            read();
+                        } else {
+                            break;
+                        }
+                    }
+                    field.append((char) c);
+                }
+                c = read();
+            }
+            while(c >= 0 && c != ',' && c != '\n') {
+                if(c != '\r') {
+                    field.append((char) c);
+                }
+                c = read();
+            }
+            return c < 0 ? '\n' : c;
+        }
+    }
+
+    private static class JsonLines extends Text {
+
+        private final StringBuilder value = new StringBuilder();
+
+        JsonLines(List<ExportColumn> columns, ReadableByteChannel channel) {
+            super(columns, channel);
+        }
+
+        @Override
+        void readHeader() {
+        }
+
+        @Override
+        protected boolean readRow() throws IOException {
+            int c = skipWhitespace();
+            if(c < 0) {
+                return false;
+            }
+            if(c != '{') {
+                throw malformed("expected an object");
+            }
+            read();
+            c = skipWhitespace();
+            if(c == '}') {
+                read();
+                return true;
+            }
+            while(true) {
+                if(c != '"') {
+                    throw malformed("expected a key");
+                }
+                read();
+                int position = positionOf(readString());
+                if(skipWhitespace() != ':') {
+                    throw malformed("expected ':'");
+                }
+                read();
+                readValue(position);
+                c = skipWhitespace();
+                read();
+                if(c == '}') {
+                    return true;
+                } else if(c != ',') {
+                    throw malformed("expected ',' or '}'");
+                }
+                c = skipWhitespace();
+            }
+        }
+
+        private void readValue(int position) throws IOException {
+            int c = skipWhitespace();
+            if(c == '"') {
+                read();
+                setText(position, readString());
+            } else if(c == 'n') {
+                expectWord("null");
+            } else if(c == 't') {
+                expectWord("true");
+                types[position] = ExportColumn.TYPE_INTEGER;
+                longs[position] = 1;
+            } else if(c == 'f') {
+                expectWord("false");
+                types[position] = ExportColumn.TYPE_INTEGER;
+                longs[position] = 0;
+            } else if(c == '-' || (c >= '0' && c <= '9')) {
+                readNumber(position);
+            } else {
+                throw malformed("unsupported value");
+            }
+        }
+
+        private void readNumber(int position) throws IOException {
+            value.setLength(0);
+            boolean real = false;
+            int c = peek();
+            while(c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E' || (c >= '0' && c <= '9')) {
+                real |= c == '.' || c == 'e' || c == 'E';
+                value.append((char) read());
+                c = peek();
+            }
+            String number = value.toString();
+            try {
+                if(!real) {
+                    types[position] = ExportColumn.TYPE_INTEGER;
+                    longs[position] = Long.parseLong(number);
+                    return;
+                }
+            } catch (NumberFormatException e) {
+                // too large for a long, fall through to a double
+            }
+            try {
+                types[position] = ExportColumn.TYPE_REAL;
+                doubles[position] = Double.parseDouble(number);
+            } catch (NumberFormatException e) {
+                throw malformed("invalid number " + number);
+            }
+        }
+
+        private String readString() throws IOException {
+            value.setLength(0);
+            while(true) {
+                int c = read();
+                if(c < 0) {
+                    throw malformed("unterminated string");
+                } else if(c == '"') {
+                    return value.toString();
+                } else if(c == '\\') {
+                    c = read();
+                    switch(c) {
+                        case 'n':
+                            value.append('\n');
+                            break;
+                        case 'r':
+                            value.append('\r');
+                            break;
+                        case 't':
+                            value.append('\t');
+                            break;
+                        case 'b':
+                            value.append('\b');
+                            break;
+                        case 'f':
+                            value.append('\f');
+                            break;
+                        case 'u':
+                            int code = 0;
+                            for(int i = 0; i < 4; i++) {
+                                int digit = Character.digit(read(), 16);
+                                if(digit < 0) {
+                                    throw malformed("invalid unicode escape");
+                                }
+                                code = code * 16 + digit;
+                            }
+                            value.append((char) code);
+                            break;
+                        case -1:
+                            throw malformed("unterminated string");
+                        default:
+                            value.append((char) c);
+                            break;
+                    }
+                } else {
+                    value.append((char) c);
+                }
+            }
+        }
+
+        private void expectWord(String word) throws IOException {
+            for(int i = 0; i < word.length(); i++) {
+                if(read() != word.charAt(i)) {
+                    throw malformed("unsupported value");
+                }
+            }
+        }
+
+        private int skipWhitespace() throws IOException {
+            int c = peek();
+            while(c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+                read();
+                c = peek();
+            }
+            return c;
+        }
+    }
+
+    private static class Binary extends ImportReader {
+
+        private final ReadableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(TableExporter.BUFFER_SIZE);
+        private int[] mapping;
+
+        Binary(List<ExportColumn> columns, ReadableByteChannel channel) {
+            super(columns);
+            this.channel = channel;
+            buffer.flip();
+        }
+
+        @Override
+        void readHeader() throws IOException {
+            byte[] magic = readBytes(TableExporter.MAGIC.length);
+            if(!Arrays.equals(magic, TableExporter.MAGIC)) {
+                throw new IOException("Not a Storme binary export");
+            }
+            require(5);
+            byte version = buffer.get();
+            if(version != TableExporter.VERSION) {
+                throw new IOException("Unsupported binary export version: " + version);
+            }
+            mapping = new int[buffer.getInt()];
+            for(int i = 0; i < mapping.length; i++) {
+                require(4);
+                String name = new String(readBytes(buffer.getInt()), UTF_8);
+                require(1);
+                buffer.get();
+                mapping[i] = positionOf(name);
+            }
+        }
+
+        @Override
+        protected boolean readRow() throws IOException {
+            if(!fill(1)) {
+                return false;
+            }
+            for(int position : mapping) {
+                require(1);
+                byte type = buffer.get();
+                switch(type) {
+                    case ExportColumn.TYPE_NULL:
+                        break;
+                    case ExportColumn.TYPE_INTEGER:
+                        require(8);
+                        longs[position] = buffer.getLong();
+                        break;
+                    case ExportColumn.TYPE_REAL:
+                        require(8);
+                        doubles[position] = buffer.getDouble();
+                        break;
+                    case ExportColumn.TYPE_BLOB:
+                        require(4);
+                        blobs[position] = readBytes(buffer.getInt());
+                        break;
+                    case ExportColumn.TYPE_TEXT:
+                        require(4);
+                        texts[position] = new String(readBytes(buffer.getInt()), UTF_8);
+                        break;
+                    default:
+                        throw malformed("unknown value type " + type);
+                }
+                types[position] = type;
+            }
+            return true;
+        }
+
+        private byte[] readBytes(int length) throws IOException {
+            if(length < 0) {
+                throw malformed("negative length");
+            }
+            byte[] bytes = new byte[length];
+            int offset = 0;
+            while(offset < length) {
+                if(!buffer.hasRemaining()) {
+                    require(1);
+                }
+                int count = Math.min(buffer.remaining(), length - offset);
+                buffer.get(bytes, offset, count);
+                offset += count;
+            }
+            return bytes;
+        }
+
+        private void require(int bytes) throws IOException {
+            if(!fill(bytes)) {
+                throw new EOFException("Truncated import file at row " + (row + 1));
+            }
+        }
+
+        /**
+         * Makes sure at least the given number of bytes are buffered, returning false if the
+         * channel ends first.
+         */
+        private boolean fill(int bytes) throws IOException {
+            if(buffer.remaining() >= bytes) {
+                return true;
+            }
+            buffer.compact();
+            try {
+                while(buffer.position() < bytes) {
+                    if(channel.read(buffer) < 0) {
+                        return false;
+                    }
+                }
+                return true;
+            } finally {
+                buffer.flip();
+            }
+        }
+    }
+}
@@ -35,7 +35,7 @@ public class IntegerFieldColumn extends FieldColumn {
 
     @Override
     public void setValueFromCursor(Object inst, Cursor cursor, int position) {
-        setValue(inst, cursor.getInt(position));
+        setIntValue(inst, cursor.getInt(position));
     }
 
     @Override
@@ -31,7 +31,7 @@ public class LongFieldColumn extends FieldColumn {
 
     @Override
     public void setValueFromCursor(Object inst, Cursor cursor, int position) {
-        setValue(inst, cursor.getLong(position));
+        setLongValue(inst, cursor.getLong(position));
     }
 
     @Override
@@ -0,0 +1,175 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Open addressing hash map from primitive long keys to values, so id lookups neither box the key
+ * nor allocate entries. Deletes shift later entries back rather than leaving tombstones, so a map
+ * that is written to often does not slow down. Not thread safe.
+ */
+class LongMap<V> {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private Object[] values;
+    private int size;
+    private int mask;
+
+    LongMap() {
+        this(MIN_CAPACITY);
+    }
+
+    LongMap(int expected) {
+        int capacity = MIN_CAPACITY;
+        while(capacity * 3 / 4 < expected) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        int slot = slot(key);
+        while(values[slot] != null) {
+            if(keys[slot] == key) {
+                return (V) values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Maps the key to a value, which cannot be null, and returns the value it replaced.
+     */
+    @SuppressWarnings("unchecked")
+    V put(long key, V value) {
+        if(value == null) {
+            throw new IllegalArgumentException("LongMap values cannot be null");
+        }
+        int slot = slot(key);
+        while(values[slot] != null) {
+            if(keys[slot] == key) {
+                V old = (V) values[slot];
+                values[slot] = value;
+                return old;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if(++size > (mask + 1) * 3 / 4) {
+            resize((mask + 1) << 1);
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    V remove(long key) {
+        int slot = slot(key);
+        while(values[slot] != null) {
+            if(keys[slot] == key) {
+                V old = (V) values[slot];
+                shiftBack(slot);
+                size--;
+                return old;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the keys in ascending order.
+     */
+    long[] sortedKeys() {
+        long[] sorted = new long[size];
+        int count = 0;
+        for(int i = 0; i < values.length; i++) {
+            if(values[i] != null) {
+                sorted[count++] = keys[i];
+            }
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    @SuppressWarnings("unchecked")
+    List<V> values() {
+        List<V> list = new ArrayList<V>(size);
+        for(Object value : values) {
+            if(value != null) {
+                list.add((V) value);
+            }
+        }
+        return list;
+    }
+
+    private void shiftBack(int hole) {
+        int slot = hole;
+        while(true) {
+            slot = (slot + 1) & mask;
+            if(values[slot] == null) {
+                break;
+            }
+            int home = slot(keys[slot]);
+            // move the entry into the hole unless its home lies cyclically between the two
+            boolean between = hole <= slot ? (hole < home && home <= slot) : (hole < home || home <= slot);
+            if(!between) {
+                keys[hole] = keys[slot];
+                values[hole] = values[slot];
+                hole = slot;
+            }
+        }
+        values[hole] = null;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        for(int i = 0; i < oldValues.length; i++) {
+            if(oldValues[i] != null) {
+                int slot = slot(oldKeys[i]);
+                while(values[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    private int slot(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,278 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the database file healthy: refreshes the query planner statistics with ANALYZE, or PRAGMA
+ * optimize where SQLite has it, and gives free pages back with PRAGMA incremental_vacuum in steps
+ * of a few pages. Each statement only holds the database open, leaving SQLite to serialise it
+ * with other writers, and the engine pauses between vacuum steps.
+ */
+class MaintenanceEngine {
+
+    private static final String TAG = MaintenanceEngine.class.getSimpleName();
+
+    private static final String LIST_TABLES = "SELECT name FROM sqlite_master WHERE type = 'table' "
+            + "AND name NOT LIKE 'sqlite_%' AND name != 'android_metadata' ORDER BY name";
+    private static final String TABLE_BYTES = "SELECT m.tbl_name, SUM(s.pgsize) FROM dbstat s "
+            + "JOIN sqlite_master m ON s.name = m.name GROUP BY m.tbl_name";
+    private static final String HAS_STATISTICS = "SELECT COUNT(*) FROM sqlite_master WHERE name = 'sqlite_stat1'";
+
+    private final SQLiteInstance sqliteInstance;
+    private final TableLocks locks;
+
+    private StormeMaintenanceOptions options = new StormeMaintenanceOptions();
+    private volatile long writesAtAnalyze = -1;
+    private ScheduledExecutorService executor;
+
+    MaintenanceEngine(SQLiteInstance sqliteInstance, TableLocks locks) {
+        this.sqliteInstance = sqliteInstance;
+        this.locks = locks;
+    }
+
+    synchronized void start(StormeMaintenanceOptions options) {
+        stop();
+        this.options = options;
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "storme-maintenance");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        long interval = options.getCheckIntervalMillis();
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    maintain(false);
+                } catch (Exception e) {
+                    Log.e(TAG, "Maintenance pass failed", e);
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void stop() {
+        if(executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Runs a maintenance pass on the calling thread and returns the number of pages given back
+     * to the file system. A forced pass always refreshes the statistics and releases every free
+     * page; otherwise the idle time and thresholds of the options decide what is done.
+     */
+    long maintain(boolean force) {
+        StormeMaintenanceOptions current;
+        synchronized (this) {
+            current = options;
+        }
+
+        long writes = locks.getWriteCount();
+        boolean idle = current.getIdleMillis() > 0 && locks.getIdleMillis() >= current.getIdleMillis();
+        long written = writesAtAnalyze < 0 ? writes : writes - writesAtAnalyze;
+        if(force || (idle && written > 0) || written >= current.getAnalyzeAfterWrites()) {
+            if(!analyze()) {
+                return 0;
+            }
+            writesAtAnalyze = writes;
+        }
+
+        long released = 0;
+        while(!Thread.currentThread().isInterrupted()) {
+            long[] pages = pageCounts();
+            if(pages == null || pages[1] == 0 || pages[2] != StormeDatabaseStats.AUTO_VACUUM_INCREMENTAL) {
+                break;
+            }
+            idle = current.getIdleMillis() > 0 && locks.getIdleMillis() >= current.getIdleMillis();
+            if(!force && !idle && (double) pages[1] / pages[0] < current.getVacuumFreeRatio()) {
+                break;
+            }
+            long freed = vacuumStep(current.getVacuumStepPages());
+            if(freed <= 0) {
+                break;
+            }
+            released += freed;
+            if(!pause(current.getStepPauseMillis())) {
+                break;
+            }
+        }
+        return released;
+    }
+
+    StormeDatabaseStats stats(SQLiteDatabase db) {
+        Map<String, Long> bytes = tableBytes(db);
+        List<StormeDatabaseStats.Table> tables = new ArrayList<StormeDatabaseStats.Table>();
+        for(String name : tableNames(db)) {
+            Long size = bytes != null ? bytes.get(name) : null;
+            tables.add(new StormeDatabaseStats.Table(name, queryLong(db, "SELECT COUNT(*) FROM \"" + name + "\""),
+                    size != null ? size : (bytes != null ? 0 : -1)));
+        }
+        return new StormeDatabaseStats(queryLong(db, "PRAGMA page_size"), queryLong(db, "PRAGMA page_count"),
+                queryLong(db, "PRAGMA freelist_count"), (int) queryLong(db, "PRAGMA auto_vacuum"), tables);
+    }
+
+    private boolean analyze() {
+        locks.lockOpen();
+        try {
+            SQLiteDatabase db = sqliteInstance.getDatabase();
+            if(db == null) {
+                return false;
+            }
+            // optimize only analyzes what needs it, but needs SQLite 3.18 and statistics to start from
+            if(SQLiteInstance.isVersionAtLeast(db, 3, 18, 0) && queryLong(db, HAS_STATISTICS) > 0) {
+                db.execSQL("PRAGMA optimize");
+            } else {
+                db.execSQL("ANALYZE");
+            }
+            return true;
+        } finally {
+            locks.unlockOpen();
+        }
+    }
+
+    /**
+     * Returns the page count, free page count and auto vacuum mode, or null if the database is
+     * closed.
+     */
+    private long[] pageCounts() {
+        locks.lockOpen();
+        try {
+            SQLiteDatabase db = sqliteInstance.getDatabase();
+            if(db == null) {
+                return null;
+            }
+            return new long[] { queryLong(db, "PRAGMA page_count"), queryLong(db, "PRAGMA freelist_count"),
+                    queryLong(db, "PRAGMA auto_vacuum") };
+        } finally {
+            locks.unlockOpen();
+        }
+    }
+
+    private long vacuumStep(int pages) {
+        // the step runs in a transaction, so it takes every stripe first like runInTransaction
+        locks.lockAll();
+        try {
+            SQLiteDatabase db = sqliteInstance.getDatabase();
+            if(db == null) {
+                return 0;
+            }
+            long before = queryLong(db, "PRAGMA freelist_count");
+            // each step of the statement frees one page, so it is run through a cursor rather than
+            // execSQL, which would only step it once. The transaction keeps it on the connection
+            // that can write.
+            db.beginTransaction();
+            try {
+                Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum(" + pages + ")", null);
+                if(cursor != null) {
+                    cursor.getCount();
+                    cursor.close();
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            return before - queryLong(db, "PRAGMA freelist_count");
+        } finally {
+            locks.unlockAllQuietly();
+        }
+    }
+
+    private List<String> tableNames(SQLiteDatabase db) {
+        List<String> names = new ArrayList<String>();
+        Cursor cursor = db.rawQuery(LIST_TABLES, null);
+        if(cursor != null) {
+            try {
+                while(cursor.moveToNext()) {
+                    names.add(cursor.getString(0));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Returns the bytes used by each table and its indexes, or null when SQLite was built
+     * without the dbstat table.
+     */
+    private Map<String, Long> tableBytes(SQLiteDatabase db) {
+        Cursor cursor;
+        try {
+            cursor = db.rawQuery(TABLE_BYTES, null);
+        } catch (SQLiteException e) {
+            return null;
+        }
+        Map<String, Long> bytes = new HashMap<String, Long>();
+        if(cursor != null) {
+            try {
+                while(cursor.moveToNext()) {
+                    bytes.put(cursor.getString(0), cursor.getLong(1));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return bytes;
+    }
+
+    private static long queryLong(SQLiteDatabase db, String sql) {
+        long result = 0;
+        Cursor cursor = db.rawQuery(sql, null);
+        if(cursor != null) {
+            try {
+                if(cursor.moveToFirst() && !cursor.isNull(0)) {
+                    result = cursor.getLong(0);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return result;
+    }
+
+    private static boolean pause(long millis) {
+        if(millis > 0) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+}
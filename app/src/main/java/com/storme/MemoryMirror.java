@@ -0,0 +1,272 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Mirrors the tables of some models between an in-memory database and a database file attached
+ * to it. When attached the file's rows are copied in, then TEMP triggers record the keys of every
+ * row written in the in-memory tables, so writes by any path are picked up. flush() copies the
+ * recorded rows out to the file in one transaction. SQLite does not let triggers write to a
+ * qualified table, which is why the rows are staged rather than written by the triggers.
+ *
+ * The file's rows are always copied in. Rows are written back by key, so an in-memory table
+ * starting empty would hand out ids already used in the file and overwrite those rows on flush.
+ *
+ * Full text indexes are not mirrored as their triggers rebuild them from the preloaded rows.
+ */
+class MemoryMirror {
+
+    static final String SCHEMA = "storme_disk";
+
+    private static final String ATTACH = "ATTACH DATABASE ? AS " + SCHEMA;
+    private static final String DIRTY_PREFIX = "storme_dirty_";
+
+    private final String path;
+    private final int dbVersion;
+    private final List<StormeModelFactory<?>> factories;
+    private final List<List<Table>> tables = new ArrayList<List<Table>>();
+    private SQLiteDatabase attached;
+
+    MemoryMirror(String path, int dbVersion, List<StormeModelFactory<?>> factories) {
+        this.path = path;
+        this.dbVersion = dbVersion;
+        this.factories = factories;
+    }
+
+    /**
+     * Attaches the file to a newly opened in-memory database, loading the mirrored tables from it
+     * and starting to record writes. Must be called outside a transaction, after the tables have
+     * been created.
+     */
+    synchronized void attach(SQLiteDatabase db) {
+        if(attached == db) {
+            return;
+        }
+        db.execSQL(ATTACH, new Object[] { path });
+        attached = db;
+
+        tables.clear();
+        for(StormeModelFactory<?> factory : factories) {
+            List<Table> owned = new ArrayList<Table>();
+            for(String name : factory.getStorageTables()) {
+                owned.add(Table.read(db, name));
+            }
+            tables.add(owned);
+        }
+
+        if(queryVersion(db) != dbVersion) {
+            // as with upgrades of the main database the old data is simply dropped
+            for(List<Table> owned : tables) {
+                for(Table table : owned) {
+                    db.execSQL("DROP TABLE IF EXISTS " + SCHEMA + "." + table.name);
+                }
+            }
+            db.execSQL("PRAGMA " + SCHEMA + ".user_version = " + dbVersion);
+        }
+
+        db.beginTransaction();
+        try {
+            for(List<Table> owned : tables) {
+                for(Table table : owned) {
+                    db.execSQL(table.getCreateStatement());
+                    db.execSQL("INSERT OR REPLACE INTO main." + table.name + " (" + table.columnList + ") SELECT " +
+                            table.columnList + " FROM " + SCHEMA + "." + table.name);
+                    for(String sql : table.getRecordingStatements()) {
+                        db.execSQL(sql);
+                    }
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        // pick up the preloaded dictionary values
+        for(StormeModelFactory<?> factory : factories) {
+            factory.openDictionaries(db);
+        }
+    }
+
+    synchronized boolean isAttached(SQLiteDatabase db) {
+        return db != null && attached == db;
+    }
+
+    /**
+     * Copies every row written since the last flush out to the file.
+     */
+    synchronized void flush(SQLiteDatabase db) {
+        if(!isAttached(db)) {
+            return;
+        }
+        db.beginTransaction();
+        try {
+            for(List<Table> owned : tables) {
+                for(Table table : owned) {
+                    table.flush(db);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Copies the rows of one model written since the last flush out to the file.
+     */
+    synchronized void flush(SQLiteDatabase db, StormeModelFactory<?> factory) {
+        int index = factories.indexOf(factory);
+        if(!isAttached(db) || index < 0) {
+            return;
+        }
+        db.beginTransaction();
+        try {
+            for(Table table : tables.get(index)) {
+                table.flush(db);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    synchronized void detached() {
+        attached = null;
+    }
+
+    private static long queryVersion(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("PRAGMA " + SCHEMA + ".user_version", null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * A mirrored table, described from the in-memory copy so the file gets the same layout.
+     */
+    private static class Table {
+
+        final String name;
+        final String dirty;
+        final List<String> columns = new ArrayList<String>();
+        final List<String> types = new ArrayList<String>();
+        final List<Boolean> notNull = new ArrayList<Boolean>();
+        final List<String> keys = new ArrayList<String>();
+        String columnList;
+
+        private Table(String name) {
+            this.name = name;
+            this.dirty = DIRTY_PREFIX + name;
+        }
+
+        static Table read(SQLiteDatabase db, String name) {
+            Table table = new Table(name);
+            List<int[]> keyOrder = new ArrayList<int[]>();
+            Cursor cursor = db.rawQuery("PRAGMA main.table_info(" + name + ")", null);
+            try {
+                while(cursor.moveToNext()) {
+                    String column = cursor.getString(cursor.getColumnIndex("name"));
+                    table.columns.add(column);
+                    table.types.add(cursor.getString(cursor.getColumnIndex("type")));
+                    table.notNull.add(cursor.getInt(cursor.getColumnIndex("notnull")) != 0);
+                    int pk = cursor.getInt(cursor.getColumnIndex("pk"));
+                    if(pk > 0) {
+                        keyOrder.add(new int[] { pk, table.columns.size() - 1 });
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+            if(keyOrder.isEmpty()) {
+                throw new IllegalStateException("Cannot mirror a table without a primary key: " + name);
+            }
+            for(int pk = 1; pk <= keyOrder.size(); pk++) {
+                for(int[] key : keyOrder) {
+                    if(key[0] == pk) {
+                        table.keys.add(table.columns.get(key[1]));
+                    }
+                }
+            }
+            table.columnList = TextUtils.join(",", table.columns);
+            return table;
+        }
+
+        String getCreateStatement() {
+            StringBuilder sql = new StringBuilder("CREATE TABLE IF NOT EXISTS ")
+                    .append(SCHEMA).append('.').append(name).append(" (");
+            for(int i = 0; i < columns.size(); i++) {
+                sql.append(columns.get(i)).append(' ').append(types.get(i));
+                if(notNull.get(i)) {
+                    sql.append(" NOT NULL");
+                }
+                sql.append(", ");
+            }
+            return sql.append("PRIMARY KEY (").append(TextUtils.join(",", keys)).append("))").toString();
+        }
+
+        List<String> getRecordingStatements() {
+            String keyList = TextUtils.join(",", keys);
+            List<String> statements = new ArrayList<String>();
+            statements.add("CREATE TEMP TABLE IF NOT EXISTS " + dirty + " (" + keyList + ", PRIMARY KEY (" + keyList + "))");
+            statements.add(trigger("ai", "INSERT", record("new")));
+            statements.add(trigger("au", "UPDATE", record("old") + record("new")));
+            statements.add(trigger("ad", "DELETE", record("old")));
+            return statements;
+        }
+
+        void flush(SQLiteDatabase db) {
+            StringBuilder matches = new StringBuilder();
+            StringBuilder join = new StringBuilder();
+            for(String key : keys) {
+                if(matches.length() > 0) {
+                    matches.append(" AND ");
+                    join.append(" AND ");
+                }
+                matches.append("d.").append(key).append(" = ").append(SCHEMA).append('.').append(name).append('.').append(key);
+                join.append("d.").append(key).append(" = m.").append(key);
+            }
+            db.execSQL("DELETE FROM " + SCHEMA + "." + name + " WHERE EXISTS (SELECT 1 FROM temp." + dirty + " d WHERE " + matches + ")");
+            db.execSQL("INSERT INTO " + SCHEMA + "." + name + " (" + columnList + ") SELECT m." +
+                    TextUtils.join(",m.", columns) + " FROM main." + name + " m JOIN temp." + dirty + " d ON " + join);
+            db.execSQL("DELETE FROM temp." + dirty);
+        }
+
+        private String trigger(String suffix, String event, String body) {
+            return "CREATE TEMP TRIGGER IF NOT EXISTS " + dirty + "_" + suffix + " AFTER " + event +
+                    " ON main." + name + " BEGIN " + body + "END";
+        }
+
+        private String record(String row) {
+            StringBuilder values = new StringBuilder();
+            for(String key : keys) {
+                if(values.length() > 0) {
+                    values.append(',');
+                }
+                values.append(row).append('.').append(key);
+            }
+            return "INSERT OR IGNORE INTO " + dirty + " (" + TextUtils.join(",", keys) + ") VALUES (" + values + "); ";
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+import android.util.Log;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A query re-run whenever its model changes. The first change schedules a run after the debounce
+ * delay and any further changes before it runs are coalesced into it, so a burst of writes costs
+ * one query. Changes made while the query is running schedule another run.
+ */
+class ObservedQuery<E extends StormeModel> implements ChangeBus.ChangeListener, StormeSubscription {
+
+    private static final String TAG = ObservedQuery.class.getSimpleName();
+
+    private final Class<E> modelClass;
+    private final Callable<List<E>> query;
+    private final StormeQueryListener<E> listener;
+    private final Executor executor;
+    private final ScheduledExecutorService scheduler;
+    private final ChangeBus changeBus;
+    private final long debounceMillis;
+
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile boolean cancelled;
+
+    private final Runnable runQuery = new Runnable() {
+        @Override
+        public void run() {
+            runQuery();
+        }
+    };
+
+    ObservedQuery(Class<E> modelClass, Callable<List<E>> query, StormeQueryListener<E> listener, Executor executor,
+                  ScheduledExecutorService scheduler, ChangeBus changeBus, long debounceMillis) {
+        this.modelClass = modelClass;
+        this.query = query;
+        this.listener = listener;
+        this.executor = executor;
+        this.scheduler = scheduler;
+        this.changeBus = changeBus;
+        this.debounceMillis = debounceMillis;
+    }
+
+    void start() {
+        changeBus.register(modelClass, this);
+        schedule(0);
+    }
+
+    @Override
+    public void onChanged(Class<? extends StormeModel> changedClass) {
+        schedule(debounceMillis);
+    }
+
+    @Override
+    public void cancel() {
+        cancelled = true;
+        changeBus.unregister(modelClass, this);
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    private void schedule(long delay) {
+        if(!cancelled && scheduled.compareAndSet(false, true)) {
+            try {
+                scheduler.schedule(runQuery, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false);
+                Log.e(TAG, "Failed to schedule observed query for " + modelClass.getName(), e);
+            }
+        }
+    }
+
+    private void runQuery() {
+        scheduled.set(false);
+        if(cancelled) {
+            return;
+        }
+
+        final List<E> results;
+        try {
+            results = query.call();
+        } catch (Exception e) {
+            Log.e(TAG, "Observed query failed for " + modelClass.getName(), e);
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if(!cancelled) {
+                    listener.onQueryResult(results);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,691 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Model factory for classes annotated with StormePartitioned. Each period gets its own table named
+ * after the model table plus the start date of the period, e.g. storme_com_example_Event_p20150327.
+ * Partition tables are created on first insert and discovered from sqlite_master on startup.
+ *
+ * Ids are allocated here rather than by SQLite so they stay unique across partitions. The sequence
+ * carries on from the highest id still stored, so ids may be reused if every partition is dropped.
+ */
+public class PartitionedModelFactory<T extends StormeModel> extends StormeModelFactory<T> {
+
+    private static final String TAG = PartitionedModelFactory.class.getSimpleName();
+
+    private static final String PARTITION_SEPARATOR = "_p";
+    private static final String PARTITION_KEY_GLOB = "[0-9][0-9][0-9][0-9][0-9][0-9][0-9][0-9]";
+    private static final String LIST_PARTITIONS = "SELECT name FROM sqlite_master WHERE type = 'table' AND name GLOB ?";
+    private static final String DROP_TEMPLATE = "DROP TABLE IF EXISTS %s";
+    private static final String ID_WHERE = ReflectionClassTableGenerator.ID_COLUMN_NAME + " = ?";
+
+    // SQLite refuses compound selects with more than 500 terms by default
+    private static final int MAX_UNION_PARTITIONS = 500;
+
+    private static final Pattern DISJUNCTION = Pattern.compile("\\b(OR|NOT)\\b", Pattern.CASE_INSENSITIVE);
+
+    private StormePartitionPeriod period;
+    private FieldColumn partitionColumn;
+    private Pattern comparison;
+    private Pattern between;
+
+    private TreeMap<Long, String> partitions;
+    private long lastId = -1;
+
+    public PartitionedModelFactory(Class<T> modelClass, String tablePrefix, int dbVersion) {
+        super(modelClass, tablePrefix, dbVersion);
+
+        StormePartitioned partitioned = modelClass.getAnnotation(StormePartitioned.class);
+        if(partitioned == null) {
+            throw new IllegalArgumentException("Model class is not partitioned: " + modelClass.getName());
+        }
+        if(blobStore != null) {
+            throw new IllegalArgumentException("Chunked blob fields are not supported on partitioned models: " + modelClass.getName());
+        }
+        if(fullTextIndex != null) {
+            throw new IllegalArgumentException("Searchable fields are not supported on partitioned models: " + modelClass.getName());
+        }
+        if(resident != null) {
+            throw new IllegalArgumentException("Partitioned models cannot be resident: " + modelClass.getName());
+        }
+        if(!reflectionClassTableGenerator.getLazyColumns().isEmpty()) {
+            throw new IllegalArgumentException("Lazy fields are not supported on partitioned models: " + modelClass.getName());
+        }
+        if(rowCounter != null) {
+            throw new IllegalArgumentException("Partitioned models cannot be counted: " + modelClass.getName());
+        }
+        if(changeJournal != null) {
+            throw new IllegalArgumentException("Partitioned models cannot be journaled: " + modelClass.getName());
+        }
+        if(hasPrimaryKey()) {
+            throw new IllegalArgumentException("Primary keys are not supported on partitioned models: " + modelClass.getName());
+        }
+        period = partitioned.period();
+        partitionColumn = reflectionClassTableGenerator.getFieldForColumn(partitioned.field());
+        if(!(partitionColumn instanceof DateFieldColumn) && !(partitionColumn instanceof LongFieldColumn)) {
+            throw new IllegalArgumentException("Partition field must be a Date or long field: " + partitioned.field());
+        }
+
+        String field = Pattern.quote(partitioned.field());
+        comparison = Pattern.compile("\\b" + field + "\\s*(>=|<=|==|=|>|<)\\s*\\?", Pattern.CASE_INSENSITIVE);
+        between = Pattern.compile("\\b" + field + "\\s+BETWEEN\\s+\\?\\s+AND\\s+\\?", Pattern.CASE_INSENSITIVE);
+    }
+
+    @Override
+    public void createTable(SQLiteDatabase db) {
+        // partitions are created on demand, just make sure we pick up the ones already on disk
+        partitions = null;
+        openDictionaries(db);
+    }
+
+    @Override
+    public void dropTable(SQLiteDatabase db) {
+        dropPartitions(db);
+        dropDictionaries(db);
+    }
+
+    @Override
+    public T get(long id, SQLiteDatabase db) {
+        // newest partitions first as they are the most likely to be asked for
+        List<String> names = new ArrayList<String>(getPartitions(db).descendingMap().values());
+        String[] params = new String[] { String.valueOf(id) };
+
+        for(List<String> chunk : chunk(names)) {
+            List<T> found = listFromCursor(db.rawQuery(union(chunk, "*", ReflectionClassTableGenerator.ID_COLUMN_NAME + " = ?1") + " LIMIT 1", params));
+            if(found != null && !found.isEmpty()) {
+                return found.get(0);
+            }
+        }
+        Log.e(TAG, "Failed to find DbModel object with id: " + id);
+        return null;
+    }
+
+    @Override
+    public <T> int findCount(SQLiteDatabase db) {
+        int count = 0;
+        for(List<String> chunk : chunk(new ArrayList<String>(getPartitions(db).values()))) {
+            count += (int) queryLong(db, "SELECT SUM(c) FROM (" + union(chunk, "count(*) AS c", null) + ")", null);
+        }
+        return count;
+    }
+
+    @Override
+    public int count(String where, String[] whereParams, StormeCancellationToken token, SQLiteDatabase db) {
+        int count = 0;
+        for(String sql : queriesFor(db, new String[] { "count(*)" }, where, whereParams, null, null)) {
+            Cursor cursor = rawQuery(db, sql, whereParams, token);
+            try {
+                while(cursor.moveToNext()) {
+                    count += cursor.getInt(0);
+                }
+            } catch (RuntimeException e) {
+                throw cancelledOr(e, token);
+            } finally {
+                cursor.close();
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public List<T> find(String where, String[] whereParams, String order, int page, int pagesize, StormeCancellationToken token, SQLiteDatabase db) {
+        List<T> results = new ArrayList<T>();
+        for(String sql : queriesFor(db, getSelectColumns(), where, whereParams, order, getLimit(page, pagesize))) {
+            List<T> found = listFromCursor(rawQuery(db, sql, whereParams, token), token);
+            if(found != null) {
+                results.addAll(found);
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public boolean scan(String where, String[] whereParams, String order, T inst, StormeRowVisitor<T> visitor, SQLiteDatabase db) {
+        for(String sql : queriesFor(db, getSelectColumns(), where, whereParams, order, null)) {
+            if(!scanCursor(db.rawQuery(sql, whereParams), inst, visitor)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public StormeColumns readColumns(String[] fields, String where, String[] whereParams, String order, SQLiteDatabase db) {
+        StormeColumns columns = newColumns(fields);
+        for(String sql : queriesFor(db, fields, where, whereParams, order, null)) {
+            columns.read(db.rawQuery(sql, whereParams));
+        }
+        columns.finish();
+        return columns;
+    }
+
+    @Override
+    void export(TableExporter exporter, String where, String[] whereParams, SQLiteDatabase db) throws IOException {
+        for(String sql : queriesFor(db, exporter.getColumnNames(), where, whereParams, null, null)) {
+            exporter.writeRows(db.rawQuery(sql, whereParams));
+        }
+    }
+
+    /**
+     * Builds the statements reading the rows matching a query from the partitions it can touch.
+     * Up to MAX_UNION_PARTITIONS partitions are read with a single UNION ALL. Beyond that an
+     * ordered or paged query nests unions of MAX_UNION_PARTITIONS partitions inside an outer one,
+     * as SQLite limits the terms of each compound select rather than of the statement, and other
+     * queries are split into one statement per chunk. Ordered unions select every column so the
+     * order can refer to any of them.
+     */
+    private List<String> queriesFor(SQLiteDatabase db, String[] columns, String where, String[] whereParams, String order, String limit) {
+        List<String> names = partitionsFor(db, where, whereParams);
+        List<String> queries = new ArrayList<String>();
+        if(names.isEmpty()) {
+            return queries;
+        }
+        if(names.size() == 1) {
+            queries.add(SQLiteQueryBuilder.buildQueryString(false, names.get(0), columns, where, null, null, order, limit));
+            return queries;
+        }
+
+        String numberedWhere = numberPlaceholders(where);
+        String select = order != null ? "*" : TextUtils.join(", ", columns);
+        if(names.size() <= MAX_UNION_PARTITIONS || order != null || limit != null) {
+            StringBuilder sql = new StringBuilder("SELECT * FROM (").append(nestedUnion(names, select, numberedWhere)).append(")");
+            if(order != null) {
+                sql.append(" ORDER BY ").append(order);
+            }
+            if(limit != null) {
+                sql.append(" LIMIT ").append(limit);
+            }
+            queries.add(sql.toString());
+            return queries;
+        }
+
+        for(List<String> chunk : chunk(names)) {
+            queries.add(union(chunk, select, numberedWhere));
+        }
+        return queries;
+    }
+
+    @Override
+    public int update(SQLiteDatabase db, T obj) {
+        markModified(obj);
+
+        ContentValues values = addModelValues(obj);
+        String partition = partitionFor(db, getPartitionTime(obj));
+        String[] idParams = new String[] { String.valueOf(obj.getId()) };
+
+        int rows = db.update(partition, values, ID_WHERE, idParams);
+        if(rows == 0) {
+            // the partition field has changed so the row needs moving into its new partition
+            db.beginTransaction();
+            try {
+                boolean moved = false;
+                for(String other : getPartitions(db).values()) {
+                    if(!other.equals(partition) && db.delete(other, ID_WHERE, idParams) > 0) {
+                        moved = true;
+                    }
+                }
+                if(moved) {
+                    values.put(ReflectionClassTableGenerator.ID_COLUMN_NAME, obj.getId());
+                    if(db.insert(partition, null, values) >= 0) {
+                        rows = 1;
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+        return rows;
+    }
+
+    @Override
+    public void insert(SQLiteDatabase db, T obj) {
+        markInserted(obj);
+
+        ContentValues values = addModelValues(obj);
+        String partition = partitionFor(db, getPartitionTime(obj));
+        long id = nextId(db);
+        values.put(ReflectionClassTableGenerator.ID_COLUMN_NAME, id);
+
+        if(db.insert(partition, null, values) < 0) {
+            Log.e(TAG, "Failed to insert object into DbModel: " + partition + ":" + id);
+        } else {
+            obj.setId(id);
+        }
+    }
+
+    @Override
+    public void createIndexes(SQLiteDatabase db) {
+        for(String partition : getPartitions(db).values()) {
+            createIndexes(db, partition);
+        }
+    }
+
+    @Override
+    public void dropIndexes(SQLiteDatabase db) {
+        for(String partition : getPartitions(db).values()) {
+            dropIndexes(db, partition);
+        }
+    }
+
+    /**
+     * Imported rows are routed to their partition as ContentValues and always given new ids, as
+     * ids in the file could collide with ids already allocated in other partitions.
+     */
+    @Override
+    TableImporter newImporter(StormeImportOptions options) {
+        final int conflict;
+        switch(options.getConflictPolicy()) {
+            case SKIP:
+                conflict = SQLiteDatabase.CONFLICT_IGNORE;
+                break;
+            case REPLACE:
+                conflict = SQLiteDatabase.CONFLICT_REPLACE;
+                break;
+            default:
+                conflict = SQLiteDatabase.CONFLICT_ABORT;
+                break;
+        }
+        return new TableImporter(this, getExportColumns(), options) {
+            @Override
+            protected void prepare(SQLiteDatabase db) {
+            }
+
+            @Override
+            protected boolean insertRow(ImportReader reader, SQLiteDatabase db) {
+                ContentValues values = new ContentValues();
+                for(int i = 1; i < columns.size(); i++) {
+                    String name = columns.get(i).name;
+                    switch(reader.types[i]) {
+                        case ExportColumn.TYPE_INTEGER:
+                            values.put(name, reader.longs[i]);
+                            break;
+                        case ExportColumn.TYPE_REAL:
+                            values.put(name, reader.doubles[i]);
+                            break;
+                        case ExportColumn.TYPE_TEXT:
+                            values.put(name, reader.texts[i]);
+                            break;
+                        case ExportColumn.TYPE_BLOB:
+                            values.put(name, reader.blobs[i]);
+                            break;
+                        default:
+                            values.putNull(name);
+                            break;
+                    }
+                }
+                Long time = values.getAsLong(partitionColumn.getName());
+                String partition = partitionFor(db, time != null ? time : 0);
+                values.put(ReflectionClassTableGenerator.ID_COLUMN_NAME, nextId(db));
+                return db.insertWithOnConflict(partition, null, values, conflict) >= 0;
+            }
+
+            @Override
+            protected void rolledBack() {
+                super.rolledBack();
+                // partitions created in the batch were rolled back with it
+                partitions = null;
+            }
+        };
+    }
+
+    @Override
+    public void delete(T obj, SQLiteDatabase db) {
+        String[] idParams = new String[] { String.valueOf(obj.getId()) };
+        String partition = getPartitions(db).get(period.startOf(getPartitionTime(obj)));
+        if(partition != null && db.delete(partition, ID_WHERE, idParams) > 0) {
+            return;
+        }
+        for(String other : getPartitions(db).values()) {
+            if(db.delete(other, ID_WHERE, idParams) > 0) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void delete(String where, String[] whereParams, SQLiteDatabase db) {
+        for(String partition : partitionsFor(db, where, whereParams)) {
+            db.delete(partition, where, whereParams);
+        }
+    }
+
+    @Override
+    public void deleteAll(SQLiteDatabase db) {
+        dropPartitions(db);
+    }
+
+    public int dropPartitionsBefore(long time, SQLiteDatabase db) {
+        int dropped = 0;
+        TreeMap<Long, String> current = getPartitions(db);
+        for(Map.Entry<Long, String> entry : new ArrayList<Map.Entry<Long, String>>(current.headMap(time).entrySet())) {
+            if(period.next(entry.getKey()) <= time) {
+                db.execSQL(String.format(DROP_TEMPLATE, entry.getValue()));
+                current.remove(entry.getKey());
+                dropped++;
+            }
+        }
+        return dropped;
+    }
+
+    @Override
+    public int deleteBatchOlderThan(String field, long cutOff, int batchSize, SQLiteDatabase db) {
+        boolean partitionField = field.equals(partitionColumn.getName());
+        String[] params = new String[] { String.valueOf(cutOff) };
+
+        for(Map.Entry<Long, String> entry : getPartitions(db).entrySet()) {
+            if(partitionField && entry.getKey() >= cutOff) {
+                break;
+            }
+            if(partitionField && period.next(entry.getKey()) <= cutOff) {
+                return dropPartition(db, entry.getKey());
+            }
+            int deleted = deleteIdRange(db, entry.getValue(), field + " < ?", params, batchSize);
+            if(deleted > 0) {
+                return deleted;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public int deleteBatchOverLimit(long maxRows, int batchSize, SQLiteDatabase db) {
+        long excess = findCount(db) - maxRows;
+        Map.Entry<Long, String> oldest = getPartitions(db).firstEntry();
+        if(excess <= 0 || oldest == null) {
+            return 0;
+        }
+        if(countRows(db, oldest.getValue()) <= excess) {
+            return dropPartition(db, oldest.getKey());
+        }
+        return deleteIdRange(db, oldest.getValue(), null, null, (int) Math.min(excess, batchSize));
+    }
+
+    @Override
+    void rolledBack() {
+        super.rolledBack();
+        // partitions created or dropped in the transaction are back as they were
+        partitions = null;
+    }
+
+    public List<String> getPartitionNames(SQLiteDatabase db) {
+        return new ArrayList<String>(getPartitions(db).values());
+    }
+
+    private void dropPartitions(SQLiteDatabase db) {
+        for(String partition : getPartitions(db).values()) {
+            db.execSQL(String.format(DROP_TEMPLATE, partition));
+        }
+        partitions = null;
+    }
+
+    private int dropPartition(SQLiteDatabase db, long start) {
+        String name = getPartitions(db).remove(start);
+        int rows = countRows(db, name);
+        db.execSQL(String.format(DROP_TEMPLATE, name));
+        return rows;
+    }
+
+    private int countRows(SQLiteDatabase db, String partition) {
+        return (int) queryLong(db, "SELECT count(*) FROM " + partition, null);
+    }
+
+    private TreeMap<Long, String> getPartitions(SQLiteDatabase db) {
+        if(partitions == null) {
+            TreeMap<Long, String> found = new TreeMap<Long, String>();
+            String namePrefix = tableName + PARTITION_SEPARATOR;
+            Cursor cursor = db.rawQuery(LIST_PARTITIONS, new String[] { namePrefix + PARTITION_KEY_GLOB });
+            if(cursor != null) {
+                try {
+                    while (cursor.moveToNext()) {
+                        String name = cursor.getString(0);
+                        try {
+                            found.put(period.startFromKey(name.substring(namePrefix.length())), name);
+                        } catch (ParseException e) {
+                            Log.e(TAG, "Ignoring table with invalid partition name: " + name);
+                        }
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+            partitions = found;
+        }
+        return partitions;
+    }
+
+    private String partitionFor(SQLiteDatabase db, long time) {
+        long start = period.startOf(time);
+        TreeMap<Long, String> current = getPartitions(db);
+        String name = current.get(start);
+        if(name == null) {
+            name = tableName + PARTITION_SEPARATOR + period.keyFor(start);
+            db.execSQL(reflectionClassTableGenerator.getCreateStatement(name));
+            createIndexes(db, name);
+            current.put(start, name);
+        }
+        return name;
+    }
+
+    private List<String> partitionsFor(SQLiteDatabase db, String where, String[] whereParams) {
+        long[] range = getRange(where, whereParams);
+        List<String> names = new ArrayList<String>();
+        if(range[0] > range[1]) {
+            return names;
+        }
+        for(Map.Entry<Long, String> entry : getPartitions(db).headMap(range[1], true).entrySet()) {
+            if(period.next(entry.getKey()) > range[0]) {
+                names.add(entry.getValue());
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Works out the inclusive range of the partition field covered by a where clause. Only simple
+     * conjunctions of comparisons against parameters are understood, anything else returns the
+     * full range so every partition is searched. A range that can't match anything has its start
+     * after its end.
+     */
+    long[] getRange(String where, String[] whereParams) {
+        long[] range = new long[] { Long.MIN_VALUE, Long.MAX_VALUE };
+        if(where == null || whereParams == null || DISJUNCTION.matcher(where).find()) {
+            return range;
+        }
+
+        Matcher matcher = comparison.matcher(where);
+        while(matcher.find()) {
+            Long value = paramAsLong(whereParams, countPlaceholders(where, matcher.end()) - 1);
+            if(value != null) {
+                String op = matcher.group(1);
+                if(op.equals(">=")) {
+                    range[0] = Math.max(range[0], value);
+                } else if(op.equals(">")) {
+                    if(value == Long.MAX_VALUE) {
+                        return new long[] { Long.MAX_VALUE, Long.MIN_VALUE };
+                    }
+                    range[0] = Math.max(range[0], value + 1);
+                } else if(op.equals("<=")) {
+                    range[1] = Math.min(range[1], value);
+                } else if(op.equals("<")) {
+                    if(value == Long.MIN_VALUE) {
+                        return new long[] { Long.MAX_VALUE, Long.MIN_VALUE };
+                    }
+                    range[1] = Math.min(range[1], value - 1);
+                } else {
+                    range[0] = Math.max(range[0], value);
+                    range[1] = Math.min(range[1], value);
+                }
+            }
+        }
+
+        matcher = between.matcher(where);
+        while(matcher.find()) {
+            int last = countPlaceholders(where, matcher.end()) - 1;
+            Long low = paramAsLong(whereParams, last - 1);
+            Long high = paramAsLong(whereParams, last);
+            if(low != null && high != null) {
+                range[0] = Math.max(range[0], low);
+                range[1] = Math.min(range[1], high);
+            }
+        }
+        return range;
+    }
+
+    private long getPartitionTime(T obj) {
+        try {
+            Object value = partitionColumn.field.get(obj);
+            if(value instanceof Date) {
+                return ((Date) value).getTime();
+            } else if(value instanceof Long) {
+                return (Long) value;
+            }
+        } catch (IllegalAccessException e) {
+            Log.e(TAG, "Failed to get partition field value: " + partitionColumn.getName(), e);
+        }
+        return 0;
+    }
+
+    private synchronized long nextId(SQLiteDatabase db) {
+        if(lastId < 0) {
+            lastId = 0;
+            for(List<String> chunk : chunk(new ArrayList<String>(getPartitions(db).values()))) {
+                String max = "MAX(" + ReflectionClassTableGenerator.ID_COLUMN_NAME + ")";
+                lastId = Math.max(lastId, queryLong(db, "SELECT MAX(m) FROM (" + union(chunk, max + " AS m", null) + ")", null));
+            }
+        }
+        return ++lastId;
+    }
+
+    private static String union(List<String> names, String columns, String where) {
+        StringBuilder sql = new StringBuilder();
+        for(String name : names) {
+            if(sql.length() > 0) {
+                sql.append(" UNION ALL ");
+            }
+            sql.append("SELECT ").append(columns).append(" FROM ").append(name);
+            if(where != null) {
+                sql.append(" WHERE ").append(where);
+            }
+        }
+        return sql.toString();
+    }
+
+    private String nestedUnion(List<String> names, String columns, String where) {
+        if(names.size() <= MAX_UNION_PARTITIONS) {
+            return union(names, columns, where);
+        }
+        List<List<String>> chunks = chunk(names);
+        if(chunks.size() > MAX_UNION_PARTITIONS) {
+            throw new IllegalArgumentException("Ordered or paged query spans " + names.size() + " partitions of "
+                    + tableName + ", narrow the range on " + partitionColumn.getName());
+        }
+        StringBuilder sql = new StringBuilder();
+        for(List<String> chunk : chunks) {
+            if(sql.length() > 0) {
+                sql.append(" UNION ALL ");
+            }
+            sql.append("SELECT * FROM (").append(union(chunk, columns, where)).append(")");
+        }
+        return sql.toString();
+    }
+
+    private static List<List<String>> chunk(List<String> names) {
+        List<List<String>> chunks = new ArrayList<List<String>>();
+        for(int i = 0; i < names.size(); i += MAX_UNION_PARTITIONS) {
+            chunks.add(names.subList(i, Math.min(names.size(), i + MAX_UNION_PARTITIONS)));
+        }
+        return chunks;
+    }
+
+    private static Long paramAsLong(String[] params, int index) {
+        if(index >= 0 && index < params.length && params[index] != null) {
+            try {
+                return Long.parseLong(params[index].trim());
+            } catch (NumberFormatException e) {
+                Log.w(TAG, "Partition field compared with a non numeric value: " + params[index]);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Counts the anonymous ? placeholders in the first length characters of the sql, ignoring any
+     * inside quoted strings or identifiers.
+     */
+    static int countPlaceholders(String sql, int length) {
+        int count = 0;
+        char quote = 0;
+        for(int i = 0; i < length; i++) {
+            char c = sql.charAt(i);
+            if(quote != 0) {
+                if(c == quote) {
+                    quote = 0;
+                }
+            } else if(c == '\'' || c == '"') {
+                quote = c;
+            } else if(c == '?') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Rewrites anonymous ? placeholders as ?1, ?2 etc. so the same parameters can be referenced by
+     * every term of a compound select.
+     */
+    static String numberPlaceholders(String sql) {
+        if(sql == null) {
+            return null;
+        }
+        StringBuilder numbered = new StringBuilder(sql.length() + 8);
+        int count = 0;
+        char quote = 0;
+        for(int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            numbered.append(c);
+            if(quote != 0) {
+                if(c == quote) {
+                    quote = 0;
+                }
+            } else if(c == '\'' || c == '"') {
+                quote = c;
+            } else if(c == '?') {
+                numbered.append(++count);
+            }
+        }
+        return numbered.toString();
+    }
+}
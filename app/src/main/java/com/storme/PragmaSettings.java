@@ -0,0 +1,98 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Applies StormePerformanceProfiles to a database and reads back the settings in effect.
+ */
+final class PragmaSettings {
+
+    static final String[] REPORTED = new String[] { "journal_mode", "synchronous", "cache_size", "mmap_size",
+            "temp_store", "page_size", "journal_size_limit", "auto_vacuum" };
+
+    private PragmaSettings() {
+    }
+
+    /**
+     * Applies the profile to a database that has just been opened. Some of these pragmas return
+     * a row, which execSQL refuses, so they are run as queries; before write ahead logging is
+     * turned on the database has a single connection, so they reach the one that writes.
+     */
+    static void apply(SQLiteDatabase db, StormePerformanceProfile profile) {
+        if(profile.getPageSize() > 0) {
+            db.execSQL("PRAGMA page_size = " + profile.getPageSize());
+        }
+        if(profile.getCacheSizeKb() > 0) {
+            // a negative cache size is in KiB rather than pages
+            db.execSQL("PRAGMA cache_size = -" + profile.getCacheSizeKb());
+        }
+        if(profile.getMmapSizeBytes() > 0) {
+            query(db, "PRAGMA mmap_size = " + profile.getMmapSizeBytes());
+        }
+        if(profile.getTempStore() != null) {
+            db.execSQL("PRAGMA temp_store = " + profile.getTempStore().name());
+        }
+        if(profile.getJournalSizeLimitBytes() > 0) {
+            query(db, "PRAGMA journal_size_limit = " + profile.getJournalSizeLimitBytes());
+        }
+        if(profile.isWriteAheadLogging()) {
+            db.enableWriteAheadLogging();
+        } else {
+            db.disableWriteAheadLogging();
+        }
+        // Android sets its own synchronous mode when the journal mode changes, so this goes last
+        if(profile.getSynchronous() != null) {
+            db.execSQL("PRAGMA synchronous = " + profile.getSynchronous().name());
+        }
+    }
+
+    /**
+     * Reads the settings in effect, as SQLite reports them. The transaction keeps the queries on
+     * the connection that writes, which is the one the profile was applied to. The caller must
+     * hold every stripe, see TableLocks.
+     */
+    static Map<String, String> read(SQLiteDatabase db) {
+        Map<String, String> settings = new LinkedHashMap<String, String>();
+        db.beginTransactionNonExclusive();
+        try {
+            for(String pragma : REPORTED) {
+                settings.put(pragma, query(db, "PRAGMA " + pragma));
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return settings;
+    }
+
+    private static String query(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        if(cursor == null) {
+            return null;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the results of a query one page at a time as the subscriber requests them. Each page
+ * is read with its own query and the cursor is closed before any item is delivered, so nothing is
+ * held open while a slow subscriber works through the page.
+ *
+ * Without an explicit order pages are read by id, each starting after the last id delivered, so
+ * rows written while the stream runs never shift a page. With an order pages use LIMIT and OFFSET.
+ *
+ * Items are delivered on the thread calling request(); a request made from onNext is queued and
+ * served by the delivery loop already running.
+ */
+class QueryPublisher<E extends StormeModel> implements StormePublisher<E> {
+
+    private final SQLiteInstance sqliteInstance;
+    private final StormeModelFactory<E> factory;
+    private final String where;
+    private final String[] whereParams;
+    private final String order;
+    private final int pageSize;
+
+    QueryPublisher(SQLiteInstance sqliteInstance, StormeModelFactory<E> factory, String where, String[] whereParams, String order, int pageSize) {
+        this.sqliteInstance = sqliteInstance;
+        this.factory = factory;
+        this.where = where;
+        this.whereParams = whereParams;
+        this.order = order;
+        this.pageSize = pageSize;
+    }
+
+    @Override
+    public void subscribe(StormeSubscriber<? super E> subscriber) {
+        if(subscriber == null) {
+            throw new NullPointerException("Subscriber cannot be null");
+        }
+        QuerySubscription subscription = new QuerySubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+    }
+
+    private class QuerySubscription implements StormeStreamSubscription {
+
+        private final StormeSubscriber<? super E> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger work = new AtomicInteger();
+        private final ArrayDeque<E> buffer = new ArrayDeque<E>();
+
+        private volatile boolean cancelled;
+        private boolean exhausted;
+        private int page;
+        private long lastId;
+        private volatile Throwable requestError;
+
+        QuerySubscription(StormeSubscriber<? super E> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if(n <= 0) {
+                requestError = new IllegalArgumentException("Request must be positive: " + n);
+            } else {
+                long current;
+                long next;
+                do {
+                    current = demand.get();
+                    next = current + n < 0 ? Long.MAX_VALUE : current + n;
+                } while(!demand.compareAndSet(current, next));
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+
+        private void drain() {
+            if(work.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                emit();
+                missed = work.addAndGet(-missed);
+            } while(missed != 0);
+        }
+
+        private void emit() {
+            while(!cancelled) {
+                if(requestError != null) {
+                    cancelled = true;
+                    subscriber.onError(requestError);
+                    break;
+                }
+                if(buffer.isEmpty() && exhausted) {
+                    cancelled = true;
+                    subscriber.onComplete();
+                    break;
+                }
+                if(demand.get() == 0) {
+                    break;
+                }
+                if(buffer.isEmpty()) {
+                    try {
+                        readPage();
+                    } catch (RuntimeException e) {
+                        cancelled = true;
+                        subscriber.onError(e);
+                        break;
+                    }
+                    if(buffer.isEmpty()) {
+                        continue;
+                    }
+                }
+                if(demand.get() != Long.MAX_VALUE) {
+                    demand.decrementAndGet();
+                }
+                subscriber.onNext(buffer.poll());
+            }
+            if(cancelled) {
+                buffer.clear();
+            }
+        }
+
+        private void readPage() {
+            SQLiteInstance.getLocks().lockRead(factory.modelClass);
+            try {
+                sqliteInstance.openDB();
+                List<E> list;
+                if(order == null) {
+                    String pageWhere = ReflectionClassTableGenerator.ID_COLUMN_NAME + " > ?";
+                    String[] pageParams;
+                    if(where == null) {
+                        pageParams = new String[] { String.valueOf(lastId) };
+                    } else {
+                        pageWhere = "(" + where + ") AND " + pageWhere;
+                        int count = whereParams != null ? whereParams.length : 0;
+                        pageParams = new String[count + 1];
+                        if(count > 0) {
+                            System.arraycopy(whereParams, 0, pageParams, 0, count);
+                        }
+                        pageParams[count] = String.valueOf(lastId);
+                    }
+                    list = factory.find(pageWhere, pageParams, ReflectionClassTableGenerator.ID_COLUMN_NAME + " ASC", 1, pageSize, sqliteInstance.getDatabase());
+                } else {
+                    list = factory.find(where, whereParams, order, ++page, pageSize, sqliteInstance.getDatabase());
+                }
+                exhausted = list.size() < pageSize;
+                if(!list.isEmpty()) {
+                    lastId = list.get(list.size() - 1).getId();
+                }
+                buffer.addAll(list);
+            } finally {
+                SQLiteInstance.getLocks().unlockRead(factory.modelClass);
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+/**
+ * Stores the id held by a StormeRef field.
+ */
+public class RefFieldColumn extends FieldColumn {
+
+    public static final String COLUMN_SUFFIX = "Id";
+
+    private Class<? extends StormeModel> targetClass;
+    private RelationLoader loader;
+
+    public RefFieldColumn() { super(StormeRef.class); }
+
+    public Class<? extends StormeModel> getTargetClass() {
+        return targetClass;
+    }
+
+    public void setTargetClass(Class<? extends StormeModel> targetClass) {
+        this.targetClass = targetClass;
+    }
+
+    public void setLoader(RelationLoader loader) {
+        this.loader = loader;
+    }
+
+    public String getFieldName() {
+        return field.getName();
+    }
+
+    public StormeRef getRef(Object inst) throws IllegalAccessException {
+        return (StormeRef) field.get(inst);
+    }
+
+    @Override
+    public String getColumnType() { return "INTEGER"; }
+
+    @Override
+    public void setValueFromCursor(Object inst, Cursor cursor, int position) {
+        if(cursor.isNull(position)) {
+            setValue(inst, null);
+        } else {
+            setValue(inst, new StormeRef(targetClass, cursor.getLong(position), loader));
+        }
+    }
+
+    @Override
+    public void addFieldValue(Object inst, ContentValues values) throws IllegalAccessException {
+        StormeRef ref = getRef(inst);
+        if(ref != null && ref.getId() > 0) {
+            values.put(name, ref.getId());
+        } else {
+            values.putNull(name);
+        }
+    }
+}
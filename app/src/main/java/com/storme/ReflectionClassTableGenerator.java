@@ -18,6 +18,10 @@ package com.storme;
 import android.util.Log;
 
 import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -35,11 +39,22 @@ public class ReflectionClassTableGenerator<T> {
 
     public static final String ID_COLUMN_NAME = "id";
 
+    private static final String DICTIONARY_SUFFIX = "_dict";
+    private static final String INDEX_TEMPLATE = "CREATE INDEX IF NOT EXISTS %s_%s ON %s (%s)";
+    private static final String INDEX_NAME_TEMPLATE = "%s_%s";
+
     private static final String TABLE_TEMPLATE = "CREATE TABLE IF NOT EXISTS %s (" +
             "\n" + ID_COLUMN_NAME + " INTEGER PRIMARY KEY" +
             "%s" +
             "\n);";
 
+    private static final String KEYED_TABLE_TEMPLATE = "CREATE TABLE IF NOT EXISTS %s (" +
+            "\n" + ID_COLUMN_NAME + " INTEGER NOT NULL" +
+            "%s," +
+            "\nPRIMARY KEY (%s)" +
+            "\n)%s;";
+    private static final String WITHOUT_ROWID = " WITHOUT ROWID";
+    private static final String ID_INDEX_TEMPLATE = "CREATE UNIQUE INDEX IF NOT EXISTS %s_" + ID_COLUMN_NAME + " ON %s (" + ID_COLUMN_NAME + ")";
 
     private static Map<Class<?>, Class<? extends FieldColumn>> SUPPORTED_TYPE_COLUMNS = new HashMap<Class<?>, Class<? extends FieldColumn>>();
     static {
@@ -55,12 +70,15 @@ public class ReflectionClassTableGenerator<T> {
         SUPPORTED_TYPE_COLUMNS.put(float.class, FloatFieldColumn.class);
         SUPPORTED_TYPE_COLUMNS.put(Double.class, DoubleFieldColumn.class);
         SUPPORTED_TYPE_COLUMNS.put(double.class, DoubleFieldColumn.class);
+        SUPPORTED_TYPE_COLUMNS.put(byte[].class, BlobFieldColumn.class);
+        SUPPORTED_TYPE_COLUMNS.put(ByteBuffer.class, ByteBufferFieldColumn.class);
     }
 
     private String tablePrefix;
     private Class<T> modelClass;
     private Map<String, FieldColumn> modelColumnNameFieldMap;
     private List<Field> modelFields;
+    private List<ToManyRelation> toManyRelations;
 
     public ReflectionClassTableGenerator(Class<T> modelClass, String tablePrefix) {
         this.modelClass = modelClass;
@@ -76,6 +94,18 @@ public class ReflectionClassTableGenerator<T> {
     }
 
     public String getCreateStatement() {
+        return getCreateStatement(getTableName());
+    }
+
+    public String getCreateStatement(String tableName) {
+        return getCreateStatement(tableName, true);
+    }
+
+    /**
+     * Returns the statement creating the table. For a model with a StormePrimaryKey the table is
+     * only created WITHOUT ROWID when asked for and the annotation allows it.
+     */
+    public String getCreateStatement(String tableName, boolean withoutRowid) {
 
         StringBuilder columnsStatement = new StringBuilder();
 
@@ -89,7 +119,61 @@ public class ReflectionClassTableGenerator<T> {
                     .append(" ")
                     .append(fieldColumn.getColumnType());
         }
-        return String.format(TABLE_TEMPLATE, getTableName(), columnsStatement.toString());
+
+        List<FieldColumn> keys = getPrimaryKeyColumns();
+        if(keys.isEmpty()) {
+            return String.format(TABLE_TEMPLATE, tableName, columnsStatement.toString());
+        }
+        StringBuilder keyList = new StringBuilder();
+        for(FieldColumn key : keys) {
+            if(keyList.length() > 0) {
+                keyList.append(", ");
+            }
+            keyList.append(key.getName());
+        }
+        boolean clustered = withoutRowid && modelClass.getAnnotation(StormePrimaryKey.class).withoutRowid();
+        return String.format(KEYED_TABLE_TEMPLATE, tableName, columnsStatement.toString(), keyList, clustered ? WITHOUT_ROWID : "");
+    }
+
+    /**
+     * Returns the statement creating the unique index on the id of a model with a
+     * StormePrimaryKey, or null for other models where the id is the primary key.
+     */
+    public String getIdIndexStatement(String tableName) {
+        if(getPrimaryKeyColumns().isEmpty()) {
+            return null;
+        }
+        return String.format(ID_INDEX_TEMPLATE, tableName, tableName);
+    }
+
+    /**
+     * Returns the columns named by the model's StormePrimaryKey in key order, or an empty list if
+     * the model has none.
+     */
+    public List<FieldColumn> getPrimaryKeyColumns() {
+        List<FieldColumn> columns = new ArrayList<FieldColumn>();
+        StormePrimaryKey primaryKey = modelClass.getAnnotation(StormePrimaryKey.class);
+        if(primaryKey == null) {
+            return columns;
+        }
+        if(primaryKey.value().length == 0) {
+            throw new IllegalArgumentException("Primary key must name at least one field: " + modelClass.getName());
+        }
+        for(String name : primaryKey.value()) {
+            FieldColumn column = getFieldForColumn(name);
+            if(column == null) {
+                throw new IllegalArgumentException("Unknown primary key field " + name + " for " + modelClass.getName());
+            }
+            Class<?> type = column.getClass();
+            if(type != StringFieldColumn.class && type != IntegerFieldColumn.class && type != LongFieldColumn.class) {
+                throw new IllegalArgumentException("Only String, int and long fields can be part of a primary key: " + name);
+            }
+            if(column.getField().isAnnotationPresent(StormeLazy.class) || columns.contains(column)) {
+                throw new IllegalArgumentException("Field cannot be part of the primary key: " + name);
+            }
+            columns.add(column);
+        }
+        return columns;
     }
 
     public FieldColumn getFieldForColumn(String columnName) {
@@ -106,23 +190,141 @@ public class ReflectionClassTableGenerator<T> {
         return modelColumnNameFieldMap.values();
     }
 
+    public List<String> getIndexStatements(String tableName) {
+        List<String> statements = new ArrayList<String>();
+        for(FieldColumn column : getIndexedColumns()) {
+            statements.add(String.format(INDEX_TEMPLATE, tableName, column.getName(), tableName, column.getName()));
+        }
+        return statements;
+    }
+
+    public List<String> getIndexNames(String tableName) {
+        List<String> names = new ArrayList<String>();
+        for(FieldColumn column : getIndexedColumns()) {
+            names.add(String.format(INDEX_NAME_TEMPLATE, tableName, column.getName()));
+        }
+        return names;
+    }
+
+    public List<FieldColumn> getIndexedColumns() {
+        List<FieldColumn> columns = new ArrayList<FieldColumn>();
+        for(FieldColumn column : getModelFields()) {
+            if(column instanceof RefFieldColumn || column.field.isAnnotationPresent(StormeIndexed.class)) {
+                columns.add(column);
+            }
+        }
+        return columns;
+    }
+
+    public RefFieldColumn getRefColumn(String fieldName) {
+        FieldColumn column = getFieldForColumn(fieldName + RefFieldColumn.COLUMN_SUFFIX);
+        if(column instanceof RefFieldColumn && ((RefFieldColumn) column).getFieldName().equals(fieldName)) {
+            return (RefFieldColumn) column;
+        }
+        return null;
+    }
+
+    public List<RefFieldColumn> getRefColumns() {
+        List<RefFieldColumn> columns = new ArrayList<RefFieldColumn>();
+        for(FieldColumn column : getModelFields()) {
+            if(column instanceof RefFieldColumn) {
+                columns.add((RefFieldColumn) column);
+            }
+        }
+        return columns;
+    }
+
+    public List<ToManyRelation> getToManyRelations() {
+        if(modelColumnNameFieldMap == null) {
+            setupMaps();
+        }
+        return toManyRelations;
+    }
+
+    public ToManyRelation getToManyRelation(String fieldName) {
+        for(ToManyRelation relation : getToManyRelations()) {
+            if(relation.getName().equals(fieldName)) {
+                return relation;
+            }
+        }
+        return null;
+    }
+
+    public List<DictionaryFieldColumn> getDictionaryColumns() {
+        List<DictionaryFieldColumn> columns = new ArrayList<DictionaryFieldColumn>();
+        for(FieldColumn column : getModelFields()) {
+            if(column instanceof DictionaryFieldColumn) {
+                columns.add((DictionaryFieldColumn) column);
+            }
+        }
+        return columns;
+    }
+
+    public List<FieldColumn> getSearchableColumns() {
+        List<FieldColumn> columns = new ArrayList<FieldColumn>();
+        for(FieldColumn column : getModelFields()) {
+            if(column.getField().isAnnotationPresent(StormeSearchable.class)) {
+                if(!(column instanceof StringFieldColumn)) {
+                    throw new IllegalArgumentException("Only plain String fields can be searchable: " + column.getName());
+                }
+                columns.add(column);
+            }
+        }
+        return columns;
+    }
+
+    public List<FieldColumn> getLazyColumns() {
+        List<FieldColumn> columns = new ArrayList<FieldColumn>();
+        for(FieldColumn column : getModelFields()) {
+            if(column.getField().isAnnotationPresent(StormeLazy.class)) {
+                if(column.getClass() != StringFieldColumn.class && column.getClass() != BlobFieldColumn.class) {
+                    throw new IllegalArgumentException("Only plain String and byte[] fields can be lazy: " + column.getName());
+                }
+                columns.add(column);
+            }
+        }
+        return columns;
+    }
+
+    public List<ChunkedBlobFieldColumn> getChunkedBlobColumns() {
+        List<ChunkedBlobFieldColumn> columns = new ArrayList<ChunkedBlobFieldColumn>();
+        for(FieldColumn column : getModelFields()) {
+            if(column instanceof ChunkedBlobFieldColumn) {
+                columns.add((ChunkedBlobFieldColumn) column);
+            }
+        }
+        return columns;
+    }
+
     private void setupMaps() {
         modelColumnNameFieldMap = new HashMap<String, FieldColumn>();
         modelFields = new ArrayList<Field>();
+        toManyRelations = new ArrayList<ToManyRelation>();
 
         List<Field> fields = new ArrayList<Field>();
         getAllFields(fields, modelClass);
         for (Field f : fields) {
+            // static and synthetic fields (e.g. added by coverage tools) are never stored
+            if (Modifier.isStatic(f.getModifiers()) || f.isSynthetic()) {
+                continue;
+            }
             f.setAccessible(true);
             if (!f.isAnnotationPresent(StormeFieldIgnore.class)) {
                 try {
+                    if (f.isAnnotationPresent(StormeToMany.class)) {
+                        toManyRelations.add(new ToManyRelation(f));
+                        continue;
+                    }
                     FieldColumn column = columnFromField(f);
                     if (column != null) {
                         modelColumnNameFieldMap.put(column.getName(), column);
                         modelFields.add(f);
                     }
+                } catch (IllegalArgumentException e) {
+                    // a misconfigured field must fail the model rather than be left out of the table
+                    throw e;
                 } catch (Exception e) {
-                    Log.e(TAG, "Unable to setup field mapping for field: " + f.getName());
+                    Log.e(TAG, "Unable to setup field mapping for field: " + f.getName(), e);
                 }
             }
         }
@@ -137,6 +339,48 @@ public class ReflectionClassTableGenerator<T> {
 
     private FieldColumn columnFromField(Field field) throws IllegalAccessException, InstantiationException {
 
+        if(field.isAnnotationPresent(StormeChunkedBlob.class)) {
+            if(field.getType() != byte[].class) {
+                throw new IllegalArgumentException("Only byte[] fields can be chunked: " + field.getName());
+            }
+            ChunkedBlobFieldColumn column = new ChunkedBlobFieldColumn();
+            column.setName(field.getName());
+            column.setField(field);
+            column.setChunkSize(field.getAnnotation(StormeChunkedBlob.class).chunkSize());
+            return column;
+        }
+
+        if(field.getType() == StormeRef.class) {
+            Type type = field.getGenericType();
+            Type target = type instanceof ParameterizedType ? ((ParameterizedType) type).getActualTypeArguments()[0] : null;
+            if(!(target instanceof Class) || !StormeModel.class.isAssignableFrom((Class<?>) target)) {
+                throw new IllegalArgumentException("StormeRef field must name its model type: " + field.getName());
+            }
+            RefFieldColumn column = new RefFieldColumn();
+            column.setName(field.getName() + RefFieldColumn.COLUMN_SUFFIX);
+            column.setField(field);
+            column.setTargetClass(((Class<?>) target).asSubclass(StormeModel.class));
+            return column;
+        }
+
+        if(field.isAnnotationPresent(StormeDictionary.class)) {
+            if(field.getType() != String.class) {
+                throw new IllegalArgumentException("Only String fields can be dictionary encoded: " + field.getName());
+            }
+            DictionaryFieldColumn column = new DictionaryFieldColumn();
+            column.setName(field.getName());
+            column.setField(field);
+            column.setDictionary(new StringDictionary(getTableName() + "_" + field.getName() + DICTIONARY_SUFFIX));
+            return column;
+        }
+
+        if(field.getType().isEnum()) {
+            FieldColumn column = new EnumFieldColumn();
+            column.setName(field.getName());
+            column.setField(field);
+            return column;
+        }
+
         if(SUPPORTED_TYPE_COLUMNS.containsKey(field.getType())) {
             Class<? extends FieldColumn> columnClass = SUPPORTED_TYPE_COLUMNS.get(field.getType());
             FieldColumn column = columnClass.newInstance();
@@ -145,6 +389,13 @@ public class ReflectionClassTableGenerator<T> {
             return column;
         }
 
+        if(field.isAnnotationPresent(StormeEmbedded.class)) {
+            FieldColumn column = new EmbeddedFieldColumn();
+            column.setName(field.getName());
+            column.setField(field);
+            return column;
+        }
+
         return null;
     }
 }
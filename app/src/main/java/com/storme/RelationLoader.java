@@ -0,0 +1,246 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+import android.util.Log;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loads related records for StormeRef and StormeToMany fields, either lazily on first access or
+ * in bulk for a whole result list. Bulk loads use one IN query per relation, split into chunks
+ * to stay under SQLite's limit on bound parameters.
+ */
+public class RelationLoader {
+
+    private static final String TAG = RelationLoader.class.getSimpleName();
+
+    // SQLite allows 999 bound parameters by default
+    static final int MAX_IN_PARAMS = 500;
+
+    private SQLiteInstance sqliteInstance;
+    private Map<Class<? extends StormeModel>, StormeModelFactory> classToFactoryMap;
+
+    public RelationLoader(SQLiteInstance sqliteInstance, Map<Class<? extends StormeModel>, StormeModelFactory> classToFactoryMap) {
+        this.sqliteInstance = sqliteInstance;
+        this.classToFactoryMap = classToFactoryMap;
+    }
+
+    public <E extends StormeModel> E load(Class<E> modelClass, long id) {
+        StormeModelFactory factory = getFactory(modelClass);
+        SQLiteInstance.getLocks().lockRead(modelClass);
+        try {
+            sqliteInstance.openDB();
+            return modelClass.cast(factory.get(id, sqliteInstance.getDatabase()));
+        } finally {
+            SQLiteInstance.getLocks().unlockRead(modelClass);
+        }
+    }
+
+    public List<StormeModel> loadChildren(Class<? extends StormeModel> childClass, String key, long parentId) {
+        StormeModelFactory factory = getFactory(childClass);
+        SQLiteInstance.getLocks().lockRead(childClass);
+        try {
+            sqliteInstance.openDB();
+            return factory.find(key + " = ?", new String[] { String.valueOf(parentId) }, null, 0, 0, sqliteInstance.getDatabase());
+        } finally {
+            SQLiteInstance.getLocks().unlockRead(childClass);
+        }
+    }
+
+    /**
+     * Gives the to-many fields of a freshly loaded record lists that load the children on first
+     * access.
+     */
+    public void attachLazy(StormeModel inst, ReflectionClassTableGenerator<?> generator) {
+        for(ToManyRelation relation : generator.getToManyRelations()) {
+            try {
+                relation.setValue(inst, new LazyChildList(relation, inst.getId()));
+            } catch (IllegalAccessException e) {
+                Log.e(TAG, "Failed to set relation: " + relation.getName(), e);
+            }
+        }
+    }
+
+    /**
+     * Loads the named relations for every record in the list and attaches them in memory.
+     */
+    public void prefetch(ReflectionClassTableGenerator<?> generator, List<? extends StormeModel> records, String[] with) {
+        if(records == null || records.isEmpty() || with == null) {
+            return;
+        }
+        for(String name : with) {
+            RefFieldColumn refColumn = generator.getRefColumn(name);
+            ToManyRelation relation = generator.getToManyRelation(name);
+            try {
+                if(refColumn != null) {
+                    prefetchToOne(refColumn, records);
+                } else if(relation != null) {
+                    prefetchToMany(relation, records);
+                } else {
+                    throw new IllegalArgumentException("Unknown relation to prefetch: " + name);
+                }
+            } catch (IllegalAccessException e) {
+                Log.e(TAG, "Failed to prefetch relation: " + name, e);
+            }
+        }
+    }
+
+    private void prefetchToOne(RefFieldColumn column, List<? extends StormeModel> records) throws IllegalAccessException {
+        Set<Long> ids = new LinkedHashSet<Long>();
+        for(StormeModel record : records) {
+            StormeRef ref = column.getRef(record);
+            if(ref != null && ref.getId() > 0) {
+                ids.add(ref.getId());
+            }
+        }
+
+        Map<Long, StormeModel> byId = new HashMap<Long, StormeModel>();
+        for(StormeModel related : loadWhereIn(column.getTargetClass(), ReflectionClassTableGenerator.ID_COLUMN_NAME, ids)) {
+            byId.put(related.getId(), related);
+        }
+        for(StormeModel record : records) {
+            StormeRef ref = column.getRef(record);
+            if(ref != null && ref.getId() > 0) {
+                ref.setLoaded(byId.get(ref.getId()));
+            }
+        }
+    }
+
+    private void prefetchToMany(ToManyRelation relation, List<? extends StormeModel> records) throws IllegalAccessException {
+        Map<Long, List<StormeModel>> byParent = new HashMap<Long, List<StormeModel>>();
+        Map<Long, StormeModel> parents = new HashMap<Long, StormeModel>();
+        for(StormeModel record : records) {
+            byParent.put(record.getId(), new ArrayList<StormeModel>());
+            parents.put(record.getId(), record);
+        }
+
+        FieldColumn keyColumn = getFactory(relation.getChildClass()).reflectionClassTableGenerator.getFieldForColumn(relation.getKey());
+        if(keyColumn == null) {
+            throw new IllegalArgumentException("Unknown key column for relation " + relation.getName() + ": " + relation.getKey());
+        }
+
+        for(StormeModel child : loadWhereIn(relation.getChildClass(), relation.getKey(), parents.keySet())) {
+            Object key = keyColumn.field.get(child);
+            long parentId = 0;
+            if(key instanceof StormeRef) {
+                parentId = ((StormeRef) key).getId();
+                // the children can point back at the parent we already have
+                ((StormeRef) key).setLoaded(parents.get(parentId));
+            } else if(key instanceof Number) {
+                parentId = ((Number) key).longValue();
+            }
+            List<StormeModel> children = byParent.get(parentId);
+            if(children != null) {
+                children.add(child);
+            }
+        }
+        for(StormeModel record : records) {
+            relation.setValue(record, byParent.get(record.getId()));
+        }
+    }
+
+    private List<StormeModel> loadWhereIn(Class<? extends StormeModel> modelClass, String column, Set<Long> ids) {
+        List<StormeModel> results = new ArrayList<StormeModel>();
+        if(ids.isEmpty()) {
+            return results;
+        }
+        StormeModelFactory factory = getFactory(modelClass);
+        SQLiteInstance.getLocks().lockRead(modelClass);
+        try {
+            sqliteInstance.openDB();
+            List<Long> all = new ArrayList<Long>(ids);
+            for(int start = 0; start < all.size(); start += MAX_IN_PARAMS) {
+                List<Long> chunk = all.subList(start, Math.min(all.size(), start + MAX_IN_PARAMS));
+                StringBuilder where = new StringBuilder(column).append(" IN (");
+                String[] params = new String[chunk.size()];
+                for(int i = 0; i < params.length; i++) {
+                    where.append(i > 0 ? ",?" : "?");
+                    params[i] = String.valueOf(chunk.get(i));
+                }
+                where.append(")");
+                List<StormeModel> found = factory.find(where.toString(), params, null, 0, 0, sqliteInstance.getDatabase());
+                if(found != null) {
+                    results.addAll(found);
+                }
+            }
+        } finally {
+            SQLiteInstance.getLocks().unlockRead(modelClass);
+        }
+        return results;
+    }
+
+    private StormeModelFactory getFactory(Class<? extends StormeModel> modelClass) {
+        StormeModelFactory factory = classToFactoryMap.get(modelClass);
+        if(factory == null) {
+            throw new IllegalArgumentException("Related model type is not registered with the helper: " + modelClass.getName());
+        }
+        return factory;
+    }
+
+    private class LazyChildList extends AbstractList<StormeModel> {
+
+        private ToManyRelation relation;
+        private long parentId;
+        private List<StormeModel> children;
+
+        LazyChildList(ToManyRelation relation, long parentId) {
+            this.relation = relation;
+            this.parentId = parentId;
+        }
+
+        private List<StormeModel> children() {
+            if(children == null) {
+                List<StormeModel> found = loadChildren(relation.getChildClass(), relation.getKey(), parentId);
+                children = found != null ? found : new ArrayList<StormeModel>();
+            }
+            return children;
+        }
+
+        @Override
+        public StormeModel get(int location) {
+            return children().get(location);
+        }
+
+        @Override
+        public int size() {
+            return children().size();
+        }
+
+        @Override
+        public StormeModel set(int location, StormeModel object) {
+            return children().set(location, object);
+        }
+
+        @Override
+        public void add(int location, StormeModel object) {
+            children().add(location, object);
+            modCount++;
+        }
+
+        @Override
+        public StormeModel remove(int location) {
+            modCount++;
+            return children().remove(location);
+        }
+    }
+}
@@ -0,0 +1,357 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory copy of a StormeResident model's table. Rows are held in a LongMap by id and each
+ * StormeIndexed column has a hash index from its stored value to the rows holding it. Index keys
+ * are the values as SQLite stores them, normalised so that equal numbers compare equal whatever
+ * their type, and the keys of each row are kept so the row can be unindexed after its record has
+ * been changed in place.
+ */
+class ResidentTable<T extends StormeModel> {
+
+    private static final String TAG = ResidentTable.class.getSimpleName();
+
+    private static final Pattern CONJUNCTION = Pattern.compile("\\s+AND\\s+", Pattern.CASE_INSENSITIVE);
+    private static final Pattern EQUALITY = Pattern.compile("^\\s*(\\w+)\\s*==?\\s*\\?\\s*$");
+
+    private final StormeModelFactory<T> factory;
+    private final boolean preload;
+    private final List<FieldColumn> columns;
+    private final Map<String, Integer> positions = new HashMap<String, Integer>();
+
+    private LongMap<T> rows;
+    private LongMap<Object[]> rowKeys;
+    private List<Map<Object, LongMap<T>>> indexes;
+
+    ResidentTable(StormeModelFactory<T> factory, boolean preload, List<FieldColumn> columns) {
+        this.factory = factory;
+        this.preload = preload;
+        this.columns = columns;
+        for(int i = 0; i < columns.size(); i++) {
+            positions.put(columns.get(i).getName(), i);
+        }
+    }
+
+    boolean isPreload() {
+        return preload;
+    }
+
+    synchronized T get(long id, SQLiteDatabase db) {
+        ensureLoaded(db);
+        return rows.get(id);
+    }
+
+    synchronized int count(SQLiteDatabase db) {
+        ensureLoaded(db);
+        return rows.size();
+    }
+
+    /**
+     * Returns the matching records in id order, or null if the query cannot be answered from
+     * memory.
+     */
+    synchronized List<T> find(String where, String[] whereParams, String order, int page, int pagesize, SQLiteDatabase db) {
+        if(order != null) {
+            return null;
+        }
+        List<T> found = match(where, whereParams, db);
+        if(found == null || page <= 0 || pagesize <= 0) {
+            return found;
+        }
+        int from = Math.min((page - 1) * pagesize, found.size());
+        return new ArrayList<T>(found.subList(from, Math.min(from + pagesize, found.size())));
+    }
+
+    /**
+     * Returns the number of matching records, or null if the query cannot be answered from
+     * memory.
+     */
+    synchronized Integer count(String where, String[] whereParams, SQLiteDatabase db) {
+        if(where == null) {
+            return count(db);
+        }
+        List<T> found = match(where, whereParams, db);
+        return found != null ? found.size() : null;
+    }
+
+    /**
+     * Adds or replaces a record just written with the given values. Ignored until the table has
+     * been loaded.
+     */
+    synchronized void put(T record, ContentValues values) {
+        if(rows == null) {
+            return;
+        }
+        Object[] keys = new Object[columns.size()];
+        for(int i = 0; i < keys.length; i++) {
+            keys[i] = normalise(values.get(columns.get(i).getName()));
+        }
+        add(record.getId(), record, keys);
+    }
+
+    synchronized void remove(long id) {
+        if(rows == null) {
+            return;
+        }
+        Object[] keys = rowKeys.remove(id);
+        if(keys != null) {
+            for(int i = 0; i < keys.length; i++) {
+                unindex(i, keys[i], id);
+            }
+        }
+        rows.remove(id);
+    }
+
+    /**
+     * Drops the in-memory copy so it is reloaded on next use.
+     */
+    synchronized void invalidate() {
+        rows = null;
+        rowKeys = null;
+        indexes = null;
+    }
+
+    synchronized void load(SQLiteDatabase db) {
+        int count = (int) factory.queryLong(db, "SELECT COUNT(*) FROM " + factory.tableName, null);
+        LongMap<T> loadedRows = new LongMap<T>(count);
+        rows = loadedRows;
+        rowKeys = new LongMap<Object[]>(count);
+        indexes = new ArrayList<Map<Object, LongMap<T>>>();
+        for(int i = 0; i < columns.size(); i++) {
+            indexes.add(new HashMap<Object, LongMap<T>>());
+        }
+
+        Cursor cursor = db.query(factory.tableName, factory.getSelectColumns(), null, null, null, null, null);
+        if(cursor == null) {
+            return;
+        }
+        try {
+            int[] keyPositions = new int[columns.size()];
+            for(int i = 0; i < keyPositions.length; i++) {
+                keyPositions[i] = cursor.getColumnIndexOrThrow(columns.get(i).getName());
+            }
+            while(cursor.moveToNext()) {
+                T record = factory.setupFromCursor(factory.getNewInstance(), cursor);
+                Object[] keys = new Object[keyPositions.length];
+                for(int i = 0; i < keys.length; i++) {
+                    keys[i] = readKey(columns.get(i), cursor, keyPositions[i]);
+                }
+                add(record.getId(), record, keys);
+            }
+        } catch (IllegalAccessException e) {
+            Log.e(TAG, "Failed to create DbModel object", e);
+            invalidate();
+        } catch (InstantiationException e) {
+            Log.e(TAG, "Failed to create DbModel object", e);
+            invalidate();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void ensureLoaded(SQLiteDatabase db) {
+        if(rows == null) {
+            load(db);
+        }
+    }
+
+    private List<T> match(String where, String[] whereParams, SQLiteDatabase db) {
+        if(where == null) {
+            ensureLoaded(db);
+            return inIdOrder(rows);
+        }
+
+        String[] terms = CONJUNCTION.split(where.trim());
+        if(whereParams == null || whereParams.length != terms.length) {
+            return null;
+        }
+        Long id = null;
+        int[] termColumns = new int[terms.length];
+        Object[] termKeys = new Object[terms.length];
+        for(int i = 0; i < terms.length; i++) {
+            Matcher matcher = EQUALITY.matcher(terms[i]);
+            if(!matcher.matches()) {
+                return null;
+            }
+            String field = matcher.group(1);
+            if(field.equals(ReflectionClassTableGenerator.ID_COLUMN_NAME)) {
+                termColumns[i] = -1;
+                try {
+                    id = Long.parseLong(whereParams[i]);
+                } catch (NumberFormatException e) {
+                    return new ArrayList<T>();
+                }
+                continue;
+            }
+            Integer position = positions.get(field);
+            if(position == null) {
+                return null;
+            }
+            termColumns[i] = position;
+            termKeys[i] = paramKey(columns.get(position), whereParams[i]);
+            if(termKeys[i] == null) {
+                // nothing is equal to NULL
+                return new ArrayList<T>();
+            }
+        }
+
+        ensureLoaded(db);
+        LongMap<T> candidates = null;
+        if(id != null) {
+            candidates = new LongMap<T>(1);
+            T record = rows.get(id);
+            if(record != null) {
+                candidates.put(id, record);
+            }
+        } else {
+            for(int i = 0; i < terms.length; i++) {
+                LongMap<T> bucket = indexes.get(termColumns[i]).get(termKeys[i]);
+                if(bucket == null) {
+                    return new ArrayList<T>();
+                }
+                if(candidates == null || bucket.size() < candidates.size()) {
+                    candidates = bucket;
+                }
+            }
+        }
+
+        List<T> found = new ArrayList<T>();
+        for(long candidate : candidates.sortedKeys()) {
+            Object[] keys = rowKeys.get(candidate);
+            boolean matches = true;
+            for(int i = 0; i < terms.length && matches; i++) {
+                if(termColumns[i] >= 0) {
+                    matches = termKeys[i].equals(keys[termColumns[i]]);
+                } else {
+                    matches = candidate == id;
+                }
+            }
+            if(matches) {
+                found.add(rows.get(candidate));
+            }
+        }
+        return found;
+    }
+
+    private void add(long id, T record, Object[] keys) {
+        Object[] old = rowKeys.put(id, keys);
+        if(old != null) {
+            for(int i = 0; i < old.length; i++) {
+                unindex(i, old[i], id);
+            }
+        }
+        rows.put(id, record);
+        for(int i = 0; i < keys.length; i++) {
+            if(keys[i] != null) {
+                Map<Object, LongMap<T>> index = indexes.get(i);
+                LongMap<T> bucket = index.get(keys[i]);
+                if(bucket == null) {
+                    bucket = new LongMap<T>();
+                    index.put(keys[i], bucket);
+                }
+                bucket.put(id, record);
+            }
+        }
+    }
+
+    private void unindex(int position, Object key, long id) {
+        if(key == null) {
+            return;
+        }
+        Map<Object, LongMap<T>> index = indexes.get(position);
+        LongMap<T> bucket = index.get(key);
+        if(bucket != null) {
+            bucket.remove(id);
+            if(bucket.size() == 0) {
+                index.remove(key);
+            }
+        }
+    }
+
+    private List<T> inIdOrder(LongMap<T> map) {
+        List<T> list = new ArrayList<T>(map.size());
+        for(long key : map.sortedKeys()) {
+            list.add(map.get(key));
+        }
+        return list;
+    }
+
+    private static Object readKey(FieldColumn column, Cursor cursor, int position) {
+        if(cursor.isNull(position)) {
+            return null;
+        }
+        String type = column.getColumnType();
+        if("INTEGER".equals(type)) {
+            return cursor.getLong(position);
+        } else if("REAL".equals(type)) {
+            return normalise(cursor.getDouble(position));
+        }
+        return cursor.getString(position);
+    }
+
+    /**
+     * Converts a String parameter the way SQLite's column affinity would before comparing it.
+     */
+    private static Object paramKey(FieldColumn column, String param) {
+        if(param == null) {
+            return null;
+        }
+        String type = column.getColumnType();
+        if("INTEGER".equals(type) || "REAL".equals(type)) {
+            try {
+                return Long.parseLong(param.trim());
+            } catch (NumberFormatException e) {
+                try {
+                    return normalise(Double.parseDouble(param.trim()));
+                } catch (NumberFormatException notNumeric) {
+                    return param;
+                }
+            }
+        }
+        return param;
+    }
+
+    private static Object normalise(Object value) {
+        if(value instanceof Boolean) {
+            return ((Boolean) value) ? 1L : 0L;
+        } else if(value instanceof Double || value instanceof Float) {
+            double number = ((Number) value).doubleValue();
+            if(number == Math.rint(number) && !Double.isInfinite(number) && Math.abs(number) < Long.MAX_VALUE) {
+                return (long) number;
+            }
+            return number;
+        } else if(value instanceof Number) {
+            return ((Number) value).longValue();
+        } else if(value instanceof byte[]) {
+            return null;
+        }
+        return value;
+    }
+}
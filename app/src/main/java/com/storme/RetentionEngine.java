@@ -0,0 +1,198 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Enforces RetentionRules by deleting expired rows in small batches. Each batch removes a range of
+ * ids, so the write lock is only held briefly, and the engine sleeps between batches to let other
+ * writers in. The batch size adapts to keep each batch close to maxBatchMillis.
+ */
+public class RetentionEngine {
+
+    private static final String TAG = RetentionEngine.class.getSimpleName();
+
+    public static final int MIN_BATCH_SIZE = 10;
+    public static final int MAX_BATCH_SIZE = 5000;
+    public static final int DEFAULT_BATCH_SIZE = 200;
+    public static final long DEFAULT_MAX_BATCH_MILLIS = 20;
+    public static final long DEFAULT_PAUSE_MILLIS = 50;
+
+    private SQLiteInstance sqliteInstance;
+    private ChangeBus changeBus;
+    private Map<Class<? extends StormeModel>, StormeModelFactory> classToFactoryMap;
+    private Map<Class<? extends StormeModel>, RetentionRule> rules = new LinkedHashMap<Class<? extends StormeModel>, RetentionRule>();
+
+    private long maxBatchMillis = DEFAULT_MAX_BATCH_MILLIS;
+    private long pauseMillis = DEFAULT_PAUSE_MILLIS;
+
+    private ScheduledExecutorService executor;
+
+    public RetentionEngine(SQLiteInstance sqliteInstance, Map<Class<? extends StormeModel>, StormeModelFactory> classToFactoryMap, ChangeBus changeBus) {
+        this.sqliteInstance = sqliteInstance;
+        this.changeBus = changeBus;
+        this.classToFactoryMap = classToFactoryMap;
+
+        for(Class<? extends StormeModel> model : classToFactoryMap.keySet()) {
+            StormeRetention retention = model.getAnnotation(StormeRetention.class);
+            if(retention != null) {
+                setRule(model, RetentionRule.fromAnnotation(retention));
+            }
+        }
+    }
+
+    public synchronized void setRule(Class<? extends StormeModel> modelClass, RetentionRule rule) {
+        if(rule == null) {
+            rules.remove(modelClass);
+        } else {
+            rules.put(modelClass, rule);
+        }
+    }
+
+    public void setMaxBatchMillis(long maxBatchMillis) {
+        this.maxBatchMillis = maxBatchMillis;
+    }
+
+    public void setPauseMillis(long pauseMillis) {
+        this.pauseMillis = pauseMillis;
+    }
+
+    public synchronized void start(long period, TimeUnit unit, final RetentionListener listener) {
+        stop();
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "storme-retention");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    enforce(listener);
+                } catch (Exception e) {
+                    Log.e(TAG, "Retention pass failed", e);
+                }
+            }
+        }, period, period, unit);
+    }
+
+    public synchronized void stop() {
+        if(executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Runs a full retention pass over every model with a rule on the calling thread and returns
+     * the total number of rows removed.
+     */
+    public int enforce(RetentionListener listener) {
+        Map<Class<? extends StormeModel>, RetentionRule> current;
+        synchronized (this) {
+            current = new LinkedHashMap<Class<? extends StormeModel>, RetentionRule>(rules);
+        }
+
+        int total = 0;
+        for(Map.Entry<Class<? extends StormeModel>, RetentionRule> entry : current.entrySet()) {
+            StormeModelFactory factory = classToFactoryMap.get(entry.getKey());
+            if(factory != null) {
+                total += enforce(entry.getKey(), factory, entry.getValue(), listener);
+            }
+        }
+        return total;
+    }
+
+    private int enforce(Class<? extends StormeModel> modelClass, StormeModelFactory factory, RetentionRule rule, RetentionListener listener) {
+        long passStart = System.nanoTime();
+        int total = 0;
+        int batchSize = DEFAULT_BATCH_SIZE;
+        long cutOff = System.currentTimeMillis() - rule.getMaxAgeMillis();
+
+        boolean ageDone = rule.getMaxAgeMillis() <= 0;
+        boolean rowsDone = rule.getMaxRows() <= 0;
+        while(!(ageDone && rowsDone) && !Thread.currentThread().isInterrupted()) {
+            long batchStart = System.nanoTime();
+            int removed;
+            SQLiteInstance.getLocks().lockWrite(modelClass);
+            try {
+                sqliteInstance.openDB();
+                SQLiteDatabase db = sqliteInstance.getDatabase();
+                if(!ageDone) {
+                    removed = factory.deleteBatchOlderThan(rule.getField(), cutOff, batchSize, db);
+                    ageDone = removed == 0;
+                } else {
+                    removed = factory.deleteBatchOverLimit(rule.getMaxRows(), batchSize, db);
+                    rowsDone = removed == 0;
+                }
+            } finally {
+                SQLiteInstance.getLocks().unlockWrite(modelClass);
+            }
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - batchStart);
+
+            if(removed > 0) {
+                total += removed;
+                changeBus.changed(modelClass);
+                if(listener != null) {
+                    listener.onBatchDeleted(modelClass, removed, elapsed);
+                }
+                batchSize = nextBatchSize(batchSize, elapsed);
+                if(!pause()) {
+                    break;
+                }
+            }
+        }
+
+        if(listener != null) {
+            listener.onRetentionComplete(modelClass, total, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - passStart));
+        }
+        return total;
+    }
+
+    private int nextBatchSize(int batchSize, long elapsed) {
+        if(elapsed > maxBatchMillis) {
+            return Math.max(MIN_BATCH_SIZE, batchSize / 2);
+        } else if(elapsed < maxBatchMillis / 2) {
+            return Math.min(MAX_BATCH_SIZE, batchSize * 2);
+        }
+        return batchSize;
+    }
+
+    private boolean pause() {
+        if(pauseMillis > 0) {
+            try {
+                Thread.sleep(pauseMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+}
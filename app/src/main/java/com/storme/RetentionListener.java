@@ -0,0 +1,26 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+/**
+ * Receives progress from the retention engine. Called on the thread running the retention pass.
+ */
+public interface RetentionListener {
+
+    public void onBatchDeleted(Class<? extends StormeModel> modelClass, int rowsRemoved, long elapsedMillis);
+
+    public void onRetentionComplete(Class<? extends StormeModel> modelClass, int totalRemoved, long elapsedMillis);
+}
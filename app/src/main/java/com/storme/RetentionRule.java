@@ -0,0 +1,61 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retention settings for a single model. A zero maxAgeMillis or maxRows disables that limit.
+ */
+public class RetentionRule {
+
+    private String field;
+    private long maxAgeMillis;
+    private long maxRows;
+
+    public RetentionRule(String field, long maxAgeMillis, long maxRows) {
+        if(maxAgeMillis > 0 && field == null) {
+            throw new IllegalArgumentException("A date field is required for a maximum age");
+        }
+        this.field = field;
+        this.maxAgeMillis = maxAgeMillis;
+        this.maxRows = maxRows;
+    }
+
+    public static RetentionRule maxAge(String field, long maxAge, TimeUnit unit) {
+        return new RetentionRule(field, unit.toMillis(maxAge), 0);
+    }
+
+    public static RetentionRule maxRows(long maxRows) {
+        return new RetentionRule(null, 0, maxRows);
+    }
+
+    static RetentionRule fromAnnotation(StormeRetention retention) {
+        return new RetentionRule(retention.field(), retention.unit().toMillis(retention.maxAge()), retention.maxRows());
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    public long getMaxAgeMillis() {
+        return maxAgeMillis;
+    }
+
+    public long getMaxRows() {
+        return maxRows;
+    }
+}
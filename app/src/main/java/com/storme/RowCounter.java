@@ -0,0 +1,123 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Row count of a StormeCounted model, held in a table shared by every counted model. Triggers on
+ * the model's table keep it up to date, so every write path including bulk, import and retention
+ * deletes is counted, and a rolled back write rolls back its count.
+ */
+class RowCounter {
+
+    static final String TABLE_NAME = "storme_row_counts";
+
+    private static final String CREATE_SQL = "CREATE TABLE IF NOT EXISTS " + TABLE_NAME +
+            " (table_name TEXT PRIMARY KEY, row_count INTEGER NOT NULL)";
+    private static final String INSERT_TRIGGER_TEMPLATE = "CREATE TRIGGER IF NOT EXISTS %s_count_ai AFTER INSERT ON %s BEGIN " +
+            "UPDATE " + TABLE_NAME + " SET row_count = row_count + 1 WHERE table_name = '%s'; END";
+    private static final String DELETE_TRIGGER_TEMPLATE = "CREATE TRIGGER IF NOT EXISTS %s_count_ad AFTER DELETE ON %s BEGIN " +
+            "UPDATE " + TABLE_NAME + " SET row_count = row_count - 1 WHERE table_name = '%s'; END";
+    private static final String DROP_DELETE_TRIGGER_TEMPLATE = "DROP TRIGGER IF EXISTS %s_count_ad";
+    private static final String READ_SQL = "SELECT row_count FROM " + TABLE_NAME + " WHERE table_name = ?";
+    private static final String REBUILD_TEMPLATE = "INSERT OR REPLACE INTO " + TABLE_NAME + " (table_name, row_count) SELECT ?, COUNT(*) FROM %s";
+    private static final String RESET_SQL = "UPDATE " + TABLE_NAME + " SET row_count = 0 WHERE table_name = ?";
+    private static final String REMOVE_SQL = "DELETE FROM " + TABLE_NAME + " WHERE table_name = ?";
+
+    private final String ownerTable;
+
+    RowCounter(String ownerTable) {
+        this.ownerTable = ownerTable;
+    }
+
+    /**
+     * Creates the count table and the triggers. A table with no count yet, because it is new, was
+     * dropped by a migration or existed before the model was counted, is counted once here.
+     */
+    void createTable(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            db.execSQL(CREATE_SQL);
+            db.execSQL(String.format(INSERT_TRIGGER_TEMPLATE, ownerTable, ownerTable, ownerTable));
+            db.execSQL(String.format(DELETE_TRIGGER_TEMPLATE, ownerTable, ownerTable, ownerTable));
+            if(readStored(db) < 0) {
+                rebuild(db);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Forgets the count. The triggers belong to the model's table and are dropped with it.
+     */
+    void dropTable(SQLiteDatabase db) {
+        db.execSQL(REMOVE_SQL, new Object[] { ownerTable });
+    }
+
+    /**
+     * Returns the stored count, or counts the rows if there is none.
+     */
+    int read(SQLiteDatabase db) {
+        long count = readStored(db);
+        if(count < 0) {
+            Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + ownerTable, null);
+            try {
+                count = cursor.moveToFirst() ? cursor.getLong(0) : 0;
+            } finally {
+                cursor.close();
+            }
+        }
+        return (int) count;
+    }
+
+    /**
+     * Counts the rows of the model's table from scratch.
+     */
+    void rebuild(SQLiteDatabase db) {
+        db.execSQL(String.format(REBUILD_TEMPLATE, ownerTable), new Object[] { ownerTable });
+    }
+
+    /**
+     * Empties the model's table with the given statement. The delete trigger is dropped while it
+     * runs so SQLite can clear the table in one step rather than row by row, and the count is
+     * reset after.
+     */
+    void truncate(SQLiteDatabase db, String truncateSql) {
+        db.beginTransaction();
+        try {
+            db.execSQL(String.format(DROP_DELETE_TRIGGER_TEMPLATE, ownerTable));
+            db.execSQL(truncateSql);
+            db.execSQL(RESET_SQL, new Object[] { ownerTable });
+            db.execSQL(String.format(DELETE_TRIGGER_TEMPLATE, ownerTable, ownerTable, ownerTable));
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private long readStored(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery(READ_SQL, new String[] { ownerTable });
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -1,8 +1,10 @@
 package com.storme;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 
 /**
  * Created by brett on 13/07/15.
@@ -11,16 +13,21 @@ public class SQLiteInstance extends SQLiteOpenHelper {
 
     private static SQLiteInstance instance;
 
+    // shared by every instance so a database being replaced is closed under the same locks
+    private static final TableLocks LOCKS = new TableLocks();
+
     private String DB_LOCK = "dblock";
 
-    private SQLiteDatabase mDb;
+    private volatile SQLiteDatabase mDb;
     private StormeBaseHelper stormeBaseHelper;
+    private String dbName;
 
     public static synchronized SQLiteInstance getInstance(Context context, String dbName, int dbVersion, StormeBaseHelper stormeBaseHelper) {
 
         if(instance != null) {
             SQLiteDatabase database = instance.getDatabase();
-            if(database != null && database.getVersion() != dbVersion) {
+            boolean sameName = dbName == null ? instance.dbName == null : dbName.equals(instance.dbName);
+            if(!sameName || (database != null && database.getVersion() != dbVersion)) {
                 instance.close();
                 instance = null;
             }
@@ -28,16 +35,33 @@ public class SQLiteInstance extends SQLiteOpenHelper {
 
         if (instance == null) {
             instance = new SQLiteInstance(context.getApplicationContext(), dbName, dbVersion, stormeBaseHelper);
+        } else {
+            instance.stormeBaseHelper = stormeBaseHelper;
         }
         return instance;
     }
 
     private SQLiteInstance(Context context, String dbName, int dbVersion, StormeBaseHelper stormeBaseHelper) {
+        // a null name opens an in-memory database
         super(context, dbName, null, dbVersion);
+        this.dbName = dbName;
         this.stormeBaseHelper = stormeBaseHelper;
     }
 
 
+    @Override
+    public void onConfigure(SQLiteDatabase database) {
+        stormeBaseHelper.handleConfigure(database);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase database) {
+        // onConfigure is only called from API 16
+        if(Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            stormeBaseHelper.handleConfigure(database);
+        }
+    }
+
     @Override
     public void onCreate(SQLiteDatabase database) {
         mDb = database;
@@ -53,6 +77,41 @@ public class SQLiteInstance extends SQLiteOpenHelper {
         return mDb;
     }
 
+    static TableLocks getLocks() {
+        return LOCKS;
+    }
+
+    /**
+     * Returns true if the SQLite library behind the database is at least the given version.
+     */
+    static boolean isVersionAtLeast(SQLiteDatabase db, int major, int minor, int patch) {
+        Cursor cursor = db.rawQuery("SELECT sqlite_version()", null);
+        String version = null;
+        if(cursor != null) {
+            try {
+                version = cursor.moveToFirst() ? cursor.getString(0) : null;
+            } finally {
+                cursor.close();
+            }
+        }
+        if(version == null) {
+            return false;
+        }
+        String[] parts = version.split("\\.");
+        int[] wanted = new int[] { major, minor, patch };
+        try {
+            for(int i = 0; i < wanted.length; i++) {
+                int part = i < parts.length ? Integer.parseInt(parts[i]) : 0;
+                if(part != wanted[i]) {
+                    return part > wanted[i];
+                }
+            }
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
     public void openDB()
     {
         synchronized (DB_LOCK) {
@@ -63,12 +122,22 @@ public class SQLiteInstance extends SQLiteOpenHelper {
         }
     }
 
+    /**
+     * Closes the database once every running operation has finished. Must not be called from
+     * inside an operation.
+     */
     public void close() {
-        synchronized (DB_LOCK) {
-            if (mDb != null) {
-                mDb.close();
-                mDb = null;
+        LOCKS.lockClose();
+        try {
+            synchronized (DB_LOCK) {
+                if (mDb != null) {
+                    stormeBaseHelper.handleClose(mDb);
+                    mDb.close();
+                    mDb = null;
+                }
             }
+        } finally {
+            LOCKS.unlockClose();
         }
     }
 }
@@ -17,29 +17,123 @@ package com.storme;
 
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
 
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by brett on 24/02/15.
  */
 public abstract class StormeBaseHelper {
 
+    private static final String TAG = StormeBaseHelper.class.getSimpleName();
+
+    public static final long DEFAULT_OBSERVE_DEBOUNCE_MILLIS = 50;
+
+    private static final String SAVEPOINT_PREFIX = "storme_savepoint_";
+
+    // depth of the runInTransaction calls the current thread is inside, null outside a transaction
+    private static final ThreadLocal<Integer> transactionDepth = new ThreadLocal<Integer>();
+
     private static SQLiteInstance sqliteInstance;
 
     private Map<Class<? extends StormeModel>, StormeModelFactory> classToFactoryMap;
+    private RetentionEngine retentionEngine;
+    private MaintenanceEngine maintenanceEngine;
+    private volatile boolean incrementalAutoVacuum;
+    private StormePerformanceProfile performanceProfile;
+    private RelationLoader relationLoader;
+    private ChangeBus changeBus = new ChangeBus();
+    private ScheduledExecutorService observerScheduler;
+    // weak so that subscriptions cancelled by the caller are not held on to
+    private final Set<ObservedQuery<?>> observations = Collections.newSetFromMap(new WeakHashMap<ObservedQuery<?>, Boolean>());
+    private volatile long observeDebounceMillis = DEFAULT_OBSERVE_DEBOUNCE_MILLIS;
+    private MemoryMirror memoryMirror;
+    private long flushIntervalMillis;
+    private ScheduledExecutorService flushScheduler;
+    private final TableLocks locks = SQLiteInstance.getLocks();
 
     public StormeBaseHelper(Context context, String dbName, int dbVersion, String tablePrefix, List<Class<? extends StormeModel>> models) {
         sqliteInstance = SQLiteInstance.getInstance(context, dbName, dbVersion, this);
 
         classToFactoryMap = new HashMap<Class<? extends StormeModel>, StormeModelFactory>();
         for(Class<? extends StormeModel> model : models) {
-            StormeModelFactory factory = new StormeModelFactory(model, tablePrefix, dbVersion);
+            StormeModelFactory factory;
+            if(model.isAnnotationPresent(StormePartitioned.class)) {
+                factory = new PartitionedModelFactory(model, tablePrefix, dbVersion);
+            } else {
+                factory = new StormeModelFactory(model, tablePrefix, dbVersion);
+            }
             classToFactoryMap.put(model, factory);
         }
+        retentionEngine = new RetentionEngine(sqliteInstance, classToFactoryMap, changeBus);
+        maintenanceEngine = new MaintenanceEngine(sqliteInstance, locks);
+        relationLoader = new RelationLoader(sqliteInstance, classToFactoryMap);
+        for(StormeModelFactory factory : classToFactoryMap.values()) {
+            factory.setRelationLoader(relationLoader);
+        }
+    }
+
+    /**
+     * Opens the database with the SQLite settings of a performance profile, for example
+     * StormePerformanceProfile.balanced(). If another helper already has the same database open the
+     * profile applies from the next time it is opened.
+     */
+    public StormeBaseHelper(Context context, String dbName, int dbVersion, String tablePrefix, List<Class<? extends StormeModel>> models, StormePerformanceProfile performanceProfile) {
+        this(context, dbName, dbVersion, tablePrefix, models);
+        if(performanceProfile == null) {
+            throw new IllegalArgumentException("Performance profile cannot be null");
+        }
+        this.performanceProfile = performanceProfile;
+    }
+
+    /**
+     * Runs the helper against an in-memory database, optionally mirrored to a database file as
+     * described by the memory options.
+     */
+    public StormeBaseHelper(Context context, int dbVersion, String tablePrefix, List<Class<? extends StormeModel>> models, StormeMemoryOptions memoryOptions) {
+        this(context, null, dbVersion, tablePrefix, models);
+        if(memoryOptions == null) {
+            throw new IllegalArgumentException("Memory options cannot be null");
+        }
+        if(memoryOptions.getDiskName() != null) {
+            setupMirror(context, dbVersion, memoryOptions);
+        }
+    }
+
+    /**
+     * Called as the database is opened, before any table is created. Below API 16 it is called
+     * from onOpen instead, once the tables exist, so the page size and auto vacuum mode of a new
+     * database are left as they are there.
+     */
+    public void handleConfigure(SQLiteDatabase database) {
+        if(incrementalAutoVacuum) {
+            // only takes effect on a database with no tables yet
+            database.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+        }
+        if(performanceProfile != null) {
+            PragmaSettings.apply(database, performanceProfile);
+        }
     }
 
     public void handleCreate(SQLiteDatabase database) {
@@ -47,6 +141,23 @@ public abstract class StormeBaseHelper {
             for(StormeModelFactory factory : classToFactoryMap.values()) {
                 factory.createTable(database);
             }
+            // the disk copy cannot be attached inside the transaction creating the tables
+            if(memoryMirror != null && !database.inTransaction()) {
+                memoryMirror.attach(database);
+                startFlush();
+            }
+            if(!database.inTransaction()) {
+                for(StormeModelFactory factory : classToFactoryMap.values()) {
+                    factory.openResident(database);
+                }
+            }
+        }
+    }
+
+    public void handleClose(SQLiteDatabase database) {
+        if(memoryMirror != null) {
+            memoryMirror.flush(database);
+            memoryMirror.detached();
         }
     }
 
@@ -67,17 +178,19 @@ public abstract class StormeBaseHelper {
             throw new IllegalArgumentException("Attempt to save null model object");
         }
 
-        sqliteInstance.openDB();
-        StormeModelFactory factory = classToFactoryMap.get(modelClass);
-        if(factory != null) {
-            if(record.getId() > 0) {
-                factory.update(sqliteInstance.getDatabase(), record);
-            } else {
-                factory.insert(sqliteInstance.getDatabase(), record);
+        locks.lockWrite(modelClass);
+        try {
+            sqliteInstance.openDB();
+            StormeModelFactory factory = classToFactoryMap.get(modelClass);
+            if(factory != null) {
+                factory.save(sqliteInstance.getDatabase(), record);
+                changeBus.changed(modelClass);
+                return record;
             }
-            return record;
+            throw new IllegalArgumentException("Unknown model type passed to save method: " + modelClass.getName());
+        } finally {
+            locks.unlockWrite(modelClass);
         }
-        throw new IllegalArgumentException("Unknown model type passed to save method: " + modelClass.getName());
     }
 
     protected <E extends StormeModel> E get(Class<E> modelClass, long id) {
@@ -87,51 +200,380 @@ public abstract class StormeBaseHelper {
         if(id <= 0) {
             throw new IllegalArgumentException("Attempt to get a record with zero or negative id");
         }
-        sqliteInstance.openDB();
-        StormeModelFactory factory = classToFactoryMap.get(modelClass);
-        if(factory != null) {
-            return (E)factory.get(id, sqliteInstance.getDatabase());
+        locks.lockRead(modelClass);
+        try {
+            sqliteInstance.openDB();
+            StormeModelFactory factory = classToFactoryMap.get(modelClass);
+            if(factory != null) {
+                return (E)factory.get(id, sqliteInstance.getDatabase());
+            }
+            throw new IllegalArgumentException("Unknown model type passed to get method: " + modelClass.getName());
+        } finally {
+            locks.unlockRead(modelClass);
+        }
+    }
+
+    /**
+     * Returns the record of a model with a StormePrimaryKey holding the given key, its field values
+     * given in key order, or null if there is none.
+     */
+    protected <E extends StormeModel> E getByKey(Class<E> modelClass, Object... key) {
+        if(modelClass == null) {
+            throw new IllegalArgumentException("Model class cannot be null");
+        }
+        locks.lockRead(modelClass);
+        try {
+            sqliteInstance.openDB();
+            StormeModelFactory factory = classToFactoryMap.get(modelClass);
+            if(factory != null) {
+                return (E)factory.getByKey(key, sqliteInstance.getDatabase());
+            }
+            throw new IllegalArgumentException("Unknown model type passed to getByKey method: " + modelClass.getName());
+        } finally {
+            locks.unlockRead(modelClass);
+        }
+    }
+
+    /**
+     * As get, stopping with StormeCancelledException if the token is cancelled or its deadline
+     * passes before the record is loaded.
+     */
+    protected <E extends StormeModel> E get(Class<E> modelClass, long id, StormeCancellationToken token) {
+        if(modelClass == null) {
+            throw new IllegalArgumentException("Model class cannot be null");
+        }
+        if(id <= 0) {
+            throw new IllegalArgumentException("Attempt to get a record with zero or negative id");
+        }
+        locks.lockRead(modelClass);
+        try {
+            sqliteInstance.openDB();
+            StormeModelFactory factory = classToFactoryMap.get(modelClass);
+            if(factory != null) {
+                return (E)factory.get(id, token, sqliteInstance.getDatabase());
+            }
+            throw new IllegalArgumentException("Unknown model type passed to get method: " + modelClass.getName());
+        } finally {
+            locks.unlockRead(modelClass);
         }
-        throw new IllegalArgumentException("Unknown model type passed to get method: " + modelClass.getName());
     }
 
     protected <E extends StormeModel> List<E> getAll(Class<E> modelClass, String order, int page, int pagesize) {
+        return getAll(modelClass, order, page, pagesize, new String[0]);
+    }
+
+    /**
+     * As getAll, also loading the named StormeRef and StormeToMany relations and StormeLazy
+     * fields of every result with one query per name.
+     */
+    protected <E extends StormeModel> List<E> getAll(Class<E> modelClass, String order, int page, int pagesize, String... with) {
         if(modelClass == null) {
             throw new IllegalArgumentException("Model class cannot be null");
         }
 
-        sqliteInstance.openDB();
-        StormeModelFactory factory = classToFactoryMap.get(modelClass);
-        if(factory != null) {
-            List<E> list = factory.find(null, null, order, page, pagesize, sqliteInstance.getDatabase());
-            return new ArrayList<E>(list);
+        locks.lockRead(modelClass);
+        try {
+            sqliteInstance.openDB();
+            StormeModelFactory factory = classToFactoryMap.get(modelClass);
+            if(factory != null) {
+                List<E> list = factory.find(null, null, order, page, pagesize, sqliteInstance.getDatabase());
+                factory.prefetch(list, with, sqliteInstance.getDatabase());
+                return new ArrayList<E>(list);
+            }
+            throw new IllegalArgumentException("Unknown model type passed to getAll method: " + modelClass.getName());
+        } finally {
+            locks.unlockRead(modelClass);
         }
-        throw new IllegalArgumentException("Unknown model type passed to getAll method: " + modelClass.getName());
     }
 
     protected <E extends StormeModel> List<E> find(Class<E> modelClass, String where, String[] whereParams, String order, int page, int pagesize) {
+        return find(modelClass, where, whereParams, order, page, pagesize, new String[0]);
+    }
+
+    /**
+     * As find, also loading the named StormeRef and StormeToMany relations and StormeLazy
+     * fields of every result with one query per name.
+     */
+    protected <E extends StormeModel> List<E> find(Class<E> modelClass, String where, String[] whereParams, String order, int page, int pagesize, String... with) {
         if(modelClass == null) {
             throw new IllegalArgumentException("Model class cannot be null");
         }
 
-        sqliteInstance.openDB();
-        StormeModelFactory factory = classToFactoryMap.get(modelClass);
+        locks.lockRead(modelClass);
+        try {
+            sqliteInstance.openDB();
+            StormeModelFactory factory = classToFactoryMap.get(modelClass);
+            if(factory != null) {
+                List<E> list = factory.find(where, whereParams, order, page, pagesize, sqliteInstance.getDatabase());
+                factory.prefetch(list, with, sqliteInstance.getDatabase());
+                return list;
+            }
+            throw new IllegalArgumentException("Unknown model type passed to find method: " + modelClass.getName());
+        } finally {
+            locks.unlockRead(modelClass);
+        }
+    }
+
+    /**
+     * Full text search over the StormeSearchable fields of a model, returning the requested page
+     * of matches best first. The query uses FTS syntax, so "word*" matches words starting with
+     * "word"; use FullTextIndex.prefixQuery() to build a query from user input.
+     */
+    protected <E extends StormeModel> List<E> search(Class<E> modelClass, String query, int page, int pagesize) {
+        List<E> list = new ArrayList<E>();
+        for(StormeSearchResult<E> result : search(modelClass, query, page, pagesize, null, null)) {
+            list.add(result.getModel());
+        }
+        return list;
+    }
+
+    /**
+     * As search, also returning the rank of every match and a snippet of its best matching text
+     * with the matched terms between startMark and endMark.
+     */
+    protected <E extends StormeModel> List<StormeSearchResult<E>> search(Class<E> modelClass, String query, int page, int pagesize, String startMark, String endMark) {
+        if(modelClass == null) {
+            throw new IllegalArgumentException("Model class cannot be null");
+        }
+
+        locks.lockRead(modelClass);
+        try {
+            sqliteInstance.openDB();
+            StormeModelFactory factory = classToFactoryMap.get(modelClass);
+            if(factory != null) {
+                return factory.search(query, page, pagesize, startMark, endMark, sqliteInstance.getDatabase());
+            }
+            throw new IllegalArgumentException("Unknown model type passed to search method: " + modelClass.getName());
+        } finally {
+            locks.unlockRead(modelClass);
+        }
+    }
+
+    /**
+     * Streams the results of a query, reading pageSize rows at a time only as the subscriber
+     * requests them, so large results never have to be held in memory. Each subscriber gets its
+     * own run of the query. No cursor is kept open between pages.
+     */
+    protected <E extends StormeModel> StormePublisher<E> stream(Class<E> modelClass, String where, String[] whereParams, String order, int pageSize) {
+        if(modelClass == null) {
+            throw new IllegalArgumentException("Model class cannot be null");
+        }
+        if(pageSize <= 0) {
+            throw new IllegalArgumentException("Stream page size must be positive");
+        }
+        StormeModelFactory<E> factory = classToFactoryMap.get(modelClass);
         if(factory != null) {
-            return factory.find(where, whereParams, order, page, pagesize, sqliteInstance.getDatabase());
+            return new QueryPublisher<E>(sqliteInstance, factory, where, whereParams, order, pageSize);
         }
-        throw new IllegalArgumentException("Unknown model type passed to find method: " + modelClass.getName());
+        throw new IllegalArgumentException("Unknown model type passed to stream method: " + modelClass.getName());
     }
 
-    protected <E extends StormeModel> int findCount(Class<E> modelClass) {
+    /**
+     * Visits every row matching the query with a single model instance, refilled for each row,
+     * so scans over very large tables create no per row models. The instance passed to the
+     * visitor is only valid during the call. Returns false if the visitor stopped the scan.
+     */
+    protected <E extends StormeModel> boolean scan(Class<E> modelClass, String where, String[] whereParams, String order, StormeRowVisitor<E> visitor) {
+        return scan(modelClass, where, whereParams, order, null, visitor);
+    }
+
+    /**
+     * As scan, filling the given instance for each row.
+     */
+    protected <E extends StormeModel> boolean scan(Class<E> modelClass, String where, String[] whereParams, String order, E row, StormeRowVisitor<E> visitor) {
         if(modelClass == null) {
             throw new IllegalArgumentException("Model class cannot be null");
         }
-        sqliteInstance.openDB();
-        StormeModelFactory factory = classToFactoryMap.get(modelClass);
+        if(visitor == null) {
+            throw new IllegalArgumentException("Attempt to scan with no visitor");
+        }
+
+        locks.lockRead(modelClass);
+        try {
+            sqliteInstance.openDB();
+            StormeModelFactory<E> factory = classToFactoryMap.get(modelClass);
+            if(factory != null) {
+                if(row == null) {
+                    try {
+                        row = factory.getNewInstance();
+                    } catch (Exception e) {
+                        throw new IllegalArgumentException("Failed to create scan instance of " + modelClass.getName(), e);
+                    }
+                }
+                return factory.scan(where, whereParams, order, row, visitor, sqliteInstance.getDatabase());
+            }
+            throw new IllegalArgumentException("Unknown model type passed to scan method: " + modelClass.getName());
+        } finally {
+            locks.unlockRead(modelClass);
+        }
+    }
+
+    /**
+     * Reads only the given fields of every row matching the query into primitive arrays in a
+     * single pass, for when a few values are needed from a large number of rows.
+     */
+    protected <E extends StormeModel> StormeColumns readColumns(Class<E> modelClass, String[] fields, String where, String[] whereParams, String order) {
+        if(modelClass == null) {
+            throw new IllegalArgumentException("Model class cannot be null");
+        }
+
+        locks.lockRead(modelClass);
+        try {
+            sqliteInstance.openDB();
+            StormeModelFactory factory = classToFactoryMap.get(modelClass);
+            if(factory != null) {
+                return factory.readColumns(fields, where, whereParams, order, sqliteInstance.getDatabase());
+            }
+            throw new IllegalArgumentException("Unknown model type passed to readColumns method: " + modelClass.getName());
+        } finally {
+            locks.unlockRead(modelClass);
+        }
+    }
+
+    /**
+     * Starts building a query on the model. The compiled query can be kept and run any number of
+     * times with different arguments.
+     */
+    protected <E extends StormeModel> StormeQueryBuilder<E> query(Class<E> modelClass) {
+        if(modelClass == null) {
+            throw new IllegalArgumentException("Model class cannot be null");
+        }
+        StormeModelFactory<E> factory = classToFactoryMap.get(modelClass);
         if(factory != null) {
-            return factory.findCount(sqliteInstance.getDatabase());
+            return new StormeQueryBuilder<E>(sqliteInstance, factory);
+        }
+        throw new IllegalArgumentException("Unknown model type passed to query method: " + modelClass.getName());
+    }
+
+    /**
+     * As find, stopping with StormeCancelledException if the token is cancelled or its deadline
+     * passes while the query runs. The cursor is closed straight away. Named apart from find so a
+     * null last argument isn't ambiguous with the relations to prefetch.
+     */
+    protected <E extends StormeModel> List<E> findCancellable(Class<E> modelClass, String where, String[] whereParams, String order, int page, int pagesize, StormeCancellationToken token) {
+        if(modelClass == null) {
+            throw new IllegalArgumentException("Model class cannot be null");
+        }
+
+        locks.lockRead(modelClass);
+        try {
+            sqliteInstance.openDB();
+            StormeModelFactory factory = classToFactoryMap.get(modelClass);
+            if(factory != null) {
+                return factory.find(where, whereParams, order, page, pagesize, token, sqliteInstance.getDatabase());
+            }
+            throw new IllegalArgumentException("Unknown model type passed to find method: " + modelClass.getName());
+        } finally {
+            locks.unlockRead(modelClass);
+        }
+    }
+
+    /**
+     * Counts the rows matching the query, stopping with StormeCancelledException if the token is
+     * cancelled or its deadline passes.
+     */
+    protected <E extends StormeModel> int findCount(Class<E> modelClass, String where, String[] whereParams, StormeCancellationToken token) {
+        if(modelClass == null) {
+            throw new IllegalArgumentException("Model class cannot be null");
+        }
+
+        locks.lockRead(modelClass);
+        try {
+            sqliteInstance.openDB();
+            StormeModelFactory factory = classToFactoryMap.get(modelClass);
+            if(factory != null) {
+                return factory.count(where, whereParams, token, sqliteInstance.getDatabase());
+            }
+            throw new IllegalArgumentException("Unknown model type passed to findCount method: " + modelClass.getName());
+        } finally {
+            locks.unlockRead(modelClass);
+        }
+    }
+
+    protected <E extends StormeModel> int findCount(Class<E> modelClass) {
+        if(modelClass == null) {
+            throw new IllegalArgumentException("Model class cannot be null");
+        }
+        locks.lockRead(modelClass);
+        try {
+            sqliteInstance.openDB();
+            StormeModelFactory factory = classToFactoryMap.get(modelClass);
+            if(factory != null) {
+                return factory.findCount(sqliteInstance.getDatabase());
+            }
+            throw new IllegalArgumentException("Unknown model type passed to findCount method: " + modelClass.getName());
+        } finally {
+            locks.unlockRead(modelClass);
+        }
+    }
+
+    /**
+     * Returns up to limit inserts, updates and deletes of a StormeJournaled model made after the
+     * given sequence number, oldest first. Pass 0 for every recorded change, then the sequence
+     * number of the last change returned to read the next ones. Inserts and updates carry the
+     * record as it is now.
+     */
+    protected <E extends StormeModel> List<StormeChange<E>> changesSince(Class<E> modelClass, long seq, int limit) {
+        if(modelClass == null) {
+            throw new IllegalArgumentException("Model class cannot be null");
+        }
+        if(limit <= 0) {
+            throw new IllegalArgumentException("Change limit must be positive");
+        }
+        locks.lockRead(modelClass);
+        try {
+            sqliteInstance.openDB();
+            StormeModelFactory factory = classToFactoryMap.get(modelClass);
+            if(factory != null) {
+                return factory.changesSince(seq, limit, sqliteInstance.getDatabase());
+            }
+            throw new IllegalArgumentException("Unknown model type passed to changesSince method: " + modelClass.getName());
+        } finally {
+            locks.unlockRead(modelClass);
+        }
+    }
+
+    /**
+     * Returns the sequence number of the latest change of a StormeJournaled model, or 0 if none is
+     * recorded. Taking it before a full upload gives the point to read changes from afterwards.
+     */
+    protected <E extends StormeModel> long getLastChangeSeq(Class<E> modelClass) {
+        if(modelClass == null) {
+            throw new IllegalArgumentException("Model class cannot be null");
+        }
+        locks.lockRead(modelClass);
+        try {
+            sqliteInstance.openDB();
+            StormeModelFactory factory = classToFactoryMap.get(modelClass);
+            if(factory != null) {
+                return factory.lastChangeSeq(sqliteInstance.getDatabase());
+            }
+            throw new IllegalArgumentException("Unknown model type passed to getLastChangeSeq method: " + modelClass.getName());
+        } finally {
+            locks.unlockRead(modelClass);
+        }
+    }
+
+    /**
+     * Shrinks the change journal of a StormeJournaled model by keeping only the latest change of
+     * each record, and drops deletes at or before acknowledgedSeq, the point every reader has
+     * synced past. Pass 0 to keep all deletes. Returns the number of entries removed.
+     */
+    protected <E extends StormeModel> int compactChanges(Class<E> modelClass, long acknowledgedSeq) {
+        if(modelClass == null) {
+            throw new IllegalArgumentException("Model class cannot be null");
+        }
+        locks.lockWrite(modelClass);
+        try {
+            sqliteInstance.openDB();
+            StormeModelFactory factory = classToFactoryMap.get(modelClass);
+            if(factory != null) {
+                return factory.compactChanges(acknowledgedSeq, sqliteInstance.getDatabase());
+            }
+            throw new IllegalArgumentException("Unknown model type passed to compactChanges method: " + modelClass.getName());
+        } finally {
+            locks.unlockWrite(modelClass);
         }
-        throw new IllegalArgumentException("Unknown model type passed to findCount method: " + modelClass.getName());
     }
 
     protected <E extends StormeModel> void delete(Class<E> modelClass, E record) {
@@ -141,13 +583,19 @@ public abstract class StormeBaseHelper {
         if(record.getId() <= 0) {
             throw new IllegalArgumentException("Attempt to delete a record with no id");
         }
-        sqliteInstance.openDB();
-        StormeModelFactory factory = classToFactoryMap.get(modelClass);
-        if(factory != null) {
-            factory.delete(record, sqliteInstance.getDatabase());
-            return;
+        locks.lockWrite(modelClass);
+        try {
+            sqliteInstance.openDB();
+            StormeModelFactory factory = classToFactoryMap.get(modelClass);
+            if(factory != null) {
+                factory.delete(record, sqliteInstance.getDatabase());
+                changeBus.changed(modelClass);
+                return;
+            }
+            throw new IllegalArgumentException("Unknown model type passed to delete method: " + modelClass.getName());
+        } finally {
+            locks.unlockWrite(modelClass);
         }
-        throw new IllegalArgumentException("Unknown model type passed to delete method: " + modelClass.getName());
     }
 
     protected <E extends StormeModel> void delete(Class<E> modelClass, String where, String[] whereParams) {
@@ -157,30 +605,626 @@ public abstract class StormeBaseHelper {
         if(where == null) {
             throw new IllegalArgumentException("Attempt to delete a record with no where clause");
         }
-        sqliteInstance.openDB();
-        StormeModelFactory factory = classToFactoryMap.get(modelClass);
-        if(factory != null) {
-            factory.delete(where, whereParams, sqliteInstance.getDatabase());
-            return;
+        locks.lockWrite(modelClass);
+        try {
+            sqliteInstance.openDB();
+            StormeModelFactory factory = classToFactoryMap.get(modelClass);
+            if(factory != null) {
+                factory.delete(where, whereParams, sqliteInstance.getDatabase());
+                changeBus.changed(modelClass);
+                return;
+            }
+            throw new IllegalArgumentException("Unknown model type passed to delete method: " + modelClass.getName());
+        } finally {
+            locks.unlockWrite(modelClass);
         }
-        throw new IllegalArgumentException("Unknown model type passed to delete method: " + modelClass.getName());
     }
 
     protected <E extends StormeModel> void deleteAll(Class<E> modelClass) {
         if(modelClass == null) {
             throw new IllegalArgumentException("Model class cannot be null");
         }
+        locks.lockWrite(modelClass);
+        try {
+            sqliteInstance.openDB();
+            StormeModelFactory factory = classToFactoryMap.get(modelClass);
+            if(factory != null) {
+                factory.deleteAll(sqliteInstance.getDatabase());
+                changeBus.changed(modelClass);
+                return;
+            }
+            throw new IllegalArgumentException("Unknown model type passed to delete method: " + modelClass.getName());
+        } finally {
+            locks.unlockWrite(modelClass);
+        }
+    }
+
+    protected <E extends StormeModel> int dropPartitionsBefore(Class<E> modelClass, Date before) {
+        if(modelClass == null) {
+            throw new IllegalArgumentException("Model class cannot be null");
+        }
+        if(before == null) {
+            throw new IllegalArgumentException("Attempt to drop partitions with no date");
+        }
+        locks.lockWrite(modelClass);
+        try {
+            sqliteInstance.openDB();
+            StormeModelFactory factory = classToFactoryMap.get(modelClass);
+            if(factory instanceof PartitionedModelFactory) {
+                int dropped = ((PartitionedModelFactory)factory).dropPartitionsBefore(before.getTime(), sqliteInstance.getDatabase());
+                if(dropped > 0) {
+                    changeBus.changed(modelClass);
+                }
+                return dropped;
+            }
+            if(factory != null) {
+                throw new IllegalArgumentException("Model type is not partitioned: " + modelClass.getName());
+            }
+            throw new IllegalArgumentException("Unknown model type passed to dropPartitionsBefore method: " + modelClass.getName());
+        } finally {
+            locks.unlockWrite(modelClass);
+        }
+    }
+
+    /**
+     * Runs the query now and again after every burst of writes to the model's table, delivering
+     * each result on the observer thread. Returns a subscription to cancel when the results are no
+     * longer needed.
+     */
+    protected <E extends StormeModel> StormeSubscription observe(Class<E> modelClass, String where, String[] whereParams, String order, StormeQueryListener<E> listener) {
+        return observe(modelClass, where, whereParams, order, listener, null);
+    }
+
+    /**
+     * As observe, delivering results with the given executor, for example one posting to the
+     * main thread.
+     */
+    protected <E extends StormeModel> StormeSubscription observe(final Class<E> modelClass, final String where, final String[] whereParams, final String order, StormeQueryListener<E> listener, Executor executor) {
+        if(modelClass == null) {
+            throw new IllegalArgumentException("Model class cannot be null");
+        }
+        if(listener == null) {
+            throw new IllegalArgumentException("Attempt to observe with no listener");
+        }
+        if(!classToFactoryMap.containsKey(modelClass)) {
+            throw new IllegalArgumentException("Unknown model type passed to observe method: " + modelClass.getName());
+        }
+
+        ScheduledExecutorService scheduler = getObserverScheduler();
+        Callable<List<E>> query = new Callable<List<E>>() {
+            @Override
+            public List<E> call() throws Exception {
+                return find(modelClass, where, whereParams, order, 0, 0);
+            }
+        };
+        ObservedQuery<E> observed = new ObservedQuery<E>(modelClass, query, listener, executor != null ? executor : scheduler,
+                scheduler, changeBus, observeDebounceMillis);
+        synchronized (this) {
+            observations.add(observed);
+        }
+        observed.start();
+        return observed;
+    }
+
+    /**
+     * Sets how long observed queries wait after a write before re-running, so a burst of writes
+     * only causes one query. Applies to queries observed afterwards.
+     */
+    protected void setObserveDebounce(long delay, TimeUnit unit) {
+        if(delay < 0 || unit == null) {
+            throw new IllegalArgumentException("Observe debounce cannot be negative");
+        }
+        observeDebounceMillis = unit.toMillis(delay);
+    }
+
+    private synchronized ScheduledExecutorService getObserverScheduler() {
+        if(observerScheduler == null) {
+            observerScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "storme-observer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return observerScheduler;
+    }
+
+    private synchronized void stopObservers() {
+        for(ObservedQuery<?> observed : new ArrayList<ObservedQuery<?>>(observations)) {
+            observed.cancel();
+        }
+        observations.clear();
+        if(observerScheduler != null) {
+            observerScheduler.shutdown();
+            observerScheduler = null;
+        }
+    }
+
+    /**
+     * Writes every row matching the query to the channel in the given format and returns the
+     * number of rows written. Rows are streamed from the cursor through a fixed size buffer, so
+     * any size of table can be exported. The channel is left open.
+     */
+    protected <E extends StormeModel> long export(Class<E> modelClass, String where, String[] whereParams, StormeExportFormat format, WritableByteChannel channel) throws IOException {
+        if(modelClass == null) {
+            throw new IllegalArgumentException("Model class cannot be null");
+        }
+        if(format == null || channel == null) {
+            throw new IllegalArgumentException("Export needs a format and a channel");
+        }
+
+        locks.lockRead(modelClass);
+        try {
+            sqliteInstance.openDB();
+            StormeModelFactory factory = classToFactoryMap.get(modelClass);
+            if(factory != null) {
+                TableExporter exporter = new TableExporter(factory.getExportColumns(), format, channel);
+                exporter.writeHeader();
+                factory.export(exporter, where, whereParams, sqliteInstance.getDatabase());
+                exporter.finish();
+                return exporter.getRowCount();
+            }
+            throw new IllegalArgumentException("Unknown model type passed to export method: " + modelClass.getName());
+        } finally {
+            locks.unlockRead(modelClass);
+        }
+    }
+
+    /**
+     * Loads rows from a file written by export() and returns the number inserted. The file is
+     * parsed as it is read and each row is bound straight into a compiled insert, committing every
+     * batch of rows as configured in the options. Rows whose id already exists are handled by the
+     * options' conflict policy. If the import fails only the batch in progress is rolled back.
+     * The channel is left open.
+     */
+    protected <E extends StormeModel> long importFrom(Class<E> modelClass, ReadableByteChannel channel, StormeExportFormat format, StormeImportOptions options) throws IOException {
+        if(modelClass == null) {
+            throw new IllegalArgumentException("Model class cannot be null");
+        }
+        if(format == null || channel == null) {
+            throw new IllegalArgumentException("Import needs a format and a channel");
+        }
+        if(options == null) {
+            options = new StormeImportOptions();
+        }
+
+        locks.lockWrite(modelClass);
+        try {
+            sqliteInstance.openDB();
+            StormeModelFactory factory = classToFactoryMap.get(modelClass);
+            if(factory != null) {
+                ImportReader reader = ImportReader.create(factory.getExportColumns(), format, channel);
+                try {
+                    return factory.newImporter(options).run(reader, sqliteInstance.getDatabase());
+                } finally {
+                    changeBus.changed(modelClass);
+                }
+            }
+            throw new IllegalArgumentException("Unknown model type passed to importFrom method: " + modelClass.getName());
+        } finally {
+            locks.unlockWrite(modelClass);
+        }
+    }
+
+    protected <E extends StormeModel> byte[] loadBlob(Class<E> modelClass, E record, String field) {
+        StormeModelFactory factory = getBlobFactory(modelClass, record, "loadBlob");
+        locks.lockRead(modelClass);
+        try {
+            sqliteInstance.openDB();
+            byte[] data = factory.readBlob(record.getId(), field, sqliteInstance.getDatabase());
+            FieldColumn column = factory.reflectionClassTableGenerator.getFieldForColumn(field);
+            column.setValue(record, data);
+            return data;
+        } finally {
+            locks.unlockRead(modelClass);
+        }
+    }
+
+    /**
+     * Reads a StormeLazy field into the record and returns the record.
+     */
+    protected <E extends StormeModel> E loadLazy(Class<E> modelClass, E record, String field) {
+        if(record == null || record.getId() <= 0) {
+            throw new IllegalArgumentException("Attempt to load a lazy field of a record with no id");
+        }
+        List<E> records = new ArrayList<E>(1);
+        records.add(record);
+        loadLazy(modelClass, records, field);
+        return record;
+    }
+
+    /**
+     * Reads a StormeLazy field into every record in the list with one query, for example to show
+     * the field for the rows of a page that has just been loaded.
+     */
+    protected <E extends StormeModel> void loadLazy(Class<E> modelClass, List<E> records, String field) {
+        if(modelClass == null) {
+            throw new IllegalArgumentException("Model class cannot be null");
+        }
+        if(records == null) {
+            throw new IllegalArgumentException("Attempt to load a lazy field of null records");
+        }
+
+        locks.lockRead(modelClass);
+        try {
+            sqliteInstance.openDB();
+            StormeModelFactory factory = classToFactoryMap.get(modelClass);
+            if(factory != null) {
+                factory.loadLazy(records, field, sqliteInstance.getDatabase());
+                return;
+            }
+            throw new IllegalArgumentException("Unknown model type passed to loadLazy method: " + modelClass.getName());
+        } finally {
+            locks.unlockRead(modelClass);
+        }
+    }
+
+    /**
+     * Opens a stream over a chunked blob. The stream reads from the database as it is used,
+     * outside the helper's locks, so it must be closed before the helper is.
+     */
+    protected <E extends StormeModel> InputStream openBlobInputStream(Class<E> modelClass, E record, String field) {
+        StormeModelFactory factory = getBlobFactory(modelClass, record, "openBlobInputStream");
+        return factory.openBlobInputStream(record.getId(), field, sqliteInstance.getDatabase());
+    }
+
+    /**
+     * Opens a stream writing a chunked blob. As with openBlobInputStream() the stream works
+     * outside the helper's locks and must be closed before the helper is. Closing the stream
+     * replaces the stored payload under the model's write lock and notifies observers.
+     */
+    protected <E extends StormeModel> OutputStream openBlobOutputStream(final Class<E> modelClass, E record, String field) {
+        final StormeModelFactory factory = getBlobFactory(modelClass, record, "openBlobOutputStream");
+        return new FilterOutputStream(factory.openBlobOutputStream(record.getId(), field, sqliteInstance.getDatabase())) {
+            private boolean closed;
+
+            @Override
+            public void write(byte[] data, int offset, int length) throws IOException {
+                out.write(data, offset, length);
+            }
+
+            @Override
+            public void close() throws IOException {
+                if(closed) {
+                    return;
+                }
+                closed = true;
+                locks.lockWrite(modelClass);
+                try {
+                    out.close();
+                    factory.invalidateResident();
+                    changeBus.changed(modelClass);
+                } finally {
+                    locks.unlockWrite(modelClass);
+                }
+            }
+        };
+    }
+
+    private <E extends StormeModel> StormeModelFactory getBlobFactory(Class<E> modelClass, E record, String method) {
+        if(modelClass == null) {
+            throw new IllegalArgumentException("Model class cannot be null");
+        }
+        if(record == null || record.getId() <= 0) {
+            throw new IllegalArgumentException("Attempt to access the blob of a record with no id");
+        }
         sqliteInstance.openDB();
         StormeModelFactory factory = classToFactoryMap.get(modelClass);
         if(factory != null) {
-            factory.deleteAll(sqliteInstance.getDatabase());
-            return;
+            return factory;
+        }
+        throw new IllegalArgumentException("Unknown model type passed to " + method + " method: " + modelClass.getName());
+    }
+
+    /**
+     * Returns the code stored for a value of a StormeDictionary field, for use as a query
+     * parameter, or -1 if the value has never been stored.
+     */
+    protected <E extends StormeModel> long getDictionaryCode(Class<E> modelClass, String field, String value) {
+        if(modelClass == null) {
+            throw new IllegalArgumentException("Model class cannot be null");
+        }
+        locks.lockRead(modelClass);
+        try {
+            sqliteInstance.openDB();
+            StormeModelFactory factory = classToFactoryMap.get(modelClass);
+            if(factory != null) {
+                Long code = factory.getDictionaryCode(field, value);
+                return code != null ? code : -1;
+            }
+            throw new IllegalArgumentException("Unknown model type passed to getDictionaryCode method: " + modelClass.getName());
+        } finally {
+            locks.unlockRead(modelClass);
+        }
+    }
+
+    protected <E extends StormeModel> void setRetentionRule(Class<E> modelClass, RetentionRule rule) {
+        if(modelClass == null) {
+            throw new IllegalArgumentException("Model class cannot be null");
+        }
+        if(!classToFactoryMap.containsKey(modelClass)) {
+            throw new IllegalArgumentException("Unknown model type passed to setRetentionRule method: " + modelClass.getName());
+        }
+        retentionEngine.setRule(modelClass, rule);
+    }
+
+    protected void startRetention(long period, TimeUnit unit, RetentionListener listener) {
+        if(period <= 0 || unit == null) {
+            throw new IllegalArgumentException("Retention period must be positive");
+        }
+        retentionEngine.start(period, unit, listener);
+    }
+
+    protected void stopRetention() {
+        retentionEngine.stop();
+    }
+
+    protected int enforceRetention(RetentionListener listener) {
+        return retentionEngine.enforce(listener);
+    }
+
+    /**
+     * Creates new databases with auto_vacuum=INCREMENTAL, so maintenance can give free pages back
+     * to the file system in steps. Must be called from the constructor of the helper, before the
+     * database is first opened; existing databases keep their mode. Needs API 16.
+     */
+    protected void setIncrementalAutoVacuum(boolean incremental) {
+        incrementalAutoVacuum = incremental;
+    }
+
+    /**
+     * Returns the page counts of the database and the rows and size of every table. Counting
+     * reads every table, so this is for diagnostics rather than for calling often.
+     */
+    protected StormeDatabaseStats getDatabaseStats() {
+        locks.lockOpen();
+        try {
+            sqliteInstance.openDB();
+            return maintenanceEngine.stats(sqliteInstance.getDatabase());
+        } finally {
+            locks.unlockOpen();
+        }
+    }
+
+    protected StormePerformanceProfile getPerformanceProfile() {
+        return performanceProfile;
+    }
+
+    /**
+     * Returns the journal mode, synchronous, cache, mmap, temp store, page size, journal size
+     * limit and auto vacuum settings in effect, keyed by pragma name, for diagnostics.
+     */
+    protected Map<String, String> getEffectiveSettings() {
+        // the settings are read in a transaction, which must not start under another thread's locks
+        locks.lockAll();
+        try {
+            sqliteInstance.openDB();
+            return PragmaSettings.read(sqliteInstance.getDatabase());
+        } finally {
+            locks.unlockAllQuietly();
+        }
+    }
+
+    /**
+     * Checks the database every check interval of the options and maintains it when it is idle
+     * or past a threshold, see StormeMaintenanceOptions. Null options use the defaults.
+     */
+    protected void startMaintenance(StormeMaintenanceOptions options) {
+        maintenanceEngine.start(options != null ? options : new StormeMaintenanceOptions());
+    }
+
+    protected void stopMaintenance() {
+        maintenanceEngine.stop();
+    }
+
+    /**
+     * Refreshes the query planner statistics and releases every free page now, on the calling
+     * thread, returning the number of pages released.
+     */
+    protected long runMaintenance() {
+        locks.lockOpen();
+        try {
+            sqliteInstance.openDB();
+        } finally {
+            locks.unlockOpen();
+        }
+        return maintenanceEngine.maintain(true);
+    }
+
+    /**
+     * Copies writes made since the last flush to the disk database of an in-memory helper with a
+     * flush interval. Does nothing for other helpers.
+     */
+    protected void flush() {
+        if(memoryMirror != null) {
+            locks.lockOpen();
+            try {
+                memoryMirror.flush(sqliteInstance.getDatabase());
+            } finally {
+                locks.unlockOpen();
+            }
+        }
+    }
+
+    /**
+     * Runs the work in an IMMEDIATE transaction, see runInTransaction(StormeTransactionMode, Callable).
+     */
+    protected <T> T runInTransaction(Callable<T> work) {
+        return runInTransaction(StormeTransactionMode.IMMEDIATE, work);
+    }
+
+    /**
+     * Runs the work in one transaction, so every save, delete and import it makes is committed
+     * together or not at all. If the work throws, the transaction is rolled back and the exception
+     * rethrown, wrapped in a StormeTransactionException if it was checked. Calls made inside the
+     * work nest as SQLite savepoints, which roll back on their own when their work throws; the mode
+     * of a nested call is ignored. Change listeners hear about the writes once the outermost
+     * transaction commits.
+     *
+     * The transaction locks every model until it ends, so other threads wait for it rather than
+     * for SQLite. Records saved in a rolled back transaction keep the ids they were given.
+     */
+    protected <T> T runInTransaction(StormeTransactionMode mode, Callable<T> work) {
+        if(mode == null || work == null) {
+            throw new IllegalArgumentException("Transaction needs a mode and some work");
+        }
+        Integer depth = transactionDepth.get();
+        if(depth != null) {
+            return runInSavepoint(depth, work);
+        }
+
+        locks.lockAll();
+        try {
+            sqliteInstance.openDB();
+            SQLiteDatabase db = sqliteInstance.getDatabase();
+            if(mode == StormeTransactionMode.EXCLUSIVE) {
+                db.beginTransaction();
+            } else {
+                db.beginTransactionNonExclusive();
+            }
+            changeBus.beginTransaction();
+            transactionDepth.set(1);
+            boolean successful = false;
+            try {
+                T result = call(work);
+                db.setTransactionSuccessful();
+                successful = true;
+                return result;
+            } finally {
+                transactionDepth.remove();
+                try {
+                    db.endTransaction();
+                } finally {
+                    if(!successful) {
+                        rolledBack();
+                    }
+                    changeBus.endTransaction(successful);
+                }
+            }
+        } finally {
+            locks.unlockAll();
+        }
+    }
+
+    private <T> T runInSavepoint(int depth, Callable<T> work) {
+        SQLiteDatabase db = sqliteInstance.getDatabase();
+        String savepoint = SAVEPOINT_PREFIX + depth;
+        db.execSQL("SAVEPOINT " + savepoint);
+        transactionDepth.set(depth + 1);
+        boolean successful = false;
+        try {
+            T result = call(work);
+            successful = true;
+            return result;
+        } finally {
+            transactionDepth.set(depth);
+            if(!successful) {
+                // the leading ; stops Android taking ROLLBACK TO as the end of the whole transaction
+                db.execSQL(";ROLLBACK TO " + savepoint);
+                rolledBack();
+            }
+            db.execSQL("RELEASE " + savepoint);
         }
-        throw new IllegalArgumentException("Unknown model type passed to delete method: " + modelClass.getName());
     }
 
+    private static <T> T call(Callable<T> work) {
+        try {
+            return work.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new StormeTransactionException(e);
+        }
+    }
+
+    private void rolledBack() {
+        for(StormeModelFactory factory : classToFactoryMap.values()) {
+            factory.rolledBack();
+        }
+    }
+
+    /**
+     * Closes the database once running operations have finished and cancels observed queries.
+     * Must not be called inside runInTransaction.
+     */
     protected void close() {
+        if(transactionDepth.get() != null) {
+            throw new IllegalStateException("Cannot close the database inside a transaction");
+        }
+        stopFlush();
+        stopObservers();
         sqliteInstance.close();
     }
 
+    private void setupMirror(Context context, int dbVersion, StormeMemoryOptions memoryOptions) {
+        List<Class<? extends StormeModel>> mirrored = memoryOptions.getMirroredModels();
+        if(mirrored.isEmpty()) {
+            mirrored = new ArrayList<Class<? extends StormeModel>>(classToFactoryMap.keySet());
+        }
+        final List<StormeModelFactory<?>> factories = new ArrayList<StormeModelFactory<?>>();
+        for(Class<? extends StormeModel> modelClass : mirrored) {
+            StormeModelFactory factory = classToFactoryMap.get(modelClass);
+            if(factory == null) {
+                throw new IllegalArgumentException("Unknown model type passed to mirror method: " + modelClass.getName());
+            }
+            if(factory instanceof PartitionedModelFactory) {
+                throw new IllegalArgumentException("Partitioned models cannot be mirrored: " + modelClass.getName());
+            }
+            factories.add(factory);
+        }
+
+        File file = context.getDatabasePath(memoryOptions.getDiskName());
+        file.getParentFile().mkdirs();
+        memoryMirror = new MemoryMirror(file.getPath(), dbVersion, factories);
+
+        long interval = memoryOptions.getFlushIntervalMillis();
+        if(interval == 0) {
+            // write through, every write is published on the change bus once it has committed
+            for(final StormeModelFactory<?> factory : factories) {
+                changeBus.register(factory.modelClass, new ChangeBus.ChangeListener() {
+                    @Override
+                    public void onChanged(Class<? extends StormeModel> modelClass) {
+                        memoryMirror.flush(sqliteInstance.getDatabase(), factory);
+                    }
+                });
+            }
+        } else {
+            flushIntervalMillis = interval;
+            startFlush();
+        }
+    }
+
+    private synchronized void startFlush() {
+        if(flushIntervalMillis > 0 && flushScheduler == null) {
+            flushScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "storme-flush");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            flushScheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        flush();
+                    } catch (RuntimeException e) {
+                        Log.e(TAG, "Failed to flush in-memory database to disk", e);
+                    }
+                }
+            }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // the last writes are flushed by handleClose, the timer is started again when the database reopens
+    private synchronized void stopFlush() {
+        if(flushScheduler != null) {
+            flushScheduler.shutdown();
+            flushScheduler = null;
+        }
+    }
+
 }
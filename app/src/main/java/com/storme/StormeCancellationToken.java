@@ -0,0 +1,155 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.os.Build;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lets a query be stopped while it runs, either on request or when a deadline passes. Queries
+ * check the token before they start and between rows as they are mapped to models; on API 16 and
+ * above it is also passed to SQLite as a CancellationSignal so a long running statement is
+ * interrupted too. A stopped query throws StormeCancelledException.
+ *
+ * A token can be shared by several queries, for example everything loaded for one screen, and
+ * stays cancelled once cancelled. Each query gets a signal of its own, as a CancellationSignal
+ * holds the listener of just one running statement.
+ */
+public class StormeCancellationToken {
+
+    private static ScheduledExecutorService deadlineTimer;
+
+    private final long deadlineNanos;
+    private volatile boolean cancelled;
+    private final Set<Object> signals = new HashSet<Object>();
+
+    public StormeCancellationToken() {
+        deadlineNanos = 0;
+    }
+
+    private StormeCancellationToken(long timeoutNanos) {
+        deadlineNanos = System.nanoTime() + timeoutNanos;
+        getDeadlineTimer().schedule(new Runnable() {
+            @Override
+            public void run() {
+                cancelSignal();
+            }
+        }, timeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns a token that cancels itself once the timeout has passed.
+     */
+    public static StormeCancellationToken withTimeout(long timeout, TimeUnit unit) {
+        if(timeout <= 0 || unit == null) {
+            throw new IllegalArgumentException("Timeout must be positive");
+        }
+        return new StormeCancellationToken(unit.toNanos(timeout));
+    }
+
+    public void cancel() {
+        cancelled = true;
+        cancelSignal();
+    }
+
+    public boolean isCancelled() {
+        return cancelled || isDeadlineExceeded();
+    }
+
+    public boolean isDeadlineExceeded() {
+        return deadlineNanos != 0 && System.nanoTime() - deadlineNanos >= 0;
+    }
+
+    public void throwIfCancelled() {
+        if(cancelled) {
+            throw new StormeCancelledException(false);
+        }
+        if(isDeadlineExceeded()) {
+            throw new StormeCancelledException(true);
+        }
+    }
+
+    /**
+     * Returns a new CancellationSignal for one query on API 16 and above, otherwise null. It is
+     * cancelled with the token until released.
+     */
+    synchronized Object newSignal() {
+        if(Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            return null;
+        }
+        Object signal = CancellationSupport.newSignal();
+        if(isCancelled()) {
+            CancellationSupport.cancel(signal);
+        } else {
+            signals.add(signal);
+        }
+        return signal;
+    }
+
+    synchronized void releaseSignal(Object signal) {
+        signals.remove(signal);
+    }
+
+    /**
+     * Wraps the cursor of a query run with the signal, releasing the signal once the cursor is
+     * closed. The signal stays live until then as filling the cursor window runs SQLite again.
+     */
+    Cursor releaseOnClose(Cursor cursor, final Object signal) {
+        if(cursor == null) {
+            releaseSignal(signal);
+            return null;
+        }
+        return new CursorWrapper(cursor) {
+            @Override
+            public void close() {
+                try {
+                    super.close();
+                } finally {
+                    releaseSignal(signal);
+                }
+            }
+        };
+    }
+
+    private synchronized void cancelSignal() {
+        for(Object signal : signals) {
+            CancellationSupport.cancel(signal);
+        }
+        signals.clear();
+    }
+
+    private static synchronized ScheduledExecutorService getDeadlineTimer() {
+        if(deadlineTimer == null) {
+            deadlineTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "storme-deadline");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return deadlineTimer;
+    }
+}
@@ -0,0 +1,36 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+/**
+ * Thrown when a query is stopped through its StormeCancellationToken, either by cancel() or by
+ * its deadline passing. Any cursor the query had open is closed before this is thrown.
+ */
+public class StormeCancelledException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final boolean deadlineExceeded;
+
+    public StormeCancelledException(boolean deadlineExceeded) {
+        super(deadlineExceeded ? "Query deadline exceeded" : "Query cancelled");
+        this.deadlineExceeded = deadlineExceeded;
+    }
+
+    public boolean isDeadlineExceeded() {
+        return deadlineExceeded;
+    }
+}
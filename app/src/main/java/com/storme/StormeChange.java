@@ -0,0 +1,52 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+/**
+ * An entry of the change journal: the sequence number of the change, its type and the id of the
+ * record changed. Inserts and updates carry the record as it is now, or null if it has been
+ * deleted since. Deletes carry no record.
+ */
+public class StormeChange<T extends StormeModel> {
+
+    private long seq;
+    private StormeChangeType type;
+    private long id;
+    private T model;
+
+    public StormeChange(long seq, StormeChangeType type, long id, T model) {
+        this.seq = seq;
+        this.type = type;
+        this.id = id;
+        this.model = model;
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    public StormeChangeType getType() {
+        return type;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public T getModel() {
+        return model;
+    }
+}
@@ -0,0 +1,48 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+/**
+ * The kind of change recorded in the change journal.
+ */
+public enum StormeChangeType implements StormeCodedEnum {
+    /** The record was inserted. */
+    INSERT(1),
+    /** The record was updated. */
+    UPDATE(2),
+    /** The record was deleted. */
+    DELETE(3);
+
+    private final int code;
+
+    StormeChangeType(int code) {
+        this.code = code;
+    }
+
+    @Override
+    public int getCode() {
+        return code;
+    }
+
+    public static StormeChangeType fromCode(int code) {
+        for(StormeChangeType type : values()) {
+            if(type.code == code) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Unknown change type code: " + code);
+    }
+}
@@ -0,0 +1,36 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Stores a byte[] field in a side table split into chunks, so large payloads never have to fit in
+ * a single CursorWindow. The model's own column only holds the payload length.
+ *
+ * Chunked fields are not loaded by get or find. Read them with StormeBaseHelper.loadBlob() or
+ * openBlobInputStream(). Saving a record writes the field only when it is not null, so records
+ * loaded without their payload can be saved without losing it.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface StormeChunkedBlob {
+
+    int chunkSize() default ChunkedBlobStore.DEFAULT_CHUNK_SIZE;
+}
@@ -0,0 +1,152 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+import android.database.Cursor;
+
+import java.util.Arrays;
+
+/**
+ * Result of StormeBaseHelper.readColumns(): the values of each requested field for every matching
+ * row, in row order, held in primitive arrays. Integer and enum fields are read as int, long, Date
+ * and dictionary fields as long (Dates as milliseconds), float and double fields as double. NULL
+ * values read as 0 or false.
+ */
+public class StormeColumns {
+
+    static final int TYPE_INT = 0;
+    static final int TYPE_LONG = 1;
+    static final int TYPE_DOUBLE = 2;
+    static final int TYPE_BOOLEAN = 3;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final String[] fields;
+    private final int[] types;
+    private final Object[] arrays;
+    private int size;
+    private int capacity;
+
+    StormeColumns(String[] fields, int[] types) {
+        this.fields = fields;
+        this.types = types;
+        this.arrays = new Object[fields.length];
+        allocate(INITIAL_CAPACITY);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int[] getInts(String field) {
+        return (int[]) get(field, TYPE_INT);
+    }
+
+    public long[] getLongs(String field) {
+        return (long[]) get(field, TYPE_LONG);
+    }
+
+    public double[] getDoubles(String field) {
+        return (double[]) get(field, TYPE_DOUBLE);
+    }
+
+    public boolean[] getBooleans(String field) {
+        return (boolean[]) get(field, TYPE_BOOLEAN);
+    }
+
+    /**
+     * Appends every row of the cursor in a single pass and closes it. The arrays are sized from
+     * the cursor's row count up front, so they only grow when several cursors are read.
+     */
+    void read(Cursor cursor) {
+        try {
+            int[] positions = new int[fields.length];
+            for(int i = 0; i < fields.length; i++) {
+                positions[i] = cursor.getColumnIndexOrThrow(fields[i]);
+            }
+            if(size + cursor.getCount() > capacity) {
+                allocate(size + cursor.getCount());
+            }
+
+            while(cursor.moveToNext()) {
+                if(size == capacity) {
+                    allocate(capacity * 2);
+                }
+                for(int i = 0; i < fields.length; i++) {
+                    int position = positions[i];
+                    switch(types[i]) {
+                        case TYPE_INT:
+                            ((int[]) arrays[i])[size] = cursor.getInt(position);
+                            break;
+                        case TYPE_LONG:
+                            ((long[]) arrays[i])[size] = cursor.getLong(position);
+                            break;
+                        case TYPE_DOUBLE:
+                            ((double[]) arrays[i])[size] = cursor.getDouble(position);
+                            break;
+                        default:
+                            ((boolean[]) arrays[i])[size] = cursor.getInt(position) > 0;
+                            break;
+                    }
+                }
+                size++;
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Trims the arrays to the number of rows read.
+     */
+    void finish() {
+        if(size != capacity) {
+            allocate(size);
+        }
+    }
+
+    private Object get(String field, int type) {
+        for(int i = 0; i < fields.length; i++) {
+            if(fields[i].equals(field)) {
+                if(types[i] != type) {
+                    throw new IllegalArgumentException("Column was not read as the requested type: " + field);
+                }
+                return arrays[i];
+            }
+        }
+        throw new IllegalArgumentException("Column was not read: " + field);
+    }
+
+    private void allocate(int newCapacity) {
+        for(int i = 0; i < fields.length; i++) {
+            switch(types[i]) {
+                case TYPE_INT:
+                    arrays[i] = arrays[i] == null ? new int[newCapacity] : Arrays.copyOf((int[]) arrays[i], newCapacity);
+                    break;
+                case TYPE_LONG:
+                    arrays[i] = arrays[i] == null ? new long[newCapacity] : Arrays.copyOf((long[]) arrays[i], newCapacity);
+                    break;
+                case TYPE_DOUBLE:
+                    arrays[i] = arrays[i] == null ? new double[newCapacity] : Arrays.copyOf((double[]) arrays[i], newCapacity);
+                    break;
+                default:
+                    arrays[i] = arrays[i] == null ? new boolean[newCapacity] : Arrays.copyOf((boolean[]) arrays[i], newCapacity);
+                    break;
+            }
+        }
+        capacity = newCapacity;
+    }
+}
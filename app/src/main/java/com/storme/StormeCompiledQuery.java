@@ -0,0 +1,231 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQuery;
+import android.text.TextUtils;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A query built by StormeQueryBuilder, holding its SQL ready to run. Arguments are bound with
+ * their native SQLite type, so numbers are compared as INTEGER or REAL rather than TEXT and
+ * indexes on numeric columns can be used. As the SQL text is the same for every run, SQLite's
+ * statement cache also skips parsing it again.
+ *
+ * Arguments are given in the order of the builder's where conditions and converted for the
+ * field they are compared with: Dates to milliseconds, booleans to 0 or 1, enums to their stored
+ * value, dictionary Strings to their code and models or StormeRefs to their id.
+ *
+ * Partitioned models are queried through their factory so the partitions can be pruned, with the
+ * arguments passed as Strings.
+ */
+public class StormeCompiledQuery<E extends StormeModel> {
+
+    private final SQLiteInstance sqliteInstance;
+    private final StormeModelFactory<E> factory;
+    private final String where;
+    private final FieldColumn[] params;
+    private final String order;
+
+    private final String selectSql;
+    private final String pageSql;
+    private final String countSql;
+
+    StormeCompiledQuery(SQLiteInstance sqliteInstance, StormeModelFactory<E> factory, String where, FieldColumn[] params, String order) {
+        this.sqliteInstance = sqliteInstance;
+        this.factory = factory;
+        this.where = where;
+        this.params = params;
+        this.order = order;
+
+        String whereClause = where != null ? " WHERE " + where : "";
+        selectSql = "SELECT " + TextUtils.join(", ", factory.getSelectColumns()) + " FROM " + factory.tableName + whereClause + (order != null ? " ORDER BY " + order : "");
+        pageSql = selectSql + " LIMIT ? OFFSET ?";
+        countSql = "SELECT COUNT(*) FROM " + factory.tableName + whereClause;
+    }
+
+    public String getWhere() {
+        return where;
+    }
+
+    public String getOrder() {
+        return order;
+    }
+
+    public List<E> find(Object... args) {
+        Object[] values = toBindValues(args, 0);
+        SQLiteInstance.getLocks().lockRead(factory.modelClass);
+        try {
+            sqliteInstance.openDB();
+            SQLiteDatabase db = sqliteInstance.getDatabase();
+            if(factory instanceof PartitionedModelFactory) {
+                return factory.find(where, toStrings(values), order, 0, 0, db);
+            }
+            return factory.listFromCursor(query(db, selectSql, values));
+        } finally {
+            SQLiteInstance.getLocks().unlockRead(factory.modelClass);
+        }
+    }
+
+    public List<E> findPage(int page, int pagesize, Object... args) {
+        if(page <= 0 || pagesize <= 0) {
+            throw new IllegalArgumentException("Page and page size must be positive");
+        }
+        Object[] values = toBindValues(args, 2);
+        SQLiteInstance.getLocks().lockRead(factory.modelClass);
+        try {
+            sqliteInstance.openDB();
+            SQLiteDatabase db = sqliteInstance.getDatabase();
+            if(factory instanceof PartitionedModelFactory) {
+                return factory.find(where, toStrings(values, params.length), order, page, pagesize, db);
+            }
+            values[params.length] = (long) pagesize;
+            values[params.length + 1] = (long) (page - 1) * pagesize;
+            return factory.listFromCursor(query(db, pageSql, values));
+        } finally {
+            SQLiteInstance.getLocks().unlockRead(factory.modelClass);
+        }
+    }
+
+    public E first(Object... args) {
+        List<E> list = findPage(1, 1, args);
+        return list.isEmpty() ? null : list.get(0);
+    }
+
+    public int count(Object... args) {
+        Object[] values = toBindValues(args, 0);
+        SQLiteInstance.getLocks().lockRead(factory.modelClass);
+        try {
+            sqliteInstance.openDB();
+            SQLiteDatabase db = sqliteInstance.getDatabase();
+            if(factory instanceof PartitionedModelFactory) {
+                return factory.count(where, toStrings(values), db);
+            }
+            Cursor cursor = query(db, countSql, values);
+            try {
+                return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            SQLiteInstance.getLocks().unlockRead(factory.modelClass);
+        }
+    }
+
+    private Cursor query(SQLiteDatabase db, String sql, Object[] values) {
+        return db.rawQueryWithFactory(new BindingCursorFactory(values), sql, null, null);
+    }
+
+    private Object[] toBindValues(Object[] args, int extra) {
+        int count = args != null ? args.length : 0;
+        if(count != params.length) {
+            throw new IllegalArgumentException("Expected " + params.length + " query arguments but got " + count);
+        }
+        Object[] values = new Object[count + extra];
+        for(int i = 0; i < count; i++) {
+            values[i] = toBindValue(params[i], args[i]);
+        }
+        return values;
+    }
+
+    private static Object toBindValue(FieldColumn column, Object value) {
+        if(value == null) {
+            return null;
+        }
+        if(column instanceof EnumFieldColumn && value instanceof Enum) {
+            return (long) ((EnumFieldColumn) column).toColumnValue(value);
+        }
+        if(column instanceof DictionaryFieldColumn && value instanceof String) {
+            // a value that was never stored gets a code no row can have
+            Long code = ((DictionaryFieldColumn) column).getDictionary().peekCode((String) value);
+            return code != null ? code : -1L;
+        }
+        if(value instanceof StormeModel) {
+            return ((StormeModel) value).getId();
+        }
+        if(value instanceof StormeRef) {
+            return ((StormeRef) value).getId();
+        }
+        if(value instanceof Date) {
+            return ((Date) value).getTime();
+        }
+        if(value instanceof Boolean) {
+            return (Boolean) value ? 1L : 0L;
+        }
+        if(value instanceof Float || value instanceof Double) {
+            return ((Number) value).doubleValue();
+        }
+        if(value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        if(value instanceof String || value instanceof byte[]) {
+            return value;
+        }
+        throw new IllegalArgumentException("Unsupported query argument type: " + value.getClass().getName());
+    }
+
+    private static String[] toStrings(Object[] values) {
+        return toStrings(values, values.length);
+    }
+
+    private static String[] toStrings(Object[] values, int count) {
+        String[] strings = new String[count];
+        for(int i = 0; i < count; i++) {
+            if(values[i] == null || values[i] instanceof byte[]) {
+                throw new IllegalArgumentException("Null and byte[] arguments are not supported on partitioned models");
+            }
+            strings[i] = String.valueOf(values[i]);
+        }
+        return strings;
+    }
+
+    /**
+     * Binds the query arguments with their own types as the cursor's query is created.
+     */
+    private static class BindingCursorFactory implements SQLiteDatabase.CursorFactory {
+
+        private final Object[] values;
+
+        BindingCursorFactory(Object[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver driver, String editTable, SQLiteQuery query) {
+            for(int i = 0; i < values.length; i++) {
+                Object value = values[i];
+                if(value == null) {
+                    query.bindNull(i + 1);
+                } else if(value instanceof Long) {
+                    query.bindLong(i + 1, (Long) value);
+                } else if(value instanceof Double) {
+                    query.bindDouble(i + 1, (Double) value);
+                } else if(value instanceof byte[]) {
+                    query.bindBlob(i + 1, (byte[]) value);
+                } else {
+                    query.bindString(i + 1, (String) value);
+                }
+            }
+            return new SQLiteCursor(driver, editTable, query);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A snapshot of how the database file is used, from StormeBaseHelper.getDatabaseStats(). A high
+ * free ratio means the file is fragmented and holds space that incremental vacuum can give back.
+ */
+public class StormeDatabaseStats {
+
+    /** Auto vacuum modes as reported by PRAGMA auto_vacuum. */
+    public static final int AUTO_VACUUM_NONE = 0;
+    public static final int AUTO_VACUUM_FULL = 1;
+    public static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    private final long pageSize;
+    private final long pageCount;
+    private final long freePages;
+    private final int autoVacuum;
+    private final List<Table> tables;
+
+    StormeDatabaseStats(long pageSize, long pageCount, long freePages, int autoVacuum, List<Table> tables) {
+        this.pageSize = pageSize;
+        this.pageCount = pageCount;
+        this.freePages = freePages;
+        this.autoVacuum = autoVacuum;
+        this.tables = Collections.unmodifiableList(tables);
+    }
+
+    public long getPageSize() {
+        return pageSize;
+    }
+
+    public long getPageCount() {
+        return pageCount;
+    }
+
+    public long getFreePages() {
+        return freePages;
+    }
+
+    public double getFreeRatio() {
+        return pageCount > 0 ? (double) freePages / pageCount : 0;
+    }
+
+    public long getFileBytes() {
+        return pageSize * pageCount;
+    }
+
+    public int getAutoVacuum() {
+        return autoVacuum;
+    }
+
+    public List<Table> getTables() {
+        return tables;
+    }
+
+    @Override
+    public String toString() {
+        return "StormeDatabaseStats{pages=" + pageCount + ", free=" + freePages + ", pageSize=" + pageSize
+                + ", autoVacuum=" + autoVacuum + ", tables=" + tables + "}";
+    }
+
+    /**
+     * Size of one table. Bytes include the table's indexes and are -1 when the SQLite build has no
+     * dbstat table to measure them with.
+     */
+    public static class Table {
+
+        private final String name;
+        private final long rows;
+        private final long bytes;
+
+        Table(String name, long rows, long bytes) {
+            this.name = name;
+            this.rows = rows;
+            this.bytes = bytes;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public String toString() {
+            return name + "{rows=" + rows + ", bytes=" + bytes + "}";
+        }
+    }
+}
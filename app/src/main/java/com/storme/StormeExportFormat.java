@@ -0,0 +1,33 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+/**
+ * File formats for StormeBaseHelper.export() and importFrom().
+ *
+ * CSV has a header line of column names followed by one line per row; NULL is an empty field and
+ * BLOBs are Base64. JSON_LINES is one JSON object per line keyed by column name, with BLOBs as
+ * Base64 strings. BINARY starts with a header naming and typing each column, followed by each row
+ * as a tagged value per column, where TEXT and BLOB values are prefixed by their length.
+ *
+ * Dictionary fields are written as their String value, so files can be loaded into another
+ * database. Chunked blob fields are not included.
+ */
+public enum StormeExportFormat {
+    CSV,
+    JSON_LINES,
+    BINARY
+}
@@ -0,0 +1,25 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+/**
+ * Receives progress reports from StormeBaseHelper.importFrom() after every committed batch, with
+ * the total number of rows read so far and the average rate since the import started.
+ */
+public interface StormeImportListener {
+
+    public void onProgress(Class<? extends StormeModel> modelClass, long rows, double rowsPerSecond);
+}
@@ -0,0 +1,86 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+/**
+ * Options for StormeBaseHelper.importFrom().
+ *
+ * Rows are committed in transactions of batchSize rows; a failure only rolls back the batch in
+ * progress. With deferIndexes the model's indexes are dropped for the load and rebuilt once at the
+ * end, which is much faster for large loads into an indexed table. With assignNewIds any id column
+ * in the file is ignored and every row is inserted as a new record.
+ */
+public class StormeImportOptions {
+
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private StormeConflictPolicy conflictPolicy = StormeConflictPolicy.FAIL;
+    private boolean deferIndexes;
+    private boolean assignNewIds;
+    private StormeImportListener listener;
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public StormeImportOptions setBatchSize(int batchSize) {
+        if(batchSize <= 0) {
+            throw new IllegalArgumentException("Import batch size must be positive");
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    public StormeConflictPolicy getConflictPolicy() {
+        return conflictPolicy;
+    }
+
+    public StormeImportOptions setConflictPolicy(StormeConflictPolicy conflictPolicy) {
+        if(conflictPolicy == null) {
+            throw new IllegalArgumentException("Conflict policy cannot be null");
+        }
+        this.conflictPolicy = conflictPolicy;
+        return this;
+    }
+
+    public boolean isDeferIndexes() {
+        return deferIndexes;
+    }
+
+    public StormeImportOptions setDeferIndexes(boolean deferIndexes) {
+        this.deferIndexes = deferIndexes;
+        return this;
+    }
+
+    public boolean isAssignNewIds() {
+        return assignNewIds;
+    }
+
+    public StormeImportOptions setAssignNewIds(boolean assignNewIds) {
+        this.assignNewIds = assignNewIds;
+        return this;
+    }
+
+    public StormeImportListener getListener() {
+        return listener;
+    }
+
+    public StormeImportOptions setListener(StormeImportListener listener) {
+        this.listener = listener;
+        return this;
+    }
+}
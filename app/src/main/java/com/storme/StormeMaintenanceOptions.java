@@ -0,0 +1,121 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Options for StormeBaseHelper.startMaintenance().
+ *
+ * Every check interval the maintenance thread looks at the database. When no operation has run
+ * for the idle time it refreshes the query planner statistics if anything has been written and
+ * releases free pages. When the database is busy it only does so once a threshold is crossed:
+ * analyzeAfterWrites write operations since the statistics were last refreshed, or a free page
+ * ratio of vacuumFreeRatio. Free pages are released vacuumStepPages at a time with a pause after
+ * each step, and only from databases created with incremental auto vacuum.
+ */
+public class StormeMaintenanceOptions {
+
+    public static final long DEFAULT_CHECK_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    public static final long DEFAULT_IDLE_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    public static final long DEFAULT_ANALYZE_AFTER_WRITES = 1000;
+    public static final double DEFAULT_VACUUM_FREE_RATIO = 0.2;
+    public static final int DEFAULT_VACUUM_STEP_PAGES = 128;
+    public static final long DEFAULT_STEP_PAUSE_MILLIS = 50;
+
+    private long checkIntervalMillis = DEFAULT_CHECK_INTERVAL_MILLIS;
+    private long idleMillis = DEFAULT_IDLE_MILLIS;
+    private long analyzeAfterWrites = DEFAULT_ANALYZE_AFTER_WRITES;
+    private double vacuumFreeRatio = DEFAULT_VACUUM_FREE_RATIO;
+    private int vacuumStepPages = DEFAULT_VACUUM_STEP_PAGES;
+    private long stepPauseMillis = DEFAULT_STEP_PAUSE_MILLIS;
+
+    public long getCheckIntervalMillis() {
+        return checkIntervalMillis;
+    }
+
+    public StormeMaintenanceOptions setCheckInterval(long interval, TimeUnit unit) {
+        if(interval <= 0 || unit == null) {
+            throw new IllegalArgumentException("Maintenance check interval must be positive");
+        }
+        checkIntervalMillis = unit.toMillis(interval);
+        return this;
+    }
+
+    public long getIdleMillis() {
+        return idleMillis;
+    }
+
+    /**
+     * How long the database must go unused before it counts as idle. Zero means it never does,
+     * so maintenance only runs when a threshold is crossed.
+     */
+    public StormeMaintenanceOptions setIdleTime(long time, TimeUnit unit) {
+        if(time < 0 || unit == null) {
+            throw new IllegalArgumentException("Idle time cannot be negative");
+        }
+        idleMillis = unit.toMillis(time);
+        return this;
+    }
+
+    public long getAnalyzeAfterWrites() {
+        return analyzeAfterWrites;
+    }
+
+    public StormeMaintenanceOptions setAnalyzeAfterWrites(long writes) {
+        if(writes <= 0) {
+            throw new IllegalArgumentException("Analyze threshold must be positive");
+        }
+        analyzeAfterWrites = writes;
+        return this;
+    }
+
+    public double getVacuumFreeRatio() {
+        return vacuumFreeRatio;
+    }
+
+    public StormeMaintenanceOptions setVacuumFreeRatio(double ratio) {
+        if(ratio <= 0 || ratio > 1) {
+            throw new IllegalArgumentException("Vacuum free ratio must be above 0 and at most 1");
+        }
+        vacuumFreeRatio = ratio;
+        return this;
+    }
+
+    public int getVacuumStepPages() {
+        return vacuumStepPages;
+    }
+
+    public StormeMaintenanceOptions setVacuumStepPages(int pages) {
+        if(pages <= 0) {
+            throw new IllegalArgumentException("Vacuum step must be positive");
+        }
+        vacuumStepPages = pages;
+        return this;
+    }
+
+    public long getStepPauseMillis() {
+        return stepPauseMillis;
+    }
+
+    public StormeMaintenanceOptions setStepPause(long pause, TimeUnit unit) {
+        if(pause < 0 || unit == null) {
+            throw new IllegalArgumentException("Step pause cannot be negative");
+        }
+        stepPauseMillis = unit.toMillis(pause);
+        return this;
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Options for running a StormeBaseHelper against an in-memory database.
+ *
+ * Without a disk name the database is purely ephemeral and is lost when the helper is closed.
+ * With one, the mirrored models (every model unless some are named) are copied into the in-memory
+ * database from that disk database when it is opened and their writes are mirrored back to it,
+ * either as part of each write or, with a flush interval, in batches every interval and on
+ * close().
+ */
+public class StormeMemoryOptions {
+
+    private String diskName;
+    private long flushIntervalMillis;
+    private List<Class<? extends StormeModel>> mirroredModels = new ArrayList<Class<? extends StormeModel>>();
+
+    public String getDiskName() {
+        return diskName;
+    }
+
+    public StormeMemoryOptions setDiskName(String diskName) {
+        this.diskName = diskName;
+        return this;
+    }
+
+    public long getFlushIntervalMillis() {
+        return flushIntervalMillis;
+    }
+
+    /**
+     * Mirrors writes every interval instead of as part of each write. Zero, the default, writes
+     * through.
+     */
+    public StormeMemoryOptions setFlushInterval(long interval, TimeUnit unit) {
+        if(interval < 0 || unit == null) {
+            throw new IllegalArgumentException("Flush interval cannot be negative");
+        }
+        flushIntervalMillis = unit.toMillis(interval);
+        return this;
+    }
+
+    public List<Class<? extends StormeModel>> getMirroredModels() {
+        return Collections.unmodifiableList(mirroredModels);
+    }
+
+    public StormeMemoryOptions mirror(Class<? extends StormeModel> modelClass) {
+        if(modelClass == null) {
+            throw new IllegalArgumentException("Model class cannot be null");
+        }
+        mirroredModels.add(modelClass);
+        return this;
+    }
+}
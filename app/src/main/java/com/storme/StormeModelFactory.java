@@ -20,9 +20,20 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.util.Log;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
 
 /**
  * Created by brett on 20/02/15.
@@ -33,27 +44,172 @@ public class StormeModelFactory<T extends StormeModel> {
 
     private static final String DROP_TEMPLATE = "DROP TABLE IF EXISTS %s";
     private static final String TRUNCATE_TEMPLATE = "DELETE FROM %s";
+    private static final String DROP_INDEX_TEMPLATE = "DROP INDEX IF EXISTS %s";
 
-    private Class<T> modelClass;
+    protected Class<T> modelClass;
     ReflectionClassTableGenerator<T> reflectionClassTableGenerator;
 
-    private int dbVersion;
-    private String tableName;
+    protected int dbVersion;
+    protected String tableName;
+    public static final int MAX_COMPILED_QUERIES = 64;
+
+    protected ChunkedBlobStore blobStore;
+    private List<ChunkedBlobFieldColumn> chunkedColumns;
+    private List<FieldColumn> lazyColumns;
+    // lazy columns left out when each record was read, weak so records are not held on to
+    private final Map<T, Set<FieldColumn>> unloadedLazy = Collections.synchronizedMap(new WeakHashMap<T, Set<FieldColumn>>());
+    private String[] selectColumns;
+    private List<FieldColumn> keyColumns;
+    private String keyWhere;
+    protected RelationLoader relationLoader;
+    protected FullTextIndex fullTextIndex;
+    protected ResidentTable<T> resident;
+    protected RowCounter rowCounter;
+    protected ChangeJournal changeJournal;
+    private Map<String, StormeCompiledQuery<T>> compiledQueries = new LinkedHashMap<String, StormeCompiledQuery<T>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, StormeCompiledQuery<T>> eldest) {
+            return size() > MAX_COMPILED_QUERIES;
+        }
+    };
 
     public StormeModelFactory(Class<T> modelClass, String tablePrefix, int dbVersion) {
         this.modelClass = modelClass;
         this.dbVersion = dbVersion;
         reflectionClassTableGenerator = new ReflectionClassTableGenerator<T>(modelClass, tablePrefix);
         tableName = reflectionClassTableGenerator.getTableName();
+        chunkedColumns = reflectionClassTableGenerator.getChunkedBlobColumns();
+        if(!chunkedColumns.isEmpty()) {
+            blobStore = new ChunkedBlobStore(tableName);
+        }
+        lazyColumns = reflectionClassTableGenerator.getLazyColumns();
+        selectColumns = buildSelectColumns();
+        keyColumns = reflectionClassTableGenerator.getPrimaryKeyColumns();
+        keyWhere = buildKeyWhere();
+        List<FieldColumn> searchable = reflectionClassTableGenerator.getSearchableColumns();
+        if(!searchable.isEmpty()) {
+            fullTextIndex = new FullTextIndex(tableName, searchable);
+        }
+        StormeResident residentAnnotation = modelClass.getAnnotation(StormeResident.class);
+        if(residentAnnotation != null) {
+            resident = new ResidentTable<T>(this, residentAnnotation.preload(), reflectionClassTableGenerator.getIndexedColumns());
+        }
+        if(modelClass.isAnnotationPresent(StormeCounted.class)) {
+            rowCounter = new RowCounter(tableName);
+        }
+        if(modelClass.isAnnotationPresent(StormeJournaled.class)) {
+            changeJournal = new ChangeJournal(tableName);
+        }
     }
 
     public void createTable(SQLiteDatabase db) {
-        String createStatement = reflectionClassTableGenerator.getCreateStatement();
+        // WITHOUT ROWID tables need SQLite 3.8.2, older versions get a rowid table with a unique key
+        boolean withoutRowid = hasPrimaryKey() && SQLiteInstance.isVersionAtLeast(db, 3, 8, 2);
+        String createStatement = reflectionClassTableGenerator.getCreateStatement(tableName, withoutRowid);
         db.execSQL(createStatement);
+        String idIndex = reflectionClassTableGenerator.getIdIndexStatement(tableName);
+        if(idIndex != null) {
+            db.execSQL(idIndex);
+        }
+        createIndexes(db);
+        if(blobStore != null) {
+            blobStore.createTable(db);
+        }
+        if(fullTextIndex != null) {
+            fullTextIndex.createTable(db);
+        }
+        if(rowCounter != null) {
+            rowCounter.createTable(db);
+        }
+        if(changeJournal != null) {
+            changeJournal.createTable(db);
+        }
+        openDictionaries(db);
+    }
+
+    public void setRelationLoader(RelationLoader relationLoader) {
+        this.relationLoader = relationLoader;
+        for(RefFieldColumn column : reflectionClassTableGenerator.getRefColumns()) {
+            column.setLoader(relationLoader);
+        }
+    }
+
+    /**
+     * Loads the named relations and StormeLazy fields of every record, one query for each name.
+     */
+    public void prefetch(List<T> records, String[] with, SQLiteDatabase db) {
+        if(with == null || with.length == 0) {
+            return;
+        }
+        List<String> relations = new ArrayList<String>();
+        for(String name : with) {
+            if(findLazyColumn(name) != null) {
+                loadLazy(records, name, db);
+            } else {
+                relations.add(name);
+            }
+        }
+        if(relationLoader != null && !relations.isEmpty()) {
+            relationLoader.prefetch(reflectionClassTableGenerator, records, relations.toArray(new String[relations.size()]));
+        }
+    }
+
+    /**
+     * Reads a StormeLazy field into every record in the list, with one query per
+     * RelationLoader.MAX_IN_PARAMS records. Records no longer in the table are left as they are.
+     */
+    public void loadLazy(List<T> records, String field, SQLiteDatabase db) {
+        FieldColumn column = findLazyColumn(field);
+        if(column == null) {
+            throw new IllegalArgumentException("Field is not lazy: " + field);
+        }
+        if(records == null || records.isEmpty()) {
+            return;
+        }
+
+        Map<Long, List<T>> byId = new LinkedHashMap<Long, List<T>>();
+        for(T record : records) {
+            List<T> same = byId.get(record.getId());
+            if(same == null) {
+                same = new ArrayList<T>(1);
+                byId.put(record.getId(), same);
+            }
+            same.add(record);
+        }
+
+        String[] columns = new String[] { ReflectionClassTableGenerator.ID_COLUMN_NAME, column.getName() };
+        List<Long> ids = new ArrayList<Long>(byId.keySet());
+        for(int start = 0; start < ids.size(); start += RelationLoader.MAX_IN_PARAMS) {
+            List<Long> chunk = ids.subList(start, Math.min(ids.size(), start + RelationLoader.MAX_IN_PARAMS));
+            StringBuilder where = new StringBuilder(ReflectionClassTableGenerator.ID_COLUMN_NAME).append(" IN (");
+            String[] params = new String[chunk.size()];
+            for(int i = 0; i < params.length; i++) {
+                where.append(i > 0 ? ",?" : "?");
+                params[i] = String.valueOf(chunk.get(i));
+            }
+            where.append(")");
+            Cursor cursor = db.query(tableName, columns, where.toString(), params, null, null, null);
+            if(cursor == null) {
+                continue;
+            }
+            try {
+                while(cursor.moveToNext()) {
+                    for(T record : byId.get(cursor.getLong(0))) {
+                        column.setValueFromCursor(record, cursor, 1);
+                        markLazyLoaded(record, column);
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        }
     }
 
     public T get(long id, SQLiteDatabase db)
     {
+        if(resident != null) {
+            return resident.get(id, db);
+        }
         Cursor cursor = db.query(tableName, getSelectColumns(), ReflectionClassTableGenerator.ID_COLUMN_NAME + "=?", new String[]{String.valueOf(id)}, null, null, null, null);
         try {
             if (cursor != null) {
@@ -73,8 +229,51 @@ public class StormeModelFactory<T extends StormeModel> {
         return null;
     }
 
+    /**
+     * Returns the record with the given StormePrimaryKey values, given in key order, or null if
+     * there is none.
+     */
+    public T getByKey(Object[] key, SQLiteDatabase db) {
+        List<T> found = find(keyWhere, keyParams(key), null, 0, 0, db);
+        return found == null || found.isEmpty() ? null : found.get(0);
+    }
+
+    public boolean hasPrimaryKey() {
+        return !keyColumns.isEmpty();
+    }
+
+    public int count(String where, String[] whereParams, SQLiteDatabase db) {
+        return count(where, whereParams, null, db);
+    }
+
+    public int count(String where, String[] whereParams, StormeCancellationToken token, SQLiteDatabase db) {
+        if(resident != null) {
+            if(token != null) {
+                token.throwIfCancelled();
+            }
+            Integer count = resident.count(where, whereParams, db);
+            if(count != null) {
+                return count;
+            }
+        }
+        if(rowCounter != null && where == null) {
+            if(token != null) {
+                token.throwIfCancelled();
+            }
+            return rowCounter.read(db);
+        }
+        String sql = "SELECT COUNT(*) FROM " + tableName + (where != null ? " WHERE " + where : "");
+        return (int) queryLong(rawQuery(db, sql, whereParams, token), token);
+    }
+
     public <T> int findCount(SQLiteDatabase db)
     {
+        if(resident != null) {
+            return resident.count(db);
+        }
+        if(rowCounter != null) {
+            return rowCounter.read(db);
+        }
         int count = 0;
         Cursor curCount= db.rawQuery("select count(*) from " + tableName, null);
         if(curCount != null) {
@@ -87,24 +286,267 @@ public class StormeModelFactory<T extends StormeModel> {
 
     public List<T> find(String where, String[] whereParams, String order, int page, int pagesize, SQLiteDatabase db)
     {
-        Cursor cursor = null;
-        if(page > 0 && pagesize > 0) {
-            String limit = "";
-            if(page > 1) {
-                limit = ((page-1)*pagesize) + "," + pagesize;
-            } else {
-                limit = "" + pagesize;
+        return find(where, whereParams, order, page, pagesize, null, db);
+    }
+
+    /**
+     * As find, stopping with StormeCancelledException if the token is cancelled before or while
+     * the query runs.
+     */
+    public List<T> find(String where, String[] whereParams, String order, int page, int pagesize, StormeCancellationToken token, SQLiteDatabase db) {
+        if(resident != null) {
+            if(token != null) {
+                token.throwIfCancelled();
             }
-            cursor = db.query(tableName, getSelectColumns(), where, whereParams, null, null, order, limit);
-        } else {
-            cursor = db.query(tableName, getSelectColumns(), where, whereParams, null, null, order, null);
+            List<T> found = resident.find(where, whereParams, order, page, pagesize, db);
+            if(found != null) {
+                return found;
+            }
+        }
+        Cursor cursor = query(db, tableName, getSelectColumns(), where, whereParams, order, getLimit(page, pagesize), token);
+        return listFromCursor(cursor, token);
+    }
+
+    public T get(long id, StormeCancellationToken token, SQLiteDatabase db) {
+        List<T> list = find(ReflectionClassTableGenerator.ID_COLUMN_NAME + " = ?", new String[] { String.valueOf(id) }, null, 0, 0, token, db);
+        return list.isEmpty() ? null : list.get(0);
+    }
+
+    /**
+     * Runs an FTS query against the model's StormeSearchable fields and returns the requested
+     * page of matches, best first. Snippets are only built when marks are given.
+     */
+    public List<StormeSearchResult<T>> search(String query, int page, int pagesize, String startMark, String endMark, SQLiteDatabase db) {
+        if(fullTextIndex == null) {
+            throw new IllegalArgumentException("Model has no searchable fields: " + modelClass.getName());
+        }
+        boolean paged = page > 0 && pagesize > 0;
+        List<FullTextIndex.Hit> hits = fullTextIndex.match(db, query, paged ? page * pagesize : 0);
+        if(paged) {
+            int start = Math.min((page - 1) * pagesize, hits.size());
+            hits = hits.subList(start, Math.min(start + pagesize, hits.size()));
+        }
+
+        List<StormeSearchResult<T>> results = new ArrayList<StormeSearchResult<T>>();
+        if(hits.isEmpty()) {
+            return results;
+        }
+        StringBuilder ids = new StringBuilder();
+        for(FullTextIndex.Hit hit : hits) {
+            if(ids.length() > 0) {
+                ids.append(',');
+            }
+            ids.append(hit.id);
+        }
+        Cursor cursor = db.query(tableName, getSelectColumns(), ReflectionClassTableGenerator.ID_COLUMN_NAME + " IN (" + ids + ")", null, null, null, null);
+        Map<Long, T> models = new HashMap<Long, T>();
+        for(T model : listFromCursor(cursor)) {
+            models.put(model.getId(), model);
+        }
+        Map<Long, String> snippets = startMark != null && endMark != null ?
+                fullTextIndex.snippets(db, query, hits, startMark, endMark) : new HashMap<Long, String>();
+        for(FullTextIndex.Hit hit : hits) {
+            T model = models.get(hit.id);
+            if(model != null) {
+                results.add(new StormeSearchResult<T>(model, hit.rank, snippets.get(hit.id)));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Returns up to limit changes of a StormeJournaled model made after the given sequence number,
+     * oldest first. The records of inserts and updates are read with one query per
+     * RelationLoader.MAX_IN_PARAMS records.
+     */
+    public List<StormeChange<T>> changesSince(long seq, int limit, SQLiteDatabase db) {
+        List<long[]> entries = getChangeJournal().read(db, seq, limit);
+        Set<Long> ids = new LinkedHashSet<Long>();
+        for(long[] entry : entries) {
+            if(entry[2] != StormeChangeType.DELETE.getCode()) {
+                ids.add(entry[1]);
+            }
+        }
+
+        Map<Long, T> models = new HashMap<Long, T>();
+        List<Long> idList = new ArrayList<Long>(ids);
+        for(int start = 0; start < idList.size(); start += RelationLoader.MAX_IN_PARAMS) {
+            List<Long> chunk = idList.subList(start, Math.min(idList.size(), start + RelationLoader.MAX_IN_PARAMS));
+            StringBuilder where = new StringBuilder(ReflectionClassTableGenerator.ID_COLUMN_NAME).append(" IN (");
+            String[] params = new String[chunk.size()];
+            for(int i = 0; i < params.length; i++) {
+                where.append(i > 0 ? ",?" : "?");
+                params[i] = String.valueOf(chunk.get(i));
+            }
+            where.append(")");
+            for(T model : find(where.toString(), params, null, 0, 0, db)) {
+                models.put(model.getId(), model);
+            }
+        }
+
+        List<StormeChange<T>> changes = new ArrayList<StormeChange<T>>(entries.size());
+        for(long[] entry : entries) {
+            StormeChangeType type = StormeChangeType.fromCode((int) entry[2]);
+            T model = type != StormeChangeType.DELETE ? models.get(entry[1]) : null;
+            changes.add(new StormeChange<T>(entry[0], type, entry[1], model));
+        }
+        return changes;
+    }
+
+    /**
+     * Returns the sequence number of the latest change of a StormeJournaled model, or 0 if none
+     * is recorded.
+     */
+    public long lastChangeSeq(SQLiteDatabase db) {
+        return getChangeJournal().lastSeq(db);
+    }
+
+    /**
+     * Merges superseded journal entries of a StormeJournaled model and removes deletes up to
+     * acknowledgedSeq, returning the number of entries removed.
+     */
+    public int compactChanges(long acknowledgedSeq, SQLiteDatabase db) {
+        return getChangeJournal().compact(db, acknowledgedSeq);
+    }
+
+    /**
+     * Reads the given fields of every row matching the query straight into primitive arrays,
+     * without creating any models.
+     */
+    public StormeColumns readColumns(String[] fields, String where, String[] whereParams, String order, SQLiteDatabase db) {
+        StormeColumns columns = newColumns(fields);
+        columns.read(db.query(tableName, fields, where, whereParams, null, null, order));
+        columns.finish();
+        return columns;
+    }
+
+    protected StormeColumns newColumns(String[] fields) {
+        if(fields == null || fields.length == 0) {
+            throw new IllegalArgumentException("No fields given to read");
+        }
+        int[] types = new int[fields.length];
+        for(int i = 0; i < fields.length; i++) {
+            types[i] = getPrimitiveType(fields[i]);
+        }
+        return new StormeColumns(fields, types);
+    }
+
+    private int getPrimitiveType(String field) {
+        if(field.equals(ReflectionClassTableGenerator.ID_COLUMN_NAME)) {
+            return StormeColumns.TYPE_LONG;
+        }
+        FieldColumn column = reflectionClassTableGenerator.getFieldForColumn(field);
+        if(column instanceof IntegerFieldColumn || column instanceof EnumFieldColumn) {
+            return StormeColumns.TYPE_INT;
+        } else if(column instanceof LongFieldColumn || column instanceof DateFieldColumn
+                || column instanceof DictionaryFieldColumn || column instanceof RefFieldColumn) {
+            return StormeColumns.TYPE_LONG;
+        } else if(column instanceof DoubleFieldColumn || column instanceof FloatFieldColumn) {
+            return StormeColumns.TYPE_DOUBLE;
+        } else if(column instanceof BooleanFieldColumn) {
+            return StormeColumns.TYPE_BOOLEAN;
+        }
+        throw new IllegalArgumentException("Field cannot be read into a primitive array: " + field);
+    }
+
+    List<ExportColumn> getExportColumns() {
+        return ExportColumn.forModel(reflectionClassTableGenerator);
+    }
+
+    /**
+     * Returns an importer loading rows into this model's table.
+     */
+    TableImporter newImporter(StormeImportOptions options) {
+        return new TableImporter(this, getExportColumns(), options);
+    }
+
+    public void createIndexes(SQLiteDatabase db) {
+        createIndexes(db, tableName);
+    }
+
+    public void dropIndexes(SQLiteDatabase db) {
+        dropIndexes(db, tableName);
+    }
+
+    protected void createIndexes(SQLiteDatabase db, String table) {
+        for(String index : reflectionClassTableGenerator.getIndexStatements(table)) {
+            db.execSQL(index);
         }
+    }
+
+    protected void dropIndexes(SQLiteDatabase db, String table) {
+        for(String index : reflectionClassTableGenerator.getIndexNames(table)) {
+            db.execSQL(String.format(DROP_INDEX_TEMPLATE, index));
+        }
+    }
+
+    /**
+     * Streams every row matching the query through the exporter in id order.
+     */
+    void export(TableExporter exporter, String where, String[] whereParams, SQLiteDatabase db) throws IOException {
+        exporter.writeRows(db.query(tableName, exporter.getColumnNames(), where, whereParams, null, null, ReflectionClassTableGenerator.ID_COLUMN_NAME + " ASC"));
+    }
 
+    /**
+     * Visits every row matching the query, filling the same instance for each one so the scan
+     * allocates no models. Relations, chunked blobs and lazy fields are not attached to the row. Returns false
+     * if the visitor stopped the scan.
+     */
+    public boolean scan(String where, String[] whereParams, String order, T inst, StormeRowVisitor<T> visitor, SQLiteDatabase db) {
+        return scanCursor(db.query(tableName, getSelectColumns(), where, whereParams, null, null, order), inst, visitor);
+    }
+
+    protected boolean scanCursor(Cursor cursor, T inst, StormeRowVisitor<T> visitor) {
+        try {
+            int columnCount = cursor.getColumnCount();
+            int idIndex = -1;
+            FieldColumn[] columns = new FieldColumn[columnCount];
+            for(int i = 0; i < columnCount; i++) {
+                String colName = cursor.getColumnName(i);
+                if(colName.equals(ReflectionClassTableGenerator.ID_COLUMN_NAME)) {
+                    idIndex = i;
+                } else {
+                    columns[i] = reflectionClassTableGenerator.getFieldForColumn(colName);
+                }
+            }
+
+            while(cursor.moveToNext()) {
+                if(idIndex >= 0) {
+                    inst.setId(cursor.getLong(idIndex));
+                }
+                for(int i = 0; i < columnCount; i++) {
+                    if(columns[i] != null) {
+                        columns[i].reuseValueFromCursor(inst, cursor, i);
+                    }
+                }
+                if(!visitor.visit(inst)) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    protected List<T> listFromCursor(Cursor cursor) {
+        return listFromCursor(cursor, null);
+    }
+
+    /**
+     * Maps every row of the cursor to a model and closes it. When a token is given it is checked
+     * between rows, and a failure caused by the token cancelling the SQLite side is reported as
+     * a StormeCancelledException.
+     */
+    protected List<T> listFromCursor(Cursor cursor, StormeCancellationToken token) {
         try {
             if (cursor != null) {
                 List<T> orderedList = new ArrayList<T>();
                 cursor.moveToFirst();
                 while (cursor.isAfterLast() == false) {
+                    if(token != null) {
+                        token.throwIfCancelled();
+                    }
                     try {
                         T copy = modelClass.newInstance();
                         setupFromCursor(copy, cursor);
@@ -116,6 +558,8 @@ public class StormeModelFactory<T extends StormeModel> {
                 }
                 return orderedList;
             }
+        } catch (RuntimeException e) {
+            throw cancelledOr(e, token);
         } finally {
             if(cursor != null) {
                 cursor.close();
@@ -124,60 +568,577 @@ public class StormeModelFactory<T extends StormeModel> {
         return null;
     }
 
+    protected Cursor query(SQLiteDatabase db, String table, String[] columns, String where, String[] whereParams, String order, String limit, StormeCancellationToken token) {
+        if(token != null) {
+            token.throwIfCancelled();
+            Object signal = token.newSignal();
+            if(signal != null) {
+                try {
+                    return token.releaseOnClose(CancellationSupport.query(db, table, columns, where, whereParams, order, limit, signal), signal);
+                } catch (RuntimeException e) {
+                    token.releaseSignal(signal);
+                    throw e;
+                }
+            }
+        }
+        return db.query(table, columns, where, whereParams, null, null, order, limit);
+    }
+
+    protected Cursor rawQuery(SQLiteDatabase db, String sql, String[] params, StormeCancellationToken token) {
+        if(token != null) {
+            token.throwIfCancelled();
+            Object signal = token.newSignal();
+            if(signal != null) {
+                try {
+                    return token.releaseOnClose(CancellationSupport.rawQuery(db, sql, params, signal), signal);
+                } catch (RuntimeException e) {
+                    token.releaseSignal(signal);
+                    throw e;
+                }
+            }
+        }
+        return db.rawQuery(sql, params);
+    }
+
+    /**
+     * Reads a single number from the cursor and closes it.
+     */
+    protected long queryLong(Cursor cursor, StormeCancellationToken token) {
+        try {
+            return cursor.moveToFirst() && !cursor.isNull(0) ? cursor.getLong(0) : 0;
+        } catch (RuntimeException e) {
+            throw cancelledOr(e, token);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    protected RuntimeException cancelledOr(RuntimeException e, StormeCancellationToken token) {
+        if(token != null && token.isCancelled() && !(e instanceof StormeCancelledException)) {
+            return new StormeCancelledException(token.isDeadlineExceeded());
+        }
+        return e;
+    }
+
     public void dropTable(SQLiteDatabase db)
     {
         String drop = String.format(DROP_TEMPLATE, tableName);
         db.execSQL(drop);
+        invalidateResident();
+        if(blobStore != null) {
+            blobStore.dropTable(db);
+        }
+        if(fullTextIndex != null) {
+            fullTextIndex.dropTable(db);
+        }
+        if(rowCounter != null) {
+            rowCounter.dropTable(db);
+        }
+        if(changeJournal != null) {
+            changeJournal.dropTable(db);
+        }
+        dropDictionaries(db);
+    }
+
+    /**
+     * Inserts a record without an id and updates one with an id. For a model with a
+     * StormePrimaryKey the record's key decides instead: the row holding the key is updated, taking
+     * its id, and a record with a new key is inserted. A record with an id whose key has changed
+     * has its row's key updated.
+     */
+    public void save(SQLiteDatabase db, T obj) {
+        if(!hasPrimaryKey()) {
+            if(obj.getId() > 0) {
+                update(db, obj);
+            } else {
+                insert(db, obj);
+            }
+            return;
+        }
+
+        String[] key = keyParams(obj);
+        if(obj.getId() > 0) {
+            String[] keyAndId = new String[key.length + 1];
+            System.arraycopy(key, 0, keyAndId, 0, key.length);
+            keyAndId[key.length] = String.valueOf(obj.getId());
+            if(update(db, obj, keyWhere + " AND " + ReflectionClassTableGenerator.ID_COLUMN_NAME + " = ?", keyAndId) == 0) {
+                update(db, obj);
+            }
+            return;
+        }
+
+        long id = queryLong(db, "SELECT " + ReflectionClassTableGenerator.ID_COLUMN_NAME + " FROM " + tableName + " WHERE " + keyWhere, key);
+        if(id > 0) {
+            obj.setId(id);
+            update(db, obj, keyWhere, key);
+        } else {
+            insert(db, obj);
+        }
     }
 
     public int update(SQLiteDatabase db, T obj)
     {
-        long now = System.currentTimeMillis();
-        obj.setModifiedDate(now);
+        return update(db, obj, ReflectionClassTableGenerator.ID_COLUMN_NAME + " = ?", new String[] { String.valueOf(obj.getId()) });
+    }
+
+    /**
+     * Writes the record to the row matching the where clause, which must identify the record's own
+     * row.
+     */
+    protected int update(SQLiteDatabase db, T obj, String where, String[] whereParams)
+    {
+        markModified(obj);
 
         ContentValues values = addModelValues(obj);
-        return db.update(tableName, values,  ReflectionClassTableGenerator.ID_COLUMN_NAME + " = ?", new String[] { String.valueOf(obj.getId()) });
+        removeUnloadedLazy(obj, values);
+        if(blobStore == null) {
+            int rows = db.update(tableName, values, where, whereParams);
+            if(rows > 0 && resident != null) {
+                resident.put(obj, values);
+            }
+            return rows;
+        }
+
+        db.beginTransaction();
+        try {
+            int rows = db.update(tableName, values, where, whereParams);
+            if(rows > 0) {
+                writeBlobs(db, obj);
+            }
+            db.setTransactionSuccessful();
+            if(rows > 0 && resident != null) {
+                resident.put(obj, values);
+            }
+            return rows;
+        } finally {
+            db.endTransaction();
+        }
     }
 
     public void insert(SQLiteDatabase db, T obj)
     {
-        long now = System.currentTimeMillis();
-        obj.setModifiedDate(now);
-        obj.setCreatedDate(now);
-        obj.setDbVersion(dbVersion);
+        markInserted(obj);
 
         ContentValues values = addModelValues(obj);
-
-        long id = db.insert(tableName, null, values);
-        if(id < 0) {
-            Log.e(TAG, "Failed to insert object into DbModel: " + tableName + ":" + id);
-        } else {
-            obj.setId(id);
+        if(blobStore != null) {
+            db.beginTransaction();
+        }
+        try {
+            long keyedId = hasPrimaryKey() ? nextKeyedId(db) : 0;
+            if(hasPrimaryKey()) {
+                values.put(ReflectionClassTableGenerator.ID_COLUMN_NAME, keyedId);
+            }
+            long id = db.insert(tableName, null, values);
+            if(id < 0) {
+                Log.e(TAG, "Failed to insert object into DbModel: " + tableName + ":" + id);
+            } else {
+                obj.setId(hasPrimaryKey() ? keyedId : id);
+                if(blobStore != null) {
+                    writeBlobs(db, obj);
+                    db.setTransactionSuccessful();
+                }
+                if(resident != null) {
+                    resident.put(obj, values);
+                }
+            }
+        } finally {
+            if(blobStore != null) {
+                db.endTransaction();
+            }
         }
     }
 
     public void delete(T obj, SQLiteDatabase db) {
+        if(blobStore != null) {
+            blobStore.deleteOwner(db, obj.getId());
+        }
         db.delete(tableName, ReflectionClassTableGenerator.ID_COLUMN_NAME + " = ?", new String[] { String.valueOf(obj.getId()) });
+        if(resident != null) {
+            resident.remove(obj.getId());
+        }
     }
 
     public void delete(String where, String[] whereParams, SQLiteDatabase db) {
+        if(blobStore != null) {
+            blobStore.deleteOwners(db, where, whereParams);
+        }
         db.delete(tableName, where, whereParams);
+        invalidateResident();
     }
 
     public void deleteAll(SQLiteDatabase db) {
-        db.execSQL(String.format(TRUNCATE_TEMPLATE, tableName));
+        if(rowCounter != null) {
+            rowCounter.truncate(db, String.format(TRUNCATE_TEMPLATE, tableName));
+        } else {
+            db.execSQL(String.format(TRUNCATE_TEMPLATE, tableName));
+        }
+        if(blobStore != null) {
+            blobStore.deleteAll(db);
+        }
+        invalidateResident();
     }
 
-    private String[] getSelectColumns() {
-        return new String[] {"*"};
+    /**
+     * Drops the in-memory copy of a StormeResident model after a write that did not go through
+     * insert, update or delete of a single record, so it is reloaded on next use.
+     */
+    void invalidateResident() {
+        if(resident != null) {
+            resident.invalidate();
+        }
+    }
+
+    /**
+     * Counts the rows of a StormeCounted model from scratch, after writes its triggers may have
+     * missed.
+     */
+    void rebuildCount(SQLiteDatabase db) {
+        if(rowCounter != null) {
+            rowCounter.rebuild(db);
+        }
+    }
+
+    /**
+     * Called when a transaction or savepoint has been rolled back, to drop anything cached from
+     * the writes it undid.
+     */
+    void rolledBack() {
+        invalidateResident();
+        for(DictionaryFieldColumn column : reflectionClassTableGenerator.getDictionaryColumns()) {
+            column.getDictionary().reset();
+        }
+    }
+
+    /**
+     * Called each time the database is opened, to drop any copy of the old database and load
+     * StormeResident models marked for preload.
+     */
+    void openResident(SQLiteDatabase db) {
+        if(resident != null) {
+            resident.invalidate();
+            if(resident.isPreload()) {
+                resident.load(db);
+            }
+        }
+    }
+
+    public byte[] readBlob(long id, String field, SQLiteDatabase db) {
+        getChunkedColumn(field);
+        return blobStore.read(db, id, field);
+    }
+
+    public InputStream openBlobInputStream(long id, String field, SQLiteDatabase db) {
+        getChunkedColumn(field);
+        return blobStore.openInputStream(db, id, field);
+    }
+
+    public OutputStream openBlobOutputStream(long id, String field, SQLiteDatabase db) {
+        ChunkedBlobFieldColumn column = getChunkedColumn(field);
+        return blobStore.openOutputStream(db, id, field, column.getChunkSize());
+    }
+
+    /**
+     * Deletes at most batchSize rows older than cutOff, oldest ids first.
+     */
+    public int deleteBatchOlderThan(String field, long cutOff, int batchSize, SQLiteDatabase db) {
+        return deleteIdRange(db, tableName, field + " < ?", new String[] { String.valueOf(cutOff) }, batchSize);
+    }
+
+    /**
+     * Deletes at most batchSize of the oldest rows while the table holds more than maxRows.
+     */
+    public int deleteBatchOverLimit(long maxRows, int batchSize, SQLiteDatabase db) {
+        long excess = findCount(db) - maxRows;
+        if(excess <= 0) {
+            return 0;
+        }
+        return deleteIdRange(db, tableName, null, null, (int) Math.min(excess, batchSize));
+    }
+
+    /**
+     * Deletes the first batchSize rows matching the where clause by working out the highest id in
+     * the batch first, so the delete itself is a range scan on the primary key.
+     */
+    protected int deleteIdRange(SQLiteDatabase db, String table, String where, String[] whereParams, int batchSize) {
+        String filter = where != null ? " WHERE " + where : "";
+        long upper = queryLong(db, "SELECT MAX(" + ReflectionClassTableGenerator.ID_COLUMN_NAME + ") FROM (SELECT "
+                + ReflectionClassTableGenerator.ID_COLUMN_NAME + " FROM " + table + filter + " ORDER BY "
+                + ReflectionClassTableGenerator.ID_COLUMN_NAME + " LIMIT " + batchSize + ")", whereParams);
+        if(upper <= 0) {
+            return 0;
+        }
+        String range = ReflectionClassTableGenerator.ID_COLUMN_NAME + " <= " + upper;
+        String rangeWhere = where != null ? range + " AND (" + where + ")" : range;
+        if(blobStore != null && table.equals(tableName)) {
+            blobStore.deleteOwners(db, rangeWhere, whereParams);
+        }
+        int deleted = db.delete(table, rangeWhere, whereParams);
+        if(deleted > 0) {
+            invalidateResident();
+        }
+        return deleted;
+    }
+
+    /**
+     * Returns the id for a new row of a model with a StormePrimaryKey, where SQLite does not assign
+     * one. Callers must hold the model's write lock.
+     */
+    long nextKeyedId(SQLiteDatabase db) {
+        return queryLong(db, "SELECT MAX(" + ReflectionClassTableGenerator.ID_COLUMN_NAME + ") FROM " + tableName, null) + 1;
+    }
+
+    protected long queryLong(SQLiteDatabase db, String sql, String[] params) {
+        long result = 0;
+        Cursor cursor = db.rawQuery(sql, params);
+        if(cursor != null) {
+            if(cursor.moveToFirst()) {
+                result = cursor.getLong(0);
+            }
+            cursor.close();
+        }
+        return result;
+    }
+
+    /**
+     * Returns the column a query on the given field compares against, or null for the id. A
+     * StormeRef field can be named without its column suffix.
+     */
+    public FieldColumn getQueryColumn(String field) {
+        if(ReflectionClassTableGenerator.ID_COLUMN_NAME.equals(field)) {
+            return null;
+        }
+        FieldColumn column = field != null ? reflectionClassTableGenerator.getFieldForColumn(field) : null;
+        if(column == null && field != null) {
+            column = reflectionClassTableGenerator.getRefColumn(field);
+        }
+        if(column == null) {
+            throw new IllegalArgumentException("Unknown field " + field + " for " + modelClass.getName());
+        }
+        return column;
+    }
+
+    /**
+     * Returns the compiled query for a query shape, building it the first time the shape is seen.
+     */
+    public synchronized StormeCompiledQuery<T> getCompiledQuery(SQLiteInstance sqliteInstance, String where, FieldColumn[] params, String order) {
+        String key = where + "|" + order;
+        StormeCompiledQuery<T> query = compiledQueries.get(key);
+        if(query == null) {
+            query = new StormeCompiledQuery<T>(sqliteInstance, this, where, params, order);
+            compiledQueries.put(key, query);
+        }
+        return query;
+    }
+
+    /**
+     * Returns the tables holding this model's data. Full text indexes are left out as they are
+     * rebuilt from the model's table.
+     */
+    List<String> getStorageTables() {
+        List<String> tables = new ArrayList<String>();
+        tables.add(tableName);
+        if(blobStore != null) {
+            tables.add(blobStore.getTableName());
+        }
+        for(DictionaryFieldColumn column : reflectionClassTableGenerator.getDictionaryColumns()) {
+            tables.add(column.getDictionary().getTableName());
+        }
+        return tables;
     }
 
-    private T getNewInstance() throws IllegalAccessException, InstantiationException {
+    protected void openDictionaries(SQLiteDatabase db) {
+        for(DictionaryFieldColumn column : reflectionClassTableGenerator.getDictionaryColumns()) {
+            column.getDictionary().open(db);
+        }
+    }
+
+    protected void dropDictionaries(SQLiteDatabase db) {
+        for(DictionaryFieldColumn column : reflectionClassTableGenerator.getDictionaryColumns()) {
+            column.getDictionary().drop(db);
+        }
+    }
+
+    public Long getDictionaryCode(String field, String value) {
+        FieldColumn column = reflectionClassTableGenerator.getFieldForColumn(field);
+        if(!(column instanceof DictionaryFieldColumn)) {
+            throw new IllegalArgumentException("Field is not dictionary encoded: " + field);
+        }
+        return ((DictionaryFieldColumn) column).getDictionary().peekCode(value);
+    }
+
+    private FieldColumn findLazyColumn(String field) {
+        for(FieldColumn column : lazyColumns) {
+            if(column.getName().equals(field)) {
+                return column;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Leaves lazy fields that were never loaded or assigned out of an update, so saving a record read
+     * without them keeps the stored values. A loaded field set to null is written as NULL.
+     */
+    protected void removeUnloadedLazy(T obj, ContentValues values) {
+        if(lazyColumns.isEmpty()) {
+            return;
+        }
+        Set<FieldColumn> unloaded = unloadedLazy.get(obj);
+        if(unloaded == null) {
+            return;
+        }
+        synchronized (unloaded) {
+            for(FieldColumn column : lazyColumns) {
+                if(values.get(column.getName()) != null) {
+                    // assigned since the record was read, it is written and counts as loaded from now on
+                    unloaded.remove(column);
+                } else if(unloaded.contains(column)) {
+                    values.remove(column.getName());
+                }
+            }
+        }
+    }
+
+    private void markLazyUnloaded(T inst, Cursor cursor) {
+        Set<FieldColumn> unloaded = null;
+        for(FieldColumn column : lazyColumns) {
+            if(cursor.getColumnIndex(column.getName()) < 0) {
+                if(unloaded == null) {
+                    unloaded = new HashSet<FieldColumn>();
+                }
+                unloaded.add(column);
+            }
+        }
+        if(unloaded != null) {
+            unloadedLazy.put(inst, unloaded);
+        }
+    }
+
+    private void markLazyLoaded(T inst, FieldColumn column) {
+        Set<FieldColumn> unloaded = unloadedLazy.get(inst);
+        if(unloaded != null) {
+            synchronized (unloaded) {
+                unloaded.remove(column);
+            }
+        }
+    }
+
+    private String[] buildSelectColumns() {
+        if(lazyColumns.isEmpty()) {
+            return new String[] {"*"};
+        }
+        List<String> columns = new ArrayList<String>();
+        columns.add(ReflectionClassTableGenerator.ID_COLUMN_NAME);
+        for(FieldColumn column : reflectionClassTableGenerator.getModelFields()) {
+            if(!lazyColumns.contains(column)) {
+                columns.add(column.getName());
+            }
+        }
+        return columns.toArray(new String[columns.size()]);
+    }
+
+    private String buildKeyWhere() {
+        StringBuilder where = new StringBuilder();
+        for(FieldColumn column : keyColumns) {
+            if(where.length() > 0) {
+                where.append(" AND ");
+            }
+            where.append(column.getName()).append(" = ?");
+        }
+        return where.toString();
+    }
+
+    private String[] keyParams(Object[] key) {
+        if(!hasPrimaryKey()) {
+            throw new IllegalArgumentException("Model has no primary key: " + modelClass.getName());
+        }
+        if(key == null || key.length != keyColumns.size()) {
+            throw new IllegalArgumentException("Primary key of " + modelClass.getName() + " has " + keyColumns.size() + " fields");
+        }
+        String[] params = new String[key.length];
+        for(int i = 0; i < key.length; i++) {
+            if(key[i] == null) {
+                throw new IllegalArgumentException("Primary key field cannot be null: " + keyColumns.get(i).getName());
+            }
+            params[i] = String.valueOf(key[i]);
+        }
+        return params;
+    }
+
+    private String[] keyParams(T obj) {
+        Object[] key = new Object[keyColumns.size()];
+        for(int i = 0; i < key.length; i++) {
+            try {
+                key[i] = keyColumns.get(i).getField().get(obj);
+            } catch (IllegalAccessException e) {
+                Log.e(TAG, "Failed to get field value: " + keyColumns.get(i).getName(), e);
+            }
+        }
+        return keyParams(key);
+    }
+
+    private ChangeJournal getChangeJournal() {
+        if(changeJournal == null) {
+            throw new IllegalArgumentException("Model is not journaled: " + modelClass.getName());
+        }
+        return changeJournal;
+    }
+
+    private ChunkedBlobFieldColumn getChunkedColumn(String field) {
+        FieldColumn column = reflectionClassTableGenerator.getFieldForColumn(field);
+        if(!(column instanceof ChunkedBlobFieldColumn)) {
+            throw new IllegalArgumentException("Field is not a chunked blob: " + field);
+        }
+        return (ChunkedBlobFieldColumn) column;
+    }
+
+    private void writeBlobs(SQLiteDatabase db, T obj) {
+        for(ChunkedBlobFieldColumn column : chunkedColumns) {
+            try {
+                byte[] data = column.getBytes(obj);
+                if(data != null) {
+                    blobStore.write(db, obj.getId(), column.getName(), data, column.getChunkSize());
+                }
+            } catch (IllegalAccessException e) {
+                Log.e(TAG, "Failed to get field value: " + column.getName(), e);
+            }
+        }
+    }
+
+    protected void markInserted(T obj) {
+        long now = System.currentTimeMillis();
+        obj.setModifiedDate(now);
+        obj.setCreatedDate(now);
+        obj.setDbVersion(dbVersion);
+    }
+
+    protected void markModified(T obj) {
+        obj.setModifiedDate(System.currentTimeMillis());
+    }
+
+    protected String getLimit(int page, int pagesize) {
+        if(page > 0 && pagesize > 0) {
+            if(page > 1) {
+                return ((page-1)*pagesize) + "," + pagesize;
+            }
+            return "" + pagesize;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the columns read for a record, every column but the StormeLazy ones.
+     */
+    protected String[] getSelectColumns() {
+        return selectColumns;
+    }
+
+    protected T getNewInstance() throws IllegalAccessException, InstantiationException {
         T inst = modelClass.newInstance();
         return inst;
     }
 
-    private T setupFromCursor(T inst, Cursor cursor) {
+    protected T setupFromCursor(T inst, Cursor cursor) {
         if (cursor != null && cursor.getColumnCount() > 0) {
             int count = 0;
 
@@ -195,6 +1156,12 @@ public class StormeModelFactory<T extends StormeModel> {
                 }
                 count++;
             }
+            if(relationLoader != null) {
+                relationLoader.attachLazy(inst, reflectionClassTableGenerator);
+            }
+            if(!lazyColumns.isEmpty()) {
+                markLazyUnloaded(inst, cursor);
+            }
         } else {
             Log.e(TAG, "Empty cursor during setup of DbModel instance");
         }
@@ -202,7 +1169,7 @@ public class StormeModelFactory<T extends StormeModel> {
         return inst;
     }
 
-    private ContentValues addModelValues(T inst) {
+    protected ContentValues addModelValues(T inst) {
         ContentValues values = new ContentValues();
         Collection<FieldColumn> fields = reflectionClassTableGenerator.getModelFields();
 
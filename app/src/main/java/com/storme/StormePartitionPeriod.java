@@ -0,0 +1,82 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * The length of time covered by each table of a partitioned model. Boundaries are calculated in UTC
+ * so partition names stay stable when the device changes time zone.
+ */
+public enum StormePartitionPeriod {
+    DAY(Calendar.DAY_OF_MONTH),
+    WEEK(Calendar.WEEK_OF_YEAR),
+    MONTH(Calendar.MONTH);
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+    private static final String KEY_FORMAT = "yyyyMMdd";
+
+    private int calendarField;
+
+    StormePartitionPeriod(int calendarField) {
+        this.calendarField = calendarField;
+    }
+
+    public long startOf(long time) {
+        Calendar cal = getCalendar();
+        cal.setTimeInMillis(time);
+        cal.set(Calendar.HOUR_OF_DAY, 0);
+        cal.set(Calendar.MINUTE, 0);
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+        if(this == WEEK) {
+            cal.set(Calendar.DAY_OF_WEEK, Calendar.MONDAY);
+        } else if(this == MONTH) {
+            cal.set(Calendar.DAY_OF_MONTH, 1);
+        }
+        return cal.getTimeInMillis();
+    }
+
+    public long next(long start) {
+        Calendar cal = getCalendar();
+        cal.setTimeInMillis(start);
+        cal.add(calendarField, 1);
+        return cal.getTimeInMillis();
+    }
+
+    public String keyFor(long start) {
+        SimpleDateFormat format = new SimpleDateFormat(KEY_FORMAT, Locale.US);
+        format.setTimeZone(UTC);
+        return format.format(start);
+    }
+
+    public long startFromKey(String key) throws ParseException {
+        SimpleDateFormat format = new SimpleDateFormat(KEY_FORMAT, Locale.US);
+        format.setTimeZone(UTC);
+        format.setLenient(false);
+        return format.parse(key).getTime();
+    }
+
+    private Calendar getCalendar() {
+        Calendar cal = Calendar.getInstance(UTC, Locale.US);
+        cal.setFirstDayOfWeek(Calendar.MONDAY);
+        return cal;
+    }
+}
@@ -0,0 +1,36 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a model as partitioned. Rows are stored in one table per period, chosen from the value of
+ * the given date field (a Date or a long holding milliseconds since the epoch). Queries that
+ * constrain the field are only run against the partitions overlapping the range and old data can
+ * be removed by dropping whole partitions with StormeBaseHelper.dropPartitionsBefore().
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface StormePartitioned {
+
+    String field();
+
+    StormePartitionPeriod period() default StormePartitionPeriod.DAY;
+}
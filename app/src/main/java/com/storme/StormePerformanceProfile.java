@@ -0,0 +1,180 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+/**
+ * SQLite settings applied each time StormeBaseHelper opens its database, before any table is
+ * touched. Start from one of the presets and adjust, or build one from scratch; settings left at
+ * zero or null keep the Android and SQLite defaults.
+ *
+ * The page size only takes effect on a new database. Cache, mmap, synchronous and temp store are
+ * settings of the connection that does the writing. Profiles are applied from onConfigure, so
+ * they need API 16.
+ */
+public class StormePerformanceProfile {
+
+    /** How hard SQLite works to get each commit onto storage, PRAGMA synchronous. */
+    public enum Synchronous {
+        /** Leaves syncing to the OS. A power loss can lose or corrupt recent commits. */
+        OFF,
+        /** In WAL mode a power loss can lose the last commits but never corrupts the database. */
+        NORMAL,
+        /** Syncs on every commit, so a commit survives power loss once it returns. */
+        FULL
+    }
+
+    /** Where temporary tables and indexes live, PRAGMA temp_store. */
+    public enum TempStore {
+        DEFAULT,
+        FILE,
+        MEMORY
+    }
+
+    private String name;
+    private boolean writeAheadLogging;
+    private Synchronous synchronous;
+    private TempStore tempStore;
+    private long cacheSizeKb;
+    private long mmapSizeBytes;
+    private int pageSize;
+    private long journalSizeLimitBytes;
+
+    public StormePerformanceProfile(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Every commit is synced before it returns, with a rollback journal and modest memory use.
+     */
+    public static StormePerformanceProfile durable() {
+        return new StormePerformanceProfile("durable")
+                .setSynchronous(Synchronous.FULL)
+                .setCacheSizeKb(2 * 1024)
+                .setJournalSizeLimitBytes(1024 * 1024);
+    }
+
+    /**
+     * WAL with synchronous NORMAL: readers don't block the writer and commits skip most syncs,
+     * while a crash still cannot corrupt the database.
+     */
+    public static StormePerformanceProfile balanced() {
+        return new StormePerformanceProfile("balanced")
+                .setWriteAheadLogging(true)
+                .setSynchronous(Synchronous.NORMAL)
+                .setTempStore(TempStore.MEMORY)
+                .setCacheSizeKb(4 * 1024)
+                .setJournalSizeLimitBytes(4 * 1024 * 1024);
+    }
+
+    /**
+     * For bulk loads and caches that can be rebuilt: no syncs, a large cache and memory mapped
+     * reads. A power loss can lose recent commits.
+     */
+    public static StormePerformanceProfile throughput() {
+        return new StormePerformanceProfile("throughput")
+                .setWriteAheadLogging(true)
+                .setSynchronous(Synchronous.OFF)
+                .setTempStore(TempStore.MEMORY)
+                .setCacheSizeKb(16 * 1024)
+                .setMmapSizeBytes(64L * 1024 * 1024)
+                .setPageSize(8192)
+                .setJournalSizeLimitBytes(16 * 1024 * 1024);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isWriteAheadLogging() {
+        return writeAheadLogging;
+    }
+
+    public StormePerformanceProfile setWriteAheadLogging(boolean writeAheadLogging) {
+        this.writeAheadLogging = writeAheadLogging;
+        return this;
+    }
+
+    public Synchronous getSynchronous() {
+        return synchronous;
+    }
+
+    public StormePerformanceProfile setSynchronous(Synchronous synchronous) {
+        this.synchronous = synchronous;
+        return this;
+    }
+
+    public TempStore getTempStore() {
+        return tempStore;
+    }
+
+    public StormePerformanceProfile setTempStore(TempStore tempStore) {
+        this.tempStore = tempStore;
+        return this;
+    }
+
+    public long getCacheSizeKb() {
+        return cacheSizeKb;
+    }
+
+    public StormePerformanceProfile setCacheSizeKb(long cacheSizeKb) {
+        if(cacheSizeKb < 0) {
+            throw new IllegalArgumentException("Cache size cannot be negative");
+        }
+        this.cacheSizeKb = cacheSizeKb;
+        return this;
+    }
+
+    public long getMmapSizeBytes() {
+        return mmapSizeBytes;
+    }
+
+    public StormePerformanceProfile setMmapSizeBytes(long mmapSizeBytes) {
+        if(mmapSizeBytes < 0) {
+            throw new IllegalArgumentException("Mmap size cannot be negative");
+        }
+        this.mmapSizeBytes = mmapSizeBytes;
+        return this;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public StormePerformanceProfile setPageSize(int pageSize) {
+        if(pageSize != 0 && (pageSize < 512 || pageSize > 65536 || Integer.bitCount(pageSize) != 1)) {
+            throw new IllegalArgumentException("Page size must be a power of two from 512 to 65536");
+        }
+        this.pageSize = pageSize;
+        return this;
+    }
+
+    public long getJournalSizeLimitBytes() {
+        return journalSizeLimitBytes;
+    }
+
+    public StormePerformanceProfile setJournalSizeLimitBytes(long journalSizeLimitBytes) {
+        if(journalSizeLimitBytes < 0) {
+            throw new IllegalArgumentException("Journal size limit cannot be negative");
+        }
+        this.journalSizeLimitBytes = journalSizeLimitBytes;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "StormePerformanceProfile{" + name + "}";
+    }
+}
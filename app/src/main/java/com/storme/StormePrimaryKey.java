@@ -0,0 +1,37 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Gives a model a natural primary key made of the named String, int or long fields, in order.
+ * The table is clustered on the key, as a WITHOUT ROWID table where SQLite supports it, so a
+ * lookup with StormeBaseHelper.getByKey() is a single search, and save() updates the row holding
+ * the record's key whether or not the record has an id yet. The id is still kept, in its own
+ * unique index, for relations and the other id based calls.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface StormePrimaryKey {
+
+    String[] value();
+
+    boolean withoutRowid() default true;
+}
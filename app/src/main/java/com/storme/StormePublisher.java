@@ -0,0 +1,25 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+/**
+ * Source of a stream of results that are only produced as a subscriber asks for them. Mirrors
+ * java.util.concurrent.Flow.Publisher, which is not available on Android.
+ */
+public interface StormePublisher<T> {
+
+    public void subscribe(StormeSubscriber<? super T> subscriber);
+}
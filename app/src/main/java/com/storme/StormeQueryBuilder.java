@@ -0,0 +1,103 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Fluent builder for a query on one model. Field names are checked against the model when they
+ * are added and every condition takes its value as a parameter, so the SQL only depends on the
+ * shape of the query. compile() returns the StormeCompiledQuery for that shape, reusing the one
+ * already built for it when there is one.
+ *
+ * <pre>
+ * StormeCompiledQuery&lt;Reading&gt; query = store.query(Reading.class)
+ *         .where("time", "&gt;=").where("time", "&lt;").orderBy("time", true).compile();
+ * List&lt;Reading&gt; readings = query.find(start, end);
+ * </pre>
+ *
+ * Conditions are combined with AND.
+ */
+public class StormeQueryBuilder<E extends StormeModel> {
+
+    private static final Set<String> OPERATORS = new HashSet<String>(Arrays.asList(
+            "=", "==", "!=", "<>", "<", "<=", ">", ">=", "LIKE", "GLOB"));
+
+    private final SQLiteInstance sqliteInstance;
+    private final StormeModelFactory<E> factory;
+    private final StringBuilder where = new StringBuilder();
+    private final StringBuilder order = new StringBuilder();
+    private final List<FieldColumn> params = new ArrayList<FieldColumn>();
+
+    StormeQueryBuilder(SQLiteInstance sqliteInstance, StormeModelFactory<E> factory) {
+        this.sqliteInstance = sqliteInstance;
+        this.factory = factory;
+    }
+
+    /**
+     * Adds a condition comparing the field to a parameter with the given operator.
+     */
+    public StormeQueryBuilder<E> where(String field, String operator) {
+        String op = operator == null ? null : operator.trim().toUpperCase();
+        if(!OPERATORS.contains(op)) {
+            throw new IllegalArgumentException("Unsupported query operator: " + operator);
+        }
+        FieldColumn column = factory.getQueryColumn(field);
+        appendCondition(getColumnName(field, column) + " " + op + " ?");
+        params.add(column);
+        return this;
+    }
+
+    public StormeQueryBuilder<E> whereNull(String field) {
+        appendCondition(getColumnName(field, factory.getQueryColumn(field)) + " IS NULL");
+        return this;
+    }
+
+    public StormeQueryBuilder<E> whereNotNull(String field) {
+        appendCondition(getColumnName(field, factory.getQueryColumn(field)) + " IS NOT NULL");
+        return this;
+    }
+
+    public StormeQueryBuilder<E> orderBy(String field, boolean ascending) {
+        if(order.length() > 0) {
+            order.append(", ");
+        }
+        order.append(getColumnName(field, factory.getQueryColumn(field))).append(ascending ? " ASC" : " DESC");
+        return this;
+    }
+
+    public StormeCompiledQuery<E> compile() {
+        return factory.getCompiledQuery(sqliteInstance,
+                where.length() > 0 ? where.toString() : null,
+                params.toArray(new FieldColumn[params.size()]),
+                order.length() > 0 ? order.toString() : null);
+    }
+
+    private void appendCondition(String condition) {
+        if(where.length() > 0) {
+            where.append(" AND ");
+        }
+        where.append(condition);
+    }
+
+    private String getColumnName(String field, FieldColumn column) {
+        return column != null ? column.getName() : field;
+    }
+}
@@ -0,0 +1,27 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+import java.util.List;
+
+/**
+ * Receives the results of a query registered with StormeBaseHelper.observe(), once when it is
+ * registered and again after each burst of writes to the model's table.
+ */
+public interface StormeQueryListener<E extends StormeModel> {
+
+    public void onQueryResult(List<E> results);
+}
@@ -0,0 +1,78 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+/**
+ * A to-one relation to another model. Only the related id is stored, in an indexed column named
+ * after the field with an "Id" suffix. The related record is loaded on the first call to get()
+ * unless it was prefetched by find or getAll. Related records must be saved before the record
+ * referring to them.
+ */
+public class StormeRef<E extends StormeModel> {
+
+    private long id;
+    private E value;
+    private boolean loaded;
+    private Class<E> type;
+    private RelationLoader loader;
+
+    public StormeRef() {
+    }
+
+    public StormeRef(E value) {
+        set(value);
+    }
+
+    public StormeRef(long id) {
+        this.id = id;
+    }
+
+    StormeRef(Class<E> type, long id, RelationLoader loader) {
+        this.type = type;
+        this.id = id;
+        this.loader = loader;
+    }
+
+    public long getId() {
+        if(value != null) {
+            return value.getId();
+        }
+        return id;
+    }
+
+    public E get() {
+        if(!loaded && id > 0 && loader != null) {
+            value = loader.load(type, id);
+        }
+        loaded = true;
+        return value;
+    }
+
+    public void set(E value) {
+        this.value = value;
+        this.id = value != null ? value.getId() : 0;
+        this.loaded = true;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    void setLoaded(StormeModel value) {
+        this.value = type != null ? type.cast(value) : (E) value;
+        this.loaded = true;
+    }
+}
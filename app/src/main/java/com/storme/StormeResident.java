@@ -0,0 +1,39 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Keeps every row of a read-mostly model in memory. Lookups by id come from a map keyed on the
+ * primitive id and queries that are a conjunction of equality tests on the id or StormeIndexed
+ * fields, without an order, are answered from hash indexes on those fields. Everything else still
+ * runs against SQLite. save() and delete() update the database and the in-memory copy together;
+ * bulk deletes and imports reload the table on its next use.
+ *
+ * The table is loaded the first time it is used, or when the database is opened with preload.
+ * Records returned for resident models are shared, so they should be saved or copied before being
+ * changed.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface StormeResident {
+
+    boolean preload() default false;
+}
@@ -0,0 +1,26 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+/**
+ * Called for each row of a scan. The row passed in is the same instance for every call and is
+ * only valid until visit returns; copy any values that need to be kept. Return false to stop the
+ * scan.
+ */
+public interface StormeRowVisitor<T extends StormeModel> {
+
+    public boolean visit(T row);
+}
@@ -0,0 +1,45 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+/**
+ * A model returned by a full text search with its rank and, when requested, a snippet of the
+ * matching text with the matched terms marked.
+ */
+public class StormeSearchResult<T extends StormeModel> {
+
+    private T model;
+    private double rank;
+    private String snippet;
+
+    public StormeSearchResult(T model, double rank, String snippet) {
+        this.model = model;
+        this.rank = rank;
+        this.snippet = snippet;
+    }
+
+    public T getModel() {
+        return model;
+    }
+
+    public double getRank() {
+        return rank;
+    }
+
+    public String getSnippet() {
+        return snippet;
+    }
+}
@@ -0,0 +1,32 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+/**
+ * Receives the results of a StormePublisher. Nothing is delivered until request() is called on
+ * the subscription passed to onSubscribe, and never more than has been requested. Mirrors
+ * java.util.concurrent.Flow.Subscriber.
+ */
+public interface StormeSubscriber<T> {
+
+    public void onSubscribe(StormeStreamSubscription subscription);
+
+    public void onNext(T item);
+
+    public void onError(Throwable throwable);
+
+    public void onComplete();
+}
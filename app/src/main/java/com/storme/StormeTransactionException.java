@@ -0,0 +1,29 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+/**
+ * Thrown by runInTransaction when the work it was given fails with a checked exception. The
+ * transaction has been rolled back and the original exception is the cause.
+ */
+public class StormeTransactionException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public StormeTransactionException(Throwable cause) {
+        super("Transaction failed", cause);
+    }
+}
@@ -0,0 +1,28 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+/**
+ * How runInTransaction begins its outermost transaction. Both take SQLite's write lock when the
+ * transaction begins rather than on its first write, so two transactions cannot each hold a read
+ * lock while waiting to upgrade to a write lock.
+ */
+public enum StormeTransactionMode {
+    /** BEGIN IMMEDIATE, other connections may keep reading until the transaction commits. */
+    IMMEDIATE,
+    /** BEGIN EXCLUSIVE, other connections outside WAL mode cannot read until it commits. */
+    EXCLUSIVE
+}
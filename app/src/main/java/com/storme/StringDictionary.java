@@ -0,0 +1,188 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Side table mapping the distinct values of a StormeDictionary field to integer codes. The whole
+ * dictionary is cached in memory in both directions so encoding and decoding rows normally never
+ * touches the database.
+ */
+public class StringDictionary {
+
+    private static final String TAG = StringDictionary.class.getSimpleName();
+
+    private static final String CREATE_TEMPLATE = "CREATE TABLE IF NOT EXISTS %s (" +
+            "code INTEGER PRIMARY KEY, value TEXT NOT NULL UNIQUE)";
+    private static final String DROP_TEMPLATE = "DROP TABLE IF EXISTS %s";
+
+    private String tableName;
+    private SQLiteDatabase db;
+    private Map<String, Long> codes = new HashMap<String, Long>();
+    private Map<Long, String> values = new HashMap<Long, String>();
+    // false until the cache has been filled outside a transaction
+    private boolean loaded;
+
+    public StringDictionary(String tableName) {
+        this.tableName = tableName;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public synchronized void open(SQLiteDatabase db) {
+        this.db = db;
+        db.execSQL(String.format(CREATE_TEMPLATE, tableName));
+        load();
+    }
+
+    public synchronized void drop(SQLiteDatabase db) {
+        db.execSQL(String.format(DROP_TEMPLATE, tableName));
+        codes.clear();
+        values.clear();
+        loaded = false;
+    }
+
+    /**
+     * Drops the cache after a rollback, to be refilled from the table the next time it is used
+     * outside a transaction.
+     */
+    public synchronized void reset() {
+        codes.clear();
+        values.clear();
+        loaded = false;
+    }
+
+    /**
+     * Returns the code for a value, adding it to the dictionary if it has not been seen before.
+     * Values added inside a transaction are not cached until they are seen again outside one, as
+     * the transaction may yet be rolled back.
+     */
+    public synchronized long codeFor(String value) {
+        ensureLoaded();
+        Long code = codes.get(value);
+        if(code == null) {
+            ContentValues row = new ContentValues();
+            row.put("value", value);
+            db.insertWithOnConflict(tableName, null, row, SQLiteDatabase.CONFLICT_IGNORE);
+            code = queryCode(value);
+            if(code == null) {
+                throw new IllegalStateException("Failed to add dictionary value to " + tableName);
+            }
+            if(!db.inTransaction()) {
+                put(value, code);
+            }
+        }
+        return code;
+    }
+
+    /**
+     * Returns the code for a value or null if it is not in the dictionary.
+     */
+    public synchronized Long peekCode(String value) {
+        ensureLoaded();
+        Long code = codes.get(value);
+        if(code == null && !loaded && db != null) {
+            code = queryCode(value);
+        }
+        return code;
+    }
+
+    /**
+     * Returns the value for a code. A code missing from the cache is read from the table, and only
+     * cached outside a transaction, as a code added by a transaction that is rolled back is given to
+     * the next new value.
+     */
+    public synchronized String valueFor(long code) {
+        String value = values.get(code);
+        if(value == null && db != null) {
+            if(db.inTransaction()) {
+                value = queryValue(code);
+            } else {
+                load();
+                value = values.get(code);
+            }
+            if(value == null) {
+                Log.e(TAG, "Unknown dictionary code in " + tableName + ": " + code);
+            }
+        }
+        return value;
+    }
+
+    private Long queryCode(String value) {
+        Cursor cursor = db.query(tableName, new String[] { "code" }, "value = ?", new String[] { value }, null, null, null);
+        if(cursor == null) {
+            return null;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private String queryValue(long code) {
+        Cursor cursor = db.query(tableName, new String[] { "value" }, "code = ?", new String[] { String.valueOf(code) }, null, null, null);
+        if(cursor == null) {
+            return null;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void ensureLoaded() {
+        if(!loaded && db != null && !db.inTransaction()) {
+            load();
+        }
+    }
+
+    /**
+     * Fills the cache with every row of the table. Does nothing inside a transaction, which could
+     * hold rows that are later rolled back.
+     */
+    private void load() {
+        if(db.inTransaction()) {
+            return;
+        }
+        Cursor cursor = db.query(tableName, new String[] { "code", "value" }, null, null, null, null, null);
+        if(cursor != null) {
+            try {
+                while(cursor.moveToNext()) {
+                    put(cursor.getString(1), cursor.getLong(0));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        loaded = true;
+    }
+
+    private void put(String value, long code) {
+        codes.put(value, code);
+        values.put(code, value);
+    }
+}
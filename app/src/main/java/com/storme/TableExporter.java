@@ -0,0 +1,329 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+import android.database.Cursor;
+import android.util.Base64;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.List;
+
+/**
+ * Writes rows from cursors to a channel in one of the StormeExportFormats. Every row is encoded
+ * into a single reused direct buffer that is written out whenever it fills, so memory use does not
+ * depend on the number of rows. Values are read from the cursor with their column's type and
+ * never boxed.
+ */
+class TableExporter {
+
+    static final int BUFFER_SIZE = 64 * 1024;
+    static final byte[] MAGIC = { 'S', 'T', 'R', 'M' };
+    static final byte VERSION = 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final List<ExportColumn> columns;
+    private final StormeExportFormat format;
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final CharsetEncoder encoder = UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final StringBuilder text = new StringBuilder();
+    private final String[] jsonNames;
+    private long rows;
+
+    TableExporter(List<ExportColumn> columns, StormeExportFormat format, WritableByteChannel channel) {
+        this.columns = columns;
+        this.format = format;
+        this.channel = channel;
+        jsonNames = new String[columns.size()];
+        for(int i = 0; i < jsonNames.length; i++) {
+            StringBuilder name = new StringBuilder(i == 0 ? "{" : ",");
+            appendJsonString(name, columns.get(i).name);
+            jsonNames[i] = name.append(':').toString();
+        }
+    }
+
+    String[] getColumnNames() {
+        return ExportColumn.names(columns);
+    }
+
+    long getRowCount() {
+        return rows;
+    }
+
+    void writeHeader() throws IOException {
+        switch(format) {
+            case CSV:
+                for(int i = 0; i < columns.size(); i++) {
+                    if(i > 0) {
+                        text.append(',');
+                    }
+                    appendCsvString(text, columns.get(i).name);
+                }
+                text.append('\n');
+                writeText();
+                break;
+            case BINARY:
+                putBytes(MAGIC);
+                ensure(5);
+                buffer.put(VERSION);
+                buffer.putInt(columns.size());
+                for(ExportColumn column : columns) {
+                    byte[] name = column.name.getBytes(UTF_8);
+                    ensure(5);
+                    buffer.putInt(name.length);
+                    putBytes(name);
+                    buffer.put(column.type);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Writes every row of the cursor, which must select getColumnNames() in order, and closes it.
+     */
+    void writeRows(Cursor cursor) throws IOException {
+        try {
+            while(cursor.moveToNext()) {
+                switch(format) {
+                    case CSV:
+                        writeCsvRow(cursor);
+                        break;
+                    case JSON_LINES:
+                        writeJsonRow(cursor);
+                        break;
+                    default:
+                        writeBinaryRow(cursor);
+                        break;
+                }
+                rows++;
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    void finish() throws IOException {
+        flush();
+    }
+
+    private void writeCsvRow(Cursor cursor) throws IOException {
+        for(int i = 0; i < columns.size(); i++) {
+            if(i > 0) {
+                text.append(',');
+            }
+            if(cursor.isNull(i)) {
+                continue;
+            }
+            ExportColumn column = columns.get(i);
+            switch(column.type) {
+                case ExportColumn.TYPE_INTEGER:
+                    text.append(cursor.getLong(i));
+                    break;
+                case ExportColumn.TYPE_REAL:
+                    text.append(cursor.getDouble(i));
+                    break;
+                case ExportColumn.TYPE_BLOB:
+                    text.append(Base64.encodeToString(cursor.getBlob(i), Base64.NO_WRAP));
+                    break;
+                default:
+                    appendCsvString(text, getText(column, cursor, i));
+                    break;
+            }
+        }
+        text.append('\n');
+        writeText();
+    }
+
+    private void writeJsonRow(Cursor cursor) throws IOException {
+        for(int i = 0; i < columns.size(); i++) {
+            text.append(jsonNames[i]);
+            ExportColumn column = columns.get(i);
+            if(cursor.isNull(i)) {
+                text.append("null");
+                continue;
+            }
+            switch(column.type) {
+                case ExportColumn.TYPE_INTEGER:
+                    text.append(cursor.getLong(i));
+                    break;
+                case ExportColumn.TYPE_REAL:
+                    double value = cursor.getDouble(i);
+                    if(Double.isNaN(value) || Double.isInfinite(value)) {
+                        text.append("null");
+                    } else {
+                        text.append(value);
+                    }
+                    break;
+                case ExportColumn.TYPE_BLOB:
+                    text.append('"').append(Base64.encodeToString(cursor.getBlob(i), Base64.NO_WRAP)).append('"');
+                    break;
+                default:
+                    appendJsonString(text, getText(column, cursor, i));
+                    break;
+            }
+        }
+        text.append("}\n");
+        writeText();
+    }
+
+    private void writeBinaryRow(Cursor cursor) throws IOException {
+        for(int i = 0; i < columns.size(); i++) {
+            ensure(9);
+            if(cursor.isNull(i)) {
+                buffer.put(ExportColumn.TYPE_NULL);
+                continue;
+            }
+            ExportColumn column = columns.get(i);
+            buffer.put(column.type);
+            switch(column.type) {
+                case ExportColumn.TYPE_INTEGER:
+                    buffer.putLong(cursor.getLong(i));
+                    break;
+                case ExportColumn.TYPE_REAL:
+                    buffer.putDouble(cursor.getDouble(i));
+                    break;
+                case ExportColumn.TYPE_BLOB:
+                    byte[] blob = cursor.getBlob(i);
+                    buffer.putInt(blob.length);
+                    putBytes(blob);
+                    break;
+                default:
+                    byte[] bytes = getText(column, cursor, i).getBytes(UTF_8);
+                    buffer.putInt(bytes.length);
+                    putBytes(bytes);
+                    break;
+            }
+        }
+    }
+
+    private String getText(ExportColumn column, Cursor cursor, int position) {
+        if(column.dictionary != null) {
+            String value = column.dictionary.valueFor(cursor.getLong(position));
+            return value != null ? value : "";
+        }
+        return cursor.getString(position);
+    }
+
+    private void writeText() throws IOException {
+        CharBuffer in = CharBuffer.wrap(text);
+        while(true) {
+            CoderResult result = encoder.encode(in, buffer, true);
+            if(result.isOverflow()) {
+                flush();
+            } else {
+                break;
+            }
+        }
+        encoder.reset();
+        text.setLength(0);
+    }
+
+    private void putBytes(byte[] bytes) throws IOException {
+        if(bytes.length <= buffer.remaining()) {
+            buffer.put(bytes);
+            return;
+        }
+        flush();
+        if(bytes.length <= buffer.remaining()) {
+            buffer.put(bytes);
+        } else {
+            ByteBuffer large = ByteBuffer.wrap(bytes);
+            while(large.hasRemaining()) {
+                channel.write(large);
+            }
+        }
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if(buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    static void appendCsvString(StringBuilder out, String value) {
+        // an unquoted empty field is read back as NULL
+        boolean quote = value.length() == 0;
+        for(int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if(!quote) {
+            out.append(value);
+            return;
+        }
+        out.append('"');
+        for(int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if(c == '"') {
+                out.append('"');
+            }
+            out.append(c);
+        }
+        out.append('"');
+    }
+
+    static void appendJsonString(StringBuilder out, String value) {
+        out.append('"');
+        for(int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch(c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if(c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+                    break;
+            }
+        }
+        out.append('"');
+    }
+}
@@ -0,0 +1,254 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Base64;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Loads rows from an ImportReader into a model's table. Values are bound straight from the
+ * reader into one compiled INSERT statement, so no model objects are created, and rows are
+ * committed in transactions of the configured batch size. A failure rolls back only the batch in
+ * progress; earlier batches stay committed.
+ */
+class TableImporter {
+
+    private static final String INSERT_TEMPLATE = "INSERT %sINTO %s (%s) VALUES (%s)";
+    private static final String DELETE_TEMPLATE = "DELETE FROM %s WHERE " + ReflectionClassTableGenerator.ID_COLUMN_NAME + " = ?";
+
+    // the id is always the first export column
+    private static final int ID_POSITION = 0;
+
+    protected final StormeModelFactory<?> factory;
+    protected final List<ExportColumn> columns;
+    protected final StormeImportOptions options;
+
+    private final Map<String, Long>[] codes;
+    private SQLiteStatement insert;
+    private SQLiteStatement delete;
+    private long inserted;
+
+    @SuppressWarnings("unchecked")
+    TableImporter(StormeModelFactory<?> factory, List<ExportColumn> columns, StormeImportOptions options) {
+        this.factory = factory;
+        this.columns = columns;
+        this.options = options;
+        codes = new Map[columns.size()];
+        for(int i = 0; i < codes.length; i++) {
+            if(columns.get(i).dictionary != null) {
+                codes[i] = new HashMap<String, Long>();
+            }
+        }
+    }
+
+    /**
+     * Reads every row and returns the number inserted, which leaves out rows skipped as conflicts.
+     */
+    long run(ImportReader reader, SQLiteDatabase db) throws IOException {
+        reader.readHeader();
+        if(options.isDeferIndexes()) {
+            factory.dropIndexes(db);
+        }
+        try {
+            prepare(db);
+            long start = System.nanoTime();
+            long rows = 0;
+            boolean more = true;
+            while(more) {
+                int batch = 0;
+                boolean committed = false;
+                db.beginTransaction();
+                try {
+                    while(batch < options.getBatchSize() && (more = reader.next())) {
+                        convert(reader);
+                        if(insertRow(reader, db)) {
+                            inserted++;
+                        }
+                        batch++;
+                    }
+                    db.setTransactionSuccessful();
+                    committed = true;
+                } finally {
+                    db.endTransaction();
+                    if(!committed) {
+                        rolledBack();
+                    }
+                }
+                rows += batch;
+                if(batch > 0 && options.getListener() != null) {
+                    double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+                    options.getListener().onProgress(factory.modelClass, rows, rows / seconds);
+                }
+            }
+            return inserted;
+        } finally {
+            release();
+            factory.invalidateResident();
+            if(options.getConflictPolicy() == StormeConflictPolicy.REPLACE && factory.hasPrimaryKey()) {
+                // rows replaced on a key conflict are deleted without firing delete triggers
+                factory.rebuildCount(db);
+            }
+            if(options.isDeferIndexes()) {
+                factory.createIndexes(db);
+            }
+        }
+    }
+
+    protected void prepare(SQLiteDatabase db) {
+        StringBuilder names = new StringBuilder();
+        StringBuilder params = new StringBuilder();
+        for(ExportColumn column : columns) {
+            if(names.length() > 0) {
+                names.append(',');
+                params.append(',');
+            }
+            names.append(column.name);
+            params.append('?');
+        }
+        String conflict;
+        switch(options.getConflictPolicy()) {
+            case SKIP:
+                conflict = "OR IGNORE ";
+                break;
+            case REPLACE:
+                // the old row is deleted first so delete triggers and chunked blobs are cleaned up
+                conflict = "OR REPLACE ";
+                delete = db.compileStatement(String.format(DELETE_TEMPLATE, factory.tableName));
+                break;
+            default:
+                conflict = "";
+                break;
+        }
+        insert = db.compileStatement(String.format(INSERT_TEMPLATE, conflict, factory.tableName, names, params));
+    }
+
+    /**
+     * Inserts the reader's current row, returning false if it was skipped.
+     */
+    protected boolean insertRow(ImportReader reader, SQLiteDatabase db) {
+        if(delete != null && reader.types[ID_POSITION] == ExportColumn.TYPE_INTEGER) {
+            long id = reader.longs[ID_POSITION];
+            if(factory.blobStore != null) {
+                factory.blobStore.deleteOwner(db, id);
+            }
+            delete.bindLong(1, id);
+            delete.executeUpdateDelete();
+        }
+        if(reader.types[ID_POSITION] == ExportColumn.TYPE_NULL && factory.hasPrimaryKey()) {
+            // SQLite only assigns ids to rowid primary keys
+            reader.types[ID_POSITION] = ExportColumn.TYPE_INTEGER;
+            reader.longs[ID_POSITION] = factory.nextKeyedId(db);
+        }
+        insert.clearBindings();
+        for(int i = 0; i < columns.size(); i++) {
+            switch(reader.types[i]) {
+                case ExportColumn.TYPE_INTEGER:
+                    insert.bindLong(i + 1, reader.longs[i]);
+                    break;
+                case ExportColumn.TYPE_REAL:
+                    insert.bindDouble(i + 1, reader.doubles[i]);
+                    break;
+                case ExportColumn.TYPE_TEXT:
+                    insert.bindString(i + 1, reader.texts[i]);
+                    break;
+                case ExportColumn.TYPE_BLOB:
+                    insert.bindBlob(i + 1, reader.blobs[i]);
+                    break;
+                default:
+                    insert.bindNull(i + 1);
+                    break;
+            }
+        }
+        return insert.executeInsert() >= 0;
+    }
+
+    protected void rolledBack() {
+        // codes added in the batch went with it
+        for(Map<String, Long> cache : codes) {
+            if(cache != null) {
+                cache.clear();
+            }
+        }
+    }
+
+    private void release() {
+        if(insert != null) {
+            insert.close();
+            insert = null;
+        }
+        if(delete != null) {
+            delete.close();
+            delete = null;
+        }
+    }
+
+    /**
+     * Turns text read from the file into the value stored for its column: dictionary codes,
+     * numbers for numeric columns and decoded Base64 for BLOBs.
+     */
+    private void convert(ImportReader reader) {
+        if(options.isAssignNewIds()) {
+            reader.types[ID_POSITION] = ExportColumn.TYPE_NULL;
+        }
+        for(int i = 0; i < columns.size(); i++) {
+            if(reader.types[i] != ExportColumn.TYPE_TEXT) {
+                continue;
+            }
+            ExportColumn column = columns.get(i);
+            String text = reader.texts[i];
+            if(column.dictionary != null) {
+                reader.types[i] = ExportColumn.TYPE_INTEGER;
+                reader.longs[i] = codeFor(i, column.dictionary, text);
+                continue;
+            }
+            try {
+                switch(column.type) {
+                    case ExportColumn.TYPE_INTEGER:
+                        reader.longs[i] = Long.parseLong(text);
+                        reader.types[i] = ExportColumn.TYPE_INTEGER;
+                        break;
+                    case ExportColumn.TYPE_REAL:
+                        reader.doubles[i] = Double.parseDouble(text);
+                        reader.types[i] = ExportColumn.TYPE_REAL;
+                        break;
+                    case ExportColumn.TYPE_BLOB:
+                        reader.blobs[i] = Base64.decode(text, Base64.NO_WRAP);
+                        reader.types[i] = ExportColumn.TYPE_BLOB;
+                        break;
+                    default:
+                        break;
+                }
+            } catch (IllegalArgumentException e) {
+                // not a value of the column's type, leave it as text for SQLite's type affinity
+            }
+        }
+    }
+
+    private long codeFor(int position, StringDictionary dictionary, String value) {
+        Long code = codes[position].get(value);
+        if(code == null) {
+            code = dictionary.codeFor(value);
+            codes[position].put(value, code);
+        }
+        return code;
+    }
+}
@@ -0,0 +1,167 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The locks behind Storme's concurrency model.
+ *
+ * Every operation holds the read side of a lifecycle lock for as long as it uses the database,
+ * and close() takes the write side, so the database is never closed under a running query.
+ * Within that, each model class maps to one of a fixed set of read/write lock stripes: reads and
+ * the mapping of rows to models hold the read side of their model's stripe and run in parallel,
+ * writes hold the write side and so exclude reads of the same model while they run. SQLite still
+ * serialises writers underneath.
+ *
+ * A single operation holds at most one stripe's write side. Reads may take further read locks,
+ * for example to load relations. A transaction holds every stripe's write side, taking them with
+ * lockAll, which backs off rather than wait on a stripe while holding others. Anything opening an SQLite transaction must take its
+ * locks before beginning it, as other threads wait for the transaction while holding theirs.
+ * Change listeners run while the writer still holds its lock, so they should hand work off
+ * rather than query other models.
+ */
+class TableLocks {
+
+    static final int STRIPES = 16;
+
+    private final ReentrantReadWriteLock lifecycle = new ReentrantReadWriteLock();
+    private final ReentrantReadWriteLock[] stripes = new ReentrantReadWriteLock[STRIPES];
+
+    // activity seen by maintenance, to tell when the database is idle and how much it has changed
+    private final AtomicLong writes = new AtomicLong();
+    private volatile long lastUsedNanos = System.nanoTime();
+
+    TableLocks() {
+        for(int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    void lockRead(Class<?> modelClass) {
+        lifecycle.readLock().lock();
+        stripeFor(modelClass).readLock().lock();
+    }
+
+    void unlockRead(Class<?> modelClass) {
+        lastUsedNanos = System.nanoTime();
+        stripeFor(modelClass).readLock().unlock();
+        lifecycle.readLock().unlock();
+    }
+
+    void lockWrite(Class<?> modelClass) {
+        lifecycle.readLock().lock();
+        stripeFor(modelClass).writeLock().lock();
+    }
+
+    void unlockWrite(Class<?> modelClass) {
+        writes.incrementAndGet();
+        lastUsedNanos = System.nanoTime();
+        stripeFor(modelClass).writeLock().unlock();
+        lifecycle.readLock().unlock();
+    }
+
+    /**
+     * Takes the write side of every stripe for a transaction. If a stripe is busy everything taken
+     * so far is released before waiting for it, as a read holding that stripe may be waiting for
+     * one of the others.
+     */
+    void lockAll() {
+        lifecycle.readLock().lock();
+        int held = 0;
+        while(held < STRIPES) {
+            if(stripes[held].writeLock().tryLock()) {
+                held++;
+                continue;
+            }
+            for(int i = held - 1; i >= 0; i--) {
+                stripes[i].writeLock().unlock();
+            }
+            stripes[held].writeLock().lock();
+            stripes[held].writeLock().unlock();
+            held = 0;
+        }
+    }
+
+    void unlockAll() {
+        writes.incrementAndGet();
+        lastUsedNanos = System.nanoTime();
+        unlockAllQuietly();
+    }
+
+    /**
+     * As unlockAll, for maintenance and diagnostics that should not count as a write or as use of
+     * the database.
+     */
+    void unlockAllQuietly() {
+        for(int i = STRIPES - 1; i >= 0; i--) {
+            stripes[i].writeLock().unlock();
+        }
+        lifecycle.readLock().unlock();
+    }
+
+    /**
+     * Holds the database open without locking any model.
+     */
+    void lockOpen() {
+        lifecycle.readLock().lock();
+    }
+
+    void unlockOpen() {
+        lifecycle.readLock().unlock();
+    }
+
+    /**
+     * Waits for every running operation to finish and keeps new ones out, for closing the
+     * database.
+     */
+    void lockClose() {
+        lifecycle.writeLock().lock();
+    }
+
+    void unlockClose() {
+        lifecycle.writeLock().unlock();
+    }
+
+    /**
+     * Returns the number of write operations and transactions finished so far.
+     */
+    long getWriteCount() {
+        return writes.get();
+    }
+
+    /**
+     * Returns how long it is since a read, write or transaction last finished.
+     */
+    long getIdleMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastUsedNanos);
+    }
+
+    /**
+     * Returns the index of the stripe guarding the model class.
+     */
+    static int stripeOf(Class<?> modelClass) {
+        int hash = modelClass.getName().hashCode();
+        hash ^= hash >>> 16;
+        return hash & (STRIPES - 1);
+    }
+
+    private ReentrantReadWriteLock stripeFor(Class<?> modelClass) {
+        return stripes[stripeOf(modelClass)];
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ *  Copyright 2015 Brett Cherrington
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ **/
+package com.storme;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A List field annotated with StormeToMany along with the child model and its foreign key column.
+ */
+public class ToManyRelation {
+
+    private Field field;
+    private Class<? extends StormeModel> childClass;
+    private String key;
+
+    public ToManyRelation(Field field) {
+        if(field.getType() != List.class && field.getType() != Collection.class) {
+            throw new IllegalArgumentException("To-many relations must be declared as a List: " + field.getName());
+        }
+        Type type = field.getGenericType();
+        if(!(type instanceof ParameterizedType)) {
+            throw new IllegalArgumentException("To-many relation has no child type: " + field.getName());
+        }
+        Type child = ((ParameterizedType) type).getActualTypeArguments()[0];
+        if(!(child instanceof Class) || !StormeModel.class.isAssignableFrom((Class<?>) child)) {
+            throw new IllegalArgumentException("To-many relation child is not a model: " + field.getName());
+        }
+        this.field = field;
+        this.childClass = ((Class<?>) child).asSubclass(StormeModel.class);
+        this.key = field.getAnnotation(StormeToMany.class).key();
+    }
+
+    public String getName() {
+        return field.getName();
+    }
+
+    public Class<? extends StormeModel> getChildClass() {
+        return childClass;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public void setValue(Object inst, List<? extends StormeModel> children) throws IllegalAccessException {
+        field.set(inst, children);
+    }
+}
@@ -0,0 +1,132 @@
+package com.storme;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+@Config(emulateSdk = 18, manifest = "app/src/main/AndroidManifest.xml")
+@RunWith(RobolectricTestRunner.class)
+public class BlobFieldTest {
+
+    TestRecordStore store;
+
+    @Before
+    public void beforeTests() {
+        ShadowLog.stream = System.out;
+        store = new TestRecordStore(Robolectric.application);
+        store.deleteAll(TestBlobRecord.class);
+    }
+
+    @After
+    public void after() {
+        store.close();
+    }
+
+    @Test
+    public void byte_array_and_buffer_fields_are_saved() {
+        byte[] data = getBytes(100);
+        TestBlobRecord record = new TestBlobRecord();
+        record.setData(data);
+        record.setBuffer(ByteBuffer.wrap(data, 10, 20));
+        store.save(TestBlobRecord.class, record);
+
+        TestBlobRecord result = store.get(TestBlobRecord.class, record.getId());
+        assertArrayEquals(result.getData(), data);
+        assertThat(result.getBuffer().remaining(), is(20));
+        assertThat(result.getBuffer().get(0), is(data[10]));
+    }
+
+    @Test
+    public void chunked_payload_is_only_loaded_on_request() {
+        byte[] payload = getBytes(5000);
+        TestBlobRecord record = new TestBlobRecord();
+        record.setPayload(payload);
+        store.save(TestBlobRecord.class, record);
+
+        TestBlobRecord result = store.get(TestBlobRecord.class, record.getId());
+        assertNull(result.getPayload());
+
+        // saving without the payload loaded keeps the stored one
+        store.save(TestBlobRecord.class, result);
+        assertArrayEquals(store.loadBlob(TestBlobRecord.class, result, "payload"), payload);
+        assertArrayEquals(result.getPayload(), payload);
+    }
+
+    @Test
+    public void chunked_payload_can_be_streamed() throws IOException {
+        TestBlobRecord record = store.save(TestBlobRecord.class, new TestBlobRecord());
+        byte[] payload = getBytes(3500);
+
+        OutputStream out = store.openBlobOutputStream(TestBlobRecord.class, record, "payload");
+        out.write(payload, 0, 1000);
+        out.write(payload, 1000, 2500);
+        out.close();
+
+        InputStream in = store.openBlobInputStream(TestBlobRecord.class, record, "payload");
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        byte[] buffer = new byte[700];
+        int count;
+        while((count = in.read(buffer)) != -1) {
+            read.write(buffer, 0, count);
+        }
+        in.close();
+        assertArrayEquals(read.toByteArray(), payload);
+
+        store.delete(TestBlobRecord.class, record);
+        assertNull(store.loadBlob(TestBlobRecord.class, record, "payload"));
+    }
+
+    @Test
+    public void stored_payload_is_kept_until_the_stream_is_closed() throws IOException {
+        byte[] original = getBytes(5000);
+        TestBlobRecord record = new TestBlobRecord();
+        record.setPayload(original);
+        store.save(TestBlobRecord.class, record);
+
+        byte[] replacement = new byte[3000];
+        OutputStream abandoned = store.openBlobOutputStream(TestBlobRecord.class, record, "payload");
+        abandoned.write(replacement);
+        assertArrayEquals(store.loadBlob(TestBlobRecord.class, record, "payload"), original);
+
+        OutputStream out = store.openBlobOutputStream(TestBlobRecord.class, record, "payload");
+        out.write(replacement, 0, 1000);
+        assertArrayEquals(store.loadBlob(TestBlobRecord.class, record, "payload"), original);
+        out.write(replacement, 1000, 2000);
+        out.close();
+        assertArrayEquals(store.loadBlob(TestBlobRecord.class, record, "payload"), replacement);
+    }
+
+    @Test
+    public void streaming_a_plain_field_fails() {
+        TestBlobRecord record = store.save(TestBlobRecord.class, new TestBlobRecord());
+        try {
+            store.openBlobInputStream(TestBlobRecord.class, record, "data");
+            fail("Streaming a field that is not chunked should fail");
+        } catch (IllegalArgumentException e) {}
+    }
+
+    private byte[] getBytes(int length) {
+        byte[] bytes = new byte[length];
+        for(int i = 0; i < length; i++) {
+            bytes[i] = (byte) (i * 31);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,130 @@
+package com.storme;
+
+import android.os.CancellationSignal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@Config(emulateSdk = 18, manifest = "app/src/main/AndroidManifest.xml")
+@RunWith(RobolectricTestRunner.class)
+public class CancellationTest {
+
+    TestRecordStore store;
+    long firstId;
+
+    @Before
+    public void beforeTests() {
+        ShadowLog.stream = System.out;
+        store = new TestRecordStore(Robolectric.application);
+        store.deleteAll(TestRecord.class);
+        for(int i = 0; i < 20; i++) {
+            TestRecord record = new TestRecord();
+            record.setIntegerField(i);
+            store.save(TestRecord.class, record);
+            if(i == 0) {
+                firstId = record.getId();
+            }
+        }
+    }
+
+    @After
+    public void after() {
+        store.close();
+    }
+
+    @Test
+    public void live_token_does_not_affect_queries() {
+        StormeCancellationToken token = StormeCancellationToken.withTimeout(1, TimeUnit.MINUTES);
+        assertThat(store.findCancellable(TestRecord.class, null, null, null, 0, 0, token).size(), is(20));
+        assertThat(store.findCount(TestRecord.class, "integerField < ?", new String[] { "5" }, token), is(5));
+        assertThat(store.get(TestRecord.class, firstId, token).getIntegerField(), is(0));
+    }
+
+    @Test
+    public void cancelled_token_stops_query() {
+        StormeCancellationToken token = new StormeCancellationToken();
+        token.cancel();
+        try {
+            store.findCancellable(TestRecord.class, null, null, null, 0, 0, token);
+            fail("Expected query to be cancelled");
+        } catch (StormeCancelledException e) {
+            assertFalse(e.isDeadlineExceeded());
+        }
+    }
+
+    @Test
+    public void passed_deadline_is_reported() throws InterruptedException {
+        StormeCancellationToken token = StormeCancellationToken.withTimeout(1, TimeUnit.MILLISECONDS);
+        Thread.sleep(20);
+        assertTrue(token.isCancelled());
+        try {
+            store.findCount(TestRecord.class, null, null, token);
+            fail("Expected query to be cancelled");
+        } catch (StormeCancelledException e) {
+            assertTrue(e.isDeadlineExceeded());
+        }
+    }
+
+    @Test
+    public void cancellation_is_checked_between_rows() {
+        CountingToken token = new CountingToken(5);
+        try {
+            store.findCancellable(TestRecord.class, null, null, null, 0, 0, token);
+            fail("Expected query to be cancelled");
+        } catch (StormeCancelledException e) {
+            assertThat(token.checks, is(6));
+        }
+        // the cursor was released so the table can still be written
+        store.deleteAll(TestRecord.class);
+        assertThat(store.findCount(TestRecord.class), is(0));
+    }
+
+    @Test
+    public void every_running_query_gets_its_own_signal() {
+        StormeCancellationToken token = new StormeCancellationToken();
+        CancellationSignal first = (CancellationSignal) token.newSignal();
+        CancellationSignal second = (CancellationSignal) token.newSignal();
+        CancellationSignal released = (CancellationSignal) token.newSignal();
+        assertNotSame(first, second);
+        token.releaseSignal(released);
+
+        token.cancel();
+        assertTrue(first.isCanceled());
+        assertTrue(second.isCanceled());
+        assertFalse(released.isCanceled());
+        assertTrue(((CancellationSignal) token.newSignal()).isCanceled());
+    }
+
+        private static class CountingToken extends StormeCancellationToken {
+
+        final int cancelAfter;
+        int checks;
+
+        CountingToken(int cancelAfter) {
+            this.cancelAfter = cancelAfter;
+        }
+
+        @Override
+        public void throwIfCancelled() {
+            if(++checks > cancelAfter) {
+                cancel();
+            }
+            super.throwIfCancelled();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.storme;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@Config(emulateSdk = 18, manifest = "app/src/main/AndroidManifest.xml")
+@RunWith(RobolectricTestRunner.class)
+public class ChangeJournalTest {
+
+    TestRecordStore store;
+
+    @Before
+    public void beforeTests() {
+        ShadowLog.stream = System.out;
+        store = new TestRecordStore(Robolectric.application);
+        store.deleteAll(TestTask.class);
+        // every entry left is a delete, so acknowledging them all empties the journal
+        store.compactChanges(TestTask.class, store.getLastChangeSeq(TestTask.class));
+    }
+
+    @After
+    public void after() {
+        store.close();
+    }
+
+    @Test
+    public void changes_are_returned_in_order_with_deletes() {
+        TestTask first = saveTask("first");
+        TestTask second = saveTask("second");
+        first.setDone(true);
+        store.save(TestTask.class, first);
+        store.delete(TestTask.class, second);
+
+        List<StormeChange<TestTask>> changes = store.changesSince(TestTask.class, 0, 100);
+        assertThat(changes.size(), is(4));
+        assertChange(changes.get(0), StormeChangeType.INSERT, first.getId());
+        assertChange(changes.get(1), StormeChangeType.INSERT, second.getId());
+        assertChange(changes.get(2), StormeChangeType.UPDATE, first.getId());
+        assertChange(changes.get(3), StormeChangeType.DELETE, second.getId());
+        for(int i = 1; i < changes.size(); i++) {
+            assertTrue(changes.get(i).getSeq() > changes.get(i - 1).getSeq());
+        }
+
+        assertThat(changes.get(2).getModel().isDone(), is(true));
+        assertThat(changes.get(1).getModel(), is(nullValue()));
+        assertThat(changes.get(3).getModel(), is(nullValue()));
+        assertThat(store.getLastChangeSeq(TestTask.class), is(changes.get(3).getSeq()));
+    }
+
+    @Test
+    public void changes_are_read_a_page_at_a_time() {
+        for(int i = 0; i < 5; i++) {
+            saveTask("task " + i);
+        }
+
+        List<String> titles = new ArrayList<String>();
+        long seq = 0;
+        List<StormeChange<TestTask>> page;
+        while(!(page = store.changesSince(TestTask.class, seq, 2)).isEmpty()) {
+            assertTrue(page.size() <= 2);
+            for(StormeChange<TestTask> change : page) {
+                titles.add(change.getModel().getTitle());
+                seq = change.getSeq();
+            }
+        }
+        assertThat(titles.size(), is(5));
+        assertThat(titles.get(0), is("task 0"));
+        assertThat(titles.get(4), is("task 4"));
+    }
+
+    @Test
+    public void rolled_back_writes_leave_no_changes() {
+        final long start = store.getLastChangeSeq(TestTask.class);
+        try {
+            store.runInTransaction(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    saveTask("lost");
+                    throw new IllegalStateException("stop");
+                }
+            });
+            fail("Expected the transaction to fail");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertThat(store.changesSince(TestTask.class, start, 100).size(), is(0));
+    }
+
+    @Test
+    public void compaction_keeps_the_latest_change_of_each_record() {
+        TestTask kept = saveTask("kept");
+        kept.setTitle("renamed");
+        store.save(TestTask.class, kept);
+        kept.setDone(true);
+        store.save(TestTask.class, kept);
+        TestTask removed = saveTask("removed");
+        store.delete(TestTask.class, removed);
+
+        assertThat(store.compactChanges(TestTask.class, 0), is(3));
+        List<StormeChange<TestTask>> changes = store.changesSince(TestTask.class, 0, 100);
+        assertThat(changes.size(), is(2));
+        assertChange(changes.get(0), StormeChangeType.INSERT, kept.getId());
+        assertThat(changes.get(0).getModel().getTitle(), is("renamed"));
+        assertChange(changes.get(1), StormeChangeType.DELETE, removed.getId());
+
+        long last = store.getLastChangeSeq(TestTask.class);
+        assertThat(store.compactChanges(TestTask.class, last), is(1));
+        assertThat(store.changesSince(TestTask.class, 0, 100).size(), is(1));
+
+        // sequence numbers are never reused once entries are removed
+        TestTask later = saveTask("later");
+        List<StormeChange<TestTask>> after = store.changesSince(TestTask.class, last, 100);
+        assertThat(after.size(), is(1));
+        assertTrue(after.get(0).getSeq() > last);
+        assertThat(after.get(0).getId(), is(later.getId()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void only_journaled_models_have_changes() {
+        store.changesSince(TestRecord.class, 0, 10);
+    }
+
+    private void assertChange(StormeChange<TestTask> change, StormeChangeType type, long id) {
+        assertThat(change.getType(), is(type));
+        assertThat(change.getId(), is(id));
+    }
+
+    private TestTask saveTask(String title) {
+        TestTask task = new TestTask();
+        task.setTitle(title);
+        return store.save(TestTask.class, task);
+    }
+}
@@ -0,0 +1,95 @@
+package com.storme;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import java.util.Date;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+@Config(emulateSdk = 18, manifest = "app/src/main/AndroidManifest.xml")
+@RunWith(RobolectricTestRunner.class)
+public class ColumnReadTest {
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    TestRecordStore store;
+
+    @Before
+    public void beforeTests() {
+        ShadowLog.stream = System.out;
+        store = new TestRecordStore(Robolectric.application);
+        store.deleteAll(TestRecord.class);
+        for(int i = 0; i < 50; i++) {
+            TestRecord record = new TestRecord();
+            record.setIntegerField(i);
+            record.setFloatField(i + 0.5f);
+            record.setBooleanField(i % 2 == 0);
+            record.setDateField(new Date(1000L * (50 - i)));
+            store.save(TestRecord.class, record);
+        }
+    }
+
+    @After
+    public void after() {
+        store.close();
+    }
+
+    @Test
+    public void columns_are_read_in_one_pass() {
+        StormeColumns columns = store.readColumns(TestRecord.class, new String[] { "dateField", "integerField", "floatField", "booleanField" },
+                "integerField >= ?", new String[] { "10" }, "dateField ASC");
+
+        assertThat(columns.size(), is(40));
+        long[] dates = columns.getLongs("dateField");
+        int[] ints = columns.getInts("integerField");
+        double[] floats = columns.getDoubles("floatField");
+        boolean[] booleans = columns.getBooleans("booleanField");
+        assertThat(dates.length, is(40));
+        assertThat(dates[0], is(1000L));
+        assertThat(ints[0], is(49));
+        assertThat(floats[0], is(49.5));
+        assertThat(booleans[0], is(false));
+        assertThat(ints[39], is(10));
+        assertThat(booleans[39], is(true));
+    }
+
+    @Test
+    public void empty_result_gives_empty_arrays() {
+        StormeColumns columns = store.readColumns(TestRecord.class, new String[] { "id", "longField" }, "integerField > ?", new String[] { "100" }, null);
+        assertThat(columns.size(), is(0));
+        assertThat(columns.getLongs("id").length, is(0));
+    }
+
+    @Test
+    public void partitions_are_read_into_one_array() {
+        store.deleteAll(TestEvent.class);
+        long now = System.currentTimeMillis();
+        for(int i = 0; i < 30; i++) {
+            TestEvent event = new TestEvent();
+            event.setEventDate(new Date(now - (i % 3) * DAY - i));
+            store.save(TestEvent.class, event);
+        }
+
+        StormeColumns columns = store.readColumns(TestEvent.class, new String[] { "eventDate" }, null, null, null);
+        assertThat(columns.size(), is(30));
+        assertThat(columns.getLongs("eventDate").length, is(30));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void string_fields_cannot_be_read() {
+        store.readColumns(TestRecord.class, new String[] { "stringField" }, null, null, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void columns_are_read_with_their_type() {
+        store.readColumns(TestRecord.class, new String[] { "integerField" }, null, null, null).getLongs("integerField");
+    }
+}
@@ -0,0 +1,169 @@
+package com.storme;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+@Config(emulateSdk = 18, manifest = "app/src/main/AndroidManifest.xml")
+@RunWith(RobolectricTestRunner.class)
+public class ConcurrencyTest {
+
+    private static final int WRITERS = 4;
+    private static final int RECORDS_PER_WRITER = 50;
+
+    TestRecordStore store;
+    ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<Throwable>();
+
+    @Before
+    public void beforeTests() {
+        ShadowLog.stream = System.out;
+        store = new TestRecordStore(Robolectric.application);
+        store.deleteAll(TestRecord.class);
+        store.deleteAll(TestStatusRecord.class);
+    }
+
+    @After
+    public void after() {
+        store.close();
+    }
+
+    @Test
+    public void concurrent_writes_reads_and_closes_lose_nothing() throws InterruptedException {
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<List<TestRecord>> saved = new ArrayList<List<TestRecord>>();
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for(int w = 0; w < WRITERS; w++) {
+            final int writer = w;
+            final List<TestRecord> records = new ArrayList<TestRecord>();
+            saved.add(records);
+            threads.add(new Thread(new Guarded(start) {
+                @Override
+                void work() {
+                    for(int i = 0; i < RECORDS_PER_WRITER; i++) {
+                        TestRecord record = new TestRecord();
+                        record.setStringField("writer" + writer + "-" + i);
+                        record.setIntegerField(i);
+                        records.add(store.save(TestRecord.class, record));
+
+                        TestStatusRecord status = new TestStatusRecord();
+                        status.setCategory("writer" + writer);
+                        store.save(TestStatusRecord.class, status);
+                    }
+                }
+            }));
+        }
+        for(int r = 0; r < 2; r++) {
+            threads.add(new Thread(new Guarded(start) {
+                @Override
+                void work() {
+                    while(writing.get()) {
+                        store.find(TestRecord.class, "integerField >= ?", new String[] { "0" }, null, 1, 20);
+                        store.findCount(TestStatusRecord.class);
+                    }
+                }
+            }));
+        }
+        Thread closer = new Thread(new Guarded(start) {
+            @Override
+            void work() throws InterruptedException {
+                while(writing.get()) {
+                    store.close();
+                    Thread.sleep(2);
+                }
+            }
+        });
+
+        for(Thread thread : threads) {
+            thread.start();
+        }
+        closer.start();
+        start.countDown();
+        for(int w = 0; w < WRITERS; w++) {
+            threads.get(w).join(TimeUnit.SECONDS.toMillis(60));
+        }
+        writing.set(false);
+        for(Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        }
+        closer.join(TimeUnit.SECONDS.toMillis(10));
+
+        Throwable failure = failures.peek();
+        if(failure != null) {
+            throw new AssertionError("Concurrent operations failed: " + failures, failure);
+        }
+
+        assertThat(store.findCount(TestRecord.class), is(WRITERS * RECORDS_PER_WRITER));
+        assertThat(store.findCount(TestStatusRecord.class), is(WRITERS * RECORDS_PER_WRITER));
+        for(List<TestRecord> records : saved) {
+            for(TestRecord record : records) {
+                TestRecord found = store.get(TestRecord.class, record.getId());
+                assertThat(found, is(notNullValue()));
+                assertThat(found.getStringField(), is(record.getStringField()));
+            }
+        }
+    }
+
+    @Test
+    public void reads_of_different_models_run_in_parallel() throws InterruptedException {
+        // models sharing a stripe would block each other and say nothing about parallel reads
+        assertThat(TableLocks.stripeOf(TestStatusRecord.class), is(not(TableLocks.stripeOf(TestRecord.class))));
+
+        TableLocks locks = SQLiteInstance.getLocks();
+        locks.lockWrite(TestRecord.class);
+        try {
+            final CountDownLatch done = new CountDownLatch(1);
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    store.findCount(TestStatusRecord.class);
+                    done.countDown();
+                }
+            });
+            reader.start();
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+        } finally {
+            locks.unlockWrite(TestRecord.class);
+        }
+    }
+
+    private abstract class Guarded implements Runnable {
+
+        private final CountDownLatch start;
+
+        Guarded(CountDownLatch start) {
+            this.start = start;
+        }
+
+        abstract void work() throws Exception;
+
+        @Override
+        public void run() {
+            try {
+                start.await();
+                work();
+            } catch (Throwable e) {
+                failures.add(e);
+            }
+        }
+    }
+}
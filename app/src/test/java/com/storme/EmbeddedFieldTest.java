@@ -0,0 +1,116 @@
+package com.storme;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+
+@Config(emulateSdk = 18, manifest = "app/src/main/AndroidManifest.xml")
+@RunWith(RobolectricTestRunner.class)
+public class EmbeddedFieldTest {
+
+    TestRecordStore store;
+
+    @Before
+    public void beforeTests() {
+        ShadowLog.stream = System.out;
+        store = new TestRecordStore(Robolectric.application);
+        store.deleteAll(TestEmbeddedRecord.class);
+    }
+
+    @After
+    public void after() {
+        store.close();
+    }
+
+    @Test
+    public void embedded_values_are_saved_and_loaded() {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        counts.put("a", 1);
+        counts.put("b", -300);
+
+        TestEmbeddedRecord record = new TestEmbeddedRecord();
+        record.setTags(Arrays.asList("one", "two", "three"));
+        record.setCounts(counts);
+        record.setSamples(new int[] { 1, -2, 300000 });
+        record.setReadings(new double[] { 1.5, -2.25 });
+        record.setLocation(new TestEmbeddedRecord.Location(3, 4, "home", Arrays.asList(10L, 20L)));
+        store.save(TestEmbeddedRecord.class, record);
+
+        TestEmbeddedRecord result = store.get(TestEmbeddedRecord.class, record.getId());
+        assertThat(result.getTags(), is(Arrays.asList("one", "two", "three")));
+        assertThat(result.getCounts().get("b"), is(-300));
+        assertThat(result.getSamples()[2], is(300000));
+        assertThat(result.getReadings()[1], is(-2.25));
+        assertThat(result.getLocation().getLabel(), is("home"));
+        assertThat(result.getLocation().getY(), is(4));
+        assertThat(result.getLocation().getVisits().get(1), is(20L));
+    }
+
+    @Test
+    public void untouched_lazy_values_survive_a_resave() {
+        TestEmbeddedRecord record = new TestEmbeddedRecord();
+        record.setTags(Arrays.asList("x", "y"));
+        store.save(TestEmbeddedRecord.class, record);
+
+        TestEmbeddedRecord loaded = store.get(TestEmbeddedRecord.class, record.getId());
+        store.save(TestEmbeddedRecord.class, loaded);
+
+        loaded = store.get(TestEmbeddedRecord.class, record.getId());
+        loaded.getTags().add("z");
+        store.save(TestEmbeddedRecord.class, loaded);
+
+        List<String> tags = store.get(TestEmbeddedRecord.class, record.getId()).getTags();
+        assertThat(tags, is(Arrays.asList("x", "y", "z")));
+        assertNull(store.get(TestEmbeddedRecord.class, record.getId()).getCounts());
+    }
+
+    @Test
+    public void removed_object_fields_are_skipped_when_decoding() {
+        byte[] encoded = EmbeddedValueCodec.encode(new TestEmbeddedRecord.Location(1, 2, "old", Arrays.asList(5L)));
+        TestEmbeddedRecord.Location decoded = (TestEmbeddedRecord.Location) EmbeddedValueCodec.decode(encoded, TestEmbeddedRecord.Location.class);
+        assertThat(decoded.getX(), is(1));
+
+        // a value written by a different shape of the class keeps the fields the two have in common
+        decoded = (TestEmbeddedRecord.Location) EmbeddedValueCodec.decode(EmbeddedValueCodec.encode(new Holder("renamed")), TestEmbeddedRecord.Location.class);
+        assertThat(decoded.getLabel(), is("renamed"));
+        assertThat(decoded.getX(), is(0));
+    }
+
+    private static class Holder {
+        private String label;
+        private long[] extra = new long[] { 1L, 2L };
+        private Map<String, String> more = new HashMap<String, String>();
+
+        Holder(String label) {
+            this.label = label;
+        }
+    }
+
+    @Test
+    public void unannotated_collections_are_not_stored() {
+        ReflectionClassTableGenerator<PlainListModel> generator =
+                new ReflectionClassTableGenerator<PlainListModel>(PlainListModel.class, "storme_example_");
+        assertNull(generator.getFieldForColumn("names"));
+        assertNull(generator.getFieldForColumn("values"));
+    }
+
+    public static class PlainListModel extends StormeBaseModel {
+
+        private List<String> names;
+        private int[] values;
+    }
+}
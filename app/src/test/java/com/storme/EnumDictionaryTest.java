@@ -0,0 +1,125 @@
+package com.storme;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+@Config(emulateSdk = 18, manifest = "app/src/main/AndroidManifest.xml")
+@RunWith(RobolectricTestRunner.class)
+public class EnumDictionaryTest {
+
+    TestRecordStore store;
+
+    @Before
+    public void beforeTests() {
+        ShadowLog.stream = System.out;
+        store = new TestRecordStore(Robolectric.application);
+        store.deleteAll(TestStatusRecord.class);
+    }
+
+    @After
+    public void after() {
+        store.close();
+    }
+
+    @Test
+    public void enum_and_dictionary_fields_round_trip() {
+        TestStatusRecord record = save(TestStatusRecord.State.ACTIVE, TestStatusRecord.Priority.HIGH, "books");
+        TestStatusRecord empty = store.save(TestStatusRecord.class, new TestStatusRecord());
+
+        TestStatusRecord result = store.get(TestStatusRecord.class, record.getId());
+        assertThat(result.getState(), is(TestStatusRecord.State.ACTIVE));
+        assertThat(result.getPriority(), is(TestStatusRecord.Priority.HIGH));
+        assertThat(result.getCategory(), is("books"));
+
+        result = store.get(TestStatusRecord.class, empty.getId());
+        assertNull(result.getState());
+        assertNull(result.getPriority());
+        assertNull(result.getCategory());
+    }
+
+    @Test
+    public void enums_are_queried_by_ordinal_or_code() {
+        save(TestStatusRecord.State.NEW, TestStatusRecord.Priority.LOW, "books");
+        save(TestStatusRecord.State.CLOSED, TestStatusRecord.Priority.HIGH, "books");
+
+        List<TestStatusRecord> list = store.find(TestStatusRecord.class, "priority = ?", new String[] { "20" }, null, 0, 0);
+        assertThat(list.size(), is(1));
+        assertThat(list.get(0).getState(), is(TestStatusRecord.State.CLOSED));
+
+        list = store.find(TestStatusRecord.class, "state = ?", new String[] { String.valueOf(TestStatusRecord.State.NEW.ordinal()) }, null, 0, 0);
+        assertThat(list.size(), is(1));
+        assertThat(list.get(0).getPriority(), is(TestStatusRecord.Priority.LOW));
+    }
+
+    @Test
+    public void dictionary_values_share_codes() {
+        save(null, null, "books");
+        save(null, null, "music");
+        save(null, null, "books");
+
+        long code = store.getDictionaryCode(TestStatusRecord.class, "category", "books");
+        List<TestStatusRecord> list = store.find(TestStatusRecord.class, "category = ?", new String[] { String.valueOf(code) }, null, 0, 0);
+        assertThat(list.size(), is(2));
+        assertThat(store.getDictionaryCode(TestStatusRecord.class, "category", "films"), is(-1L));
+    }
+
+    @Test
+    public void dictionary_survives_reopen() {
+        TestStatusRecord record = save(null, null, "garden");
+        store.close();
+
+        store = new TestRecordStore(Robolectric.application);
+        assertThat(store.get(TestStatusRecord.class, record.getId()).getCategory(), is("garden"));
+    }
+
+    @Test
+    public void values_added_by_a_rolled_back_transaction_are_not_cached() {
+        final String lost = "lost " + System.nanoTime();
+        String kept = "kept " + System.nanoTime();
+        try {
+            store.runInTransaction(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    TestStatusRecord record = save(TestStatusRecord.State.NEW, TestStatusRecord.Priority.LOW, lost);
+                    assertThat(store.get(TestStatusRecord.class, record.getId()).getCategory(), is(lost));
+                    throw new IllegalStateException("stop");
+                }
+            });
+            fail("Expected the transaction to fail");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        // the rolled back code is given to the next new value
+        TestStatusRecord record = save(TestStatusRecord.State.NEW, TestStatusRecord.Priority.LOW, kept);
+        assertThat(store.get(TestStatusRecord.class, record.getId()).getCategory(), is(kept));
+        assertThat(store.getDictionaryCode(TestStatusRecord.class, "category", lost), is(-1L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void dictionary_code_requires_dictionary_field() {
+        store.getDictionaryCode(TestStatusRecord.class, "state", "NEW");
+    }
+
+    private TestStatusRecord save(TestStatusRecord.State state, TestStatusRecord.Priority priority, String category) {
+        TestStatusRecord record = new TestStatusRecord();
+        record.setState(state);
+        record.setPriority(priority);
+        record.setCategory(category);
+        return store.save(TestStatusRecord.class, record);
+    }
+}
@@ -0,0 +1,109 @@
+package com.storme;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Date;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+@Config(emulateSdk = 18, manifest = "app/src/main/AndroidManifest.xml")
+@RunWith(RobolectricTestRunner.class)
+public class ExportTest {
+
+    TestRecordStore store;
+
+    @Before
+    public void beforeTests() {
+        ShadowLog.stream = System.out;
+        store = new TestRecordStore(Robolectric.application);
+        store.deleteAll(TestRecord.class);
+    }
+
+    @After
+    public void after() {
+        store.close();
+    }
+
+    @Test
+    public void csv_has_header_and_escaped_values() throws IOException {
+        TestRecord record = save(7, "say \"hi\", then go");
+        String csv = export(TestRecord.class, StormeExportFormat.CSV);
+
+        String[] lines = csv.split("\n");
+        assertThat(lines.length, is(2));
+        assertThat(lines[0], is("id,booleanField,createdDate,dateField,dbVersion,doubleField,floatField,integerField,longField,modifiedDate,stringField"));
+        assertTrue(lines[1].matches(record.getId() + ",1,\\d+,5000,\\d+,3.5,0.0,7,0,\\d+,\"say \"\"hi\"\", then go\""));
+    }
+
+    @Test
+    public void json_lines_have_one_object_per_row() throws IOException {
+        save(1, "line\nbreak");
+        save(2, null);
+        String json = export(TestRecord.class, StormeExportFormat.JSON_LINES);
+
+        String[] lines = json.split("\n");
+        assertThat(lines.length, is(2));
+        assertTrue(lines[0].contains("\"stringField\":\"line\\nbreak\""));
+        assertTrue(lines[1].contains("\"integerField\":2,"));
+        assertTrue(lines[1].endsWith("\"stringField\":null}"));
+    }
+
+    @Test
+    public void binary_starts_with_typed_header() throws IOException {
+        save(1, "a");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long rows = store.export(TestRecord.class, null, null, StormeExportFormat.BINARY, Channels.newChannel(out));
+
+        assertThat(rows, is(1L));
+        ByteBuffer data = ByteBuffer.wrap(out.toByteArray());
+        assertThat(data.get(), is((byte) 'S'));
+        data.position(4);
+        assertThat(data.get(), is((byte) 1));
+        assertThat(data.getInt(), is(11));
+    }
+
+    @Test
+    public void large_exports_stream_through_the_buffer() throws IOException {
+        StringBuilder longText = new StringBuilder();
+        for(int i = 0; i < 2000; i++) {
+            longText.append("0123456789");
+        }
+        for(int i = 0; i < 50; i++) {
+            save(i, longText.toString());
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long rows = store.export(TestRecord.class, "integerField >= ?", new String[] { "10" }, StormeExportFormat.CSV, Channels.newChannel(out));
+        assertThat(rows, is(40L));
+        assertThat(out.toString("UTF-8").split("\n").length, is(41));
+    }
+
+    private TestRecord save(int value, String text) {
+        TestRecord record = new TestRecord();
+        record.setIntegerField(value);
+        record.setDoubleField(value / 2.0);
+        record.setBooleanField(true);
+        record.setDateField(new Date(5000));
+        record.setStringField(text);
+        return store.save(TestRecord.class, record);
+    }
+
+    private String export(Class<TestRecord> modelClass, StormeExportFormat format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        store.export(modelClass, null, null, format, Channels.newChannel(out));
+        return out.toString("UTF-8");
+    }
+}
@@ -0,0 +1,216 @@
+package com.storme;
+
+import android.database.sqlite.SQLiteConstraintException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+@Config(emulateSdk = 18, manifest = "app/src/main/AndroidManifest.xml")
+@RunWith(RobolectricTestRunner.class)
+public class ImportTest {
+
+    TestRecordStore store;
+
+    @Before
+    public void beforeTests() {
+        ShadowLog.stream = System.out;
+        store = new TestRecordStore(Robolectric.application);
+        store.deleteAll(TestRecord.class);
+        store.deleteAll(TestStatusRecord.class);
+    }
+
+    @After
+    public void after() {
+        store.close();
+    }
+
+    @Test
+    public void csv_round_trips_through_export() throws IOException {
+        assertRoundTrip(StormeExportFormat.CSV);
+    }
+
+    @Test
+    public void json_lines_round_trip_through_export() throws IOException {
+        assertRoundTrip(StormeExportFormat.JSON_LINES);
+    }
+
+    @Test
+    public void binary_round_trips_through_export() throws IOException {
+        assertRoundTrip(StormeExportFormat.BINARY);
+    }
+
+    @Test
+    public void skip_keeps_existing_rows() throws IOException {
+        TestRecord record = save(1, "original");
+        byte[] data = export(TestRecord.class, StormeExportFormat.CSV);
+        record.setStringField("changed");
+        store.save(TestRecord.class, record);
+
+        long rows = importFrom(TestRecord.class, data, StormeExportFormat.CSV, new StormeImportOptions().setConflictPolicy(StormeConflictPolicy.SKIP));
+        assertThat(rows, is(0L));
+        assertThat(store.findById(record.getId()).getStringField(), is("changed"));
+    }
+
+    @Test
+    public void replace_overwrites_existing_rows() throws IOException {
+        TestRecord record = save(1, "original");
+        byte[] data = export(TestRecord.class, StormeExportFormat.JSON_LINES);
+        record.setStringField("changed");
+        store.save(TestRecord.class, record);
+
+        long rows = importFrom(TestRecord.class, data, StormeExportFormat.JSON_LINES, new StormeImportOptions().setConflictPolicy(StormeConflictPolicy.REPLACE));
+        assertThat(rows, is(1L));
+        assertThat(store.findCount(TestRecord.class), is(1));
+        assertThat(store.findById(record.getId()).getStringField(), is("original"));
+    }
+
+    @Test
+    public void fail_rolls_back_only_the_current_batch() throws IOException {
+        List<TestRecord> records = new ArrayList<TestRecord>();
+        for(int i = 0; i < 5; i++) {
+            records.add(save(i, "row " + i));
+        }
+        byte[] data = export(TestRecord.class, StormeExportFormat.BINARY);
+        for(int i = 0; i < 4; i++) {
+            store.delete(TestRecord.class, records.get(i));
+        }
+
+        try {
+            importFrom(TestRecord.class, data, StormeExportFormat.BINARY, new StormeImportOptions().setBatchSize(2));
+            fail("Expected the duplicate id to fail the import");
+        } catch (SQLiteConstraintException e) {
+            // expected
+        }
+        assertThat(store.findCount(TestRecord.class), is(5));
+    }
+
+    @Test
+    public void progress_is_reported_per_batch() throws IOException {
+        for(int i = 0; i < 25; i++) {
+            save(i, null);
+        }
+        byte[] data = export(TestRecord.class, StormeExportFormat.CSV);
+        store.deleteAll(TestRecord.class);
+
+        final List<Long> reported = new ArrayList<Long>();
+        StormeImportOptions options = new StormeImportOptions()
+                .setBatchSize(10)
+                .setDeferIndexes(true)
+                .setListener(new StormeImportListener() {
+                    @Override
+                    public void onProgress(Class<? extends StormeModel> modelClass, long rows, double rowsPerSecond) {
+                        assertThat(modelClass.equals(TestRecord.class), is(true));
+                        assertThat(rowsPerSecond > 0, is(true));
+                        reported.add(rows);
+                    }
+                });
+        assertThat(importFrom(TestRecord.class, data, StormeExportFormat.CSV, options), is(25L));
+        assertThat(reported.size(), is(3));
+        assertThat(reported.get(0), is(10L));
+        assertThat(reported.get(2), is(25L));
+    }
+
+    @Test
+    public void assign_new_ids_inserts_copies() throws IOException {
+        save(1, "a");
+        save(2, "b");
+        byte[] data = export(TestRecord.class, StormeExportFormat.JSON_LINES);
+
+        long rows = importFrom(TestRecord.class, data, StormeExportFormat.JSON_LINES, new StormeImportOptions().setAssignNewIds(true));
+        assertThat(rows, is(2L));
+        assertThat(store.findCount(TestRecord.class), is(4));
+    }
+
+    @Test
+    public void dictionary_and_enum_fields_are_restored() throws IOException {
+        TestStatusRecord record = new TestStatusRecord();
+        record.setState(TestStatusRecord.State.ACTIVE);
+        record.setPriority(TestStatusRecord.Priority.HIGH);
+        record.setCategory("inbox");
+        store.save(TestStatusRecord.class, record);
+        byte[] data = export(TestStatusRecord.class, StormeExportFormat.CSV);
+        store.deleteAll(TestStatusRecord.class);
+
+        importFrom(TestStatusRecord.class, data, StormeExportFormat.CSV, null);
+        TestStatusRecord loaded = store.get(TestStatusRecord.class, record.getId());
+        assertThat(loaded.getState(), is(TestStatusRecord.State.ACTIVE));
+        assertThat(loaded.getPriority(), is(TestStatusRecord.Priority.HIGH));
+        assertThat(loaded.getCategory(), is("inbox"));
+    }
+
+    @Test
+    public void missing_json_keys_are_null() throws IOException {
+        byte[] data = "{\"integerField\":4,\"booleanField\":true}\n{\"stringField\":\"two\"}\n".getBytes("UTF-8");
+
+        assertThat(importFrom(TestRecord.class, data, StormeExportFormat.JSON_LINES, null), is(2L));
+        TestRecord first = store.findByStringField("two");
+        assertThat(first.getIntegerField(), is(0));
+        List<TestRecord> flagged = store.find(TestRecord.class, "booleanField = ?", new String[] { "1" }, null, 0, 10);
+        assertThat(flagged.size(), is(1));
+        assertThat(flagged.get(0).getIntegerField(), is(4));
+        assertThat(flagged.get(0).getStringField(), is(nullValue()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknown_columns_are_rejected() throws IOException {
+        importFrom(TestRecord.class, "id,bogus\n1,2\n".getBytes("UTF-8"), StormeExportFormat.CSV, null);
+    }
+
+    private void assertRoundTrip(StormeExportFormat format) throws IOException {
+        TestRecord quoted = save(7, "say \"hi\", then\nleave");
+        TestRecord empty = save(8, null);
+        TestRecord blank = save(9, "");
+        byte[] data = export(TestRecord.class, format);
+        store.deleteAll(TestRecord.class);
+
+        assertThat(importFrom(TestRecord.class, data, format, null), is(3L));
+        TestRecord loaded = store.findById(quoted.getId());
+        assertThat(loaded.getStringField(), is("say \"hi\", then\nleave"));
+        assertThat(loaded.getIntegerField(), is(7));
+        assertThat(loaded.getDoubleField(), is(3.5));
+        assertThat(loaded.isBooleanField(), is(true));
+        assertThat(loaded.getDateField(), is(new Date(5000)));
+        assertThat(loaded.getCreatedDate(), is(quoted.getCreatedDate()));
+        assertThat(store.findById(empty.getId()).getStringField(), is(nullValue()));
+        assertThat(store.findById(blank.getId()).getStringField(), is(""));
+    }
+
+    private TestRecord save(int value, String text) {
+        TestRecord record = new TestRecord();
+        record.setIntegerField(value);
+        record.setDoubleField(value / 2.0);
+        record.setBooleanField(true);
+        record.setDateField(new Date(5000));
+        record.setStringField(text);
+        return store.save(TestRecord.class, record);
+    }
+
+    private byte[] export(Class<? extends StormeModel> modelClass, StormeExportFormat format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        store.export(modelClass, null, null, format, Channels.newChannel(out));
+        return out.toByteArray();
+    }
+
+    private long importFrom(Class<? extends StormeModel> modelClass, byte[] data, StormeExportFormat format, StormeImportOptions options) throws IOException {
+        return store.importFrom(modelClass, Channels.newChannel(new ByteArrayInputStream(data)), format, options);
+    }
+}
@@ -0,0 +1,139 @@
+package com.storme;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+@Config(emulateSdk = 18, manifest = "app/src/main/AndroidManifest.xml")
+@RunWith(RobolectricTestRunner.class)
+public class LazyFieldTest {
+
+    TestRecordStore store;
+
+    @Before
+    public void beforeTests() {
+        ShadowLog.stream = System.out;
+        store = new TestRecordStore(Robolectric.application);
+        store.deleteAll(TestNote.class);
+        for(int i = 0; i < 5; i++) {
+            save("note " + i, "body of note " + i);
+        }
+    }
+
+    @After
+    public void after() {
+        store.close();
+    }
+
+    @Test
+    public void lazy_fields_are_left_out_of_queries() {
+        List<TestNote> notes = store.find(TestNote.class, "title = ?", new String[] { "note 1" }, null, 0, 0);
+        assertThat(notes.size(), is(1));
+        assertThat(notes.get(0).getTitle(), is("note 1"));
+        assertThat(notes.get(0).getBody(), is(nullValue()));
+        assertThat(notes.get(0).getAttachment(), is(nullValue()));
+
+        TestNote note = store.get(TestNote.class, notes.get(0).getId());
+        assertThat(note.getBody(), is(nullValue()));
+
+        List<TestNote> compiled = store.query(TestNote.class).where("title", "=").compile().find("note 2");
+        assertThat(compiled.get(0).getTitle(), is("note 2"));
+        assertThat(compiled.get(0).getBody(), is(nullValue()));
+    }
+
+    @Test
+    public void lazy_field_is_loaded_on_request() {
+        TestNote note = store.find(TestNote.class, "title = ?", new String[] { "note 3" }, null, 0, 0).get(0);
+
+        assertThat(store.loadLazy(TestNote.class, note, "body").getBody(), is("body of note 3"));
+        store.loadLazy(TestNote.class, note, "attachment");
+        assertArrayEquals("note 3".getBytes(), note.getAttachment());
+    }
+
+    @Test
+    public void lazy_field_is_loaded_for_a_whole_list() {
+        List<TestNote> notes = store.getAll(TestNote.class, "title ASC", 0, 0);
+        store.loadLazy(TestNote.class, notes, "body");
+
+        assertThat(notes.size(), is(5));
+        for(int i = 0; i < notes.size(); i++) {
+            assertThat(notes.get(i).getBody(), is("body of note " + i));
+            assertThat(notes.get(i).getAttachment(), is(nullValue()));
+        }
+    }
+
+    @Test
+    public void lazy_field_can_be_named_in_with() {
+        List<TestNote> notes = store.find(TestNote.class, null, null, "title ASC", 1, 2, "body");
+
+        assertThat(notes.size(), is(2));
+        assertThat(notes.get(0).getBody(), is("body of note 0"));
+        assertThat(notes.get(1).getBody(), is("body of note 1"));
+    }
+
+    @Test
+    public void saving_without_loading_keeps_the_lazy_fields() {
+        TestNote note = store.find(TestNote.class, "title = ?", new String[] { "note 4" }, null, 0, 0).get(0);
+        note.setTitle("renamed");
+        store.save(TestNote.class, note);
+
+        TestNote saved = store.loadLazy(TestNote.class, store.get(TestNote.class, note.getId()), "body");
+        assertThat(saved.getTitle(), is("renamed"));
+        assertThat(saved.getBody(), is("body of note 4"));
+
+        saved.setBody("new body");
+        store.save(TestNote.class, saved);
+        TestNote reloaded = store.loadLazy(TestNote.class, store.get(TestNote.class, note.getId()), "body");
+        assertThat(reloaded.getBody(), is("new body"));
+    }
+
+    @Test
+    public void loaded_lazy_field_can_be_cleared() {
+        TestNote note = store.find(TestNote.class, "title = ?", new String[] { "note 2" }, null, 0, 0).get(0);
+        store.loadLazy(TestNote.class, note, "body");
+        note.setBody(null);
+        store.save(TestNote.class, note);
+
+        TestNote reloaded = store.get(TestNote.class, note.getId());
+        store.loadLazy(TestNote.class, reloaded, "body");
+        store.loadLazy(TestNote.class, reloaded, "attachment");
+        assertThat(reloaded.getBody(), is(nullValue()));
+        assertArrayEquals("note 2".getBytes(), reloaded.getAttachment());
+    }
+
+    @Test
+    public void new_record_saves_null_lazy_fields() {
+        TestNote note = save("empty", "body");
+        note.setBody(null);
+        store.save(TestNote.class, note);
+
+        TestNote reloaded = store.loadLazy(TestNote.class, store.get(TestNote.class, note.getId()), "body");
+        assertThat(reloaded.getBody(), is(nullValue()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void only_lazy_fields_can_be_loaded() {
+        TestNote note = store.getAll(TestNote.class, null, 0, 0).get(0);
+        store.loadLazy(TestNote.class, note, "title");
+    }
+
+    private TestNote save(String title, String body) {
+        TestNote note = new TestNote();
+        note.setTitle(title);
+        note.setBody(body);
+        note.setAttachment(title.getBytes());
+        return store.save(TestNote.class, note);
+    }
+}
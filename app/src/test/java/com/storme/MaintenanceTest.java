@@ -0,0 +1,158 @@
+package com.storme;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+@Config(emulateSdk = 18, manifest = "app/src/main/AndroidManifest.xml")
+@RunWith(RobolectricTestRunner.class)
+public class MaintenanceTest {
+
+    private static final String DATABASE_NAME = "maintenance_records";
+    private static final String RECORD_TABLE = "storme_example_com_storme_TestRecord";
+
+    VacuumStore store;
+
+    @Before
+    public void beforeTests() {
+        ShadowLog.stream = System.out;
+        Robolectric.application.deleteDatabase(DATABASE_NAME);
+        store = new VacuumStore(Robolectric.application);
+    }
+
+    @After
+    public void after() {
+        store.stopMaintenance();
+        store.close();
+    }
+
+    @Test
+    public void stats_report_pages_and_tables() {
+        saveRecords(50);
+
+        StormeDatabaseStats stats = store.getDatabaseStats();
+        assertTrue(stats.getPageCount() > 0);
+        assertTrue(stats.getPageSize() > 0);
+        assertThat(stats.getFileBytes(), is(stats.getPageCount() * stats.getPageSize()));
+        assertThat(stats.getAutoVacuum(), is(StormeDatabaseStats.AUTO_VACUUM_INCREMENTAL));
+
+        StormeDatabaseStats.Table records = null;
+        for(StormeDatabaseStats.Table table : stats.getTables()) {
+            if(table.getName().equals(RECORD_TABLE)) {
+                records = table;
+            }
+        }
+        assertThat(records.getRows(), is(50L));
+        assertTrue(records.getBytes() != 0);
+    }
+
+    @Test
+    public void deleted_rows_leave_free_pages_that_maintenance_releases() {
+        saveRecords(500);
+        store.deleteAll(TestRecord.class);
+
+        StormeDatabaseStats before = store.getDatabaseStats();
+        assertTrue(before.getFreePages() > 0);
+        assertTrue(before.getFreeRatio() > 0);
+
+        assertTrue(store.runMaintenance() > 0);
+        StormeDatabaseStats after = store.getDatabaseStats();
+        assertThat(after.getFreePages(), is(0L));
+        assertTrue(after.getPageCount() < before.getPageCount());
+    }
+
+    @Test
+    public void maintenance_collects_planner_statistics() {
+        saveRecords(20);
+        store.runMaintenance();
+
+        assertTrue(hasStatistics());
+    }
+
+    @Test
+    public void scheduled_maintenance_runs_once_thresholds_are_crossed() throws InterruptedException {
+        saveRecords(500);
+        store.deleteAll(TestRecord.class);
+
+        store.startMaintenance(new StormeMaintenanceOptions()
+                .setCheckInterval(10, TimeUnit.MILLISECONDS)
+                .setIdleTime(0, TimeUnit.MILLISECONDS)
+                .setAnalyzeAfterWrites(1)
+                .setVacuumFreeRatio(0.01)
+                .setVacuumStepPages(16)
+                .setStepPause(0, TimeUnit.MILLISECONDS));
+
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while(store.getDatabaseStats().getFreePages() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertThat(store.getDatabaseStats().getFreePages(), is(0L));
+        assertTrue(hasStatistics());
+    }
+
+    private void saveRecords(final int count) {
+        final char[] filler = new char[500];
+        Arrays.fill(filler, 'x');
+        store.runInTransaction(new Callable<Void>() {
+            @Override
+            public Void call() {
+                for(int i = 0; i < count; i++) {
+                    TestRecord record = new TestRecord();
+                    record.setStringField(new String(filler) + i);
+                    record.setDateField(new Date());
+                    store.save(TestRecord.class, record);
+                }
+                return null;
+            }
+        });
+    }
+
+    private boolean hasStatistics() {
+        String path = Robolectric.application.getDatabasePath(DATABASE_NAME).getPath();
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(path, null, SQLiteDatabase.OPEN_READONLY);
+        try {
+            Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM sqlite_master WHERE name = 'sqlite_stat1'", null);
+            try {
+                return cursor.moveToFirst() && cursor.getInt(0) > 0;
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            db.close();
+        }
+    }
+
+    static class VacuumStore extends StormeBaseHelper {
+
+        private static List<Class<? extends StormeModel>> MODELS = new ArrayList<Class<? extends StormeModel>>();
+
+        static {
+            MODELS.add(TestRecord.class);
+        }
+
+        VacuumStore(Context context) {
+            super(context, DATABASE_NAME, 1, "storme_example_", MODELS);
+            setIncrementalAutoVacuum(true);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.storme;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+@Config(emulateSdk = 18, manifest = "app/src/main/AndroidManifest.xml")
+@RunWith(RobolectricTestRunner.class)
+public class MemoryDatabaseTest {
+
+    private static final String DISK_NAME = "memory_mirror";
+    private static final String RECORD_TABLE = "storme_example_com_storme_TestRecord";
+
+    MemoryStore store;
+
+    @Before
+    public void beforeTests() {
+        ShadowLog.stream = System.out;
+        Robolectric.application.deleteDatabase(DISK_NAME);
+    }
+
+    @After
+    public void after() {
+        if(store != null) {
+            store.close();
+        }
+    }
+
+    @Test
+    public void ephemeral_data_is_gone_after_close() {
+        store = new MemoryStore(Robolectric.application, new StormeMemoryOptions());
+        TestRecord record = save("session");
+        assertThat(store.get(TestRecord.class, record.getId()).getStringField(), is("session"));
+
+        store.close();
+        store = new MemoryStore(Robolectric.application, new StormeMemoryOptions());
+        assertThat(store.findCount(TestRecord.class), is(0));
+    }
+
+    @Test
+    public void write_through_is_preloaded_on_next_open() {
+        store = new MemoryStore(Robolectric.application, new StormeMemoryOptions().setDiskName(DISK_NAME));
+        TestRecord kept = save("kept");
+        TestRecord removed = save("removed");
+        store.delete(TestRecord.class, removed);
+        assertThat(countOnDisk(), is(1L));
+
+        store.close();
+        store = new MemoryStore(Robolectric.application, new StormeMemoryOptions().setDiskName(DISK_NAME));
+        assertThat(store.findCount(TestRecord.class), is(1));
+        assertThat(store.get(TestRecord.class, kept.getId()).getStringField(), is("kept"));
+    }
+
+    @Test
+    public void periodic_flush_waits_for_the_interval() {
+        store = new MemoryStore(Robolectric.application, new StormeMemoryOptions()
+                .setDiskName(DISK_NAME)
+                .setFlushInterval(1, TimeUnit.HOURS));
+        save("a");
+        save("b");
+        assertThat(countOnDisk(), is(0L));
+
+        store.flush();
+        assertThat(countOnDisk(), is(2L));
+
+        store.deleteAll(TestRecord.class);
+        store.close();
+        assertThat(countOnDisk(), is(0L));
+    }
+
+    @Test
+    public void new_rows_do_not_overwrite_rows_in_the_file() {
+        store = new MemoryStore(Robolectric.application, new StormeMemoryOptions().setDiskName(DISK_NAME));
+        TestRecord first = save("first");
+        TestRecord second = save("second");
+        store.close();
+
+        store = new MemoryStore(Robolectric.application, new StormeMemoryOptions()
+                .setDiskName(DISK_NAME)
+                .setFlushInterval(1, TimeUnit.HOURS));
+        TestRecord third = save("third");
+        store.flush();
+        assertThat(countOnDisk(), is(3L));
+
+        store.close();
+        store = new MemoryStore(Robolectric.application, new StormeMemoryOptions().setDiskName(DISK_NAME));
+        assertThat(store.get(TestRecord.class, first.getId()).getStringField(), is("first"));
+        assertThat(store.get(TestRecord.class, second.getId()).getStringField(), is("second"));
+        assertThat(store.get(TestRecord.class, third.getId()).getStringField(), is("third"));
+    }
+
+    @Test
+    public void dictionaries_are_mirrored_with_their_model() {
+        store = new MemoryStore(Robolectric.application, new StormeMemoryOptions().setDiskName(DISK_NAME));
+        TestStatusRecord record = new TestStatusRecord();
+        record.setCategory("archive");
+        store.save(TestStatusRecord.class, record);
+
+        store.close();
+        store = new MemoryStore(Robolectric.application, new StormeMemoryOptions().setDiskName(DISK_NAME));
+        assertThat(store.get(TestStatusRecord.class, record.getId()).getCategory(), is("archive"));
+        assertThat(store.getDictionaryCode(TestStatusRecord.class, "category", "archive") > 0, is(true));
+    }
+
+    @Test
+    public void only_selected_models_are_mirrored() {
+        store = new MemoryStore(Robolectric.application, new StormeMemoryOptions()
+                .setDiskName(DISK_NAME)
+                .mirror(TestStatusRecord.class));
+        TestRecord record = save("memory only");
+
+        store.close();
+        store = new MemoryStore(Robolectric.application, new StormeMemoryOptions().setDiskName(DISK_NAME).mirror(TestStatusRecord.class));
+        assertThat(store.get(TestRecord.class, record.getId()), is(nullValue()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negative_flush_interval_is_rejected() {
+        new StormeMemoryOptions().setFlushInterval(-1, TimeUnit.SECONDS);
+    }
+
+    private TestRecord save(String text) {
+        TestRecord record = new TestRecord();
+        record.setStringField(text);
+        TestRecord saved = store.save(TestRecord.class, record);
+        assertThat(saved, is(notNullValue()));
+        return saved;
+    }
+
+    private long countOnDisk() {
+        String path = Robolectric.application.getDatabasePath(DISK_NAME).getPath();
+        SQLiteDatabase disk = SQLiteDatabase.openDatabase(path, null, SQLiteDatabase.OPEN_READONLY);
+        try {
+            Cursor cursor = disk.rawQuery("SELECT count(*) FROM " + RECORD_TABLE, null);
+            try {
+                cursor.moveToFirst();
+                return cursor.getLong(0);
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            disk.close();
+        }
+    }
+
+    static class MemoryStore extends StormeBaseHelper {
+
+        private static final List<Class<? extends StormeModel>> MODELS = new ArrayList<Class<? extends StormeModel>>();
+
+        static {
+            MODELS.add(TestRecord.class);
+            MODELS.add(TestStatusRecord.class);
+        }
+
+        MemoryStore(Context context, StormeMemoryOptions options) {
+            super(context, TestRecordStore.DATABASE_VERSION, "storme_example_", MODELS, options);
+        }
+    }
+}
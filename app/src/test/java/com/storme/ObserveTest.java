@@ -0,0 +1,153 @@
+package com.storme;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+@Config(emulateSdk = 18, manifest = "app/src/main/AndroidManifest.xml")
+@RunWith(RobolectricTestRunner.class)
+public class ObserveTest {
+
+    private static final long TIMEOUT = 2000;
+
+    TestRecordStore store;
+    BlockingQueue<List<TestRecord>> results;
+    StormeQueryListener<TestRecord> listener;
+
+    @Before
+    public void beforeTests() {
+        ShadowLog.stream = System.out;
+        store = new TestRecordStore(Robolectric.application);
+        store.deleteAll(TestRecord.class);
+        store.setObserveDebounce(100, TimeUnit.MILLISECONDS);
+        results = new LinkedBlockingQueue<List<TestRecord>>();
+        listener = new StormeQueryListener<TestRecord>() {
+            @Override
+            public void onQueryResult(List<TestRecord> list) {
+                results.add(list);
+            }
+        };
+    }
+
+    @After
+    public void after() {
+        store.close();
+    }
+
+    @Test
+    public void initial_result_is_delivered() throws InterruptedException {
+        save("first");
+        StormeSubscription subscription = store.observe(TestRecord.class, null, null, null, listener);
+
+        List<TestRecord> list = results.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+        assertNotNull(list);
+        assertThat(list.size(), is(1));
+        subscription.cancel();
+    }
+
+    @Test
+    public void burst_of_writes_is_coalesced() throws InterruptedException {
+        StormeSubscription subscription = store.observe(TestRecord.class, "stringField = ?", new String[] { "match" }, null, listener);
+        assertThat(results.poll(TIMEOUT, TimeUnit.MILLISECONDS).size(), is(0));
+
+        for(int i = 0; i < 10; i++) {
+            save("match");
+        }
+
+        int deliveries = 0;
+        List<TestRecord> list;
+        do {
+            list = results.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+            assertNotNull(list);
+            deliveries++;
+        } while(list.size() < 10);
+        assertTrue(deliveries < 10);
+        assertNull(results.poll(300, TimeUnit.MILLISECONDS));
+        subscription.cancel();
+    }
+
+    @Test
+    public void other_tables_do_not_trigger_query() throws InterruptedException {
+        StormeSubscription subscription = store.observe(TestRecord.class, null, null, null, listener);
+        assertNotNull(results.poll(TIMEOUT, TimeUnit.MILLISECONDS));
+
+        store.save(TestArticle.class, new TestArticle());
+        assertNull(results.poll(300, TimeUnit.MILLISECONDS));
+
+        store.deleteAll(TestRecord.class);
+        assertNotNull(results.poll(TIMEOUT, TimeUnit.MILLISECONDS));
+        subscription.cancel();
+    }
+
+    @Test
+    public void cancelled_query_is_not_delivered() throws InterruptedException {
+        StormeSubscription subscription = store.observe(TestRecord.class, null, null, null, listener);
+        assertNotNull(results.poll(TIMEOUT, TimeUnit.MILLISECONDS));
+
+        subscription.cancel();
+        save("after");
+        assertNull(results.poll(300, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void close_cancels_observed_queries() throws InterruptedException {
+        StormeSubscription subscription = store.observe(TestRecord.class, null, null, null, listener);
+        assertNotNull(results.poll(TIMEOUT, TimeUnit.MILLISECONDS));
+
+        store.close();
+        assertTrue(subscription.isCancelled());
+        save("after");
+        assertNull(results.poll(300, TimeUnit.MILLISECONDS));
+
+        // the observer thread is started again for the next query
+        subscription = store.observe(TestRecord.class, null, null, null, listener);
+        assertNotNull(results.poll(TIMEOUT, TimeUnit.MILLISECONDS));
+        subscription.cancel();
+    }
+
+    @Test
+    public void changes_in_transaction_are_published_on_commit() {
+        final int[] calls = new int[1];
+        ChangeBus bus = new ChangeBus();
+        bus.register(TestRecord.class, new ChangeBus.ChangeListener() {
+            @Override
+            public void onChanged(Class<? extends StormeModel> modelClass) {
+                calls[0]++;
+            }
+        });
+
+        bus.beginTransaction();
+        bus.changed(TestRecord.class);
+        bus.changed(TestRecord.class);
+        assertThat(calls[0], is(0));
+        bus.endTransaction(true);
+        assertThat(calls[0], is(1));
+
+        bus.beginTransaction();
+        bus.changed(TestRecord.class);
+        bus.endTransaction(false);
+        assertThat(calls[0], is(1));
+    }
+
+    private void save(String value) {
+        TestRecord record = new TestRecord();
+        record.setStringField(value);
+        store.save(TestRecord.class, record);
+    }
+}
@@ -0,0 +1,152 @@
+package com.storme;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+@Config(emulateSdk = 18, manifest = "app/src/main/AndroidManifest.xml")
+@RunWith(RobolectricTestRunner.class)
+public class PartitionedModelTest {
+
+    TestRecordStore store;
+
+    @Before
+    public void beforeTests() {
+        ShadowLog.stream = System.out;
+        store = new TestRecordStore(Robolectric.application);
+        store.deleteAll(TestEvent.class);
+    }
+
+    @After
+    public void after() {
+        store.close();
+    }
+
+    @Test
+    public void events_are_stored_and_found_across_partitions() {
+        for(int day = 0; day < 5; day++) {
+            store.save(TestEvent.class, getEvent("event" + day, day));
+        }
+        assertThat(store.findCount(TestEvent.class), is(5));
+
+        List<TestEvent> all = store.getAll(TestEvent.class, "eventDate ASC", 0, 0);
+        assertThat(all.size(), is(5));
+        for(int i = 0; i < all.size(); i++) {
+            assertThat(all.get(i).getName(), is("event" + i));
+        }
+
+        List<TestEvent> range = store.find(TestEvent.class, "eventDate >= ? and eventDate < ?",
+                new String[] { String.valueOf(getDate(1).getTime()), String.valueOf(getDate(3).getTime()) }, "eventDate DESC", 0, 0);
+        assertThat(range.size(), is(2));
+        assertThat(range.get(0).getName(), is("event2"));
+        assertThat(range.get(1).getName(), is("event1"));
+
+        List<TestEvent> page = store.find(TestEvent.class, null, null, "eventDate ASC", 2, 2);
+        assertThat(page.size(), is(2));
+        assertThat(page.get(0).getName(), is("event2"));
+    }
+
+    @Test
+    public void ids_are_unique_and_get_finds_any_partition() {
+        TestEvent first = store.save(TestEvent.class, getEvent("first", 0));
+        TestEvent second = store.save(TestEvent.class, getEvent("second", 3));
+        assertThat(second.getId() > first.getId(), is(true));
+
+        TestEvent result = store.get(TestEvent.class, first.getId());
+        assertNotNull(result);
+        assertThat(result.getName(), is("first"));
+    }
+
+    @Test
+    public void updating_the_partition_field_moves_the_row() {
+        TestEvent event = store.save(TestEvent.class, getEvent("moving", 0));
+        long id = event.getId();
+
+        event.setEventDate(getDate(2));
+        store.save(TestEvent.class, event);
+
+        assertThat(store.findCount(TestEvent.class), is(1));
+        TestEvent result = store.get(TestEvent.class, id);
+        assertThat(result.getEventDate().getTime(), is(getDate(2).getTime()));
+
+        store.delete(TestEvent.class, result);
+        assertNull(store.get(TestEvent.class, id));
+    }
+
+    @Test
+    public void dropping_old_partitions_removes_their_rows() {
+        for(int day = 0; day < 5; day++) {
+            store.save(TestEvent.class, getEvent("event" + day, day));
+        }
+
+        assertThat(store.dropPartitionsBefore(TestEvent.class, getDate(2)), is(2));
+        assertThat(store.findCount(TestEvent.class), is(3));
+        assertThat(store.getAll(TestEvent.class, "eventDate ASC", 0, 0).get(0).getName(), is("event2"));
+    }
+
+    @Test
+    public void comparisons_at_the_long_limits_do_not_overflow() {
+        store.save(TestEvent.class, getEvent("event", 0));
+
+        assertThat(store.find(TestEvent.class, "eventDate > ?", new String[] { String.valueOf(Long.MIN_VALUE) }, null, 0, 0).size(), is(1));
+        assertThat(store.find(TestEvent.class, "eventDate < ?", new String[] { String.valueOf(Long.MAX_VALUE) }, null, 0, 0).size(), is(1));
+        assertThat(store.find(TestEvent.class, "eventDate > ?", new String[] { String.valueOf(Long.MAX_VALUE) }, null, 0, 0).size(), is(0));
+
+        PartitionedModelFactory<TestEvent> factory = new PartitionedModelFactory<TestEvent>(TestEvent.class, "storme_example_", 1);
+        long[] range = factory.getRange("eventDate < ?", new String[] { String.valueOf(Long.MIN_VALUE) });
+        assertThat(range[0] > range[1], is(true));
+    }
+
+    @Test
+    public void ordered_queries_can_span_more_partitions_than_one_union() {
+        int days = 501;
+        for(int day = 0; day < days; day++) {
+            store.save(TestEvent.class, getEvent("event" + day, day));
+        }
+
+        List<TestEvent> newest = store.getAll(TestEvent.class, "eventDate DESC", 1, 2);
+        assertThat(newest.size(), is(2));
+        assertThat(newest.get(0).getName(), is("event" + (days - 1)));
+        assertThat(newest.get(1).getName(), is("event" + (days - 2)));
+        assertThat(store.findCount(TestEvent.class), is(days));
+        store.deleteAll(TestEvent.class);
+    }
+
+    @Test
+    public void dropping_partitions_of_a_plain_model_fails() {
+        try {
+            store.dropPartitionsBefore(TestRecord.class, new Date());
+            fail("Dropping partitions of an unpartitioned model should fail");
+        } catch (IllegalArgumentException e) {}
+    }
+
+    private TestEvent getEvent(String name, int dayOffset) {
+        TestEvent event = new TestEvent();
+        event.setName(name);
+        event.setEventDate(getDate(dayOffset));
+        return event;
+    }
+
+    private Date getDate(int dayOffset) {
+        Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        cal.clear();
+        cal.set(2015, Calendar.MARCH, 10 + dayOffset, 12, 0, 0);
+        return cal.getTime();
+    }
+}
@@ -0,0 +1,161 @@
+package com.storme;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+@Config(emulateSdk = 18, manifest = "app/src/main/AndroidManifest.xml")
+@RunWith(RobolectricTestRunner.class)
+public class PerformanceProfileTest {
+
+    private static final String TAG = PerformanceProfileTest.class.getSimpleName();
+
+    private static final int BENCHMARK_INSERTS = 500;
+    private static final int BENCHMARK_BULK_INSERTS = 5000;
+    private static final int BENCHMARK_SCANS = 5;
+
+    ProfileStore store;
+
+    @After
+    public void after() {
+        if(store != null) {
+            store.close();
+        }
+    }
+
+    @Test
+    public void profile_settings_are_applied_on_open() {
+        store = open("profile_balanced", StormePerformanceProfile.balanced());
+        Map<String, String> settings = store.getEffectiveSettings();
+
+        assertThat(settings.get("journal_mode"), is("wal"));
+        assertThat(settings.get("synchronous"), is("1"));
+        assertThat(settings.get("cache_size"), is("-4096"));
+        assertThat(settings.get("temp_store"), is("2"));
+        assertThat(settings.get("journal_size_limit"), is(String.valueOf(4 * 1024 * 1024)));
+    }
+
+    @Test
+    public void page_size_applies_to_new_databases() {
+        store = open("profile_throughput", StormePerformanceProfile.throughput());
+        Map<String, String> settings = store.getEffectiveSettings();
+
+        assertThat(settings.get("page_size"), is("8192"));
+        assertThat(settings.get("synchronous"), is("0"));
+    }
+
+    @Test
+    public void durable_profile_syncs_every_commit_without_wal() {
+        store = open("profile_durable", StormePerformanceProfile.durable());
+        Map<String, String> settings = store.getEffectiveSettings();
+
+        assertThat(settings.get("synchronous"), is("2"));
+        assertThat(settings.get("journal_mode").equals("wal"), is(false));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void page_size_must_be_a_power_of_two() {
+        new StormePerformanceProfile("custom").setPageSize(1000);
+    }
+
+    /**
+     * Compares the presets on single record inserts, where each save is its own commit, on bulk
+     * inserts in one transaction and on full table scans. Timings are logged rather than asserted
+     * as they depend on the machine. Left out of the default run, remove the Ignore to run it.
+     */
+    @Ignore("Benchmark, run by hand")
+    @Test
+    public void benchmark_presets() {
+        StormePerformanceProfile[] profiles = new StormePerformanceProfile[] {
+                StormePerformanceProfile.durable(), StormePerformanceProfile.balanced(), StormePerformanceProfile.throughput() };
+        for(StormePerformanceProfile profile : profiles) {
+            store = open("benchmark_" + profile.getName(), profile);
+
+            long start = System.nanoTime();
+            for(int i = 0; i < BENCHMARK_INSERTS; i++) {
+                store.save(TestRecord.class, newRecord(i));
+            }
+            long inserts = elapsedMillis(start);
+
+            start = System.nanoTime();
+            store.runInTransaction(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for(int i = 0; i < BENCHMARK_BULK_INSERTS; i++) {
+                        store.save(TestRecord.class, newRecord(i));
+                    }
+                    return null;
+                }
+            });
+            long bulk = elapsedMillis(start);
+
+            final int[] rows = new int[1];
+            start = System.nanoTime();
+            for(int i = 0; i < BENCHMARK_SCANS; i++) {
+                store.scan(TestRecord.class, null, null, null, new StormeRowVisitor<TestRecord>() {
+                    @Override
+                    public boolean visit(TestRecord row) {
+                        rows[0]++;
+                        return true;
+                    }
+                });
+            }
+            long scans = elapsedMillis(start);
+
+            assertThat(rows[0], is(BENCHMARK_SCANS * (BENCHMARK_INSERTS + BENCHMARK_BULK_INSERTS)));
+            Log.i(TAG, "Profile " + profile.getName() + ": " + BENCHMARK_INSERTS + " inserts " + inserts + "ms, "
+                    + BENCHMARK_BULK_INSERTS + " bulk inserts " + bulk + "ms, " + BENCHMARK_SCANS + " scans " + scans + "ms");
+            store.close();
+            store = null;
+        }
+    }
+
+    private ProfileStore open(String name, StormePerformanceProfile profile) {
+        ShadowLog.stream = System.out;
+        Robolectric.application.deleteDatabase(name);
+        return new ProfileStore(Robolectric.application, name, profile);
+    }
+
+    private static TestRecord newRecord(int i) {
+        TestRecord record = new TestRecord();
+        record.setIntegerField(i);
+        record.setStringField("record " + i);
+        record.setDateField(new Date());
+        return record;
+    }
+
+    private static long elapsedMillis(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    static class ProfileStore extends StormeBaseHelper {
+
+        private static List<Class<? extends StormeModel>> MODELS = new ArrayList<Class<? extends StormeModel>>();
+
+        static {
+            MODELS.add(TestRecord.class);
+        }
+
+        ProfileStore(Context context, String name, StormePerformanceProfile profile) {
+            super(context, name, 1, "storme_example_", MODELS, profile);
+        }
+    }
+}
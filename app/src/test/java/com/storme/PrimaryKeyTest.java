@@ -0,0 +1,136 @@
+package com.storme;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+@Config(emulateSdk = 18, manifest = "app/src/main/AndroidManifest.xml")
+@RunWith(RobolectricTestRunner.class)
+public class PrimaryKeyTest {
+
+    private static final String SETTING_TABLE = "storme_example_com_storme_TestSetting";
+
+    TestRecordStore store;
+
+    @Before
+    public void beforeTests() {
+        ShadowLog.stream = System.out;
+        store = new TestRecordStore(Robolectric.application);
+        store.deleteAll(TestSetting.class);
+    }
+
+    @After
+    public void after() {
+        store.close();
+    }
+
+    @Test
+    public void table_is_keyed_on_the_annotated_fields() {
+        store.save(TestSetting.class, new TestSetting("app", "theme", "dark"));
+
+        List<String> keys = new ArrayList<String>();
+        String path = Robolectric.application.getDatabasePath("test_records").getPath();
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(path, null, SQLiteDatabase.OPEN_READONLY);
+        try {
+            Cursor cursor = db.rawQuery("PRAGMA table_info(" + SETTING_TABLE + ")", null);
+            try {
+                while(cursor.moveToNext()) {
+                    if(cursor.getInt(cursor.getColumnIndex("pk")) > 0) {
+                        keys.add(cursor.getString(cursor.getColumnIndex("name")));
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            db.close();
+        }
+        assertThat(keys.size(), is(2));
+        assertTrue(keys.contains("scope"));
+        assertTrue(keys.contains("name"));
+    }
+
+    @Test
+    public void get_by_key_finds_the_record() {
+        TestSetting saved = store.save(TestSetting.class, new TestSetting("app", "theme", "dark"));
+        store.save(TestSetting.class, new TestSetting("user", "theme", "light"));
+
+        TestSetting found = store.getByKey(TestSetting.class, "app", "theme");
+        assertThat(found.getValue(), is("dark"));
+        assertThat(found.getId(), is(saved.getId()));
+        assertThat(store.getByKey(TestSetting.class, "user", "theme").getValue(), is("light"));
+        assertThat(store.getByKey(TestSetting.class, "app", "font"), is(nullValue()));
+    }
+
+    @Test
+    public void saving_a_new_record_with_an_existing_key_updates_it() {
+        TestSetting first = store.save(TestSetting.class, new TestSetting("app", "theme", "dark"));
+        assertTrue(first.getId() > 0);
+
+        TestSetting second = store.save(TestSetting.class, new TestSetting("app", "theme", "light"));
+        assertThat(second.getId(), is(first.getId()));
+        assertThat(store.findCount(TestSetting.class), is(1));
+        assertThat(store.getByKey(TestSetting.class, "app", "theme").getValue(), is("light"));
+    }
+
+    @Test
+    public void new_keys_get_their_own_ids() {
+        TestSetting first = store.save(TestSetting.class, new TestSetting("app", "theme", "dark"));
+        TestSetting second = store.save(TestSetting.class, new TestSetting("app", "font", "serif"));
+
+        assertTrue(second.getId() > first.getId());
+        assertThat(store.get(TestSetting.class, second.getId()).getValue(), is("serif"));
+        assertThat(store.findCount(TestSetting.class), is(2));
+    }
+
+    @Test
+    public void changing_the_key_of_a_saved_record_moves_its_row() {
+        TestSetting setting = store.save(TestSetting.class, new TestSetting("app", "theme", "dark"));
+        setting.setScope("user");
+        store.save(TestSetting.class, setting);
+
+        assertThat(store.findCount(TestSetting.class), is(1));
+        assertThat(store.getByKey(TestSetting.class, "app", "theme"), is(nullValue()));
+        assertThat(store.getByKey(TestSetting.class, "user", "theme").getId(), is(setting.getId()));
+    }
+
+    @Test
+    public void records_can_still_be_deleted_by_id() {
+        TestSetting setting = store.save(TestSetting.class, new TestSetting("app", "theme", "dark"));
+        store.delete(TestSetting.class, setting);
+
+        assertThat(store.getByKey(TestSetting.class, "app", "theme"), is(nullValue()));
+        assertThat(store.findCount(TestSetting.class), is(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void key_must_have_every_field() {
+        store.getByKey(TestSetting.class, "app");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void key_fields_cannot_be_null() {
+        store.save(TestSetting.class, new TestSetting(null, "theme", "dark"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void models_without_a_key_have_no_get_by_key() {
+        store.getByKey(TestRecord.class, 1L);
+    }
+}
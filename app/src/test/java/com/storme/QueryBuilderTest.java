@@ -0,0 +1,120 @@
+package com.storme;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+
+@Config(emulateSdk = 18, manifest = "app/src/main/AndroidManifest.xml")
+@RunWith(RobolectricTestRunner.class)
+public class QueryBuilderTest {
+
+    TestRecordStore store;
+
+    @Before
+    public void beforeTests() {
+        ShadowLog.stream = System.out;
+        store = new TestRecordStore(Robolectric.application);
+        store.deleteAll(TestRecord.class);
+        for(int i = 0; i < 20; i++) {
+            TestRecord record = new TestRecord();
+            record.setIntegerField(i);
+            record.setDoubleField(i * 1.5);
+            record.setBooleanField(i % 2 == 0);
+            record.setDateField(new Date(1000L * i));
+            record.setStringField("record" + i);
+            store.save(TestRecord.class, record);
+        }
+    }
+
+    @After
+    public void after() {
+        store.close();
+    }
+
+    @Test
+    public void numeric_arguments_are_bound_natively() {
+        StormeCompiledQuery<TestRecord> query = store.query(TestRecord.class)
+                .where("integerField", ">=")
+                .where("doubleField", "<")
+                .orderBy("integerField", false)
+                .compile();
+
+        // as TEXT, "9" would sort after "10" and "15.0" would not compare numerically
+        List<TestRecord> list = query.find(9, 15.0);
+        assertThat(list.size(), is(1));
+        assertThat(list.get(0).getIntegerField(), is(9));
+        assertThat(query.count(2, 15.0), is(8));
+    }
+
+    @Test
+    public void dates_and_booleans_are_converted() {
+        StormeCompiledQuery<TestRecord> query = store.query(TestRecord.class)
+                .where("dateField", ">=")
+                .where("booleanField", "=")
+                .orderBy("dateField", true)
+                .compile();
+
+        List<TestRecord> list = query.find(new Date(10000L), true);
+        assertThat(list.size(), is(5));
+        assertThat(list.get(0).getIntegerField(), is(10));
+        assertThat(query.findPage(2, 2, new Date(10000L), true).get(0).getIntegerField(), is(14));
+        assertNull(query.first(new Date(19000L), true));
+    }
+
+    @Test
+    public void same_shape_reuses_compiled_query() {
+        StormeCompiledQuery<TestRecord> first = store.query(TestRecord.class).where("stringField", "=").compile();
+        StormeCompiledQuery<TestRecord> second = store.query(TestRecord.class).where("stringField", "=").compile();
+        assertThat(second, sameInstance(first));
+        assertThat(first.first("record3").getIntegerField(), is(3));
+        assertNull(second.first("missing"));
+    }
+
+    @Test
+    public void enums_and_dictionary_values_are_converted() {
+        store.deleteAll(TestStatusRecord.class);
+        TestStatusRecord record = new TestStatusRecord();
+        record.setPriority(TestStatusRecord.Priority.HIGH);
+        record.setCategory("books");
+        store.save(TestStatusRecord.class, record);
+
+        StormeCompiledQuery<TestStatusRecord> query = store.query(TestStatusRecord.class)
+                .where("priority", "=")
+                .where("category", "=")
+                .compile();
+        assertThat(query.count(TestStatusRecord.Priority.HIGH, "books"), is(1));
+        assertThat(query.count(TestStatusRecord.Priority.LOW, "books"), is(0));
+        assertThat(query.count(TestStatusRecord.Priority.HIGH, "films"), is(0));
+    }
+
+    @Test
+    public void existing_date_range_query_uses_builder() {
+        TestRecord record = new TestRecord();
+        record.setDateField(new Date());
+        store.save(TestRecord.class, record);
+        assertThat(store.getAllOrderedByDate(true).size(), is(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknown_fields_are_rejected() {
+        store.query(TestRecord.class).where("missingField", "=");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void argument_count_is_checked() {
+        store.query(TestRecord.class).where("integerField", "=").compile().find(1, 2);
+    }
+}
@@ -0,0 +1,119 @@
+package com.storme;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+@Config(emulateSdk = 18, manifest = "app/src/main/AndroidManifest.xml")
+@RunWith(RobolectricTestRunner.class)
+public class RelationTest {
+
+    TestRecordStore store;
+
+    @Before
+    public void beforeTests() {
+        ShadowLog.stream = System.out;
+        store = new TestRecordStore(Robolectric.application);
+        store.deleteAll(TestComment.class);
+        store.deleteAll(TestPost.class);
+        store.deleteAll(TestAuthor.class);
+
+        for(int a = 0; a < 2; a++) {
+            TestAuthor author = new TestAuthor();
+            author.setName("author" + a);
+            store.save(TestAuthor.class, author);
+
+            for(int p = 0; p < 3; p++) {
+                TestPost post = new TestPost();
+                post.setTitle("post" + a + p);
+                post.setAuthor(author);
+                store.save(TestPost.class, post);
+
+                for(int c = 0; c < p; c++) {
+                    TestComment comment = new TestComment();
+                    comment.setText("comment" + a + p + c);
+                    comment.setPost(post);
+                    store.save(TestComment.class, comment);
+                }
+            }
+        }
+    }
+
+    @After
+    public void after() {
+        store.close();
+    }
+
+    @Test
+    public void relations_load_lazily() {
+        List<TestPost> posts = store.find(TestPost.class, null, null, "title ASC", 0, 0);
+        assertThat(posts.size(), is(6));
+
+        TestPost post = posts.get(2);
+        assertThat(post.getAuthor().isLoaded(), is(false));
+        assertThat(post.getAuthor().get().getName(), is("author0"));
+        assertThat(post.getComments().size(), is(2));
+        assertThat(post.getComments().get(1).getText(), is("comment021"));
+    }
+
+    @Test
+    public void relations_can_be_prefetched() {
+        List<TestPost> posts = store.find(TestPost.class, null, null, "title ASC", 0, 0, "author", "comments");
+        assertThat(posts.size(), is(6));
+
+        for(TestPost post : posts) {
+            assertThat(post.getAuthor().isLoaded(), is(true));
+            int index = Integer.parseInt(post.getTitle().substring(5));
+            assertThat(post.getComments().size(), is(index));
+            for(TestComment comment : post.getComments()) {
+                assertThat(comment.getPost().get().getId(), is(post.getId()));
+            }
+        }
+        assertThat(posts.get(4).getAuthor().get().getName(), is("author1"));
+        assertThat(posts.get(5).getComments().get(0).getText(), is("comment120"));
+    }
+
+    @Test
+    public void children_can_be_found_by_reference() {
+        TestPost post = store.getAll(TestPost.class, "title DESC", 1, 1, "comments").get(0);
+        List<TestComment> comments = store.find(TestComment.class, "postId = ?", new String[] { String.valueOf(post.getId()) }, "text ASC", 0, 0, "post");
+        assertThat(comments.size(), is(2));
+        assertThat(comments.get(0).getPost().get().getTitle(), is("post12"));
+    }
+
+    @Test
+    public void null_relations_prefetch_nothing() {
+        List<TestPost> posts = store.find(TestPost.class, null, null, "title ASC", 0, 0, null);
+        assertThat(posts.size(), is(6));
+    }
+
+    @Test
+    public void unknown_relations_are_rejected() {
+        try {
+            store.find(TestPost.class, null, null, null, 0, 0, "title");
+            fail("Prefetching a field that is not a relation should fail");
+        } catch (IllegalArgumentException e) {}
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void misconfigured_relations_are_rejected() {
+        new ReflectionClassTableGenerator<BadRelationModel>(BadRelationModel.class, "storme_example_").getCreateStatement();
+    }
+
+    public static class BadRelationModel extends StormeBaseModel {
+
+        @StormeToMany(key = "postId")
+        private List<String> children;
+    }
+}
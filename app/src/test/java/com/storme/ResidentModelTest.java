@@ -0,0 +1,120 @@
+package com.storme;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+@Config(emulateSdk = 18, manifest = "app/src/main/AndroidManifest.xml")
+@RunWith(RobolectricTestRunner.class)
+public class ResidentModelTest {
+
+    TestRecordStore store;
+
+    @Before
+    public void beforeTests() {
+        ShadowLog.stream = System.out;
+        store = new TestRecordStore(Robolectric.application);
+        store.deleteAll(TestCategory.class);
+    }
+
+    @After
+    public void after() {
+        store.close();
+    }
+
+    @Test
+    public void get_is_served_from_memory() {
+        TestCategory books = save("books", "Books", true);
+
+        TestCategory first = store.get(TestCategory.class, books.getId());
+        assertThat(first.getName(), is("Books"));
+        assertThat(store.get(TestCategory.class, books.getId()), is(sameInstance(first)));
+        assertThat(store.get(TestCategory.class, books.getId() + 100), is(nullValue()));
+    }
+
+    @Test
+    public void equality_queries_use_the_indexes() {
+        save("books", "Books", true);
+        save("music", "Music", true);
+        save("films", "Films", false);
+
+        List<TestCategory> music = find("code = ?", "music");
+        assertThat(music.size(), is(1));
+        assertThat(music.get(0).getName(), is("Music"));
+
+        assertThat(find("visible = ?", "1").size(), is(2));
+        assertThat(find("visible = ? AND code = ?", "1", "films").size(), is(0));
+        assertThat(store.findCount(TestCategory.class, "visible = ?", new String[] { "0" }, null), is(1));
+    }
+
+    @Test
+    public void other_queries_still_run_against_sqlite() {
+        save("books", "Books", true);
+        save("music", "Music", true);
+
+        assertThat(find("name = ?", "Music").size(), is(1));
+        List<TestCategory> ordered = store.find(TestCategory.class, null, null, "code DESC", 0, 0);
+        assertThat(ordered.get(0).getCode(), is("music"));
+    }
+
+    @Test
+    public void saves_and_deletes_keep_the_indexes_in_step() {
+        TestCategory books = save("books", "Books", true);
+        TestCategory music = save("music", "Music", true);
+
+        books.setCode("novels");
+        store.save(TestCategory.class, books);
+        assertThat(find("code = ?", "books").size(), is(0));
+        assertThat(find("code = ?", "novels").size(), is(1));
+
+        store.delete(TestCategory.class, music);
+        assertThat(find("code = ?", "music").size(), is(0));
+        assertThat(store.findCount(TestCategory.class), is(1));
+    }
+
+    @Test
+    public void bulk_deletes_reload_the_table() {
+        save("books", "Books", true);
+        save("music", "Music", false);
+        assertThat(store.findCount(TestCategory.class), is(2));
+
+        store.delete(TestCategory.class, "visible = ?", new String[] { "0" });
+        assertThat(store.findCount(TestCategory.class), is(1));
+        assertThat(find("code = ?", "music").size(), is(0));
+    }
+
+    @Test
+    public void pages_are_in_id_order() {
+        for(int i = 0; i < 5; i++) {
+            save("code" + i, "Name " + i, true);
+        }
+        List<TestCategory> page = store.find(TestCategory.class, "visible = ?", new String[] { "1" }, null, 2, 2);
+        assertThat(page.size(), is(2));
+        assertThat(page.get(0).getCode(), is("code2"));
+        assertThat(page.get(1).getCode(), is("code3"));
+    }
+
+    private TestCategory save(String code, String name, boolean visible) {
+        TestCategory category = new TestCategory();
+        category.setCode(code);
+        category.setName(name);
+        category.setVisible(visible);
+        return store.save(TestCategory.class, category);
+    }
+
+    private List<TestCategory> find(String where, String... params) {
+        return store.find(TestCategory.class, where, params, null, 0, 0);
+    }
+}
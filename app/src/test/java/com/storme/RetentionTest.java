@@ -0,0 +1,101 @@
+package com.storme;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+@Config(emulateSdk = 18, manifest = "app/src/main/AndroidManifest.xml")
+@RunWith(RobolectricTestRunner.class)
+public class RetentionTest {
+
+    TestRecordStore store;
+
+    @Before
+    public void beforeTests() {
+        ShadowLog.stream = System.out;
+        store = new TestRecordStore(Robolectric.application);
+        store.deleteAll(TestRecord.class);
+    }
+
+    @After
+    public void after() {
+        store.stopRetention();
+        store.close();
+    }
+
+    @Test
+    public void rows_older_than_max_age_are_removed() {
+        Calendar cal = Calendar.getInstance();
+        cal.add(Calendar.DATE, -10);
+        for(int i = 0; i < 25; i++) {
+            saveRecord(cal.getTime());
+        }
+        for(int i = 0; i < 5; i++) {
+            saveRecord(new Date());
+        }
+
+        CountingListener listener = new CountingListener();
+        store.setRetentionRule(TestRecord.class, RetentionRule.maxAge("dateField", 1, TimeUnit.DAYS));
+        assertThat(store.enforceRetention(listener), is(25));
+
+        assertThat(store.findCount(TestRecord.class), is(5));
+        assertThat(listener.removed, is(25));
+        assertThat(listener.completed, is(1));
+    }
+
+    @Test
+    public void rows_over_the_limit_are_removed_oldest_first() {
+        for(int i = 0; i < 10; i++) {
+            saveRecord(new Date());
+        }
+        long newestId = saveRecord(new Date()).getId();
+
+        store.setRetentionRule(TestRecord.class, RetentionRule.maxRows(3));
+        assertThat(store.enforceRetention(null), is(8));
+
+        assertThat(store.findCount(TestRecord.class), is(3));
+        assertThat(store.get(TestRecord.class, newestId).getId(), is(newestId));
+    }
+
+    @Test
+    public void rules_for_unknown_models_are_rejected() {
+        try {
+            store.setRetentionRule(FakeRecord.class, RetentionRule.maxRows(1));
+            fail("Setting a rule on an unknown model type should fail");
+        } catch (IllegalArgumentException e) {}
+    }
+
+    private TestRecord saveRecord(Date date) {
+        TestRecord record = new TestRecord();
+        record.setDateField(date);
+        return store.save(TestRecord.class, record);
+    }
+
+    private static class CountingListener implements RetentionListener {
+        int removed;
+        int completed;
+
+        @Override
+        public void onBatchDeleted(Class<? extends StormeModel> modelClass, int rowsRemoved, long elapsedMillis) {
+            removed += rowsRemoved;
+        }
+
+        @Override
+        public void onRetentionComplete(Class<? extends StormeModel> modelClass, int totalRemoved, long elapsedMillis) {
+            completed++;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.storme;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import java.util.concurrent.Callable;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+@Config(emulateSdk = 18, manifest = "app/src/main/AndroidManifest.xml")
+@RunWith(RobolectricTestRunner.class)
+public class RowCountTest {
+
+    private static final String LOG_TABLE = "storme_example_com_storme_TestLogEntry";
+
+    TestRecordStore store;
+
+    @Before
+    public void beforeTests() {
+        ShadowLog.stream = System.out;
+        store = new TestRecordStore(Robolectric.application);
+        store.deleteAll(TestLogEntry.class);
+    }
+
+    @After
+    public void after() {
+        store.close();
+    }
+
+    @Test
+    public void count_follows_inserts_and_deletes() {
+        TestLogEntry first = null;
+        for(int i = 0; i < 6; i++) {
+            TestLogEntry entry = saveEntry("entry " + i, i);
+            if(first == null) {
+                first = entry;
+            }
+        }
+        assertThat(store.findCount(TestLogEntry.class), is(6));
+        assertThat(storedCount(), is(6L));
+
+        store.delete(TestLogEntry.class, first);
+        store.delete(TestLogEntry.class, "level >= ?", new String[] { "4" });
+
+        assertThat(store.findCount(TestLogEntry.class), is(3));
+        assertThat(store.findCount(TestLogEntry.class, "level >= ?", new String[] { "0" }, null), is(3));
+        assertThat(storedCount(), is(3L));
+    }
+
+    @Test
+    public void delete_all_resets_the_count() {
+        for(int i = 0; i < 5; i++) {
+            saveEntry("entry " + i, i);
+        }
+        store.deleteAll(TestLogEntry.class);
+        assertThat(store.findCount(TestLogEntry.class), is(0));
+
+        TestLogEntry entry = saveEntry("after", 1);
+        store.delete(TestLogEntry.class, entry);
+        saveEntry("kept", 1);
+        assertThat(store.findCount(TestLogEntry.class), is(1));
+    }
+
+    @Test
+    public void rolled_back_writes_are_not_counted() {
+        saveEntry("kept", 1);
+        try {
+            store.runInTransaction(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    saveEntry("lost", 2);
+                    saveEntry("lost", 3);
+                    throw new IllegalStateException("stop");
+                }
+            });
+            fail("Expected the transaction to fail");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertThat(store.findCount(TestLogEntry.class), is(1));
+    }
+
+    @Test
+    public void missing_count_is_rebuilt_when_the_database_is_opened() {
+        for(int i = 0; i < 4; i++) {
+            saveEntry("entry " + i, i);
+        }
+        store.close();
+
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(databasePath(), null, SQLiteDatabase.OPEN_READWRITE);
+        try {
+            db.execSQL("DELETE FROM storme_row_counts WHERE table_name = ?", new Object[] { LOG_TABLE });
+        } finally {
+            db.close();
+        }
+
+        store = new TestRecordStore(Robolectric.application);
+        assertThat(store.findCount(TestLogEntry.class), is(4));
+        assertThat(storedCount(), is(4L));
+    }
+
+    private TestLogEntry saveEntry(String message, int level) {
+        TestLogEntry entry = new TestLogEntry();
+        entry.setMessage(message);
+        entry.setLevel(level);
+        return store.save(TestLogEntry.class, entry);
+    }
+
+    private long storedCount() {
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(databasePath(), null, SQLiteDatabase.OPEN_READONLY);
+        try {
+            Cursor cursor = db.rawQuery("SELECT row_count FROM storme_row_counts WHERE table_name = ?", new String[] { LOG_TABLE });
+            try {
+                return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            db.close();
+        }
+    }
+
+    private String databasePath() {
+        return Robolectric.application.getDatabasePath("test_records").getPath();
+    }
+}
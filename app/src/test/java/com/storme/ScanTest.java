@@ -0,0 +1,111 @@
+package com.storme;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+@Config(emulateSdk = 18, manifest = "app/src/main/AndroidManifest.xml")
+@RunWith(RobolectricTestRunner.class)
+public class ScanTest {
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    TestRecordStore store;
+
+    @Before
+    public void beforeTests() {
+        ShadowLog.stream = System.out;
+        store = new TestRecordStore(Robolectric.application);
+        store.deleteAll(TestRecord.class);
+        for(int i = 1; i <= 20; i++) {
+            TestRecord record = new TestRecord();
+            record.setIntegerField(i);
+            record.setDoubleField(i / 2.0);
+            record.setDateField(new Date(i * 1000L));
+            store.save(TestRecord.class, record);
+        }
+    }
+
+    @After
+    public void after() {
+        store.close();
+    }
+
+    @Test
+    public void every_row_is_visited_with_one_instance() {
+        final TestRecord row = new TestRecord();
+        final Set<Date> dates = Collections.newSetFromMap(new IdentityHashMap<Date, Boolean>());
+        final long[] sum = new long[1];
+        final double[] total = new double[1];
+
+        boolean completed = store.scan(TestRecord.class, null, null, "integerField ASC", row, new StormeRowVisitor<TestRecord>() {
+            @Override
+            public boolean visit(TestRecord visited) {
+                assertThat(visited, sameInstance(row));
+                assertThat(visited.getDateField().getTime(), is(visited.getIntegerField() * 1000L));
+                sum[0] += visited.getIntegerField();
+                total[0] += visited.getDoubleField();
+                dates.add(visited.getDateField());
+                return true;
+            }
+        });
+
+        assertTrue(completed);
+        assertThat(sum[0], is(210L));
+        assertThat(total[0], is(105.0));
+        // the date is updated in place
+        assertThat(dates.size(), is(1));
+    }
+
+    @Test
+    public void visitor_can_stop_scan() {
+        final int[] visited = new int[1];
+        boolean completed = store.scan(TestRecord.class, "integerField > ?", new String[] { "10" }, null, new StormeRowVisitor<TestRecord>() {
+            @Override
+            public boolean visit(TestRecord row) {
+                return ++visited[0] < 3;
+            }
+        });
+
+        assertFalse(completed);
+        assertThat(visited[0], is(3));
+    }
+
+    @Test
+    public void partitions_are_scanned_in_order() {
+        store.deleteAll(TestEvent.class);
+        long now = System.currentTimeMillis();
+        for(int i = 0; i < 5; i++) {
+            TestEvent event = new TestEvent();
+            event.setName("event" + i);
+            event.setEventDate(new Date(now - i * DAY));
+            store.save(TestEvent.class, event);
+        }
+
+        final StringBuilder names = new StringBuilder();
+        store.scan(TestEvent.class, null, null, "eventDate ASC", new StormeRowVisitor<TestEvent>() {
+            @Override
+            public boolean visit(TestEvent row) {
+                names.append(row.getName().charAt(5));
+                return true;
+            }
+        });
+        assertThat(names.toString(), is("43210"));
+    }
+}
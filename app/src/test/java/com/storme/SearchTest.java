@@ -0,0 +1,124 @@
+package com.storme;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+@Config(emulateSdk = 18, manifest = "app/src/main/AndroidManifest.xml")
+@RunWith(RobolectricTestRunner.class)
+public class SearchTest {
+
+    TestRecordStore store;
+
+    @Before
+    public void beforeTests() {
+        ShadowLog.stream = System.out;
+        store = new TestRecordStore(Robolectric.application);
+        store.deleteAll(TestArticle.class);
+    }
+
+    @After
+    public void after() {
+        store.close();
+    }
+
+    @Test
+    public void matches_are_ranked_by_weight() {
+        TestArticle inBody = save("Weekend plans", "We could go sailing on the lake");
+        TestArticle inTitle = save("Sailing for beginners", "Start with a small boat");
+        save("Gardening", "Plant the bulbs in autumn");
+
+        List<TestArticle> list = store.search(TestArticle.class, "sailing", 0, 0);
+        assertThat(list.size(), is(2));
+        assertThat(list.get(0).getId(), is(inTitle.getId()));
+        assertThat(list.get(1).getId(), is(inBody.getId()));
+    }
+
+    @Test
+    public void search_is_paged() {
+        for(int i = 0; i < 5; i++) {
+            save("Note " + i, "shared text");
+        }
+
+        assertThat(store.search(TestArticle.class, "shared", 1, 2).size(), is(2));
+        assertThat(store.search(TestArticle.class, "shared", 3, 2).size(), is(1));
+        assertThat(store.search(TestArticle.class, "shared", 4, 2).size(), is(0));
+    }
+
+    @Test
+    public void pages_follow_the_full_ranking() {
+        for(int i = 0; i < 6; i++) {
+            StringBuilder body = new StringBuilder();
+            for(int hits = 0; hits <= i % 3; hits++) {
+                body.append("tide ");
+            }
+            save("Tide " + i, body.toString());
+        }
+
+        List<TestArticle> all = store.search(TestArticle.class, "tide", 0, 0);
+        assertThat(all.size(), is(6));
+        for(int page = 1; page <= 3; page++) {
+            List<TestArticle> list = store.search(TestArticle.class, "tide", page, 2);
+            assertThat(list.size(), is(2));
+            assertThat(list.get(0).getId(), is(all.get((page - 1) * 2).getId()));
+            assertThat(list.get(1).getId(), is(all.get((page - 1) * 2 + 1).getId()));
+        }
+    }
+
+    @Test
+    public void prefix_queries_match_word_starts() {
+        save("Photography", "Cameras and lenses");
+        save("Photos from the trip", "Mountains");
+        save("Phone numbers", "Contacts");
+
+        assertThat(store.search(TestArticle.class, FullTextIndex.prefixQuery("phot"), 0, 0).size(), is(2));
+        assertThat(store.search(TestArticle.class, FullTextIndex.prefixQuery(" ph \"mount"), 0, 0).size(), is(1));
+    }
+
+    @Test
+    public void snippets_mark_matched_terms() {
+        save("Recipes", "Bake the bread for forty minutes until golden");
+
+        List<StormeSearchResult<TestArticle>> results = store.search(TestArticle.class, "bread", 1, 10, "[", "]");
+        assertThat(results.size(), is(1));
+        assertThat(results.get(0).getSnippet(), containsString("[bread]"));
+        assertTrue(results.get(0).getRank() > 0);
+    }
+
+    @Test
+    public void index_follows_updates_and_deletes() {
+        TestArticle article = save("Old title", "Body");
+        article.setTitle("New title");
+        store.save(TestArticle.class, article);
+
+        assertThat(store.search(TestArticle.class, "old", 0, 0).size(), is(0));
+        assertThat(store.search(TestArticle.class, "new", 0, 0).size(), is(1));
+
+        store.delete(TestArticle.class, article);
+        assertThat(store.search(TestArticle.class, "new", 0, 0).size(), is(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void search_requires_searchable_fields() {
+        store.search(TestRecord.class, "anything", 0, 0);
+    }
+
+    private TestArticle save(String title, String body) {
+        TestArticle article = new TestArticle();
+        article.setTitle(title);
+        article.setBody(body);
+        return store.save(TestArticle.class, article);
+    }
+}
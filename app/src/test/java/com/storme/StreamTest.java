@@ -0,0 +1,135 @@
+package com.storme;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+@Config(emulateSdk = 18, manifest = "app/src/main/AndroidManifest.xml")
+@RunWith(RobolectricTestRunner.class)
+public class StreamTest {
+
+    TestRecordStore store;
+
+    @Before
+    public void beforeTests() {
+        ShadowLog.stream = System.out;
+        store = new TestRecordStore(Robolectric.application);
+        store.deleteAll(TestRecord.class);
+        for(int i = 0; i < 25; i++) {
+            TestRecord record = new TestRecord();
+            record.setIntegerField(i);
+            record.setStringField(String.valueOf((char) ('a' + (24 - i))));
+            store.save(TestRecord.class, record);
+        }
+    }
+
+    @After
+    public void after() {
+        store.close();
+    }
+
+    @Test
+    public void items_are_only_read_as_requested() {
+        RecordingSubscriber subscriber = new RecordingSubscriber(0);
+        store.stream(TestRecord.class, null, null, null, 10).subscribe(subscriber);
+        assertThat(subscriber.items.size(), is(0));
+
+        subscriber.subscription.request(3);
+        assertThat(subscriber.items.size(), is(3));
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertThat(subscriber.items.size(), is(25));
+        assertTrue(subscriber.completed);
+        for(int i = 0; i < 25; i++) {
+            assertThat(subscriber.items.get(i).getIntegerField(), is(i));
+        }
+    }
+
+    @Test
+    public void requests_from_on_next_are_served_in_order() {
+        RecordingSubscriber subscriber = new RecordingSubscriber(1);
+        store.stream(TestRecord.class, "integerField >= ?", new String[] { "5" }, "stringField ASC", 7).subscribe(subscriber);
+
+        assertThat(subscriber.items.size(), is(20));
+        assertTrue(subscriber.completed);
+        assertThat(subscriber.items.get(0).getIntegerField(), is(24));
+        assertThat(subscriber.items.get(19).getIntegerField(), is(5));
+    }
+
+    @Test
+    public void cancel_stops_delivery() {
+        RecordingSubscriber subscriber = new RecordingSubscriber(1);
+        subscriber.cancelAfter = 12;
+        store.stream(TestRecord.class, null, null, null, 10).subscribe(subscriber);
+
+        assertThat(subscriber.items.size(), is(12));
+        assertFalse(subscriber.completed);
+        subscriber.subscription.request(5);
+        assertThat(subscriber.items.size(), is(12));
+    }
+
+    @Test
+    public void non_positive_request_is_an_error() {
+        RecordingSubscriber subscriber = new RecordingSubscriber(0);
+        store.stream(TestRecord.class, null, null, null, 10).subscribe(subscriber);
+
+        subscriber.subscription.request(0);
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+        assertFalse(subscriber.completed);
+    }
+
+    private static class RecordingSubscriber implements StormeSubscriber<TestRecord> {
+
+        final long batch;
+        int cancelAfter = -1;
+        StormeStreamSubscription subscription;
+        List<TestRecord> items = new ArrayList<TestRecord>();
+        boolean completed;
+        Throwable error;
+
+        RecordingSubscriber(long batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public void onSubscribe(StormeStreamSubscription subscription) {
+            this.subscription = subscription;
+            if(batch > 0) {
+                subscription.request(batch);
+            }
+        }
+
+        @Override
+        public void onNext(TestRecord item) {
+            items.add(item);
+            if(items.size() == cancelAfter) {
+                subscription.cancel();
+            } else if(batch > 0) {
+                subscription.request(batch);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+}
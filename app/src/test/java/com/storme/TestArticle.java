@@ -0,0 +1,39 @@
+package com.storme;
+
+/**
+ * Model with full text searchable fields.
+ */
+public class TestArticle extends StormeBaseModel {
+
+    @StormeSearchable(weight = 2.0)
+    private String title;
+
+    @StormeSearchable
+    private String body;
+
+    private int views;
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public void setBody(String body) {
+        this.body = body;
+    }
+
+    public int getViews() {
+        return views;
+    }
+
+    public void setViews(int views) {
+        this.views = views;
+    }
+}
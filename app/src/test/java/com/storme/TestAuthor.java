@@ -0,0 +1,17 @@
+package com.storme;
+
+/**
+ * Target of the to-one relation in TestPost.
+ */
+public class TestAuthor extends StormeBaseModel {
+
+    private String name;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+}
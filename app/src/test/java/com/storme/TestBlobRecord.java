@@ -0,0 +1,39 @@
+package com.storme;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Model with binary fields, including a chunked payload stored in a side table.
+ */
+public class TestBlobRecord extends StormeBaseModel {
+
+    private byte[] data;
+    private ByteBuffer buffer;
+
+    @StormeChunkedBlob(chunkSize = 1024)
+    private byte[] payload;
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public void setData(byte[] data) {
+        this.data = data;
+    }
+
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    public void setBuffer(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    public void setPayload(byte[] payload) {
+        this.payload = payload;
+    }
+}
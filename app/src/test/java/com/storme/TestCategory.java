@@ -0,0 +1,40 @@
+package com.storme;
+
+/**
+ * Memory resident reference model with indexed lookup fields.
+ */
+@StormeResident(preload = true)
+public class TestCategory extends StormeBaseModel {
+
+    @StormeIndexed
+    private String code;
+
+    @StormeIndexed
+    private boolean visible;
+
+    private String name;
+
+    public String getCode() {
+        return code;
+    }
+
+    public void setCode(String code) {
+        this.code = code;
+    }
+
+    public boolean isVisible() {
+        return visible;
+    }
+
+    public void setVisible(boolean visible) {
+        this.visible = visible;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+}
@@ -0,0 +1,26 @@
+package com.storme;
+
+/**
+ * Child side of the to-many relation in TestPost.
+ */
+public class TestComment extends StormeBaseModel {
+
+    private String text;
+    private StormeRef<TestPost> post;
+
+    public String getText() {
+        return text;
+    }
+
+    public void setText(String text) {
+        this.text = text;
+    }
+
+    public StormeRef<TestPost> getPost() {
+        return post;
+    }
+
+    public void setPost(TestPost post) {
+        this.post = new StormeRef<TestPost>(post);
+    }
+}
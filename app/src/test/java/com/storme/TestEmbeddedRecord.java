@@ -0,0 +1,98 @@
+package com.storme;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Model with collections, arrays and a nested value object stored in embedded columns.
+ */
+public class TestEmbeddedRecord extends StormeBaseModel {
+
+    @StormeEmbedded
+    private List<String> tags;
+
+    @StormeEmbedded
+    private Map<String, Integer> counts;
+
+    @StormeEmbedded
+    private int[] samples;
+
+    @StormeEmbedded
+    private double[] readings;
+
+    @StormeEmbedded
+    private Location location;
+
+    public List<String> getTags() {
+        return tags;
+    }
+
+    public void setTags(List<String> tags) {
+        this.tags = tags;
+    }
+
+    public Map<String, Integer> getCounts() {
+        return counts;
+    }
+
+    public void setCounts(Map<String, Integer> counts) {
+        this.counts = counts;
+    }
+
+    public int[] getSamples() {
+        return samples;
+    }
+
+    public void setSamples(int[] samples) {
+        this.samples = samples;
+    }
+
+    public double[] getReadings() {
+        return readings;
+    }
+
+    public void setReadings(double[] readings) {
+        this.readings = readings;
+    }
+
+    public Location getLocation() {
+        return location;
+    }
+
+    public void setLocation(Location location) {
+        this.location = location;
+    }
+
+    public static class Location {
+        private int x;
+        private int y;
+        private String label;
+        private List<Long> visits;
+
+        public Location() {
+        }
+
+        public Location(int x, int y, String label, List<Long> visits) {
+            this.x = x;
+            this.y = y;
+            this.label = label;
+            this.visits = visits;
+        }
+
+        public int getX() {
+            return x;
+        }
+
+        public int getY() {
+            return y;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public List<Long> getVisits() {
+            return visits;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.storme;
+
+import java.util.Date;
+
+/**
+ * Partitioned model used to test per day partition tables.
+ */
+@StormePartitioned(field = "eventDate", period = StormePartitionPeriod.DAY)
+public class TestEvent extends StormeBaseModel {
+
+    private Date eventDate;
+    private String name;
+
+    public Date getEventDate() {
+        return eventDate;
+    }
+
+    public void setEventDate(Date eventDate) {
+        this.eventDate = eventDate;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+}
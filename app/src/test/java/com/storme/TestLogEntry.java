@@ -0,0 +1,28 @@
+package com.storme;
+
+/**
+ * Counted model, whose row count is kept in the count table.
+ */
+@StormeCounted
+public class TestLogEntry extends StormeBaseModel {
+
+    private String message;
+
+    private int level;
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public void setLevel(int level) {
+        this.level = level;
+    }
+}
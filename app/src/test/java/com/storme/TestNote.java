@@ -0,0 +1,39 @@
+package com.storme;
+
+/**
+ * Model with large fields that are only loaded on demand.
+ */
+public class TestNote extends StormeBaseModel {
+
+    private String title;
+
+    @StormeLazy
+    private String body;
+
+    @StormeLazy
+    private byte[] attachment;
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public void setBody(String body) {
+        this.body = body;
+    }
+
+    public byte[] getAttachment() {
+        return attachment;
+    }
+
+    public void setAttachment(byte[] attachment) {
+        this.attachment = attachment;
+    }
+}
@@ -0,0 +1,35 @@
+package com.storme;
+
+import java.util.List;
+
+/**
+ * Model with a to-one relation to its author and a to-many relation to its comments.
+ */
+public class TestPost extends StormeBaseModel {
+
+    private String title;
+    private StormeRef<TestAuthor> author;
+
+    @StormeToMany(key = "postId")
+    private List<TestComment> comments;
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public StormeRef<TestAuthor> getAuthor() {
+        return author;
+    }
+
+    public void setAuthor(TestAuthor author) {
+        this.author = new StormeRef<TestAuthor>(author);
+    }
+
+    public List<TestComment> getComments() {
+        return comments;
+    }
+}
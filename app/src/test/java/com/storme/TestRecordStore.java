@@ -23,6 +23,19 @@ public class TestRecordStore extends StormeBaseHelper {
 
     static {
         DB_CLASSES.add(TestRecord.class);
+        DB_CLASSES.add(TestEvent.class);
+        DB_CLASSES.add(TestBlobRecord.class);
+        DB_CLASSES.add(TestEmbeddedRecord.class);
+        DB_CLASSES.add(TestAuthor.class);
+        DB_CLASSES.add(TestPost.class);
+        DB_CLASSES.add(TestComment.class);
+        DB_CLASSES.add(TestStatusRecord.class);
+        DB_CLASSES.add(TestArticle.class);
+        DB_CLASSES.add(TestCategory.class);
+        DB_CLASSES.add(TestNote.class);
+        DB_CLASSES.add(TestSetting.class);
+        DB_CLASSES.add(TestLogEntry.class);
+        DB_CLASSES.add(TestTask.class);
     }
 
     public TestRecordStore(Context context)
@@ -47,12 +60,12 @@ public class TestRecordStore extends StormeBaseHelper {
         long start = getStartOfDay(date);
         long end = getEndOfDay(date);
 
-        String dirStr = "ASC";
-        if(!dir) {
-            dirStr = "DESC";
-        }
-
-        List<TestRecord> list = find(TestRecord.class, "dateField >= ? and dateField <= ?", new String[] {String.valueOf(start), String.valueOf(end)}, "dateField " + dirStr, 0, 0);
+        List<TestRecord> list = query(TestRecord.class)
+                .where("dateField", ">=")
+                .where("dateField", "<=")
+                .orderBy("dateField", dir)
+                .compile()
+                .find(start, end);
         return new ArrayList<TestRecord>(list);
     }
 
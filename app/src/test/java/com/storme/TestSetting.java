@@ -0,0 +1,47 @@
+package com.storme;
+
+/**
+ * Model with a natural primary key made of two fields.
+ */
+@StormePrimaryKey({"scope", "name"})
+public class TestSetting extends StormeBaseModel {
+
+    private String scope;
+
+    private String name;
+
+    private String value;
+
+    public TestSetting() {
+    }
+
+    public TestSetting(String scope, String name, String value) {
+        this.scope = scope;
+        this.name = name;
+        this.value = value;
+    }
+
+    public String getScope() {
+        return scope;
+    }
+
+    public void setScope(String scope) {
+        this.scope = scope;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public void setValue(String value) {
+        this.value = value;
+    }
+}
@@ -0,0 +1,54 @@
+package com.storme;
+
+/**
+ * Model with enum fields and a dictionary encoded String field.
+ */
+public class TestStatusRecord extends StormeBaseModel {
+
+    public enum State { NEW, ACTIVE, CLOSED }
+
+    public enum Priority implements StormeCodedEnum {
+        LOW(10), HIGH(20);
+
+        private final int code;
+
+        Priority(int code) {
+            this.code = code;
+        }
+
+        @Override
+        public int getCode() {
+            return code;
+        }
+    }
+
+    private State state;
+    private Priority priority;
+
+    @StormeDictionary
+    private String category;
+
+    public State getState() {
+        return state;
+    }
+
+    public void setState(State state) {
+        this.state = state;
+    }
+
+    public Priority getPriority() {
+        return priority;
+    }
+
+    public void setPriority(Priority priority) {
+        this.priority = priority;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public void setCategory(String category) {
+        this.category = category;
+    }
+}
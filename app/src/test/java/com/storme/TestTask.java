@@ -0,0 +1,28 @@
+package com.storme;
+
+/**
+ * Journaled model, whose changes are recorded in the change journal.
+ */
+@StormeJournaled
+public class TestTask extends StormeBaseModel {
+
+    private String title;
+
+    private boolean done;
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    public void setDone(boolean done) {
+        this.done = done;
+    }
+}
@@ -0,0 +1,211 @@
+package com.storme;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.Callable;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+@Config(emulateSdk = 18, manifest = "app/src/main/AndroidManifest.xml")
+@RunWith(RobolectricTestRunner.class)
+public class TransactionTest {
+
+    TestRecordStore store;
+
+    @Before
+    public void beforeTests() {
+        ShadowLog.stream = System.out;
+        store = new TestRecordStore(Robolectric.application);
+        store.deleteAll(TestRecord.class);
+        store.deleteAll(TestStatusRecord.class);
+        store.deleteAll(TestCategory.class);
+        store.deleteAll(TestEvent.class);
+    }
+
+    @After
+    public void after() {
+        store.close();
+    }
+
+    @Test
+    public void writes_to_several_models_commit_together() {
+        Integer saved = store.runInTransaction(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                saveRecord("one");
+                saveRecord("two");
+                TestStatusRecord status = new TestStatusRecord();
+                status.setCategory("batch");
+                store.save(TestStatusRecord.class, status);
+                return store.findCount(TestRecord.class);
+            }
+        });
+
+        assertThat(saved, is(2));
+        assertThat(store.findCount(TestRecord.class), is(2));
+        assertThat(store.findCount(TestStatusRecord.class), is(1));
+    }
+
+    @Test
+    public void exception_rolls_everything_back() {
+        final TestRecord kept = saveRecord("kept");
+        final IllegalStateException failure = new IllegalStateException("stop");
+        try {
+            store.runInTransaction(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    saveRecord("lost");
+                    store.delete(kept);
+                    throw failure;
+                }
+            });
+            fail("Expected the transaction to fail");
+        } catch (IllegalStateException e) {
+            assertThat(e, is(failure));
+        }
+
+        assertThat(store.findCount(TestRecord.class), is(1));
+        assertThat(store.findByStringField("kept").getId(), is(kept.getId()));
+    }
+
+    @Test
+    public void checked_exceptions_are_wrapped() {
+        try {
+            store.runInTransaction(StormeTransactionMode.EXCLUSIVE, new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    saveRecord("lost");
+                    throw new IOException("disk gone");
+                }
+            });
+            fail("Expected the transaction to fail");
+        } catch (StormeTransactionException e) {
+            assertThat(e.getCause(), is(instanceOf(IOException.class)));
+        }
+        assertThat(store.findCount(TestRecord.class), is(0));
+    }
+
+    @Test
+    public void failed_nested_call_rolls_back_only_its_savepoint() {
+        store.runInTransaction(new Callable<Void>() {
+            @Override
+            public Void call() {
+                saveRecord("outer");
+                try {
+                    store.runInTransaction(new Callable<Void>() {
+                        @Override
+                        public Void call() {
+                            saveRecord("inner");
+                            throw new IllegalStateException("inner failed");
+                        }
+                    });
+                    fail("Expected the nested transaction to fail");
+                } catch (IllegalStateException e) {
+                    // carry on with the outer transaction
+                }
+                store.runInTransaction(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        saveRecord("second inner");
+                        return null;
+                    }
+                });
+                return null;
+            }
+        });
+
+        assertThat(store.findCount(TestRecord.class), is(2));
+        assertThat(store.findByStringField("inner"), is(nullValue()));
+        assertThat(store.findByStringField("second inner").getStringField(), is("second inner"));
+    }
+
+    @Test
+    public void failed_outer_call_rolls_back_committed_savepoints() {
+        try {
+            store.runInTransaction(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    store.runInTransaction(new Callable<Void>() {
+                        @Override
+                        public Void call() {
+                            saveRecord("inner");
+                            return null;
+                        }
+                    });
+                    throw new IllegalStateException("outer failed");
+                }
+            });
+            fail("Expected the transaction to fail");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertThat(store.findCount(TestRecord.class), is(0));
+    }
+
+    @Test
+    public void rollback_drops_cached_resident_rows_and_partitions() {
+        final TestCategory category = new TestCategory();
+        category.setCode("books");
+        category.setName("Books");
+        store.save(TestCategory.class, category);
+
+        try {
+            store.runInTransaction(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    category.setName("Novels");
+                    store.save(TestCategory.class, category);
+
+                    TestEvent event = new TestEvent();
+                    event.setEventDate(new Date());
+                    event.setName("lost");
+                    store.save(TestEvent.class, event);
+                    throw new IllegalStateException("stop");
+                }
+            });
+            fail("Expected the transaction to fail");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        assertThat(store.get(TestCategory.class, category.getId()).getName(), is("Books"));
+        assertThat(store.findCount(TestEvent.class), is(0));
+
+        TestEvent event = new TestEvent();
+        event.setEventDate(new Date());
+        event.setName("kept");
+        store.save(TestEvent.class, event);
+        assertThat(store.findCount(TestEvent.class), is(1));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void close_inside_a_transaction_is_refused() {
+        store.runInTransaction(new Callable<Void>() {
+            @Override
+            public Void call() {
+                store.close();
+                return null;
+            }
+        });
+    }
+
+    private TestRecord saveRecord(String name) {
+        TestRecord record = new TestRecord();
+        record.setStringField(name);
+        record.setDateField(new Date());
+        return store.save(TestRecord.class, record);
+    }
+}